@@ -0,0 +1,200 @@
+package com.aston.address;
+
+import com.aston.exception.InvalidAddressException;
+import com.aston.exception.InvalidAddressException.Reason;
+
+import java.net.IDN;
+import java.util.Locale;
+
+/**
+ * Проверка синтаксиса и нормализация адреса получателя без регулярных выражений.
+ *
+ * Локальная часть - dot-atom из RFC 5321 (буквы, цифры, !#$%&'*+/=?^_`{|}~- и точки
+ * не в начале, не в конце и не подряд) длиной до 64 символов; адреса в кавычках и
+ * не-ASCII локальные части не принимаются, так как отправка идет без SMTPUTF8.
+ * Домен - имя хоста из меток LDH до 63 символов, не меньше двух меток, до 253 символов;
+ * IP-литералы не принимаются. Домен приводится к нижнему регистру, IDN - к punycode,
+ * пробелы по краям и завершающая точка домена отбрасываются.
+ *
+ * Уже нормализованный адрес возвращается тем же объектом, проверка выполняется за один
+ * проход без выделения памяти
+ */
+public final class AddressNormalizer {
+
+    static final int MAX_ADDRESS_LENGTH = 254;
+    static final int MAX_LOCAL_PART_LENGTH = 64;
+    static final int MAX_DOMAIN_LENGTH = 253;
+    static final int MAX_LABEL_LENGTH = 63;
+
+    private static final boolean[] ATEXT = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            ATEXT[c] = true;
+            ATEXT[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            ATEXT[c] = true;
+        }
+        for (char c : "!#$%&'*+/=?^_`{|}~-".toCharArray()) {
+            ATEXT[c] = true;
+        }
+    }
+
+    private AddressNormalizer() {
+    }
+
+    /**
+     * Проверяет адрес и возвращает его нормализованную форму
+     *
+     * @throws InvalidAddressException если адрес не соответствует синтаксису
+     */
+    public static String normalize(String address) {
+        if (address == null) {
+            throw syntax(null, "Адрес не указан");
+        }
+        int start = 0;
+        int end = address.length();
+        while (start < end && address.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && address.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            throw syntax(address, "Адрес не указан");
+        }
+
+        int at = localPartEnd(address, start, end);
+        int domainStart = at + 1;
+        int domainEnd = end;
+        if (domainEnd > domainStart && address.charAt(domainEnd - 1) == '.') {
+            domainEnd--;
+        }
+
+        boolean ascii = true;
+        boolean lowerCase = true;
+        for (int i = domainStart; i < domainEnd; i++) {
+            char c = address.charAt(i);
+            if (c >= 0x80) {
+                ascii = false;
+            } else if (c >= 'A' && c <= 'Z') {
+                lowerCase = false;
+            }
+        }
+
+        if (ascii) {
+            checkDomain(address, address, domainStart, domainEnd);
+            if (at + 1 - start + domainEnd - domainStart > MAX_ADDRESS_LENGTH) {
+                throw syntax(address, "Адрес длиннее " + MAX_ADDRESS_LENGTH + " символов");
+            }
+            if (lowerCase && start == 0 && domainEnd == address.length()) {
+                return address;
+            }
+            return address.substring(start, at + 1)
+                    + address.substring(domainStart, domainEnd).toLowerCase(Locale.ROOT);
+        }
+
+        String domain;
+        try {
+            domain = IDN.toASCII(address.substring(domainStart, domainEnd)).toLowerCase(Locale.ROOT);
+        } catch (IllegalArgumentException e) {
+            throw syntax(address, "Недопустимое имя домена");
+        }
+        checkDomain(address, domain, 0, domain.length());
+        if (at + 1 - start + domain.length() > MAX_ADDRESS_LENGTH) {
+            throw syntax(address, "Адрес длиннее " + MAX_ADDRESS_LENGTH + " символов");
+        }
+        return address.substring(start, at + 1) + domain;
+    }
+
+    /**
+     * Домен нормализованного адреса
+     */
+    public static String domainOf(String normalizedAddress) {
+        return normalizedAddress.substring(normalizedAddress.lastIndexOf('@') + 1);
+    }
+
+    /**
+     * Проверяет локальную часть и возвращает позицию '@'
+     */
+    private static int localPartEnd(String address, int start, int end) {
+        char previous = '.';
+        for (int i = start; i < end; i++) {
+            char c = address.charAt(i);
+            if (c == '@') {
+                if (i == start) {
+                    throw syntax(address, "Пустая локальная часть");
+                }
+                if (i - start > MAX_LOCAL_PART_LENGTH) {
+                    throw syntax(address, "Локальная часть длиннее " + MAX_LOCAL_PART_LENGTH + " символов");
+                }
+                if (previous == '.') {
+                    throw syntax(address, "Точка в конце локальной части");
+                }
+                return i;
+            }
+            if (c == '.') {
+                if (previous == '.') {
+                    throw syntax(address, "Точка в начале локальной части или две точки подряд");
+                }
+            } else if (c >= 0x80 || !ATEXT[c]) {
+                throw syntax(address, "Недопустимый символ в локальной части");
+            }
+            previous = c;
+        }
+        throw syntax(address, "Нет символа @");
+    }
+
+    /**
+     * Проверяет имя домена domain[from, to): метки LDH, не меньше двух, последняя не из одних цифр
+     */
+    private static void checkDomain(String address, String domain, int from, int to) {
+        int length = to - from;
+        if (length == 0) {
+            throw syntax(address, "Пустой домен");
+        }
+        if (length > MAX_DOMAIN_LENGTH) {
+            throw syntax(address, "Домен длиннее " + MAX_DOMAIN_LENGTH + " символов");
+        }
+        int labels = 0;
+        int labelStart = from;
+        boolean numericLabel = true;
+        for (int i = from; i <= to; i++) {
+            char c = i < to ? domain.charAt(i) : '.';
+            if (c == '.') {
+                int labelLength = i - labelStart;
+                if (labelLength == 0) {
+                    throw syntax(address, "Пустая метка домена");
+                }
+                if (labelLength > MAX_LABEL_LENGTH) {
+                    throw syntax(address, "Метка домена длиннее " + MAX_LABEL_LENGTH + " символов");
+                }
+                if (domain.charAt(labelStart) == '-' || domain.charAt(i - 1) == '-') {
+                    throw syntax(address, "Метка домена начинается или заканчивается дефисом");
+                }
+                labels++;
+                if (i < to) {
+                    labelStart = i + 1;
+                    numericLabel = true;
+                }
+            } else if (c >= '0' && c <= '9') {
+                // цифры допустимы в любой метке
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-') {
+                numericLabel = false;
+            } else {
+                throw syntax(address, "Недопустимый символ в домене");
+            }
+        }
+        if (labels < 2) {
+            throw syntax(address, "Домен без зоны верхнего уровня");
+        }
+        if (numericLabel) {
+            throw syntax(address, "Зона верхнего уровня из одних цифр");
+        }
+    }
+
+    private static InvalidAddressException syntax(String address, String message) {
+        return new InvalidAddressException(address, Reason.SYNTAX, message);
+    }
+}
@@ -0,0 +1,83 @@
+package com.aston.address;
+
+import com.aston.exception.InvalidAddressException;
+import com.aston.exception.InvalidAddressException.Reason;
+import com.aston.suppression.SuppressionIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Проверка адреса получателя перед отправкой: синтаксис в {@link AddressNormalizer},
+ * список подавления {@link SuppressionIndex}, затем вердикт по домену из {@link DomainVerdictCache}.
+ *
+ * Письмо на отклоненный адрес не занимает SMTP-соединение, лимиты скорости и ступени повторов.
+ * Домены из trustedDomains в DNS не проверяются. Отклоненные адреса считаются в
+ * notification.address.rejected{reason}
+ */
+@Slf4j
+public class AddressValidator {
+
+    /**
+     * Кэш вердиктов доменов, null - проверяется только синтаксис
+     */
+    private final DomainVerdictCache domainCache;
+
+    /**
+     * Список подавления, null - не проверяется
+     */
+    private final SuppressionIndex suppressionIndex;
+    private final Set<String> trustedDomains;
+    private final Map<Reason, Counter> rejected = new EnumMap<>(Reason.class);
+
+    public AddressValidator(DomainVerdictCache domainCache, Set<String> trustedDomains, MeterRegistry registry) {
+        this(domainCache, null, trustedDomains, registry);
+    }
+
+    public AddressValidator(DomainVerdictCache domainCache, SuppressionIndex suppressionIndex,
+                            Set<String> trustedDomains, MeterRegistry registry) {
+        this.domainCache = domainCache;
+        this.suppressionIndex = suppressionIndex;
+        this.trustedDomains = Set.copyOf(trustedDomains);
+        for (Reason reason : Reason.values()) {
+            rejected.put(reason, Counter.builder("notification.address.rejected")
+                    .description("Адреса получателей, отклоненные до отправки")
+                    .tag("reason", reason.name().toLowerCase())
+                    .register(registry));
+        }
+    }
+
+    /**
+     * Проверяет адрес и возвращает его нормализованную форму для отправки
+     *
+     * @throws InvalidAddressException если адрес ошибочен, в списке подавления или домен не принимает почту
+     */
+    public String validate(String address) {
+        String normalized;
+        try {
+            normalized = AddressNormalizer.normalize(address);
+        } catch (InvalidAddressException e) {
+            rejected.get(Reason.SYNTAX).increment();
+            throw e;
+        }
+        if (suppressionIndex != null && suppressionIndex.contains(normalized)) {
+            rejected.get(Reason.SUPPRESSED).increment();
+            log.info("Адрес {} в списке подавления, письмо не отправляется", normalized);
+            throw new InvalidAddressException(normalized, Reason.SUPPRESSED, "Получатель в списке подавления");
+        }
+        if (domainCache == null) {
+            return normalized;
+        }
+        String domain = AddressNormalizer.domainOf(normalized);
+        if (!trustedDomains.contains(domain) && domainCache.verdict(domain) == DomainVerdict.NO_MAIL) {
+            rejected.get(Reason.NO_MAIL).increment();
+            log.warn("Домен {} не принимает почту, адрес {} отклонен", domain, normalized);
+            throw new InvalidAddressException(normalized, Reason.NO_MAIL, "Домен получателя не принимает почту");
+        }
+        return normalized;
+    }
+}
@@ -0,0 +1,16 @@
+package com.aston.address;
+
+/**
+ * Источник вердикта по домену получателя. Реализация по умолчанию - {@link JndiDomainResolver};
+ * в тестах и стендах подставляется резолвер с заранее заданными ответами
+ */
+@FunctionalInterface
+public interface DomainResolver {
+
+    /**
+     * Определяет, принимает ли домен почту. Вызывается при промахе кэша, может блокировать поток
+     *
+     * @param domain нормализованное имя домена в ASCII
+     */
+    DomainVerdict resolve(String domain);
+}
@@ -0,0 +1,19 @@
+package com.aston.address;
+
+/**
+ * Принимает ли домен получателя почту по данным DNS
+ */
+public enum DomainVerdict {
+    /**
+     * Есть MX или, без MX, адрес A/AAAA
+     */
+    ACCEPTS_MAIL,
+    /**
+     * Домен не существует, объявил null MX (RFC 7505) или не имеет ни MX, ни адресов
+     */
+    NO_MAIL,
+    /**
+     * DNS не ответил: письмо отправляется, решение принимает SMTP-релей
+     */
+    UNKNOWN
+}
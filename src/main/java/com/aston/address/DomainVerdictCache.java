@@ -0,0 +1,283 @@
+package com.aston.address;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограниченный кэш вердиктов по доменам получателей со сроком жизни записей.
+ *
+ * Срок жизни зависит от вердикта: домен, принимающий почту, проверяется редко, отрицательный
+ * вердикт кэшируется на negative-ttl, а UNKNOWN (DNS не ответил) - ненадолго, чтобы не
+ * нагружать недоступный DNS. При промахе домен разрешается один раз: параллельные запросы
+ * того же домена ждут результат первого. При переполнении сначала удаляются истекшие записи,
+ * затем произвольные, пока в кэше не останется 90% max-entries.
+ *
+ * С пулом резолвера домен разрешается в его потоках, а поток отправки ждет ответа не дольше
+ * max-wait: таймауты и повторы DNS не задерживают отправку и поток потребителя. Не дождавшийся
+ * поток получает UNKNOWN и отправляет письмо, а вердикт попадает в кэш, когда DNS ответит.
+ * Если очередь пула заполнена, домен не разрешается, и вердикт - UNKNOWN.
+ *
+ * Метрики: notification.address.domain.cache{result=hit|miss}, доля попаданий
+ * notification.address.domain.cache.hit-ratio, размер, вердикты разрешений и проверки,
+ * не дождавшиеся DNS, notification.address.domain.lookup.timeouts
+ */
+@Slf4j
+public class DomainVerdictCache implements AutoCloseable {
+
+    /**
+     * Доменов, ожидающих разрешения в очереди пула
+     */
+    private static final int MAX_PENDING = 1024;
+
+    private static final class Entry {
+
+        final DomainVerdict verdict;
+        final long expiresAt;
+
+        Entry(DomainVerdict verdict, long expiresAt) {
+            this.verdict = verdict;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final DomainResolver resolver;
+    private final int maxEntries;
+    private final Map<DomainVerdict, Long> ttlMillis = new EnumMap<>(DomainVerdict.class);
+    private final Clock clock;
+
+    /**
+     * Потоки разрешения доменов; без пула домен разрешается в потоке вызова
+     */
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+
+    /**
+     * Сколько поток ждет разрешения, нс; отрицательное - без ограничения
+     */
+    private final long maxWaitNanos;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<DomainVerdict>> resolving = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Map<DomainVerdict, Counter> resolutions = new EnumMap<>(DomainVerdict.class);
+    private final Counter timeouts;
+
+    /**
+     * Кэш, разрешающий домены в потоке вызова без ограничения ожидания
+     */
+    public DomainVerdictCache(DomainResolver resolver, int maxEntries, Duration positiveTtl, Duration negativeTtl,
+                              Duration unknownTtl, MeterRegistry registry, Clock clock) {
+        this(resolver, maxEntries, positiveTtl, negativeTtl, unknownTtl, registry, clock, null, null);
+    }
+
+    /**
+     * @param resolverThreads потоки разрешения доменов
+     * @param maxWait         сколько поток ждет разрешения домена, прежде чем получить UNKNOWN
+     */
+    public DomainVerdictCache(DomainResolver resolver, int maxEntries, Duration positiveTtl, Duration negativeTtl,
+                              Duration unknownTtl, MeterRegistry registry, Clock clock,
+                              int resolverThreads, Duration maxWait) {
+        this(resolver, maxEntries, positiveTtl, negativeTtl, unknownTtl, registry, clock,
+                resolverPool(resolverThreads), maxWait);
+    }
+
+    private DomainVerdictCache(DomainResolver resolver, int maxEntries, Duration positiveTtl, Duration negativeTtl,
+                               Duration unknownTtl, MeterRegistry registry, Clock clock,
+                               ExecutorService ownExecutor, Duration maxWait) {
+        this.resolver = resolver;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.clock = clock;
+        this.ownExecutor = ownExecutor;
+        this.executor = ownExecutor != null ? ownExecutor : Runnable::run;
+        this.maxWaitNanos = maxWait != null ? maxWait.toNanos() : -1;
+        ttlMillis.put(DomainVerdict.ACCEPTS_MAIL, positiveTtl.toMillis());
+        ttlMillis.put(DomainVerdict.NO_MAIL, negativeTtl.toMillis());
+        ttlMillis.put(DomainVerdict.UNKNOWN, unknownTtl.toMillis());
+
+        FunctionCounter.builder("notification.address.domain.cache", hits, LongAdder::sum)
+                .description("Проверки доменов получателей по кэшу вердиктов")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("notification.address.domain.cache", misses, LongAdder::sum)
+                .description("Проверки доменов получателей по кэшу вердиктов")
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("notification.address.domain.cache.hit-ratio", this, DomainVerdictCache::hitRatio)
+                .description("Доля проверок доменов, найденных в кэше")
+                .register(registry);
+        Gauge.builder("notification.address.domain.cache.size", entries, Map::size)
+                .description("Доменов в кэше вердиктов")
+                .register(registry);
+        for (DomainVerdict verdict : DomainVerdict.values()) {
+            resolutions.put(verdict, Counter.builder("notification.address.domain.resolutions")
+                    .description("Разрешения доменов получателей через DNS")
+                    .tag("verdict", verdict.name().toLowerCase())
+                    .register(registry));
+        }
+        this.timeouts = Counter.builder("notification.address.domain.lookup.timeouts")
+                .description("Проверки доменов, не дождавшиеся ответа DNS")
+                .register(registry);
+    }
+
+    /**
+     * Вердикт по домену из кэша или, при промахе, от резолвера
+     */
+    public DomainVerdict verdict(String domain) {
+        Entry entry = entries.get(domain);
+        if (entry != null && entry.expiresAt > clock.millis()) {
+            hits.increment();
+            return entry.verdict;
+        }
+        misses.increment();
+
+        CompletableFuture<DomainVerdict> own = new CompletableFuture<>();
+        CompletableFuture<DomainVerdict> running = resolving.putIfAbsent(domain, own);
+        if (running == null) {
+            running = own;
+            try {
+                executor.execute(() -> resolveInto(domain, own));
+            } catch (RejectedExecutionException e) {
+                resolving.remove(domain, own);
+                own.complete(DomainVerdict.UNKNOWN);
+                log.debug("Очередь разрешения доменов заполнена, домен {} не проверен", domain);
+            }
+        }
+        return await(domain, running);
+    }
+
+    /**
+     * Останавливает потоки разрешения доменов
+     */
+    @Override
+    public void close() {
+        if (ownExecutor != null) {
+            ownExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Доля попаданий с момента запуска, NaN до первой проверки
+     */
+    public double hitRatio() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? Double.NaN : (double) hit / total;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void resolveInto(String domain, CompletableFuture<DomainVerdict> result) {
+        DomainVerdict verdict = DomainVerdict.UNKNOWN;
+        try {
+            verdict = resolve(domain);
+            put(domain, verdict);
+        } finally {
+            result.complete(verdict);
+            resolving.remove(domain, result);
+        }
+    }
+
+    private DomainVerdict await(String domain, CompletableFuture<DomainVerdict> result) {
+        if (maxWaitNanos < 0) {
+            return result.join();
+        }
+        try {
+            return result.get(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            log.debug("Домен {} не проверен за {} мс, письмо отправляется без проверки",
+                    domain, TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("Ошибка проверки домена {}: {}", domain, e.getMessage());
+        }
+        return DomainVerdict.UNKNOWN;
+    }
+
+    private DomainVerdict resolve(String domain) {
+        DomainVerdict verdict;
+        try {
+            verdict = resolver.resolve(domain);
+        } catch (RuntimeException e) {
+            log.warn("Ошибка проверки домена {}: {}", domain, e.getMessage());
+            verdict = null;
+        }
+        if (verdict == null) {
+            verdict = DomainVerdict.UNKNOWN;
+        }
+        resolutions.get(verdict).increment();
+        return verdict;
+    }
+
+    private void put(String domain, DomainVerdict verdict) {
+        long ttl = ttlMillis.get(verdict);
+        if (ttl <= 0) {
+            entries.remove(domain);
+            return;
+        }
+        if (entries.size() >= maxEntries && !entries.containsKey(domain)) {
+            evict();
+        }
+        entries.put(domain, new Entry(verdict, clock.millis() + ttl));
+    }
+
+    /**
+     * Освобождает место в кэше; вызвавшие одновременно потоки не ждут, пока чистит первый
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = clock.millis();
+            entries.values().removeIf(entry -> entry.expiresAt <= now);
+            int target = maxEntries - Math.max(1, maxEntries / 10);
+            Iterator<String> domains = entries.keySet().iterator();
+            while (entries.size() > target && domains.hasNext()) {
+                domains.next();
+                domains.remove();
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static ExecutorService resolverPool(int threads) {
+        int size = Math.max(1, threads);
+        AtomicInteger counter = new AtomicInteger();
+        return new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_PENDING),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "domain-resolver-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+}
@@ -0,0 +1,82 @@
+package com.aston.address;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+import java.time.Duration;
+import java.util.Hashtable;
+
+/**
+ * Резолвер доменов через DNS-провайдер JNDI: сначала MX, без MX - A/AAAA (неявный MX, RFC 5321 5.1).
+ *
+ * Несуществующий домен (NXDOMAIN), null MX "0 ." и домен без MX и адресов дают NO_MAIL.
+ * Таймаут и другие ошибки DNS дают UNKNOWN: отправка не блокируется из-за недоступного DNS.
+ * Сервер задается URL провайдера, например dns://127.0.0.1:5353; по умолчанию - системный
+ */
+@Slf4j
+public class JndiDomainResolver implements DomainResolver {
+
+    private static final String[] MX = {"MX"};
+    private static final String[] ADDRESSES = {"A", "AAAA"};
+
+    private final Hashtable<String, String> environment = new Hashtable<>();
+
+    public JndiDomainResolver(String dnsUrl, Duration timeout, int retries) {
+        environment.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.dns.DnsContextFactory");
+        environment.put(Context.PROVIDER_URL, dnsUrl == null || dnsUrl.isBlank() ? "dns:" : dnsUrl);
+        environment.put("com.sun.jndi.dns.timeout.initial", String.valueOf(Math.max(1, timeout.toMillis())));
+        environment.put("com.sun.jndi.dns.timeout.retries", String.valueOf(Math.max(1, retries)));
+    }
+
+    @Override
+    public DomainVerdict resolve(String domain) {
+        DirContext context = null;
+        try {
+            context = new InitialDirContext(environment);
+            Attribute mx = context.getAttributes(domain, MX).get("MX");
+            if (mx != null && mx.size() > 0) {
+                return isNullMx(mx) ? DomainVerdict.NO_MAIL : DomainVerdict.ACCEPTS_MAIL;
+            }
+            Attributes addresses = context.getAttributes(domain, ADDRESSES);
+            return addresses.size() > 0 ? DomainVerdict.ACCEPTS_MAIL : DomainVerdict.NO_MAIL;
+        } catch (NameNotFoundException e) {
+            return DomainVerdict.NO_MAIL;
+        } catch (NamingException e) {
+            log.warn("Не удалось проверить домен {} в DNS: {}", domain, e.getMessage());
+            return DomainVerdict.UNKNOWN;
+        } finally {
+            close(context);
+        }
+    }
+
+    /**
+     * Единственная запись MX с пустым хостом: домен не принимает почту (RFC 7505)
+     */
+    private static boolean isNullMx(Attribute mx) throws NamingException {
+        if (mx.size() != 1) {
+            return false;
+        }
+        NamingEnumeration<?> values = mx.getAll();
+        String value = String.valueOf(values.next()).trim();
+        int space = value.lastIndexOf(' ');
+        String host = space >= 0 ? value.substring(space + 1) : value;
+        return host.equals(".") || host.isEmpty();
+    }
+
+    private static void close(DirContext context) {
+        if (context != null) {
+            try {
+                context.close();
+            } catch (NamingException ignored) {
+                // контекст DNS не держит соединений
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.aston.channel;
+
+import com.aston.exception.DispatchQueueFullException;
+import com.aston.mail.SendDeferredException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Часть каналов маршрута не доставила уведомление. Каналы, не указанные в ошибке,
+ * доставили его, и при повторе событие нужно отправить только в перечисленные.
+ *
+ * Ошибка канала бывает трех видов:
+ * отказ (IllegalArgumentException) - повтор не поможет, канал пропускается;
+ * отсрочка ({@link SendDeferredException}, заполненная очередь канала
+ * {@link DispatchQueueFullException}) - канал сейчас не принимает уведомления, доставку нужно
+ * повторить через {@link #getRetryAfterMillis()}, не считая ее неудачей;
+ * сбой - остальные ошибки, событие уходит на повтор в эти каналы
+ */
+public class ChannelDeliveryException extends RuntimeException {
+
+    private final Map<String, RuntimeException> failures;
+
+    /**
+     * @param failures ошибки по имени канала, в порядке маршрута
+     */
+    public ChannelDeliveryException(Map<String, RuntimeException> failures) {
+        super(describe(failures), failures.values().iterator().next());
+        this.failures = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+
+    /**
+     * Ошибки по имени канала
+     */
+    public Map<String, RuntimeException> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Все каналы отказались от уведомления: событие пропускается
+     */
+    public boolean isRejected() {
+        for (RuntimeException cause : failures.values()) {
+            if (!(cause instanceof IllegalArgumentException)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Есть каналы с отсроченной доставкой
+     */
+    public boolean isDeferred() {
+        return !getDeferredChannels().isEmpty();
+    }
+
+    /**
+     * Каналы, которые сейчас не принимают уведомления
+     */
+    public List<String> getDeferredChannels() {
+        List<String> channels = new ArrayList<>();
+        failures.forEach((channel, cause) -> {
+            if (isDeferral(cause)) {
+                channels.add(channel);
+            }
+        });
+        return channels;
+    }
+
+    /**
+     * Каналы со сбоем доставки, событие для них уходит на повтор
+     */
+    public List<String> getFailedChannels() {
+        List<String> channels = new ArrayList<>();
+        failures.forEach((channel, cause) -> {
+            if (!isDeferral(cause) && !(cause instanceof IllegalArgumentException)) {
+                channels.add(channel);
+            }
+        });
+        return channels;
+    }
+
+    /**
+     * Каналы, которые не доставили уведомление и не отказались от него: сбои и отсрочки
+     */
+    public List<String> getUndeliveredChannels() {
+        List<String> channels = new ArrayList<>();
+        failures.forEach((channel, cause) -> {
+            if (!(cause instanceof IllegalArgumentException)) {
+                channels.add(channel);
+            }
+        });
+        return channels;
+    }
+
+    /**
+     * Через сколько мс повторить отсроченные каналы: наибольшая из их отсрочек
+     */
+    public long getRetryAfterMillis() {
+        long retryAfter = 0;
+        for (RuntimeException cause : failures.values()) {
+            if (cause instanceof SendDeferredException) {
+                retryAfter = Math.max(retryAfter, ((SendDeferredException) cause).getRetryAfterMillis());
+            } else if (cause instanceof DispatchQueueFullException) {
+                retryAfter = Math.max(retryAfter, ((DispatchQueueFullException) cause).getRetryAfterSeconds() * 1000);
+            }
+        }
+        return retryAfter;
+    }
+
+    /**
+     * Ошибки без отсроченных каналов, null - других ошибок нет
+     */
+    public ChannelDeliveryException withoutDeferred() {
+        Map<String, RuntimeException> rest = new LinkedHashMap<>();
+        failures.forEach((channel, cause) -> {
+            if (!isDeferral(cause)) {
+                rest.put(channel, cause);
+            }
+        });
+        if (rest.size() == failures.size()) {
+            return this;
+        }
+        return rest.isEmpty() ? null : new ChannelDeliveryException(rest);
+    }
+
+    /**
+     * Объединяет ошибки двух попыток доставки одного события; любая из них может быть null
+     */
+    public static ChannelDeliveryException merge(ChannelDeliveryException first, ChannelDeliveryException second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        Map<String, RuntimeException> failures = new LinkedHashMap<>(first.failures);
+        failures.putAll(second.failures);
+        return new ChannelDeliveryException(failures);
+    }
+
+    private static boolean isDeferral(RuntimeException cause) {
+        return cause instanceof SendDeferredException || cause instanceof DispatchQueueFullException;
+    }
+
+    private static String describe(Map<String, RuntimeException> failures) {
+        if (failures.isEmpty()) {
+            throw new IllegalArgumentException("Нет ошибок каналов");
+        }
+        StringBuilder message = new StringBuilder("Каналы не доставили уведомление: ");
+        failures.forEach((channel, cause) -> message.append(channel).append(" - ").append(cause.getMessage()).append("; "));
+        message.setLength(message.length() - 2);
+        return message.toString();
+    }
+}
@@ -0,0 +1,224 @@
+package com.aston.channel;
+
+import com.aston.dto.UserEvent;
+import com.aston.exception.DispatchQueueFullException;
+import com.aston.mail.SendDeferredException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Очередь и потоки одного канала.
+ *
+ * Поток канала берет из очереди первое уведомление и добирает к нему уже ожидающие,
+ * не больше batchSize, и отдает пачку каналу одним вызовом. Очередь ограничена:
+ * когда канал не успевает, новые уведомления сразу получают отказ, а не копятся в памяти.
+ * Остановленный канал отвечает отсрочкой: уведомление будет доставлено после перезапуска
+ */
+@Slf4j
+class ChannelLane implements AutoCloseable {
+
+    private static final long POLL_TIMEOUT_MS = 100;
+    private static final long STOPPED_RETRY_AFTER_MS = 1000;
+
+    private static final class Task {
+
+        final UserEvent event;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        Task(UserEvent event) {
+            this.event = event;
+        }
+    }
+
+    private final NotificationChannel channel;
+    private final int batchSize;
+    private final BlockingQueue<Task> queue;
+    private final ExecutorService workers;
+
+    private final Timer sendSuccess;
+    private final Timer sendFailure;
+    private final Counter delivered;
+    private final Counter failed;
+    private final Counter deferred;
+
+    private volatile boolean running = true;
+
+    ChannelLane(NotificationChannel channel, int threads, int queueCapacity, int batchSize, MeterRegistry registry) {
+        if (threads < 1 || queueCapacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Потоки, очередь и пачка канала " + channel.getName()
+                    + " должны быть положительными: " + threads + ", " + queueCapacity + ", " + batchSize);
+        }
+        this.channel = channel;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        String name = channel.getName();
+        this.sendSuccess = sendTimer(registry, name, "success");
+        this.sendFailure = sendTimer(registry, name, "failure");
+        this.delivered = messageCounter(registry, name, "success");
+        this.failed = messageCounter(registry, name, "failure");
+        this.deferred = messageCounter(registry, name, "deferred");
+        Gauge.builder("notification.channel.queue", queue, BlockingQueue::size)
+                .description("Уведомления в очереди канала")
+                .tag("channel", name)
+                .register(registry);
+
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "channel-" + name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * Ставит уведомление в очередь канала
+     *
+     * @return результат доставки; при заполненной очереди - сразу ошибка {@link DispatchQueueFullException}
+     */
+    CompletableFuture<Void> submit(UserEvent event) {
+        if (!running) {
+            return CompletableFuture.failedFuture(stopped());
+        }
+        Task task = new Task(event);
+        if (!queue.offer(task)) {
+            return CompletableFuture.failedFuture(new DispatchQueueFullException(1));
+        }
+        // Канал мог остановиться между проверкой и постановкой в очередь, уже после последнего
+        // разбора очереди в close: такое уведомление снимается и сразу получает отсрочку.
+        // Если снять не удалось, его уже забрал поток канала или close
+        if (!running && queue.remove(task)) {
+            return CompletableFuture.failedFuture(stopped());
+        }
+        return task.result;
+    }
+
+    String getName() {
+        return channel.getName();
+    }
+
+    int getQueueSize() {
+        return queue.size();
+    }
+
+    private void work() {
+        List<Task> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            Task first;
+            try {
+                first = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (first == null) {
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, batchSize - 1);
+            deliver(batch);
+            batch.clear();
+        }
+    }
+
+    private void deliver(List<Task> batch) {
+        List<UserEvent> events = new ArrayList<>(batch.size());
+        for (Task task : batch) {
+            events.add(task.event);
+        }
+
+        long start = System.nanoTime();
+        Map<UserEvent, Exception> failures;
+        try {
+            failures = channel.send(events);
+        } catch (RuntimeException e) {
+            log.error("Канал {} не доставил пачку из {} уведомлений: {}", channel.getName(), events.size(), e.getMessage());
+            for (Task task : batch) {
+                task.result.completeExceptionally(e);
+            }
+            sendFailure.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            failed.increment(batch.size());
+            return;
+        }
+
+        // Равные события пачки - разные уведомления: ошибка ищется по экземпляру
+        Map<UserEvent, Exception> byInstance = new IdentityHashMap<>(failures);
+        int failedCount = 0;
+        int deferredCount = 0;
+        for (Task task : batch) {
+            Exception cause = byInstance.get(task.event);
+            if (cause instanceof SendDeferredException) {
+                deferredCount++;
+                task.result.completeExceptionally(cause);
+            } else if (cause != null) {
+                failedCount++;
+                task.result.completeExceptionally(cause);
+            } else {
+                task.result.complete(null);
+            }
+        }
+        (failedCount == 0 ? sendSuccess : sendFailure).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        delivered.increment(batch.size() - failedCount - deferredCount);
+        failed.increment(failedCount);
+        deferred.increment(deferredCount);
+    }
+
+    /**
+     * Перестает принимать уведомления и дожидается доставки очереди
+     */
+    @Override
+    public void close() {
+        running = false;
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+        Task task;
+        while ((task = queue.poll()) != null) {
+            task.result.completeExceptionally(stopped());
+        }
+    }
+
+    private SendDeferredException stopped() {
+        return new SendDeferredException("Канал " + channel.getName() + " остановлен", STOPPED_RETRY_AFTER_MS);
+    }
+
+    private static Timer sendTimer(MeterRegistry registry, String channel, String outcome) {
+        return Timer.builder("notification.channel.send")
+                .description("Доставка одной пачки уведомлений каналом")
+                .tag("channel", channel)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private static Counter messageCounter(MeterRegistry registry, String channel, String outcome) {
+        return Counter.builder("notification.channel.messages")
+                .description("Уведомления, переданные каналу")
+                .tag("channel", channel)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+}
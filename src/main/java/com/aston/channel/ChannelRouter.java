@@ -0,0 +1,227 @@
+package com.aston.channel;
+
+import com.aston.dto.UserEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Рассылает событие по каналам его маршрута.
+ *
+ * Единственный путь доставки событий пользователей: письма - канал {@link EmailChannel}.
+ * Маршрут - непустой список каналов для типа события; тип без маршрута уходит в каналы по умолчанию.
+ * Каждый канал доставляет уведомления в своих потоках со своей очередью и размером пачки,
+ * поэтому медленный или недоступный канал не задерживает остальные.
+ *
+ * Событие считается доставленным, когда его приняли все каналы маршрута. Если часть каналов
+ * не справилась, результат завершается {@link ChannelDeliveryException} с ошибками только этих
+ * каналов, и повтор отправляет событие только в них ({@link #dispatch(UserEvent, Collection)}).
+ * Доставка не реже одного раза: получатель различает повторы по id события
+ */
+@Slf4j
+public class ChannelRouter implements AutoCloseable {
+
+    /**
+     * Потоки, очередь и размер пачки канала
+     */
+    public static final class Settings {
+
+        /**
+         * Для каналов без настроек: уведомления по одному
+         */
+        public static final Settings DEFAULT = new Settings(4, 10000, 1);
+
+        private final int threads;
+        private final int queueCapacity;
+        private final int batchSize;
+
+        public Settings(int threads, int queueCapacity, int batchSize) {
+            this.threads = threads;
+            this.queueCapacity = queueCapacity;
+            this.batchSize = batchSize;
+        }
+    }
+
+    private final Map<String, ChannelLane> lanes = new LinkedHashMap<>();
+    private final Map<UserEvent.EventType, List<ChannelLane>> routes = new EnumMap<>(UserEvent.EventType.class);
+    private volatile boolean closed;
+
+    /**
+     * @param channels     каналы
+     * @param settings     настройки каналов по имени
+     * @param routes       имена каналов по типу события
+     * @param defaultRoute каналы для типов без маршрута
+     * @throws IllegalArgumentException если маршрут пуст или ссылается на неизвестный канал
+     */
+    public ChannelRouter(Collection<? extends NotificationChannel> channels,
+                         Map<String, Settings> settings,
+                         Map<UserEvent.EventType, List<String>> routes,
+                         List<String> defaultRoute,
+                         MeterRegistry registry) {
+        Map<String, NotificationChannel> byName = new LinkedHashMap<>();
+        for (NotificationChannel channel : channels) {
+            if (byName.put(channel.getName(), channel) != null) {
+                throw new IllegalArgumentException("Два канала с именем " + channel.getName());
+            }
+        }
+
+        for (UserEvent.EventType type : UserEvent.EventType.values()) {
+            List<String> names = routes.getOrDefault(type, defaultRoute);
+            if (names.isEmpty()) {
+                close();
+                throw new IllegalArgumentException("Маршрут " + type + " не содержит каналов");
+            }
+            List<ChannelLane> route = new ArrayList<>(names.size());
+            for (String name : names) {
+                NotificationChannel channel = byName.get(name);
+                if (channel == null) {
+                    close();
+                    throw new IllegalArgumentException("Маршрут " + type + " ссылается на неизвестный канал "
+                            + name + ", доступны: " + byName.keySet());
+                }
+                route.add(lanes.computeIfAbsent(name, ignored -> {
+                    Settings lane = settings.getOrDefault(name, Settings.DEFAULT);
+                    return new ChannelLane(channel, lane.threads, lane.queueCapacity, lane.batchSize, registry);
+                }));
+            }
+            this.routes.put(type, Collections.unmodifiableList(route));
+        }
+        this.routes.forEach((type, route) -> log.info("Маршрут {}: каналы {}", type, names(route)));
+    }
+
+    /**
+     * Ставит событие в очереди всех каналов маршрута
+     *
+     * @return завершается, когда все каналы закончили доставку: успешно или
+     * {@link ChannelDeliveryException} с ошибками не справившихся каналов
+     */
+    public CompletableFuture<Void> dispatch(UserEvent event) {
+        return dispatch(event, null);
+    }
+
+    /**
+     * Ставит событие в очереди перечисленных каналов его маршрута, например только тех,
+     * что не доставили его в прошлый раз. Каналы не из маршрута пропускаются
+     *
+     * @param channels имена каналов, null - все каналы маршрута
+     */
+    public CompletableFuture<Void> dispatch(UserEvent event, Collection<String> channels) {
+        if (event.getEventType() == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Не указан тип события"));
+        }
+        List<ChannelLane> route = routes.get(event.getEventType());
+        List<ChannelLane> targets = route;
+        if (channels != null) {
+            targets = new ArrayList<>(channels.size());
+            for (ChannelLane lane : route) {
+                if (channels.contains(lane.getName())) {
+                    targets.add(lane);
+                }
+            }
+        }
+        if (targets.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        List<CompletableFuture<Void>> results = new ArrayList<>(targets.size());
+        for (ChannelLane lane : targets) {
+            results.add(lane.submit(event));
+        }
+        List<ChannelLane> submitted = targets;
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                .handle((ignored, error) -> {
+                    if (error == null) {
+                        return null;
+                    }
+                    Map<String, RuntimeException> failures = new LinkedHashMap<>();
+                    for (int i = 0; i < results.size(); i++) {
+                        Throwable cause = results.get(i).handle((result, e) -> e).join();
+                        if (cause != null) {
+                            failures.put(submitted.get(i).getName(), unwrap(cause));
+                        }
+                    }
+                    throw new ChannelDeliveryException(failures);
+                });
+    }
+
+    /**
+     * Доставляет событие всеми каналами маршрута в вызывающем потоке
+     *
+     * @throws ChannelDeliveryException если часть каналов не справилась
+     * @throws IllegalArgumentException если у события нет типа
+     */
+    public void dispatchAndWait(UserEvent event) {
+        dispatchAndWait(event, null);
+    }
+
+    /**
+     * Доставляет событие перечисленными каналами маршрута в вызывающем потоке
+     *
+     * @param channels имена каналов, null - все каналы маршрута
+     * @throws ChannelDeliveryException если часть каналов не справилась
+     * @throws IllegalArgumentException если у события нет типа
+     */
+    public void dispatchAndWait(UserEvent event, Collection<String> channels) {
+        try {
+            dispatch(event, channels).join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Имена каналов маршрута типа события
+     */
+    public List<String> routeOf(UserEvent.EventType type) {
+        return names(routes.get(type));
+    }
+
+    /**
+     * Уведомления в очередях каналов
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (ChannelLane lane : lanes.values()) {
+            size += lane.getQueueSize();
+        }
+        return size;
+    }
+
+    /**
+     * Причина ошибки результата {@link #dispatch(UserEvent)}
+     */
+    public static RuntimeException unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+    }
+
+    /**
+     * Каналы остановлены и больше не принимают уведомления
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        lanes.values().forEach(ChannelLane::close);
+    }
+
+    private static List<String> names(List<ChannelLane> route) {
+        List<String> names = new ArrayList<>(route.size());
+        for (ChannelLane lane : route) {
+            names.add(lane.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,105 @@
+package com.aston.channel;
+
+import com.aston.dto.UserEvent;
+import com.aston.ledger.DeliveryLedger;
+import com.aston.mail.SendDeferredException;
+import com.aston.mail.SmtpSendExecutor;
+import com.aston.service.EmailService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.mail.SimpleMailMessage;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Письма по SMTP: прежний путь отправки {@link EmailService} как один из каналов.
+ *
+ * Одно уведомление отправляется через {@link EmailService#sendEventEmail(UserEvent, boolean)} в полосе
+ * приоритета его типа, пачка - одним вызовом {@link EmailService#sendBatch(List, boolean)} через одно
+ * SMTP-соединение; обе отправки занимают SMTP-сессию {@link SmtpSendExecutor}.
+ * Уже отправленные письма пропускаются по журналу доставок.
+ *
+ * Письма, отложенные из-за недоступного релея или лимита скорости, возвращаются
+ * с {@link SendDeferredException}: лимита поток канала ждет не дольше max-channel-wait,
+ * повтор - забота вызывающего
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class EmailChannel implements NotificationChannel {
+
+    public static final String NAME = "email";
+
+    private final EmailService emailService;
+    private final DeliveryLedger deliveryLedger;
+    private final SmtpSendExecutor sendExecutor;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Map<UserEvent, Exception> send(List<UserEvent> events) {
+        Map<UserEvent, Exception> failed = new IdentityHashMap<>();
+        if (events.size() == 1) {
+            UserEvent event = events.get(0);
+            try {
+                sendExecutor.supply(sendExecutor.priorityOf(event.getEventType()),
+                        () -> emailService.sendEventEmail(event, true)).join();
+            } catch (CompletionException e) {
+                failed.put(event, ChannelRouter.unwrap(e));
+            } catch (RuntimeException e) {
+                failed.put(event, e);
+            }
+            return failed;
+        }
+
+        List<SimpleMailMessage> messages = new ArrayList<>(events.size());
+        Map<SimpleMailMessage, UserEvent> sources = new IdentityHashMap<>();
+        for (UserEvent event : events) {
+            if (!deliveryLedger.claim(event)) {
+                log.info("Письмо {} для пользователя {} уже отправлено, повтор пропущен", event.getEventType(), event.getId());
+                continue;
+            }
+            try {
+                SimpleMailMessage message = emailService.createMessage(event);
+                messages.add(message);
+                sources.put(message, event);
+            } catch (IllegalArgumentException e) {
+                deliveryLedger.release(event);
+                failed.put(event, e);
+            } catch (RuntimeException e) {
+                deliveryLedger.release(event);
+                sources.values().forEach(deliveryLedger::release);
+                throw e;
+            }
+        }
+
+        Map<SimpleMailMessage, Exception> unsent;
+        try {
+            unsent = sendExecutor.withSession(() -> emailService.sendBatch(messages, true));
+        } catch (SendDeferredException e) {
+            sources.values().forEach(deliveryLedger::release);
+            sources.values().forEach(event -> failed.put(event, e));
+            return failed;
+        } catch (RuntimeException e) {
+            sources.values().forEach(deliveryLedger::release);
+            throw e;
+        }
+        for (SimpleMailMessage message : messages) {
+            UserEvent event = sources.get(message);
+            Exception cause = unsent.get(message);
+            if (cause != null) {
+                deliveryLedger.release(event);
+                failed.put(event, cause);
+            } else {
+                deliveryLedger.markDelivered(event);
+            }
+        }
+        return failed;
+    }
+}
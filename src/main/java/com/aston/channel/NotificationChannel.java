@@ -0,0 +1,31 @@
+package com.aston.channel;
+
+import com.aston.dto.UserEvent;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Канал доставки уведомлений: письмо, webhook, SMS, push.
+ *
+ * Реализация - бин Spring; {@link ChannelRouter} находит каналы по имени из маршрутов
+ * app.channels.routes и вызывает send в потоках канала пачками не больше
+ * app.channels.&lt;имя&gt;.batch-size. Вызов блокирующий и может занимать поток сколько угодно:
+ * у каждого канала свои потоки и очередь, другие каналы он не задерживает
+ */
+public interface NotificationChannel {
+
+    /**
+     * Имя канала в маршрутах и настройках app.channels.&lt;имя&gt;
+     */
+    String getName();
+
+    /**
+     * Доставляет пачку уведомлений. Ошибка одного уведомления не должна прерывать остальные.
+     * IllegalArgumentException в качестве причины означает, что повтор не поможет
+     * (ошибочный адрес, получатель отклонил уведомление), и событие пропускается
+     *
+     * @return уведомления, которые не удалось доставить, с причиной; ключи - переданные экземпляры
+     */
+    Map<UserEvent, Exception> send(List<UserEvent> events);
+}
@@ -0,0 +1,97 @@
+package com.aston.channel;
+
+import com.aston.dto.UserEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Уведомления POST-запросом на HTTP-адрес: тело - JSON-массив событий пачки.
+ *
+ * Ответ 2xx - пачка доставлена. Ответы 408, 429 и 5xx, таймаут и ошибка соединения
+ * означают временный сбой, и события уходят на повтор; остальные 4xx - получатель
+ * отклонил пачку, повтор не поможет
+ */
+@Slf4j
+public class WebhookChannel implements NotificationChannel {
+
+    public static final String NAME = "webhook";
+
+    private final URI url;
+    private final Duration timeout;
+    private final ObjectMapper objectMapper;
+    private final HttpClient client;
+
+    public WebhookChannel(URI url, Duration timeout, ObjectMapper objectMapper) {
+        this.url = url;
+        this.timeout = timeout;
+        this.objectMapper = objectMapper;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .build();
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Map<UserEvent, Exception> send(List<UserEvent> events) {
+        Map<UserEvent, Exception> failed = new IdentityHashMap<>();
+        RuntimeException error = post(events);
+        if (error != null) {
+            events.forEach(event -> failed.put(event, error));
+        }
+        return failed;
+    }
+
+    /**
+     * @return ошибка доставки пачки, null - пачка доставлена
+     */
+    private RuntimeException post(List<UserEvent> events) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(url)
+                    .timeout(timeout)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(events)))
+                    .build();
+        } catch (JsonProcessingException e) {
+            return new IllegalArgumentException("Не удалось сериализовать события для webhook: " + e.getMessage(), e);
+        }
+
+        int status;
+        try {
+            status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException e) {
+            log.warn("Webhook {} недоступен: {}", url, e.getMessage());
+            return new UncheckedIOException("Webhook недоступен: " + url, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new IllegalStateException("Отправка webhook прервана", e);
+        }
+
+        if (status >= 200 && status < 300) {
+            log.debug("Webhook {} принял пачку из {} событий", url, events.size());
+            return null;
+        }
+        String message = "Webhook " + url + " ответил " + status;
+        log.warn("{} на пачку из {} событий", message, events.size());
+        if (status == 408 || status == 429 || status >= 500) {
+            return new IllegalStateException(message);
+        }
+        return new IllegalArgumentException(message);
+    }
+}
@@ -0,0 +1,74 @@
+package com.aston.config;
+
+import com.aston.address.AddressValidator;
+import com.aston.address.DomainResolver;
+import com.aston.address.DomainVerdictCache;
+import com.aston.address.JndiDomainResolver;
+import com.aston.suppression.SuppressionIndex;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Проверка адресов получателей перед отправкой.
+ * Синтаксис проверяется всегда, список подавления - при app.suppression.enabled,
+ * домен в DNS - только при app.address.domain-check.enabled=true: разрешение домена
+ * выполняется в отдельных потоках, и отправка ждет его не дольше max-wait
+ */
+@Configuration
+public class AddressConfig {
+
+    /**
+     * Резолвер доменов по умолчанию; стенд или тест может объявить свой бин DomainResolver
+     */
+    @Bean
+    @ConditionalOnMissingBean(DomainResolver.class)
+    @ConditionalOnProperty(name = "app.address.domain-check.enabled", havingValue = "true")
+    public DomainResolver domainResolver(
+            @Value("${app.address.domain-check.dns-url:}") String dnsUrl,
+            @Value("${app.address.domain-check.timeout:2s}") Duration timeout,
+            @Value("${app.address.domain-check.retries:1}") int retries) {
+        return new JndiDomainResolver(dnsUrl, timeout, retries);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "app.address.domain-check.enabled", havingValue = "true")
+    public DomainVerdictCache domainVerdictCache(
+            DomainResolver domainResolver,
+            MeterRegistry registry,
+            @Value("${app.address.domain-check.max-entries:100000}") int maxEntries,
+            @Value("${app.address.domain-check.positive-ttl:1h}") Duration positiveTtl,
+            @Value("${app.address.domain-check.negative-ttl:15m}") Duration negativeTtl,
+            @Value("${app.address.domain-check.unknown-ttl:30s}") Duration unknownTtl,
+            @Value("${app.address.domain-check.resolver-threads:4}") int resolverThreads,
+            @Value("${app.address.domain-check.max-wait:100ms}") Duration maxWait) {
+        return new DomainVerdictCache(domainResolver, maxEntries, positiveTtl, negativeTtl, unknownTtl,
+                registry, Clock.systemUTC(), resolverThreads, maxWait);
+    }
+
+    @Bean
+    public AddressValidator addressValidator(
+            ObjectProvider<DomainVerdictCache> domainVerdictCache,
+            ObjectProvider<SuppressionIndex> suppressionIndex,
+            MeterRegistry registry,
+            @Value("${app.address.domain-check.trusted-domains:}") String[] trustedDomains) {
+        Set<String> trusted = Arrays.stream(trustedDomains)
+                .map(String::trim)
+                .filter(domain -> !domain.isEmpty())
+                .map(domain -> domain.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toSet());
+        return new AddressValidator(domainVerdictCache.getIfAvailable(), suppressionIndex.getIfAvailable(),
+                trusted, registry);
+    }
+}
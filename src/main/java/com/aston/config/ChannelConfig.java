@@ -0,0 +1,94 @@
+package com.aston.config;
+
+import com.aston.channel.ChannelRouter;
+import com.aston.channel.EmailChannel;
+import com.aston.channel.NotificationChannel;
+import com.aston.channel.WebhookChannel;
+import com.aston.dto.UserEvent;
+import com.aston.ledger.DeliveryLedger;
+import com.aston.mail.SmtpSendExecutor;
+import com.aston.service.EmailService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Каналы уведомлений: событие уходит во все каналы своего маршрута, письма - канал email.
+ *
+ * Канал - любой бин {@link NotificationChannel}; потоки, очередь и размер пачки канала
+ * задаются в app.channels.&lt;имя&gt;.threads, queue-capacity и batch-size
+ */
+@Configuration
+public class ChannelConfig {
+
+    @Bean
+    public EmailChannel emailChannel(EmailService emailService, DeliveryLedger deliveryLedger,
+                                     SmtpSendExecutor sendExecutor) {
+        return new EmailChannel(emailService, deliveryLedger, sendExecutor);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "app.channels.webhook.enabled", havingValue = "true")
+    public WebhookChannel webhookChannel(
+            @Value("${app.channels.webhook.url}") URI url,
+            @Value("${app.channels.webhook.timeout:5s}") Duration timeout,
+            ObjectMapper objectMapper) {
+        return new WebhookChannel(url, timeout, objectMapper);
+    }
+
+    @Bean(destroyMethod = "close")
+    public ChannelRouter channelRouter(
+            List<NotificationChannel> channels,
+            @Value("${app.channels.routes:}") String[] routes,
+            @Value("${app.channels.default:email}") String defaultRoute,
+            Environment environment,
+            MeterRegistry registry) {
+        Map<String, ChannelRouter.Settings> settings = new HashMap<>();
+        for (NotificationChannel channel : channels) {
+            String prefix = "app.channels." + channel.getName() + ".";
+            settings.put(channel.getName(), new ChannelRouter.Settings(
+                    environment.getProperty(prefix + "threads", Integer.class, 4),
+                    environment.getProperty(prefix + "queue-capacity", Integer.class, 10000),
+                    environment.getProperty(prefix + "batch-size", Integer.class, 1)));
+        }
+
+        Map<UserEvent.EventType, List<String>> routeTable = new EnumMap<>(UserEvent.EventType.class);
+        for (String route : routes) {
+            if (route.isBlank()) {
+                continue;
+            }
+            int separator = route.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Ожидается <тип события>=<канал>+<канал>: " + route);
+            }
+            UserEvent.EventType type = UserEvent.EventType.valueOf(
+                    route.substring(0, separator).trim().toUpperCase(Locale.ROOT));
+            routeTable.put(type, channelNames(route.substring(separator + 1)));
+        }
+
+        return new ChannelRouter(channels, settings, routeTable, channelNames(defaultRoute), registry);
+    }
+
+    private static List<String> channelNames(String route) {
+        List<String> names = new ArrayList<>();
+        for (String name : route.split("\\+")) {
+            if (!name.isBlank()) {
+                names.add(name.trim());
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,53 @@
+package com.aston.config;
+
+import com.aston.ledger.DeliveryLedger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+
+@Slf4j
+@Configuration
+public class DeliveryLedgerConfig {
+
+    @Value("${app.delivery-ledger.path:}")
+    private String path;
+
+    @Value("${app.delivery-ledger.window:7d}")
+    private Duration window;
+
+    @Value("${app.delivery-ledger.initial-capacity:65536}")
+    private int initialCapacity;
+
+    @Value("${app.delivery-ledger.max-entries:1000000}")
+    private int maxEntries;
+
+    @Value("${app.delivery-ledger.compact-interval:1h}")
+    private Duration compactInterval;
+
+    /**
+     * Журнал доставок для подавления повторных писем.
+     * Без app.delivery-ledger.path отметки хранятся только в памяти и теряются при перезапуске
+     */
+    @Bean(destroyMethod = "close")
+    public DeliveryLedger deliveryLedger() throws IOException {
+        if (!StringUtils.hasText(path)) {
+            log.warn("app.delivery-ledger.path не задан: отметки доставок хранятся только в памяти "
+                    + "и не подавляют повторы после перезапуска");
+        }
+        return new DeliveryLedger(
+                StringUtils.hasText(path) ? Paths.get(path) : null,
+                window,
+                initialCapacity,
+                maxEntries,
+                compactInterval,
+                Clock.systemUTC()
+        );
+    }
+}
@@ -0,0 +1,74 @@
+package com.aston.config;
+
+import com.aston.digest.DigestService;
+import com.aston.mail.SendScheduler;
+import com.aston.metrics.NotificationMetrics;
+import com.aston.suppression.SuppressionIndex;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+
+@Configuration
+public class DigestConfig {
+
+    @Value("${app.digest.recipients:}")
+    private String[] recipients;
+
+    @Value("${app.digest.domains:}")
+    private String[] domains;
+
+    @Value("${app.digest.path:}")
+    private String path;
+
+    @Value("${app.digest.interval:1h}")
+    private Duration interval;
+
+    @Value("${app.digest.max-count:50}")
+    private int maxCount;
+
+    @Value("${app.digest.max-lines:100}")
+    private int maxLines;
+
+    @Value("${app.digest.max-recipients:1000}")
+    private int maxRecipients;
+
+    @Value("${app.digest.check-interval:1m}")
+    private Duration checkInterval;
+
+    @Value("${app.email.from}")
+    private String fromEmail;
+
+    /**
+     * Сводки уведомлений. Без app.digest.recipients и app.digest.domains сервис выключен,
+     * без app.digest.path сводки хранятся только в памяти и теряются при перезапуске.
+     * Сводки на адреса из списка подавления, если он включен, не отправляются
+     */
+    @Bean(destroyMethod = "close")
+    public DigestService digestService(SendScheduler sendScheduler,
+                                       ObjectProvider<SuppressionIndex> suppressionIndex,
+                                       NotificationMetrics metrics) throws IOException {
+        return new DigestService(
+                sendScheduler,
+                suppressionIndex.getIfAvailable(),
+                metrics,
+                StringUtils.hasText(path) ? Paths.get(path) : null,
+                Arrays.asList(recipients),
+                Arrays.asList(domains),
+                interval,
+                maxCount,
+                maxLines,
+                maxRecipients,
+                checkInterval,
+                fromEmail,
+                Clock.systemUTC()
+        );
+    }
+}
@@ -1,11 +1,23 @@
 package com.aston.config;
 
+import com.aston.dto.UserEvent;
+import com.aston.mail.PooledJavaMailSender;
+import com.aston.mail.Priority;
+import com.aston.mail.PriorityLanes;
+import com.aston.mail.RelayGuard;
+import com.aston.metrics.NotificationMetrics;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
 
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 
 @Configuration
@@ -29,9 +41,39 @@ public class EmailConfig {
     @Value("${spring.mail.properties.mail.smtp.starttls.enable}")
     private boolean starttlsEnable;
 
+    /**
+     * Протокол SMTP-диалога в stdout (mail.debug)
+     */
+    @Value("${app.mail.debug:true}")
+    private boolean debug;
+
+    @Value("${app.mail.pool.enabled:true}")
+    private boolean poolEnabled;
+
+    @Value("${app.mail.pool.size:4}")
+    private int poolSize;
+
+    @Value("${app.mail.pool.max-messages-per-connection:100}")
+    private int maxMessagesPerConnection;
+
+    @Value("${app.mail.pool.max-idle:60s}")
+    private Duration maxIdle;
+
+    @Value("${app.mail.pool.validate-after-idle:10s}")
+    private Duration validateAfterIdle;
+
+    @Value("${app.mail.pool.borrow-timeout:30s}")
+    private Duration borrowTimeout;
+
+    /**
+     * Отправитель писем. По умолчанию держит пул авторизованных SMTP-соединений,
+     * при app.mail.pool.enabled=false открывает соединение на каждую отправку
+     */
     @Bean
     public JavaMailSender javaMailSender() {
-        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+        JavaMailSenderImpl mailSender = poolEnabled
+                ? new PooledJavaMailSender(poolSize, maxMessagesPerConnection, maxIdle, validateAfterIdle, borrowTimeout)
+                : new JavaMailSenderImpl();
         mailSender.setHost(host);
         mailSender.setPort(port);
         mailSender.setUsername(username);
@@ -41,9 +83,65 @@ public class EmailConfig {
         props.put("mail.transport.protocol", "smtp");
         props.put("mail.smtp.auth", auth);
         props.put("mail.smtp.starttls.enable", starttlsEnable);
-        props.put("mail.debug", "true");
+        props.put("mail.debug", String.valueOf(debug));
 
         return mailSender;
     }
 
+    /**
+     * Адаптивный лимит одновременных отправок и размыкатель SMTP-релея
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "app.mail.guard.enabled", havingValue = "true", matchIfMissing = true)
+    public RelayGuard relayGuard(
+            @Value("${app.mail.guard.initial-limit:8}") int initialLimit,
+            @Value("${app.mail.guard.min-limit:1}") int minLimit,
+            @Value("${app.mail.guard.max-limit:64}") int maxLimit,
+            @Value("${app.mail.guard.latency-threshold:5s}") Duration latencyThreshold,
+            @Value("${app.mail.guard.backoff-ratio:0.7}") double backoffRatio,
+            @Value("${app.mail.guard.failure-threshold:5}") int failureThreshold,
+            @Value("${app.mail.guard.open-duration:30s}") Duration openDuration,
+            @Value("${app.mail.guard.acquire-timeout:30s}") Duration acquireTimeout,
+            NotificationMetrics metrics) {
+        return new RelayGuard(initialLimit, minLimit, maxLimit, latencyThreshold, backoffRatio,
+                failureThreshold, openDuration, acquireTimeout, metrics);
+    }
+
+    /**
+     * Полосы приоритетов перед потоками {@link com.aston.mail.SmtpSendExecutor}:
+     * транзакционные письма не ждут, пока уйдет очередь массовых
+     */
+    @Bean
+    @ConditionalOnProperty(name = "app.mail.priority.enabled", havingValue = "true")
+    public PriorityLanes priorityLanes(
+            @Value("${app.mail.priority.weights:high=8,normal=4,bulk=1}") String[] weights,
+            @Value("${app.mail.priority.queue-capacity:10000}") int queueCapacity,
+            @Value("${app.mail.priority.event-types:USER_DELETED=high,USER_CREATED=bulk}") String[] eventTypes,
+            @Value("${app.mail.priority.rest:high}") String restPriority,
+            NotificationMetrics metrics) {
+        Map<Priority, Integer> laneWeights = new EnumMap<>(Priority.class);
+        pairs(weights, "<полоса>=<вес>").forEach((lane, weight) ->
+                laneWeights.put(Priority.parse(lane), Integer.parseInt(weight)));
+
+        Map<UserEvent.EventType, Priority> eventPriorities = new EnumMap<>(UserEvent.EventType.class);
+        pairs(eventTypes, "<тип события>=<полоса>").forEach((type, lane) ->
+                eventPriorities.put(UserEvent.EventType.valueOf(type.toUpperCase(Locale.ROOT)), Priority.parse(lane)));
+
+        return new PriorityLanes(laneWeights, queueCapacity, eventPriorities, Priority.parse(restPriority), metrics);
+    }
+
+    private static Map<String, String> pairs(String[] values, String expected) {
+        Map<String, String> pairs = new LinkedHashMap<>();
+        for (String value : values) {
+            if (value.isBlank()) {
+                continue;
+            }
+            int separator = value.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Ожидается " + expected + ": " + value);
+            }
+            pairs.put(value.substring(0, separator).trim(), value.substring(separator + 1).trim());
+        }
+        return pairs;
+    }
 }
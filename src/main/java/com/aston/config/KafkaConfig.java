@@ -1,18 +1,40 @@
 package com.aston.config;
 
 import com.aston.dto.UserEvent;
+import com.aston.kafka.EventCoalescer;
+import com.aston.kafka.KeyOrderedExecutor;
+import com.aston.kafka.RetryTopicRouter;
+import com.aston.kafka.UserEventDeserializer;
+import com.aston.mail.SmtpSendExecutor;
+import com.aston.metrics.NotificationMetrics;
+import com.aston.metrics.TimedUserEventDeserializer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.annotation.EnableKafka;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
-import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaAdmin;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.MicrometerConsumerListener;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.support.serializer.JsonSerializer;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Configuration
@@ -25,27 +47,162 @@ public class KafkaConfig {
     @Value("${spring.kafka.consumer.group-id}")
     private String groupId;
 
+    @Value("${kafka.consumer.batch.enabled:false}")
+    private boolean batchEnabled;
+
+    @Value("${kafka.consumer.batch.max-poll-records:500}")
+    private int batchMaxPollRecords;
+
+    @Value("${kafka.consumer.concurrency:1}")
+    private int concurrency;
+
+    /**
+     * Фабрика потребителей. Время десериализации и метрики клиента Kafka,
+     * включая отставание по каждой партиции (kafka.consumer.fetch.manager.records.lag),
+     * публикуются в реестр Micrometer
+     */
     @Bean
-    public ConsumerFactory<String, UserEvent> consumerFactory() {
+    public ConsumerFactory<String, UserEvent> consumerFactory(NotificationMetrics metrics) {
         Map<String, Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
-        props.put(JsonDeserializer.TRUSTED_PACKAGES, "com.aston.dto");
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, UserEventDeserializer.class);
+        // Оффсеты коммитит контейнер после обработки, а не клиент по таймеру
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        if (batchEnabled) {
+            props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, batchMaxPollRecords);
+        }
 
-        return new DefaultKafkaConsumerFactory<>(
+        DefaultKafkaConsumerFactory<String, UserEvent> factory = new DefaultKafkaConsumerFactory<>(
                 props,
                 new StringDeserializer(),
-                new JsonDeserializer<>(UserEvent.class)
+                new TimedUserEventDeserializer(userEventDeserializer(), metrics)
         );
+        factory.addListener(new MicrometerConsumerListener<>(metrics.getRegistry()));
+        return factory;
+    }
+
+    /**
+     * Фабрика производителей для публикации событий в топики повторов и недоставленных.
+     * Тип значения известен потребителю, поэтому заголовки с типом не добавляются
+     */
+    @Bean
+    public ProducerFactory<String, UserEvent> producerFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        props.put(JsonSerializer.ADD_TYPE_INFO_HEADERS, false);
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        return new DefaultKafkaProducerFactory<>(props);
+    }
+
+    @Bean
+    public KafkaTemplate<String, UserEvent> kafkaTemplate(ProducerFactory<String, UserEvent> producerFactory) {
+        return new KafkaTemplate<>(producerFactory);
+    }
+
+    /**
+     * Топики повторов и недоставленных событий, создаются при старте, если их нет
+     */
+    @Bean
+    @ConditionalOnProperty(name = "kafka.topics.retry.create-topics", havingValue = "true", matchIfMissing = true)
+    public KafkaAdmin.NewTopics retryTopics(
+            RetryTopicRouter router,
+            @Value("${kafka.topics.retry.partitions:1}") int partitions,
+            @Value("${kafka.topics.retry.replicas:1}") int replicas) {
+        List<NewTopic> topics = new ArrayList<>();
+        router.getTiers().forEach(tier ->
+                topics.add(TopicBuilder.name(tier.getTopic()).partitions(partitions).replicas(replicas).build()));
+        topics.add(TopicBuilder.name(router.getDeadLetterTopic()).partitions(partitions).replicas(replicas).build());
+        return new KafkaAdmin.NewTopics(topics.toArray(new NewTopic[0]));
+    }
+
+    /**
+     * Десериализатор значений записей топика событий пользователей: JSON
+     * или двоичный формат по заголовку записи
+     */
+    public static Deserializer<UserEvent> userEventDeserializer() {
+        return new UserEventDeserializer();
     }
 
+    /**
+     * Фабрика контейнеров слушателей.
+     *
+     * При kafka.consumer.batch.enabled=true слушатель получает все записи одного poll
+     * списком и подтверждает их после обработки; отложенный остаток пачки он возвращает
+     * в партиции через nack.
+     * Иначе слушатель подтверждает записи вручную из потоков каналов, полос
+     * {@link KeyOrderedExecutor}, потока сброса очереди исходящих уведомлений или окон схлопывания:
+     * подтверждения приходят не по порядку, и контейнер коммитит оффсет только до первой еще
+     * не обработанной записи
+     */
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, UserEvent> kafkaListenerContainerFactory() {
+    public ConcurrentKafkaListenerContainerFactory<String, UserEvent> kafkaListenerContainerFactory(
+            ConsumerFactory<String, UserEvent> consumerFactory) {
         ConcurrentKafkaListenerContainerFactory<String, UserEvent> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
-        factory.setConsumerFactory(consumerFactory());
+        factory.setConsumerFactory(consumerFactory);
+        factory.setConcurrency(concurrency);
+        if (batchEnabled) {
+            factory.setBatchListener(true);
+            factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        } else {
+            factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+            factory.getContainerProperties().setAsyncAcks(true);
+        }
         return factory;
     }
+
+    /**
+     * Фабрика контейнеров высокоприоритетного топика: отдельный потребитель, которому
+     * не мешает отставание основного топика. Записи подтверждаются вручную, как в основной фабрике
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, UserEvent> priorityKafkaListenerContainerFactory(
+            ConsumerFactory<String, UserEvent> consumerFactory,
+            @Value("${kafka.consumer.priority.concurrency:1}") int priorityConcurrency) {
+        ConcurrentKafkaListenerContainerFactory<String, UserEvent> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory);
+        factory.setConcurrency(priorityConcurrency);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setAsyncAcks(true);
+        return factory;
+    }
+
+    /**
+     * Полосы параллельной обработки событий: события одного пользователя
+     * обрабатываются по порядку, разных пользователей - параллельно.
+     * В режиме app.mail.executor.mode=virtual полосы выполняются на виртуальных потоках
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "kafka.consumer.ordered-workers.enabled", havingValue = "true")
+    public KeyOrderedExecutor userEventExecutor(
+            @Value("${kafka.consumer.ordered-workers.lanes:64}") int lanes,
+            @Value("${kafka.consumer.ordered-workers.threads:0}") int threads,
+            SmtpSendExecutor sendExecutor) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return new KeyOrderedExecutor(lanes, sendExecutor.newWorkerPool("user-event-worker-", poolSize));
+    }
+
+    /**
+     * Схлопывание событий одного пользователя в окне: повторы отбрасываются,
+     * пара USER_CREATED - USER_DELETED отменяет оба письма
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "kafka.consumer.coalescing.enabled", havingValue = "true")
+    public EventCoalescer userEventCoalescer(
+            @Value("${kafka.consumer.coalescing.window:10s}") Duration window,
+            @Value("${kafka.consumer.coalescing.tick:100ms}") Duration tick,
+            @Value("${kafka.consumer.coalescing.max-keys:100000}") int maxKeys,
+            @Value("${kafka.consumer.coalescing.release-threads:4}") int releaseThreads,
+            SmtpSendExecutor sendExecutor,
+            RetryTopicRouter retryRouter,
+            NotificationMetrics metrics) {
+        return new EventCoalescer(window, tick, maxKeys,
+                sendExecutor.newWorkerPool("event-coalescer-", releaseThreads), retryRouter, metrics);
+    }
 }
@@ -0,0 +1,51 @@
+package com.aston.config;
+
+import com.aston.metrics.NotificationMetrics;
+import com.aston.outbox.Outbox;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnProperty(name = "app.outbox.enabled", havingValue = "true")
+public class OutboxConfig {
+
+    @Value("${app.outbox.dir:data/outbox}")
+    private String dir;
+
+    @Value("${app.outbox.segment-size:16MB}")
+    private DataSize segmentSize;
+
+    @Value("${app.outbox.max-pending:100000}")
+    private int maxPending;
+
+    @Value("${app.outbox.retry-after:5s}")
+    private Duration retryAfter;
+
+    @Value("${app.outbox.compact-interval:1m}")
+    private Duration compactInterval;
+
+    /**
+     * Очередь исходящих уведомлений на диске. При создании читает журнал
+     * и ставит неотправленные события в очередь заново
+     */
+    @Bean(destroyMethod = "close")
+    public Outbox outbox(ObjectMapper objectMapper, NotificationMetrics metrics) throws IOException {
+        return new Outbox(
+                Paths.get(dir),
+                Math.toIntExact(segmentSize.toBytes()),
+                maxPending,
+                retryAfter,
+                compactInterval,
+                objectMapper,
+                metrics
+        );
+    }
+}
@@ -0,0 +1,86 @@
+package com.aston.config;
+
+import com.aston.suppression.SuppressionIndex;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Список подавления адресов с жесткими отказами и отписками (app.suppression.enabled).
+ * Выключен по умолчанию: для списка, который переживает перезапуск, нужен app.suppression.path
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.suppression.enabled", havingValue = "true")
+public class SuppressionConfig {
+
+    /**
+     * Таблица хэшей адресов в файле, отображенном в память.
+     * Без app.suppression.path таблица хранится вне кучи до перезапуска
+     */
+    @Bean(destroyMethod = "close")
+    public SuppressionIndex suppressionIndex(
+            MeterRegistry registry,
+            @Value("${app.suppression.path:}") String path,
+            @Value("${app.suppression.initial-capacity:1000000}") int initialCapacity) throws IOException {
+        SuppressionIndex index = SuppressionIndex.open(StringUtils.hasText(path) ? Paths.get(path) : null,
+                initialCapacity);
+        Gauge.builder("notification.suppression.size", index, SuppressionIndex::size)
+                .description("Адресов в списке подавления")
+                .register(registry);
+        return index;
+    }
+
+    /**
+     * Фабрика контейнеров топика обновлений списка подавления: ключ - адрес, значение - строка
+     * причины или null. Записи читаются пачками и коммитятся после применения пачки
+     */
+    @Bean
+    @ConditionalOnProperty(name = "kafka.consumer.suppressions.enabled", havingValue = "true")
+    public ConcurrentKafkaListenerContainerFactory<String, String> suppressionKafkaListenerContainerFactory(
+            @Value("${spring.kafka.bootstrap-servers}") String bootstrapServers,
+            @Value("${kafka.consumer.suppressions.max-poll-records:5000}") int maxPollRecords) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+
+        ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(props, new StringDeserializer(), new StringDeserializer()));
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.BATCH);
+        return factory;
+    }
+
+    /**
+     * Публикация изменений списка в топик kafka.topics.suppressions: изменение через API
+     * доходит до всех экземпляров сервиса, а не только до принявшего запрос
+     */
+    @Bean
+    public KafkaTemplate<String, String> suppressionKafkaTemplate(
+            @Value("${spring.kafka.bootstrap-servers}") String bootstrapServers) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        return new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(props, new StringSerializer(), new StringSerializer()));
+    }
+}
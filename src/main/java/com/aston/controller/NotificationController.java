@@ -1,11 +1,31 @@
 package com.aston.controller;
 
+import com.aston.address.AddressNormalizer;
+import com.aston.dto.BatchEmailRequest;
+import com.aston.dto.BatchItemResult;
+import com.aston.dto.DeadLetterResponse;
 import com.aston.dto.EmailRequest;
 import com.aston.dto.EmailResponse;
 import com.aston.dto.ErrorResponse;
+import com.aston.dto.JobStatusResponse;
+import com.aston.dto.SuppressionRequest;
+import com.aston.dto.SuppressionResponse;
+import com.aston.dto.UserEvent;
+import com.aston.exception.JobNotFoundException;
+import com.aston.kafka.DeadLetterService;
+import com.aston.kafka.SuppressionPublisher;
+import com.aston.mail.RelayGuard;
+import com.aston.mail.SmtpSendExecutor;
+import com.aston.outbox.Outbox;
+import com.aston.service.BatchEmailService;
 import com.aston.service.EmailService;
+import com.aston.service.JobStatusStore;
+import com.aston.service.NotificationDispatcher;
+import com.aston.service.NotificationJob;
+import com.aston.suppression.SuppressionIndex;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -13,14 +33,26 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import java.io.IOException;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
@@ -34,17 +66,57 @@ import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
 @Slf4j
 @Validated
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/api/v1/notifications")
 @RequiredArgsConstructor
 @Tag(name = "Notifications", description = "API для управления уведомлениями")
 public class NotificationController {
 
     private final EmailService emailService;
+    private final NotificationDispatcher notificationDispatcher;
+    private final JobStatusStore jobStatusStore;
+    private final DeadLetterService deadLetterService;
+    private final SmtpSendExecutor sendExecutor;
+    private final BatchEmailService batchEmailService;
+
+    /**
+     * Очередь исходящих уведомлений на диске, если app.outbox.enabled
+     */
+    private final ObjectProvider<Outbox> outbox;
+
+    /**
+     * Лимит одновременных отправок и размыкатель SMTP-релея, если app.mail.guard.enabled
+     */
+    private final ObjectProvider<RelayGuard> relayGuard;
+
+    /**
+     * Ссылки HATEOAS, построенные один раз на адрес сервиса
+     */
+    private final NotificationLinks notificationLinks;
+
+    /**
+     * Список подавления, если app.suppression.enabled
+     */
+    private final ObjectProvider<SuppressionIndex> suppressionIndex;
+
+    /**
+     * Публикация изменений списка подавления для всех экземпляров сервиса
+     */
+    private final ObjectProvider<SuppressionPublisher> suppressionPublisher;
+
+    /**
+     * Асинхронный режим: письма ставятся в очередь, ответ 202 возвращается сразу
+     */
+    @Value("${app.notifications.async.enabled:false}")
+    private boolean asyncEnabled;
 
     @PostMapping("/email")
     @Operation(
             summary = "Отправить email уведомление",
-            description = "Отправляет email уведомление указанному пользователю"
+            description = "Отправляет email уведомление указанному пользователю. " +
+                    "С очередью исходящих уведомлений сохраняет письмо на диск и отвечает 202 до отправки по SMTP. " +
+                    "В асинхронном режиме ставит письмо в очередь и возвращает идентификатор задания. " +
+                    "Синхронная отправка выполняется в SmtpSendExecutor, поток запроса на время отправки освобождается"
     )
     @ApiResponses({
             @ApiResponse(
@@ -52,9 +124,19 @@ public class NotificationController {
                     description = "Email успешно отправлен",
                     content = @Content(schema = @Schema(implementation = EmailResponse.class))
             ),
+            @ApiResponse(
+                    responseCode = "202",
+                    description = "Email поставлен в очередь на отправку",
+                    content = @Content(schema = @Schema(implementation = EmailResponse.class))
+            ),
             @ApiResponse(
                     responseCode = "400",
-                    description = "Некорректные данные запроса",
+                    description = "Некорректные данные запроса или адрес, домен которого не принимает почту",
+                    content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+            ),
+            @ApiResponse(
+                    responseCode = "429",
+                    description = "Очередь отправки заполнена, повторите запрос позже",
                     content = @Content(schema = @Schema(implementation = ErrorResponse.class))
             ),
             @ApiResponse(
@@ -63,34 +145,101 @@ public class NotificationController {
                     content = @Content(schema = @Schema(implementation = ErrorResponse.class))
             )
     })
-    public ResponseEntity<EmailResponse> sendEmail(
+    public CompletableFuture<ResponseEntity<EmailResponse>> sendEmail(
             @Parameter(description = "Данные для отправки email", required = true)
             @Valid @RequestBody EmailRequest request) {
 
         log.info("POST /api/v1/notifications/email - Отправка email на адрес: {}", request.getToEmail());
+        NotificationLinks.Links links = notificationLinks.current();
 
-        emailService.sendUserCreatedEmail(request.getToEmail(), request.getUserName());
+        Outbox durableOutbox = outbox.getIfAvailable();
+        if (durableOutbox != null) {
+            EmailResponse response = submitToOutbox(durableOutbox,
+                    request.getToEmail(), request.getUserName(), "USER_CREATED_NOTIFICATION");
+            response.add(links.sendEmailSelf);
+            response.add(links.statusRel);
 
+            return CompletableFuture.completedFuture(ResponseEntity.accepted().body(response));
+        }
+
+        if (asyncEnabled) {
+            NotificationJob job = notificationDispatcher.submitUserCreated(
+                    request.getToEmail(), request.getUserName(), "USER_CREATED_NOTIFICATION");
+
+            EmailResponse response = acceptedResponse(job);
+            response.add(links.sendEmailSelf);
+            response.add(links.job(job.getId()));
+            response.add(links.statusRel);
+
+            return CompletableFuture.completedFuture(ResponseEntity.accepted().body(response));
+        }
+
+        // Ссылки строятся в потоке запроса: им нужен текущий HttpServletRequest
         EmailResponse response = EmailResponse.builder()
                 .status("SUCCESS")
                 .message("Email успешно отправлен")
                 .toEmail(request.getToEmail())
-                .sentAt(LocalDateTime.now())
                 .emailType("USER_CREATED_NOTIFICATION")
                 .build();
 
         // Добавляем HATEOAS ссылки
-        response.add(linkTo(methodOn(NotificationController.class).sendEmail(request)).withSelfRel());
-        response.add(linkTo(methodOn(NotificationController.class).getServiceStatus()).withRel("status"));
-        response.add(linkTo(methodOn(NotificationController.class).sendTestEmail()).withRel("test-email"));
+        response.add(links.sendEmailSelf);
+        response.add(links.statusRel);
+        response.add(links.testEmailRel);
 
-        return ResponseEntity.ok(response);
+        return sendExecutor.supply(sendExecutor.getRestPriority(), () -> {
+            emailService.sendUserCreatedEmail(request.getToEmail(), request.getUserName());
+            response.setSentAt(LocalDateTime.now());
+            return ResponseEntity.ok(response);
+        });
+    }
+
+    @PostMapping(
+            value = "/email/batch",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE},
+            produces = MediaType.APPLICATION_NDJSON_VALUE
+    )
+    @Operation(
+            summary = "Пакетная отправка email уведомлений",
+            description = "Принимает JSON-массив или NDJSON запросов на отправку и читает их потоково. " +
+                    "Каждый элемент проверяется отдельно, письма отправляются порциями через одно SMTP-соединение. " +
+                    "Тип письма задается полем eventType, по умолчанию USER_CREATED. " +
+                    "Элементы сверх app.notifications.batch.max-items не обрабатываются. " +
+                    "Ответ - NDJSON с результатом каждого элемента в порядке запроса",
+            requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+                    required = true,
+                    content = @Content(array = @ArraySchema(schema = @Schema(implementation = BatchEmailRequest.class)))
+            )
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Результаты отправки по элементам",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_NDJSON_VALUE,
+                            schema = @Schema(implementation = BatchItemResult.class)
+                    )
+            )
+    })
+    public void sendEmailBatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        log.info("POST /api/v1/notifications/email/batch - Пакетная отправка email");
+
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+
+        Map<BatchItemResult.Status, Integer> summary =
+                batchEmailService.process(request.getInputStream(), response.getOutputStream());
+
+        log.info("Пакетная отправка завершена: {}", summary);
     }
 
     @GetMapping("/status")
     @Operation(
             summary = "Получить статус сервиса",
-            description = "Возвращает текущий статус сервиса уведомлений"
+            description = "Возвращает текущий статус сервиса уведомлений: состояние размыкателя SMTP-релея " +
+                    "и текущий лимит одновременных отправок"
     )
     @ApiResponses({
             @ApiResponse(
@@ -102,17 +251,30 @@ public class NotificationController {
     public ResponseEntity<EmailResponse> getServiceStatus() {
 
         log.debug("GET /api/v1/notifications/status - Получение статуса сервиса");
+        NotificationLinks.Links links = notificationLinks.current();
 
-        EmailResponse response = EmailResponse.builder()
-                .status("RUNNING")
-                .message("Сервис уведомлений работает нормально")
+        RelayGuard guard = relayGuard.getIfAvailable();
+        RelayGuard.State state = guard != null ? guard.getState() : RelayGuard.State.CLOSED;
+        EmailResponse.EmailResponseBuilder builder = EmailResponse.builder()
                 .sentAt(LocalDateTime.now())
-                .build();
+                .relayState(state.name());
+        if (guard != null) {
+            builder.concurrencyLimit(guard.getLimit()).inFlightSends(guard.getInFlight());
+        }
+        if (state == RelayGuard.State.CLOSED) {
+            builder.status("RUNNING").message("Сервис уведомлений работает нормально");
+        } else if (state == RelayGuard.State.HALF_OPEN) {
+            builder.status("DEGRADED").message("SMTP-релей проверяется пробной отправкой");
+        } else {
+            builder.status("DEGRADED").message("SMTP-релей недоступен, отправки отложены на "
+                    + guard.getRetryAfterSeconds() + " с");
+        }
+        EmailResponse response = builder.build();
 
         // Добавляем HATEOAS ссылки
-        response.add(linkTo(methodOn(NotificationController.class).getServiceStatus()).withSelfRel());
-        response.add(linkTo(methodOn(NotificationController.class).sendTestEmail()).withRel("test-email"));
-        response.add(linkTo(methodOn(NotificationController.class).sendEmail(new EmailRequest())).withRel("send-email"));
+        response.add(links.statusSelf);
+        response.add(links.testEmailRel);
+        response.add(links.sendEmailRel);
 
         return ResponseEntity.ok(response);
     }
@@ -128,33 +290,68 @@ public class NotificationController {
                     description = "Тестовый email успешно отправлен",
                     content = @Content(schema = @Schema(implementation = EmailResponse.class))
             ),
+            @ApiResponse(
+                    responseCode = "202",
+                    description = "Тестовый email поставлен в очередь на отправку",
+                    content = @Content(schema = @Schema(implementation = EmailResponse.class))
+            ),
+            @ApiResponse(
+                    responseCode = "429",
+                    description = "Очередь отправки заполнена, повторите запрос позже",
+                    content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+            ),
             @ApiResponse(
                     responseCode = "500",
                     description = "Ошибка при отправке тестового email",
                     content = @Content(schema = @Schema(implementation = ErrorResponse.class))
             )
     })
-    public ResponseEntity<EmailResponse> sendTestEmail() {
+    public CompletableFuture<ResponseEntity<EmailResponse>> sendTestEmail() {
 
         log.info("POST /api/v1/notifications/test-email - Отправка тестового email");
+        NotificationLinks.Links links = notificationLinks.current();
 
         String testEmail = "test@example.com";
-        emailService.sendUserCreatedEmail(testEmail, "Тестовый пользователь");
+
+        Outbox durableOutbox = outbox.getIfAvailable();
+        if (durableOutbox != null) {
+            EmailResponse response = submitToOutbox(durableOutbox,
+                    testEmail, "Тестовый пользователь", "TEST_NOTIFICATION");
+            response.add(links.testEmailSelf);
+            response.add(links.statusRel);
+
+            return CompletableFuture.completedFuture(ResponseEntity.accepted().body(response));
+        }
+
+        if (asyncEnabled) {
+            NotificationJob job = notificationDispatcher.submitUserCreated(
+                    testEmail, "Тестовый пользователь", "TEST_NOTIFICATION");
+
+            EmailResponse response = acceptedResponse(job);
+            response.add(links.testEmailSelf);
+            response.add(links.job(job.getId()));
+            response.add(links.statusRel);
+
+            return CompletableFuture.completedFuture(ResponseEntity.accepted().body(response));
+        }
 
         EmailResponse response = EmailResponse.builder()
                 .status("SUCCESS")
                 .message("Тестовый email успешно отправлен")
                 .toEmail(testEmail)
-                .sentAt(LocalDateTime.now())
                 .emailType("TEST_NOTIFICATION")
                 .build();
 
         // Добавляем HATEOAS ссылки
-        response.add(linkTo(methodOn(NotificationController.class).sendTestEmail()).withSelfRel());
-        response.add(linkTo(methodOn(NotificationController.class).getServiceStatus()).withRel("status"));
-        response.add(linkTo(methodOn(NotificationController.class).sendEmail(new EmailRequest())).withRel("send-email"));
+        response.add(links.testEmailSelf);
+        response.add(links.statusRel);
+        response.add(links.sendEmailRel);
 
-        return ResponseEntity.ok(response);
+        return sendExecutor.supply(sendExecutor.getRestPriority(), () -> {
+            emailService.sendUserCreatedEmail(testEmail, "Тестовый пользователь");
+            response.setSentAt(LocalDateTime.now());
+            return ResponseEntity.ok(response);
+        });
     }
 
     @GetMapping
@@ -172,6 +369,7 @@ public class NotificationController {
     public ResponseEntity<EmailResponse> getServiceInfo() {
 
         log.debug("GET /api/v1/notifications - Получение информации о сервисе");
+        NotificationLinks.Links links = notificationLinks.current();
 
         EmailResponse response = EmailResponse.builder()
                 .status("AVAILABLE")
@@ -180,11 +378,283 @@ public class NotificationController {
                 .build();
 
         // Добавляем HATEOAS ссылки для навигации по API
-        response.add(linkTo(methodOn(NotificationController.class).getServiceInfo()).withSelfRel());
+        response.add(links.serviceInfoSelf);
+        response.add(links.statusRel);
+        response.add(links.testEmailRel);
+        response.add(links.sendEmailRel);
+
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/jobs/{id}")
+    @Operation(
+            summary = "Статус задания на отправку",
+            description = "Возвращает статус задания, созданного асинхронной отправкой email"
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Статус задания получен",
+                    content = @Content(schema = @Schema(implementation = JobStatusResponse.class))
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "Задание не найдено",
+                    content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+            )
+    })
+    public ResponseEntity<JobStatusResponse> getJobStatus(
+            @Parameter(description = "Идентификатор задания", required = true)
+            @PathVariable("id") String id) {
+
+        log.debug("GET /api/v1/notifications/jobs/{} - Получение статуса задания", id);
+        NotificationLinks.Links links = notificationLinks.current();
+
+        NotificationJob job = jobStatusStore.find(id).orElseThrow(() -> new JobNotFoundException(id));
+
+        JobStatusResponse response = JobStatusResponse.builder()
+                .jobId(job.getId())
+                .status(job.getStatus().name())
+                .toEmail(job.getToEmail())
+                .emailType(job.getEmailType())
+                .createdAt(job.getCreatedAt())
+                .completedAt(job.getCompletedAt())
+                .error(job.getError())
+                .build();
+
+        // Добавляем HATEOAS ссылки
+        response.add(links.jobSelf(id));
+        response.add(links.statusRel);
+
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/admin/dlt")
+    @Operation(
+            summary = "Состояние топика недоставленных событий",
+            description = "Возвращает число событий в топике недоставленных, еще не отправленных повторно"
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Глубина топика получена",
+                    content = @Content(schema = @Schema(implementation = DeadLetterResponse.class))
+            ),
+            @ApiResponse(
+                    responseCode = "500",
+                    description = "Kafka недоступна",
+                    content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+            )
+    })
+    public ResponseEntity<DeadLetterResponse> getDeadLetterStatus() {
+
+        log.debug("GET /api/v1/notifications/admin/dlt - Получение глубины топика недоставленных");
+
+        DeadLetterResponse response = DeadLetterResponse.builder()
+                .topic(deadLetterService.getTopic())
+                .depth(deadLetterService.getDepth())
+                .checkedAt(LocalDateTime.now())
+                .build();
+
+        // Добавляем HATEOAS ссылки
+        response.add(linkTo(methodOn(NotificationController.class).getDeadLetterStatus()).withSelfRel());
+        response.add(linkTo(methodOn(NotificationController.class).replayDeadLetters(null)).withRel("replay"));
+
+        return ResponseEntity.ok(response);
+    }
+
+    @PostMapping("/admin/dlt/replay")
+    @Operation(
+            summary = "Повторно отправить недоставленные события",
+            description = "Переносит не больше limit событий из топика недоставленных в основной топик событий"
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "События отправлены повторно",
+                    content = @Content(schema = @Schema(implementation = DeadLetterResponse.class))
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "Некорректный limit",
+                    content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+            ),
+            @ApiResponse(
+                    responseCode = "500",
+                    description = "Kafka недоступна",
+                    content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+            )
+    })
+    public ResponseEntity<DeadLetterResponse> replayDeadLetters(
+            @Parameter(description = "Максимальное число событий")
+            @RequestParam(value = "limit", defaultValue = "1000") @Min(1) @Max(100000) Integer limit) {
+
+        log.info("POST /api/v1/notifications/admin/dlt/replay - Повторная отправка до {} событий", limit);
+
+        int replayed = deadLetterService.replay(limit);
+
+        DeadLetterResponse response = DeadLetterResponse.builder()
+                .topic(deadLetterService.getTopic())
+                .replayed(replayed)
+                .depth(deadLetterService.getDepth())
+                .checkedAt(LocalDateTime.now())
+                .build();
+
+        // Добавляем HATEOAS ссылки
+        response.add(linkTo(methodOn(NotificationController.class).replayDeadLetters(limit)).withSelfRel());
+        response.add(linkTo(methodOn(NotificationController.class).getDeadLetterStatus()).withRel("dlt"));
+
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/admin/suppressions")
+    @Operation(
+            summary = "Проверить адрес в списке подавления",
+            description = "Возвращает, подавлены ли письма на адрес из-за жесткого отказа или отписки"
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Состояние адреса получено",
+                    content = @Content(schema = @Schema(implementation = SuppressionResponse.class))
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "Некорректный адрес",
+                    content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+            )
+    })
+    public ResponseEntity<SuppressionResponse> getSuppression(
+            @Parameter(description = "Адрес получателя")
+            @RequestParam("email") String email) {
+
+        log.debug("GET /api/v1/notifications/admin/suppressions - Проверка адреса {}", email);
+
+        SuppressionIndex index = requireSuppressionIndex();
+        String normalized = AddressNormalizer.normalize(email);
+        return suppressionResponse(index, normalized, index.contains(normalized), null);
+    }
+
+    @PostMapping("/admin/suppressions")
+    @Operation(
+            summary = "Добавить адрес в список подавления",
+            description = "Письма на адрес больше не отправляются. Изменение публикуется в топик " +
+                    "kafka.topics.suppressions, из которого его получают все экземпляры сервиса, " +
+                    "и сразу применяется к этому экземпляру"
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Адрес в списке подавления",
+                    content = @Content(schema = @Schema(implementation = SuppressionResponse.class))
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "Некорректный адрес",
+                    content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+            )
+    })
+    public ResponseEntity<SuppressionResponse> addSuppression(@Valid @RequestBody SuppressionRequest request) {
+
+        log.info("POST /api/v1/notifications/admin/suppressions - Подавление адреса {}: {}",
+                request.getEmail(), request.getReason());
+
+        SuppressionIndex index = requireSuppressionIndex();
+        String normalized = requireSuppressionPublisher().suppress(request.getEmail(), request.getReason());
+        boolean changed = index.add(normalized);
+        return suppressionResponse(index, normalized, true, changed);
+    }
+
+    @DeleteMapping("/admin/suppressions")
+    @Operation(
+            summary = "Убрать адрес из списка подавления",
+            description = "Письма на адрес снова отправляются, например после повторной подписки. " +
+                    "Изменение публикуется в топик kafka.topics.suppressions для всех экземпляров сервиса"
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Адреса нет в списке подавления",
+                    content = @Content(schema = @Schema(implementation = SuppressionResponse.class))
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "Некорректный адрес",
+                    content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+            )
+    })
+    public ResponseEntity<SuppressionResponse> removeSuppression(
+            @Parameter(description = "Адрес получателя")
+            @RequestParam("email") String email) {
+
+        log.info("DELETE /api/v1/notifications/admin/suppressions - Снятие подавления адреса {}", email);
+
+        SuppressionIndex index = requireSuppressionIndex();
+        String normalized = requireSuppressionPublisher().unsuppress(email);
+        boolean changed = index.remove(normalized);
+        return suppressionResponse(index, normalized, false, changed);
+    }
+
+    private SuppressionIndex requireSuppressionIndex() {
+        SuppressionIndex index = suppressionIndex.getIfAvailable();
+        if (index == null) {
+            throw new IllegalStateException("Список подавления выключен (app.suppression.enabled=false)");
+        }
+        return index;
+    }
+
+    private SuppressionPublisher requireSuppressionPublisher() {
+        SuppressionPublisher publisher = suppressionPublisher.getIfAvailable();
+        if (publisher == null) {
+            throw new IllegalStateException("Список подавления выключен (app.suppression.enabled=false)");
+        }
+        return publisher;
+    }
+
+    private static ResponseEntity<SuppressionResponse> suppressionResponse(
+            SuppressionIndex index, String email, boolean suppressed, Boolean changed) {
+        SuppressionResponse response = SuppressionResponse.builder()
+                .email(email)
+                .suppressed(suppressed)
+                .changed(changed)
+                .total(index.size())
+                .checkedAt(LocalDateTime.now())
+                .build();
+
+        // Добавляем HATEOAS ссылки
+        response.add(linkTo(methodOn(NotificationController.class).getSuppression(email)).withSelfRel());
         response.add(linkTo(methodOn(NotificationController.class).getServiceStatus()).withRel("status"));
-        response.add(linkTo(methodOn(NotificationController.class).sendTestEmail()).withRel("test-email"));
-        response.add(linkTo(methodOn(NotificationController.class).sendEmail(new EmailRequest())).withRel("send-email"));
 
         return ResponseEntity.ok(response);
     }
+
+    /**
+     * Сохраняет письмо в очередь исходящих уведомлений; к ответу оно уже на диске
+     */
+    private static EmailResponse submitToOutbox(Outbox outbox, String toEmail, String userName, String emailType) {
+        Outbox.Entry entry = outbox.submit(UserEvent.builder()
+                .eventType(UserEvent.EventType.USER_CREATED)
+                .email(toEmail)
+                .name(userName)
+                .build());
+
+        return EmailResponse.builder()
+                .status("ACCEPTED")
+                .message("Email сохранен в очереди исходящих уведомлений")
+                .toEmail(toEmail)
+                .sentAt(LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.getSubmittedAt()), ZoneId.systemDefault()))
+                .emailType(emailType)
+                .build();
+    }
+
+    private static EmailResponse acceptedResponse(NotificationJob job) {
+        return EmailResponse.builder()
+                .status("ACCEPTED")
+                .message("Email поставлен в очередь на отправку")
+                .toEmail(job.getToEmail())
+                .sentAt(job.getCreatedAt())
+                .emailType(job.getEmailType())
+                .jobId(job.getId())
+                .build();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+package com.aston.controller;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
+
+/**
+ * Ссылки HATEOAS ответов {@link NotificationController}, построенные один раз на адрес сервиса.
+ *
+ * linkTo строит ссылку от текущего запроса: схема, Host, заголовки X-Forwarded-* и контекстный
+ * путь. Поэтому набор ссылок кешируется по этим значениям, а не строится заново в каждом
+ * ответе. Кеш хранит MAX_BASES адресов и вытесняет давно не использованный: запросы
+ * с произвольным Host не раздувают его и не вытесняют адреса, по которым обращаются постоянно
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class NotificationLinks {
+
+    private static final int MAX_BASES = 64;
+
+    private static final String[] BASE_HEADERS = {
+            HttpHeaders.HOST, "Forwarded", "X-Forwarded-Host", "X-Forwarded-Proto", "X-Forwarded-Port",
+            "X-Forwarded-Prefix", "X-Forwarded-Ssl"
+    };
+
+    /**
+     * Ссылки для одного адреса сервиса
+     */
+    public static final class Links {
+
+        final Link serviceInfoSelf;
+        final Link statusSelf;
+        final Link statusRel;
+        final Link sendEmailSelf;
+        final Link sendEmailRel;
+        final Link testEmailSelf;
+        final Link testEmailRel;
+        private final String jobs;
+
+        Links() {
+            String base = linkTo(NotificationController.class).toUri().toString();
+            this.serviceInfoSelf = Link.of(base, IanaLinkRelations.SELF);
+            this.statusSelf = Link.of(base + "/status", IanaLinkRelations.SELF);
+            this.statusRel = statusSelf.withRel("status");
+            this.sendEmailSelf = Link.of(base + "/email", IanaLinkRelations.SELF);
+            this.sendEmailRel = sendEmailSelf.withRel("send-email");
+            this.testEmailSelf = Link.of(base + "/test-email", IanaLinkRelations.SELF);
+            this.testEmailRel = testEmailSelf.withRel("test-email");
+            this.jobs = base + "/jobs/";
+        }
+
+        Link job(String id) {
+            return Link.of(jobs + id, "job");
+        }
+
+        Link jobSelf(String id) {
+            return Link.of(jobs + id, IanaLinkRelations.SELF);
+        }
+    }
+
+    private final Map<String, Links> links = new LinkedHashMap<>(MAX_BASES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Links> eldest) {
+            return size() > MAX_BASES;
+        }
+    };
+
+    /**
+     * Ссылки для адреса текущего запроса
+     */
+    public Links current() {
+        String key = baseKey();
+        synchronized (links) {
+            return links.computeIfAbsent(key, ignored -> new Links());
+        }
+    }
+
+    private static String baseKey() {
+        RequestAttributes attributes = RequestContextHolder.currentRequestAttributes();
+        HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+        StringBuilder key = new StringBuilder(96)
+                .append(request.getScheme()).append('|')
+                .append(request.getServerName()).append('|')
+                .append(request.getServerPort()).append('|')
+                .append(request.getContextPath());
+        for (String header : BASE_HEADERS) {
+            String value = request.getHeader(header);
+            if (value != null) {
+                key.append('|').append(header).append('=').append(value);
+            }
+        }
+        return key.toString();
+    }
+}
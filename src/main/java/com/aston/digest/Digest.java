@@ -0,0 +1,90 @@
+package com.aston.digest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Накопленная сводка одного адреса.
+ *
+ * Хранит не больше maxLines строк уведомлений, остальные только считаются.
+ * Сводка может состоять из нескольких записей файла (ids), если неудачная отправка
+ * объединила ее с более новой сводкой того же адреса
+ */
+final class Digest {
+
+    /**
+     * Строка уведомления в сводке
+     */
+    static final class Item {
+
+        final long at;
+        final String subject;
+        final String line;
+
+        Item(long at, String subject, String line) {
+            this.at = at;
+            this.subject = subject;
+            this.line = line;
+        }
+    }
+
+    final String recipient;
+    final List<Long> ids = new ArrayList<>(1);
+    final List<Item> items = new ArrayList<>();
+    int omitted;
+    long firstAt = Long.MAX_VALUE;
+    long lastAt = Long.MIN_VALUE;
+    // Отправка по числу уведомлений уже поставлена в очередь
+    boolean flushRequested;
+
+    Digest(long id, String recipient) {
+        this.ids.add(id);
+        this.recipient = recipient;
+    }
+
+    long id() {
+        return ids.get(0);
+    }
+
+    /**
+     * Добавляет уведомление
+     *
+     * @return false, если строк уже maxLines и уведомление только посчитано
+     */
+    boolean add(Item item, int maxLines) {
+        touch(item.at);
+        if (items.size() >= maxLines) {
+            omitted++;
+            return false;
+        }
+        items.add(item);
+        return true;
+    }
+
+    void addOmitted(long at, int count) {
+        touch(at);
+        omitted += count;
+    }
+
+    /**
+     * Переносит в эту сводку уведомления более новой сводки того же адреса
+     */
+    void absorb(Digest newer, int maxLines) {
+        ids.addAll(newer.ids);
+        for (Item item : newer.items) {
+            add(item, maxLines);
+        }
+        if (newer.omitted > 0) {
+            addOmitted(newer.lastAt, newer.omitted);
+        }
+    }
+
+    int count() {
+        return items.size() + omitted;
+    }
+
+    private void touch(long at) {
+        firstAt = Math.min(firstAt, at);
+        lastAt = Math.max(lastAt, at);
+    }
+}
@@ -0,0 +1,177 @@
+package com.aston.digest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Файл накопленных сводок, только дозапись.
+ *
+ * Запись: длина (int), вид записи (byte), данные. Оборванная при сбое последняя запись
+ * отбрасывается при чтении, и файл обрезается до последней целой записи.
+ * Запись попадает в страничный кеш и переживает падение процесса без fsync
+ */
+@Slf4j
+final class DigestLog implements AutoCloseable {
+
+    static final byte ADD = 'A';
+    static final byte OMITTED = 'O';
+    static final byte FLUSHED = 'F';
+
+    /**
+     * Получатель записей файла при чтении
+     */
+    interface RecordConsumer {
+
+        void add(long digestId, String recipient, long at, String subject, String line);
+
+        void omitted(long digestId, String recipient, long at, int count);
+
+        void flushed(long digestId);
+    }
+
+    private final Path path;
+    private FileChannel channel;
+    private long records;
+
+    DigestLog(Path path) throws IOException {
+        this.path = path;
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = open(path);
+    }
+
+    /**
+     * Читает все записи от начала файла
+     */
+    void replay(RecordConsumer consumer) throws IOException {
+        byte[] content = Files.readAllBytes(path);
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        records = 0;
+        while (buffer.remaining() >= 5) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length < 1 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, buffer.position(), length));
+            buffer.position(buffer.position() + length);
+            byte kind = in.readByte();
+            if (kind == ADD) {
+                consumer.add(in.readLong(), in.readUTF(), in.readLong(), in.readUTF(), in.readUTF());
+            } else if (kind == OMITTED) {
+                consumer.omitted(in.readLong(), in.readUTF(), in.readLong(), in.readInt());
+            } else if (kind == FLUSHED) {
+                consumer.flushed(in.readLong());
+            } else {
+                log.warn("Неизвестная запись {} в файле сводок {}, чтение остановлено", kind, path);
+                buffer.position(start);
+                break;
+            }
+            records++;
+        }
+        if (buffer.position() < content.length) {
+            log.warn("Файл сводок {} обрезан до {} байт после неполной записи", path, buffer.position());
+            channel.truncate(buffer.position());
+            channel.position(buffer.position());
+        }
+    }
+
+    void add(long digestId, String recipient, long at, String subject, String line) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + subject.length() + line.length());
+        DataOutputStream out = header(bytes, ADD);
+        out.writeLong(digestId);
+        out.writeUTF(recipient);
+        out.writeLong(at);
+        out.writeUTF(subject);
+        out.writeUTF(line);
+        write(bytes);
+    }
+
+    void omitted(long digestId, String recipient, long at, int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = header(bytes, OMITTED);
+        out.writeLong(digestId);
+        out.writeUTF(recipient);
+        out.writeLong(at);
+        out.writeInt(count);
+        write(bytes);
+    }
+
+    void flushed(long digestId) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        DataOutputStream out = header(bytes, FLUSHED);
+        out.writeLong(digestId);
+        write(bytes);
+    }
+
+    long records() {
+        return records;
+    }
+
+    /**
+     * Заменяет файл записями, которые сделает writer, через временный файл
+     */
+    void rewrite(LogWriter writer) throws IOException {
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        Files.deleteIfExists(compacted);
+        try (DigestLog target = new DigestLog(compacted)) {
+            writer.writeTo(target);
+            target.channel.force(false);
+            records = target.records;
+        }
+        channel.close();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = open(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Запись содержимого в новый файл при уплотнении
+     */
+    @FunctionalInterface
+    interface LogWriter {
+        void writeTo(DigestLog target) throws IOException;
+    }
+
+    private static DataOutputStream header(ByteArrayOutputStream bytes, byte kind) throws IOException {
+        DataOutputStream out = new DataOutputStream(bytes);
+        // Место под длину записи, заполняется в write
+        out.writeInt(0);
+        out.writeByte(kind);
+        return out;
+    }
+
+    private void write(ByteArrayOutputStream bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        buffer.putInt(0, buffer.limit() - 4);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        records++;
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+}
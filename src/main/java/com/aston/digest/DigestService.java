@@ -0,0 +1,447 @@
+package com.aston.digest;
+
+import com.aston.mail.SendScheduler;
+import com.aston.metrics.NotificationMetrics;
+import com.aston.suppression.SuppressionIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.mail.SimpleMailMessage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Сводки уведомлений для адресов, получающих много писем.
+ *
+ * Письма на адреса из recipients и на домены из domains не отправляются сразу, а копятся
+ * в сводке адреса. Сводка уходит одним письмом, когда с первого уведомления прошло interval
+ * или уведомлений набралось maxCount. Сводка хранит не больше maxLines строк, остальные
+ * уведомления только считаются, поэтому память на адрес ограничена.
+ *
+ * Каждое уведомление дописывается в {@link DigestLog} до того, как письмо считается принятым,
+ * и неотправленные сводки восстанавливаются из файла при старте. Сводка уходит через
+ * {@link SendScheduler} мимо проверки адреса, поэтому перед отправкой адрес сверяется со списком
+ * подавления: пока сводка копилась, получатель мог отписаться или адрес мог вернуть жесткий отказ.
+ * Без адресов и доменов сервис выключен и письма проходят мимо него
+ */
+@Slf4j
+public class DigestService implements AutoCloseable {
+
+    private static final int MAX_SUBJECT = 200;
+    private static final int MAX_LINE = 300;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm");
+
+    private final SendScheduler sendScheduler;
+
+    /**
+     * Список подавления, null - не проверяется
+     */
+    private final SuppressionIndex suppressionIndex;
+    private final Set<String> recipients;
+    private final Set<String> domains;
+    private final long intervalMillis;
+    private final int maxCount;
+    private final int maxLines;
+    private final int maxRecipients;
+    private final String fromEmail;
+    private final Clock clock;
+    private final DateTimeFormatter timeFormat;
+
+    private final DigestLog digestLog;
+    private final Map<String, Digest> digests = new LinkedHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private long nextId = 1;
+    private int pending;
+
+    private final Counter added;
+    private final Counter sent;
+    private final Counter failed;
+    private final Counter suppressed;
+
+    /**
+     * @param path           файл сводок, null - сводки только в памяти
+     * @param checkInterval  период проверки сроков сводок; ноль - без фонового потока,
+     *                       сводки по числу уведомлений отправляются в потоке вызова
+     */
+    public DigestService(SendScheduler sendScheduler,
+                         SuppressionIndex suppressionIndex,
+                         NotificationMetrics metrics,
+                         Path path,
+                         Collection<String> recipients,
+                         Collection<String> domains,
+                         Duration interval,
+                         int maxCount,
+                         int maxLines,
+                         int maxRecipients,
+                         Duration checkInterval,
+                         String fromEmail,
+                         Clock clock) throws IOException {
+        this.sendScheduler = sendScheduler;
+        this.suppressionIndex = suppressionIndex;
+        this.recipients = lowerCase(recipients);
+        this.domains = lowerCase(domains);
+        this.intervalMillis = interval.toMillis();
+        this.maxCount = Math.max(1, maxCount);
+        this.maxLines = Math.max(1, maxLines);
+        this.maxRecipients = maxRecipients;
+        this.fromEmail = fromEmail;
+        this.clock = clock;
+        this.timeFormat = TIME_FORMAT.withZone(clock.getZone());
+
+        this.added = Counter.builder("notification.digest.added")
+                .description("Уведомления, отложенные в сводки")
+                .register(metrics.getRegistry());
+        this.sent = digestCounter(metrics, "success");
+        this.failed = digestCounter(metrics, "failure");
+        this.suppressed = digestCounter(metrics, "suppressed");
+        Gauge.builder("notification.digest.pending", this, DigestService::getPending)
+                .description("Уведомления в неотправленных сводках")
+                .register(metrics.getRegistry());
+
+        boolean enabled = isEnabled();
+        this.digestLog = enabled && path != null ? new DigestLog(path) : null;
+        if (digestLog != null) {
+            replay();
+            log.info("Файл сводок {} загружен: {} сводок, {} уведомлений", path, digests.size(), pending);
+        }
+
+        if (!enabled || checkInterval.isZero() || checkInterval.isNegative()) {
+            this.flusher = null;
+        } else {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "digest-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = checkInterval.toMillis();
+            flusher.scheduleWithFixedDelay(this::flushDue, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return !recipients.isEmpty() || !domains.isEmpty();
+    }
+
+    /**
+     * Откладывает письмо в сводку его адреса
+     *
+     * @return false, если письмо нужно отправить как обычно: адрес не входит в сводки,
+     * у письма не один получатель, сводок уже maxRecipients или запись в файл не удалась
+     */
+    public boolean offer(SimpleMailMessage message) {
+        if (!isEnabled()) {
+            return false;
+        }
+        String[] to = message.getTo();
+        if (to == null || to.length != 1 || to[0] == null) {
+            return false;
+        }
+        String recipient = to[0].trim().toLowerCase(Locale.ROOT);
+        if (!matches(recipient)) {
+            return false;
+        }
+
+        long now = clock.millis();
+        String subject = truncate(message.getSubject(), MAX_SUBJECT);
+        String line = truncate(message.getText(), MAX_LINE);
+        boolean full;
+        synchronized (this) {
+            Digest digest = digests.get(recipient);
+            long id = digest != null ? digest.id() : nextId;
+            if (digest == null && digests.size() >= maxRecipients) {
+                log.warn("Сводок уже {}, письмо на адрес {} отправляется сразу", maxRecipients, recipient);
+                return false;
+            }
+            boolean keepLine = digest == null || digest.items.size() < maxLines;
+            try {
+                if (digestLog != null) {
+                    if (keepLine) {
+                        digestLog.add(id, recipient, now, subject, line);
+                    } else {
+                        digestLog.omitted(id, recipient, now, 1);
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Не удалось записать уведомление в файл сводок, письмо на адрес {} отправляется сразу: {}",
+                        recipient, e.getMessage());
+                return false;
+            }
+            if (digest == null) {
+                digest = new Digest(nextId++, recipient);
+                digests.put(recipient, digest);
+            }
+            digest.add(new Digest.Item(now, subject, line), maxLines);
+            pending++;
+            full = digest.count() >= maxCount && !digest.flushRequested;
+            digest.flushRequested |= full;
+        }
+        added.increment();
+        log.debug("Письмо на адрес {} отложено в сводку", recipient);
+
+        if (full) {
+            flushLater(recipient);
+        }
+        return true;
+    }
+
+    public synchronized int getPending() {
+        return pending;
+    }
+
+    public synchronized int getDigests() {
+        return digests.size();
+    }
+
+    /**
+     * Отправляет сводки, с первого уведомления которых прошло interval,
+     * и набравшие maxCount, но не отправленные из-за ошибки
+     */
+    void flushDue() {
+        long dueBefore = clock.millis() - intervalMillis;
+        List<String> due;
+        synchronized (this) {
+            due = digests.values().stream()
+                    .filter(digest -> digest.firstAt <= dueBefore || digest.count() >= maxCount)
+                    .map(digest -> digest.recipient)
+                    .collect(Collectors.toList());
+        }
+        due.forEach(this::flush);
+        compactQuietly();
+    }
+
+    /**
+     * Отправляет сводку адреса одним письмом. Сводка на адрес из списка подавления отбрасывается.
+     * Уведомления, пришедшие во время отправки, копятся в новой сводке;
+     * при ошибке отправки обе сводки объединяются и ждут следующей проверки
+     */
+    void flush(String recipient) {
+        Digest digest;
+        synchronized (this) {
+            digest = digests.remove(recipient);
+            if (digest == null) {
+                return;
+            }
+            pending -= digest.count();
+        }
+
+        if (suppressionIndex != null && suppressionIndex.contains(recipient)) {
+            suppressed.increment();
+            log.info("Адрес {} в списке подавления, сводка из {} уведомлений не отправляется",
+                    recipient, digest.count());
+            markFlushed(digest);
+            return;
+        }
+
+        try {
+            sendScheduler.send(createMessage(digest));
+        } catch (RuntimeException e) {
+            failed.increment();
+            log.warn("Сводка из {} уведомлений на адрес {} не отправлена, повтор при следующей проверке: {}",
+                    digest.count(), recipient, e.getMessage());
+            synchronized (this) {
+                Digest newer = digests.remove(recipient);
+                if (newer != null) {
+                    digest.absorb(newer, maxLines);
+                    pending -= newer.count();
+                }
+                digests.put(recipient, digest);
+                pending += digest.count();
+            }
+            return;
+        }
+
+        sent.increment();
+        log.info("Сводка из {} уведомлений отправлена на адрес {}", digest.count(), recipient);
+        markFlushed(digest);
+    }
+
+    /**
+     * Переписывает файл сводок, если отправленные сводки занимают в нем больше половины записей
+     */
+    synchronized void compact() throws IOException {
+        if (digestLog == null) {
+            return;
+        }
+        long live = 0;
+        for (Digest digest : digests.values()) {
+            live += digest.items.size() + (digest.omitted > 0 ? 1 : 0);
+        }
+        if (digestLog.records() <= live * 2 + 1024) {
+            return;
+        }
+        long before = digestLog.records();
+        digestLog.rewrite(target -> {
+            for (Digest digest : digests.values()) {
+                for (Digest.Item item : digest.items) {
+                    target.add(digest.id(), digest.recipient, item.at, item.subject, item.line);
+                }
+                if (digest.omitted > 0) {
+                    target.omitted(digest.id(), digest.recipient, digest.lastAt, digest.omitted);
+                }
+            }
+        });
+        for (Digest digest : digests.values()) {
+            digest.ids.subList(1, digest.ids.size()).clear();
+        }
+        log.info("Файл сводок уплотнен: {} записей вместо {}", digestLog.records(), before);
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+        if (flusher != null) {
+            flusher.shutdown();
+            if (!flusher.awaitTermination(30, TimeUnit.SECONDS)) {
+                flusher.shutdownNow();
+            }
+        }
+        if (digestLog != null) {
+            synchronized (this) {
+                digestLog.close();
+            }
+        }
+    }
+
+    /**
+     * Отмечает в файле, что сводка отправлена или отброшена
+     */
+    private synchronized void markFlushed(Digest digest) {
+        try {
+            if (digestLog != null) {
+                for (Long id : digest.ids) {
+                    digestLog.flushed(id);
+                }
+            }
+        } catch (IOException e) {
+            // Без отметки сводка будет обработана повторно после перезапуска
+            log.error("Не удалось отметить отправку сводки на адрес {}: {}", digest.recipient, e.getMessage());
+        }
+    }
+
+    private void flushLater(String recipient) {
+        if (flusher == null) {
+            flush(recipient);
+            return;
+        }
+        try {
+            flusher.execute(() -> flush(recipient));
+        } catch (RejectedExecutionException e) {
+            log.debug("Сервис сводок остановлен, сводка на адрес {} отправится после перезапуска", recipient);
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException e) {
+            log.error("Не удалось уплотнить файл сводок: {}", e.getMessage(), e);
+        }
+    }
+
+    private SimpleMailMessage createMessage(Digest digest) {
+        StringBuilder text = new StringBuilder(256 + digest.items.size() * 128);
+        text.append("Здравствуйте!\n\n")
+                .append("С ").append(timeFormat.format(Instant.ofEpochMilli(digest.firstAt)))
+                .append(" по ").append(timeFormat.format(Instant.ofEpochMilli(digest.lastAt)))
+                .append(" для вас накопилось уведомлений: ").append(digest.count()).append(".\n\n");
+        for (Digest.Item item : digest.items) {
+            text.append(timeFormat.format(Instant.ofEpochMilli(item.at))).append(" - ").append(item.subject).append('\n')
+                    .append("    ").append(item.line).append("\n\n");
+        }
+        if (digest.omitted > 0) {
+            text.append("...и еще уведомлений: ").append(digest.omitted).append('\n');
+        }
+
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom(fromEmail);
+        message.setTo(digest.recipient);
+        message.setSubject("Сводка уведомлений: " + digest.count());
+        message.setText(text.toString());
+        return message;
+    }
+
+    private void replay() throws IOException {
+        Map<Long, Digest> byId = new TreeMap<>();
+        digestLog.replay(new DigestLog.RecordConsumer() {
+            @Override
+            public void add(long digestId, String recipient, long at, String subject, String line) {
+                byId.computeIfAbsent(digestId, id -> new Digest(id, recipient))
+                        .add(new Digest.Item(at, subject, line), maxLines);
+            }
+
+            @Override
+            public void omitted(long digestId, String recipient, long at, int count) {
+                byId.computeIfAbsent(digestId, id -> new Digest(id, recipient)).addOmitted(at, count);
+            }
+
+            @Override
+            public void flushed(long digestId) {
+                byId.remove(digestId);
+            }
+        });
+
+        // Записи одного адреса под разными id остаются после неудачной отправки - собираем их по порядку
+        Map<String, Digest> byRecipient = new HashMap<>();
+        for (Digest digest : byId.values()) {
+            Digest older = byRecipient.putIfAbsent(digest.recipient, digest);
+            if (older != null) {
+                older.absorb(digest, maxLines);
+            }
+            nextId = Math.max(nextId, digest.id() + 1);
+        }
+        for (Digest digest : byId.values()) {
+            if (byRecipient.get(digest.recipient) == digest) {
+                digests.put(digest.recipient, digest);
+                pending += digest.count();
+            }
+        }
+    }
+
+    private boolean matches(String recipient) {
+        if (recipients.contains(recipient)) {
+            return true;
+        }
+        int at = recipient.lastIndexOf('@');
+        return at >= 0 && domains.contains(recipient.substring(at + 1));
+    }
+
+    private static Set<String> lowerCase(Collection<String> values) {
+        return values.stream()
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .map(value -> value.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toSet());
+    }
+
+    private static String truncate(String value, int max) {
+        if (value == null) {
+            return "";
+        }
+        String collapsed = value.replaceAll("\\s+", " ").trim();
+        return collapsed.length() <= max ? collapsed : collapsed.substring(0, max - 1) + "…";
+    }
+
+    private static Counter digestCounter(NotificationMetrics metrics, String outcome) {
+        return Counter.builder("notification.digest.sent")
+                .description("Отправленные сводки уведомлений")
+                .tag("outcome", outcome)
+                .register(metrics.getRegistry());
+    }
+}
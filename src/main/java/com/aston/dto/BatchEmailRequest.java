@@ -0,0 +1,31 @@
+package com.aston.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.Email;
+import javax.validation.constraints.NotBlank;
+
+/**
+ * Элемент пакетного запроса: письмо указанного типа одному получателю
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchEmailRequest {
+
+    @NotBlank(message = "Email не может быть пустым")
+    @Email(message = "Некорректный формат email")
+    private String toEmail;
+
+    private String userName;
+
+    /**
+     * Тип письма, по умолчанию USER_CREATED
+     */
+    private UserEvent.EventType eventType;
+
+}
@@ -0,0 +1,30 @@
+package com.aston.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Результат отправки одного письма пакетного запроса, одна строка ответа NDJSON
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResult {
+
+    public enum Status {
+        SENT,
+        FAILED,
+        INVALID,
+        ERROR
+    }
+
+    private long index;
+    private String toEmail;
+    private Status status;
+    private String error;
+}
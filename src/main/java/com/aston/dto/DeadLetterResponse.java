@@ -0,0 +1,29 @@
+package com.aston.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.hateoas.RepresentationModel;
+
+import java.time.LocalDateTime;
+
+/**
+ * DTO состояния топика недоставленных событий с поддержкой HATEOAS
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DeadLetterResponse extends RepresentationModel<DeadLetterResponse> {
+
+    private String topic;
+    private Long depth;
+    private Integer replayed;
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime checkedAt;
+}
@@ -28,4 +28,24 @@ public class EmailResponse extends RepresentationModel<EmailResponse> {
     private LocalDateTime sentAt;
 
     private String emailType;
+
+    /**
+     * Идентификатор задания при асинхронной отправке
+     */
+    private String jobId;
+
+    /**
+     * Состояние размыкателя SMTP-релея в ответе о статусе сервиса
+     */
+    private String relayState;
+
+    /**
+     * Текущий лимит одновременных отправок через SMTP-релей
+     */
+    private Integer concurrencyLimit;
+
+    /**
+     * Отправки, выполняемые через SMTP-релей в момент запроса
+     */
+    private Integer inFlightSends;
 }
\ No newline at end of file
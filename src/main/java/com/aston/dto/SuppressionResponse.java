@@ -0,0 +1,38 @@
+package com.aston.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.hateoas.RepresentationModel;
+
+import java.time.LocalDateTime;
+
+/**
+ * DTO состояния адреса в списке подавления с поддержкой HATEOAS
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SuppressionResponse extends RepresentationModel<SuppressionResponse> {
+
+    private String email;
+    private Boolean suppressed;
+
+    /**
+     * Изменил ли запрос список
+     */
+    private Boolean changed;
+
+    /**
+     * Адресов в списке
+     */
+    private Integer total;
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime checkedAt;
+}
@@ -0,0 +1,17 @@
+package com.aston.exception;
+
+import lombok.Getter;
+
+/**
+ * Очередь отправки уведомлений заполнена, запрос нужно повторить позже
+ */
+@Getter
+public class DispatchQueueFullException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public DispatchQueueFullException(long retryAfterSeconds) {
+        super("Очередь отправки уведомлений заполнена");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,38 @@
+package com.aston.exception;
+
+import lombok.Getter;
+
+/**
+ * Адрес получателя не годится для отправки: ошибка синтаксиса, домен не принимает почту
+ * или получатель в списке подавления.
+ *
+ * Наследует IllegalArgumentException, поэтому потребители Kafka и очередь исходящих
+ * уведомлений пропускают такое событие без повторов, а REST отвечает 400
+ */
+@Getter
+public class InvalidAddressException extends IllegalArgumentException {
+
+    public enum Reason {
+        /**
+         * Адрес не соответствует синтаксису RFC 5321
+         */
+        SYNTAX,
+        /**
+         * Домен не существует или объявил, что не принимает почту (null MX)
+         */
+        NO_MAIL,
+        /**
+         * Получатель в списке подавления: жесткий отказ или отписка
+         */
+        SUPPRESSED
+    }
+
+    private final String address;
+    private final Reason reason;
+
+    public InvalidAddressException(String address, Reason reason, String message) {
+        super(message + ": " + address);
+        this.address = address;
+        this.reason = reason;
+    }
+}
@@ -0,0 +1,11 @@
+package com.aston.exception;
+
+/**
+ * Задание на отправку не найдено или уже вытеснено из хранилища статусов
+ */
+public class JobNotFoundException extends RuntimeException {
+
+    public JobNotFoundException(String jobId) {
+        super("Задание не найдено: " + jobId);
+    }
+}
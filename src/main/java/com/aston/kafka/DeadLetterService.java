@@ -0,0 +1,181 @@
+package com.aston.kafka;
+
+import com.aston.dto.UserEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Service;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Обслуживание топика недоставленных событий.
+ *
+ * Прочитанная часть топика отмечается коммитом отдельной группы {@code <группа>-dlt-replay},
+ * поэтому глубина - это число записей после ее оффсета, а повторная отправка
+ * переносит записи в основной топик без заголовков повторов и сдвигает оффсет группы
+ */
+@Slf4j
+@Service
+public class DeadLetterService {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+
+    private final ConsumerFactory<String, UserEvent> consumerFactory;
+    private final KafkaTemplate<String, UserEvent> kafkaTemplate;
+    private final RetryTopicRouter router;
+    private final String replayGroupId;
+
+    public DeadLetterService(ConsumerFactory<String, UserEvent> consumerFactory,
+                             KafkaTemplate<String, UserEvent> kafkaTemplate,
+                             RetryTopicRouter router,
+                             @Value("${spring.kafka.consumer.group-id}") String groupId) {
+        this.consumerFactory = consumerFactory;
+        this.kafkaTemplate = kafkaTemplate;
+        this.router = router;
+        this.replayGroupId = groupId + "-dlt-replay";
+    }
+
+    public String getTopic() {
+        return router.getDeadLetterTopic();
+    }
+
+    /**
+     * Число записей топика недоставленных, еще не отправленных повторно
+     */
+    public long getDepth() {
+        try (Consumer<String, UserEvent> consumer = createConsumer()) {
+            List<TopicPartition> partitions = partitions(consumer);
+            if (partitions.isEmpty()) {
+                return 0;
+            }
+            Map<TopicPartition, Long> end = consumer.endOffsets(partitions, TIMEOUT);
+            Map<TopicPartition, Long> start = startOffsets(consumer, partitions);
+            long depth = 0;
+            for (TopicPartition partition : partitions) {
+                depth += Math.max(0, end.get(partition) - start.get(partition));
+            }
+            return depth;
+        }
+    }
+
+    /**
+     * Отправляет в основной топик не больше limit записей топика недоставленных.
+     * Записи, появившиеся после начала вызова, не переносятся
+     *
+     * @return число перенесенных записей
+     */
+    public synchronized int replay(int limit) {
+        try (Consumer<String, UserEvent> consumer = createConsumer()) {
+            List<TopicPartition> partitions = partitions(consumer);
+            if (partitions.isEmpty() || limit <= 0) {
+                return 0;
+            }
+            consumer.assign(partitions);
+            Map<TopicPartition, Long> end = consumer.endOffsets(partitions, TIMEOUT);
+            startOffsets(consumer, partitions).forEach(consumer::seek);
+
+            Map<TopicPartition, OffsetAndMetadata> replayed = new HashMap<>();
+            List<ListenableFuture<SendResult<String, UserEvent>>> sends = new ArrayList<>();
+            long deadline = System.nanoTime() + TIMEOUT.toNanos();
+
+            while (sends.size() < limit && !caughtUp(consumer, partitions, end) && System.nanoTime() < deadline) {
+                for (ConsumerRecord<String, UserEvent> record : consumer.poll(POLL_TIMEOUT)) {
+                    TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                    if (sends.size() >= limit || record.offset() >= end.get(partition)) {
+                        continue;
+                    }
+                    ProducerRecord<String, UserEvent> replay =
+                            new ProducerRecord<>(router.getMainTopic(), record.key(), record.value());
+                    // Событие возвращается только в каналы, которые его не доставили
+                    Header channels = record.headers().lastHeader(RetryTopicRouter.CHANNELS_HEADER);
+                    if (channels != null) {
+                        replay.headers().add(channels);
+                    }
+                    sends.add(kafkaTemplate.send(replay));
+                    replayed.put(partition, new OffsetAndMetadata(record.offset() + 1));
+                }
+            }
+
+            for (ListenableFuture<SendResult<String, UserEvent>> send : sends) {
+                await(send);
+            }
+            consumer.commitSync(replayed, TIMEOUT);
+            log.info("Из {} в {} повторно отправлено {} событий", getTopic(), router.getMainTopic(), sends.size());
+            return sends.size();
+        }
+    }
+
+    private Consumer<String, UserEvent> createConsumer() {
+        return consumerFactory.createConsumer(replayGroupId, null, "-dlt-admin");
+    }
+
+    private List<TopicPartition> partitions(Consumer<String, UserEvent> consumer) {
+        List<PartitionInfo> infos = consumer.partitionsFor(getTopic(), TIMEOUT);
+        if (infos == null) {
+            return Collections.emptyList();
+        }
+        List<TopicPartition> partitions = new ArrayList<>(infos.size());
+        infos.forEach(info -> partitions.add(new TopicPartition(info.topic(), info.partition())));
+        return partitions;
+    }
+
+    /**
+     * Оффсет, с которого начинаются не отправленные повторно записи:
+     * коммит группы повторной отправки, но не раньше начала топика
+     */
+    private static Map<TopicPartition, Long> startOffsets(Consumer<String, UserEvent> consumer,
+                                                          List<TopicPartition> partitions) {
+        Map<TopicPartition, Long> beginning = consumer.beginningOffsets(partitions, TIMEOUT);
+        Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(new HashSet<>(partitions), TIMEOUT);
+        Map<TopicPartition, Long> start = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            OffsetAndMetadata offset = committed.get(partition);
+            long first = beginning.get(partition);
+            start.put(partition, offset != null ? Math.max(offset.offset(), first) : first);
+        }
+        return start;
+    }
+
+    private static boolean caughtUp(Consumer<String, UserEvent> consumer, List<TopicPartition> partitions,
+                                    Map<TopicPartition, Long> end) {
+        for (TopicPartition partition : partitions) {
+            if (consumer.position(partition, TIMEOUT) < end.get(partition)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void await(ListenableFuture<SendResult<String, UserEvent>> send) {
+        try {
+            send.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KafkaException("Прервана повторная отправка недоставленных событий", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new KafkaException("Не удалось повторно отправить недоставленные события", e);
+        }
+    }
+}
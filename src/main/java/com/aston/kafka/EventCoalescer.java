@@ -0,0 +1,316 @@
+package com.aston.kafka;
+
+import com.aston.dto.UserEvent;
+import com.aston.metrics.NotificationMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Схлопывание событий одного пользователя в коротком окне.
+ *
+ * Событие с id задерживается на окно, отсчитанное от первого события пользователя.
+ * За это время повтор события того же типа заменяет прежнее событие, а USER_DELETED после еще
+ * не отправленного USER_CREATED отменяет оба письма. По истечении окна оставшиеся
+ * события пользователя передаются обработчику по порядку в пуле releaseWorkers.
+ *
+ * Запись подтверждается только после обработки: обработчик получает подтверждение вместе
+ * с записью, а отброшенные и отмененные записи подтверждаются сразу. Поэтому при аварийном
+ * завершении события окна не теряются, а читаются снова. Если обработчик завершился ошибкой,
+ * событие публикуется в топик отложенного повтора {@link RetryTopicRouter}, и запись подтверждается
+ * после публикации: неподтвержденная запись задержала бы коммит оффсетов всей партиции.
+ *
+ * Сроки хранятся в колесе таймеров: ячейка на каждый тик окна, тик таймера
+ * освобождает одну ячейку, поэтому постановка и снятие стоят O(1).
+ * Пользователей в окне не больше maxKeys: события новых пользователей сверх лимита
+ * и события без id передаются обработчику сразу
+ */
+@Slf4j
+public class EventCoalescer implements AutoCloseable {
+
+    /**
+     * Обработчик события, чье окно закончилось. Подтверждает запись сам, когда обработает ее
+     */
+    @FunctionalInterface
+    public interface Handler {
+        void accept(ConsumerRecord<String, UserEvent> record, Acknowledgment acknowledgment);
+    }
+
+    /**
+     * Запись в окне и ее подтверждение
+     */
+    private static final class Held {
+
+        private final ConsumerRecord<String, UserEvent> record;
+        private final Acknowledgment acknowledgment;
+
+        Held(ConsumerRecord<String, UserEvent> record, Acknowledgment acknowledgment) {
+            this.record = record;
+            this.acknowledgment = acknowledgment;
+        }
+
+        UserEvent.EventType type() {
+            return record.value().getEventType();
+        }
+    }
+
+    /**
+     * События одного пользователя в окне по порядку, не больше одного каждого типа
+     */
+    private static final class Slot {
+
+        private final Long key;
+        private final long deadline;
+        private final List<Held> records = new ArrayList<>(2);
+        private final Handler handler;
+
+        Slot(Long key, long deadline, Handler handler) {
+            this.key = key;
+            this.deadline = deadline;
+            this.handler = handler;
+        }
+    }
+
+    private final int windowTicks;
+    private final int maxKeys;
+    private final ArrayDeque<Slot>[] wheel;
+    private final Map<Long, Slot> slots = new HashMap<>();
+    private long currentTick;
+
+    private final ScheduledExecutorService timer;
+    private final ExecutorService releaseWorkers;
+    private final RetryTopicRouter retryRouter;
+
+    private final Counter duplicates;
+    private final Counter cancelled;
+    private final Counter bypassed;
+
+    public EventCoalescer(Duration window,
+                         Duration tick,
+                         int maxKeys,
+                         ExecutorService releaseWorkers,
+                         RetryTopicRouter retryRouter,
+                         NotificationMetrics metrics) {
+        this(window, tick, maxKeys, releaseWorkers, retryRouter, metrics, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    EventCoalescer(Duration window,
+                   Duration tick,
+                   int maxKeys,
+                   ExecutorService releaseWorkers,
+                   RetryTopicRouter retryRouter,
+                   NotificationMetrics metrics,
+                   boolean startTimer) {
+        long tickMs = Math.max(1, tick.toMillis());
+        this.windowTicks = (int) Math.max(1, (window.toMillis() + tickMs - 1) / tickMs);
+        this.maxKeys = maxKeys;
+        this.releaseWorkers = releaseWorkers;
+        this.retryRouter = retryRouter;
+        this.wheel = new ArrayDeque[windowTicks + 1];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+
+        this.duplicates = suppressed(metrics, "duplicate");
+        this.cancelled = suppressed(metrics, "cancelled");
+        this.bypassed = Counter.builder("notification.coalescer.bypassed")
+                .description("События, переданные без окна: без id или сверх лимита пользователей")
+                .register(metrics.getRegistry());
+        Gauge.builder("notification.coalescer.held", this, EventCoalescer::getHeldKeys)
+                .description("Пользователи, чьи события ждут окончания окна")
+                .register(metrics.getRegistry());
+
+        if (startTimer) {
+            this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "event-coalescer-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.scheduleAtFixedRate(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        } else {
+            this.timer = null;
+        }
+    }
+
+    /**
+     * Ставит событие в окно его пользователя или сразу передает обработчику
+     */
+    public void offer(ConsumerRecord<String, UserEvent> record, Acknowledgment acknowledgment, Handler handler) {
+        UserEvent event = record.value();
+        Long key = event.getId();
+        if (key == null || event.getEventType() == null) {
+            bypassed.increment();
+            handler.accept(record, acknowledgment);
+            return;
+        }
+
+        // Записи, которые отброшены или отменены и уже не будут обработаны
+        List<Acknowledgment> dropped = new ArrayList<>(2);
+        boolean held = false;
+        synchronized (this) {
+            Slot slot = slots.get(key);
+            if (slot == null && slots.size() < maxKeys) {
+                slot = new Slot(key, currentTick + windowTicks, handler);
+                slots.put(key, slot);
+                wheel[(int) (slot.deadline % wheel.length)].add(slot);
+            }
+            if (slot != null) {
+                merge(slot, new Held(record, acknowledgment), dropped);
+                held = true;
+            }
+        }
+        dropped.forEach(Acknowledgment::acknowledge);
+        if (!held) {
+            bypassed.increment();
+            handler.accept(record, acknowledgment);
+        }
+    }
+
+    public synchronized int getHeldKeys() {
+        return slots.size();
+    }
+
+    /**
+     * Сдвигает колесо на один тик и передает обработчику события, чье окно закончилось
+     */
+    void tick() {
+        List<Slot> expired = new ArrayList<>();
+        synchronized (this) {
+            currentTick++;
+            ArrayDeque<Slot> bucket = wheel[(int) (currentTick % wheel.length)];
+            for (Slot slot; (slot = bucket.poll()) != null; ) {
+                // Слот мог быть удален раньше срока, если пара событий отменила друг друга
+                if (slots.get(slot.key) == slot) {
+                    slots.remove(slot.key);
+                    expired.add(slot);
+                }
+            }
+        }
+        for (Slot slot : expired) {
+            try {
+                releaseWorkers.execute(() -> release(slot));
+            } catch (RejectedExecutionException e) {
+                release(slot);
+            }
+        }
+    }
+
+    /**
+     * Передает обработчику все события в окнах, не дожидаясь их окончания.
+     * Вызывается при остановке потребителя
+     */
+    public void flush() {
+        List<Slot> held;
+        synchronized (this) {
+            held = new ArrayList<>(slots.values());
+            slots.clear();
+            for (ArrayDeque<Slot> bucket : wheel) {
+                bucket.clear();
+            }
+        }
+        if (!held.isEmpty()) {
+            log.info("Окна схлопывания закрыты досрочно, событий пользователей к отправке: {}", held.size());
+        }
+        held.forEach(this::release);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        flush();
+        releaseWorkers.shutdown();
+        if (!releaseWorkers.awaitTermination(30, TimeUnit.SECONDS)) {
+            releaseWorkers.shutdownNow();
+        }
+    }
+
+    /**
+     * Добавляет запись в окно. Прежнее событие того же типа заменяется новым и встает
+     * в конец, поэтому в окне не больше одного события каждого типа
+     *
+     * @param dropped подтверждения записей, которые больше не будут обработаны
+     */
+    private void merge(Slot slot, Held held, List<Acknowledgment> dropped) {
+        List<Held> records = slot.records;
+        UserEvent.EventType type = held.type();
+        Held last = records.isEmpty() ? null : records.get(records.size() - 1);
+
+        if (type == UserEvent.EventType.USER_DELETED && last != null
+                && last.type() == UserEvent.EventType.USER_CREATED) {
+            records.remove(records.size() - 1);
+            dropped.add(last.acknowledgment);
+            dropped.add(held.acknowledgment);
+            cancelled.increment(2);
+            log.debug("События USER_CREATED и USER_DELETED пользователя {} отменили друг друга", slot.key);
+            if (records.isEmpty()) {
+                slots.remove(slot.key);
+            }
+            return;
+        }
+        for (int i = 0; i < records.size(); i++) {
+            if (records.get(i).type() == type) {
+                dropped.add(records.remove(i).acknowledgment);
+                duplicates.increment();
+                log.debug("Повторное событие {} пользователя {} схлопнуто", type, slot.key);
+                break;
+            }
+        }
+        records.add(held);
+    }
+
+    /**
+     * Передает события окна обработчику. Подтверждает записи обработчик; если он
+     * завершился ошибкой, событие публикуется на повтор, и запись подтверждается после публикации
+     */
+    private void release(Slot slot) {
+        for (Held held : slot.records) {
+            try {
+                slot.handler.accept(held.record, held.acknowledgment);
+            } catch (RuntimeException e) {
+                log.error("Событие {} пользователя {} не обработано после окна схлопывания: {}",
+                        held.type(), slot.key, e.getMessage());
+                routeToRetry(held, e);
+            }
+        }
+    }
+
+    /**
+     * Публикует необработанное событие на повтор. Публикация повторяется, пока не удастся;
+     * если поток прерван при остановке, запись не подтверждается и будет прочитана снова после перезапуска
+     */
+    private void routeToRetry(Held held, RuntimeException cause) {
+        try {
+            retryRouter.routeUntilPublished(held.record, cause);
+        } catch (KafkaException e) {
+            log.error("Событие {}-{}@{} не отправлено на повтор, запись не подтверждена: {}",
+                    held.record.topic(), held.record.partition(), held.record.offset(), e.getMessage());
+            return;
+        }
+        held.acknowledgment.acknowledge();
+    }
+
+    private static Counter suppressed(NotificationMetrics metrics, String reason) {
+        return Counter.builder("notification.coalescer.suppressed")
+                .description("Письма, не отправленные благодаря схлопыванию событий")
+                .tag("reason", reason)
+                .register(metrics.getRegistry());
+    }
+}
@@ -0,0 +1,173 @@
+package com.aston.kafka;
+
+import com.aston.metrics.NotificationMetrics;
+import com.aston.outbox.OutboxDispatcher;
+import com.aston.service.NotificationDispatcher;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Штатная остановка без повторной доставки: чтение из Kafka приостанавливается,
+ * прочитанные записи и начатые отправки SMTP завершаются, и только затем контейнеры
+ * останавливаются и фиксируют подтвержденные смещения.
+ *
+ * Сливаются контейнеры реестра слушателей и ступеней {@link RetryTopicConsumer}, а
+ * {@link OutboxDispatcher} перестает забирать события и завершает начатые отправки.
+ * Фаза выше, чем у контейнеров слушателей, потребителей повторов и очереди исходящих
+ * уведомлений (Integer.MAX_VALUE - 100), поэтому они останавливаются после слива.
+ * Ожидание ограничено app.lifecycle.drain-timeout: записи, не подтвержденные за это время,
+ * будут прочитаны снова после перезапуска (повторное письмо подавит журнал доставок).
+ * Окна схлопывания закрываются досрочно, задания асинхронного REST дорабатываются
+ * вместе с записями
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.lifecycle.graceful-drain", havingValue = "true", matchIfMissing = true)
+public class GracefulDrain implements SmartLifecycle {
+
+    private static final long POLL_INTERVAL_MS = 50;
+
+    private final KafkaListenerEndpointRegistry registry;
+    private final NotificationMetrics metrics;
+    private final UserEventConsumer consumer;
+    private final NotificationDispatcher dispatcher;
+    private final RetryTopicConsumer retryConsumer;
+    private final OutboxDispatcher outboxDispatcher;
+    private final long drainTimeoutNanos;
+
+    private volatile boolean running;
+
+    public GracefulDrain(KafkaListenerEndpointRegistry registry,
+                         NotificationMetrics metrics,
+                         ObjectProvider<UserEventConsumer> consumer,
+                         ObjectProvider<NotificationDispatcher> dispatcher,
+                         ObjectProvider<RetryTopicConsumer> retryConsumer,
+                         ObjectProvider<OutboxDispatcher> outboxDispatcher,
+                         @Value("${app.lifecycle.drain-timeout:30s}") Duration drainTimeout) {
+        this.registry = registry;
+        this.metrics = metrics;
+        this.consumer = consumer.getIfAvailable();
+        this.dispatcher = dispatcher.getIfAvailable();
+        this.retryConsumer = retryConsumer.getIfAvailable();
+        this.outboxDispatcher = outboxDispatcher.getIfAvailable();
+        this.drainTimeoutNanos = drainTimeout.toNanos();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        drain();
+    }
+
+    /**
+     * Сливает в отдельном потоке, чтобы остальные участники фазы (веб-сервер)
+     * останавливались одновременно
+     */
+    @Override
+    public void stop(Runnable callback) {
+        running = false;
+        Thread thread = new Thread(() -> {
+            try {
+                drain();
+            } finally {
+                callback.run();
+            }
+        }, "graceful-drain");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Приостанавливает чтение и ждет, пока все прочитанные записи не будут обработаны
+     *
+     * @return true, если все завершилось до drain-timeout
+     */
+    boolean drain() {
+        long start = System.nanoTime();
+        Stream<MessageListenerContainer> retryContainers = retryConsumer != null
+                ? retryConsumer.getContainers().stream() : Stream.empty();
+        List<MessageListenerContainer> containers = Stream.concat(
+                        registry.getListenerContainers().stream(), retryContainers)
+                .filter(MessageListenerContainer::isRunning)
+                .collect(Collectors.toList());
+        containers.forEach(MessageListenerContainer::pause);
+        if (outboxDispatcher != null) {
+            outboxDispatcher.pause();
+        }
+        log.info("Остановка: чтение из Kafka и очереди исходящих уведомлений приостановлено, "
+                + "ожидание обработки прочитанных записей");
+        if (consumer != null) {
+            consumer.flushCoalescer();
+        }
+
+        while (true) {
+            // Размыкатель релея мог возобновить чтение после паузы
+            containers.stream()
+                    .filter(container -> !container.isPauseRequested())
+                    .forEach(MessageListenerContainer::pause);
+
+            long polling = containers.stream()
+                    .filter(GracefulDrain::isPolling)
+                    .count();
+            int records = consumer != null ? consumer.getPendingRecords() : 0;
+            int sends = metrics.getInFlightSends();
+            int jobs = dispatcher != null ? dispatcher.getPendingJobs() : 0;
+            int outboxSends = outboxDispatcher != null ? outboxDispatcher.getInFlight() : 0;
+            long elapsed = System.nanoTime() - start;
+
+            if (polling == 0 && records == 0 && sends == 0 && jobs == 0 && outboxSends == 0) {
+                log.info("Прочитанные записи обработаны за {} мс, смещения фиксируются при остановке контейнеров",
+                        TimeUnit.NANOSECONDS.toMillis(elapsed));
+                return true;
+            }
+            if (elapsed >= drainTimeoutNanos) {
+                log.warn("Обработка не завершилась за {} мс: контейнеров не на паузе {}, записей {}, отправок {}, "
+                                + "заданий {}, отправок из очереди {}; неподтвержденные записи будут прочитаны снова",
+                        TimeUnit.NANOSECONDS.toMillis(drainTimeoutNanos), polling, records, sends, jobs, outboxSends);
+                return false;
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Контейнер на паузе, только когда потребитель закончил записи последнего poll.
+     * Без назначенных партиций потребитель ничего не читает и паузу не подтверждает
+     */
+    private static boolean isPolling(MessageListenerContainer container) {
+        if (!container.isRunning() || container.isContainerPaused()) {
+            return false;
+        }
+        Collection<TopicPartition> assigned = container.getAssignedPartitions();
+        return assigned != null && !assigned.isEmpty();
+    }
+}
@@ -0,0 +1,124 @@
+package com.aston.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Исполнитель, сохраняющий порядок задач с одинаковым ключом.
+ *
+ * Ключ хешируется на одну из N полос. Задачи одной полосы выполняются строго
+ * последовательно в порядке поступления, разные полосы - параллельно на общем пуле потоков.
+ * Полоса не занимает поток, пока в ней нет задач.
+ */
+@Slf4j
+public class KeyOrderedExecutor implements AutoCloseable {
+
+    /**
+     * Сколько задач полоса выполняет подряд, прежде чем уступить поток другим полосам
+     */
+    private static final int DRAIN_BATCH = 64;
+
+    private final Lane[] lanes;
+    private final ExecutorService workers;
+
+    public KeyOrderedExecutor(int laneCount, ExecutorService workers) {
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("Число полос должно быть положительным: " + laneCount);
+        }
+        this.workers = workers;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * Ставит задачу в полосу ключа. Задачи с равными ключами выполняются в порядке вызовов
+     *
+     * @throws RejectedExecutionException если пул потоков остановлен; задача не выполнится
+     */
+    public void execute(Object key, Runnable task) {
+        lanes[laneOf(key)].add(task);
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    int laneOf(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        int hash = key.hashCode();
+        // Перемешиваем старшие биты, чтобы последовательные id расходились по полосам равномерно
+        hash ^= (hash >>> 16);
+        return Math.floorMod(hash * 0x9E3779B9, lanes.length);
+    }
+
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    private final class Lane implements Runnable {
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void add(Runnable task) {
+            tasks.add(task);
+            if (!scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                workers.execute(this);
+            } catch (RejectedExecutionException e) {
+                // Пул остановлен: задача вызывающего снимается, и он узнает об отказе,
+                // а задачи, поставленные в полосу раньше, дорабатываются в этом потоке
+                tasks.remove(task);
+                run();
+                throw e;
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                int executed = 0;
+                while (executed < DRAIN_BATCH && (task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        log.error("Ошибка при выполнении задачи полосы: {}", e.getMessage(), e);
+                    }
+                    executed++;
+                }
+                scheduled.set(false);
+                if (tasks.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    workers.execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // Пул останавливается: оставшиеся задачи полосы дорабатываются в этом потоке
+                }
+            }
+        }
+    }
+}
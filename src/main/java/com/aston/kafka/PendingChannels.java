@@ -0,0 +1,47 @@
+package com.aston.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Каналы записей, возвращенных в партицию после частичной доставки: при повторном чтении
+ * событие доставляется только каналам, которые его еще не приняли.
+ *
+ * Хранится в памяти не больше {@link #MAX_RECORDS} записей; запись, вытесненная из таблицы
+ * или прочитанная после перебалансировки другим экземпляром, доставляется каналам из заголовка
+ * {@link RetryTopicRouter#CHANNELS_HEADER} или всему маршруту
+ */
+final class PendingChannels {
+
+    static final int MAX_RECORDS = 10_000;
+
+    private final Map<String, List<String>> channels = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+            return size() > MAX_RECORDS;
+        }
+    };
+
+    /**
+     * Запоминает каналы, которым осталось доставить событие записи
+     */
+    synchronized void put(ConsumerRecord<?, ?> record, List<String> remaining) {
+        channels.put(key(record), List.copyOf(remaining));
+    }
+
+    /**
+     * Каналы, которым нужно доставить событие записи: оставшиеся с прошлого чтения,
+     * из заголовка записи или null - все каналы маршрута
+     */
+    synchronized List<String> take(ConsumerRecord<?, ?> record) {
+        List<String> remaining = channels.remove(key(record));
+        return remaining != null ? remaining : RetryTopicRouter.channelsOf(record);
+    }
+
+    private static String key(ConsumerRecord<?, ?> record) {
+        return record.topic() + "-" + record.partition() + "@" + record.offset();
+    }
+}
@@ -0,0 +1,103 @@
+package com.aston.kafka;
+
+import com.aston.channel.ChannelRouter;
+import com.aston.channel.EmailChannel;
+import com.aston.dto.UserEvent;
+import com.aston.mail.RelayGuard;
+import com.aston.outbox.Outbox;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Ставит контейнеры слушателей Kafka на паузу, пока размыкатель SMTP-релея открыт.
+ *
+ * Без паузы потребитель продолжал бы читать записи, сразу получать отказ размыкателя
+ * и откладывать их. Приостанавливаются и основные слушатели, и ступени {@link RetryTopicConsumer}.
+ * Для пробной отправки контейнеры возобновляются, и следующая за ней ошибка снова ставит их на паузу.
+ * Пауза включается, только если маршрут каждого типа события - одна почта: иначе она остановила бы
+ * и доставку другими каналами, а почтовый канал сам откладывает свои доставки, и они повторяются
+ * только в нем. С очередью исходящих уведомлений пауза не нужна: события копятся на диске.
+ * Топик списка подавления не приостанавливается
+ */
+@Slf4j
+@Component
+public class RelayOutageListenerControl {
+
+    private final KafkaListenerEndpointRegistry registry;
+    private final ObjectProvider<RetryTopicConsumer> retryConsumer;
+    private final RelayGuard relayGuard;
+    private final boolean enabled;
+
+    public RelayOutageListenerControl(KafkaListenerEndpointRegistry registry,
+                                      ObjectProvider<RetryTopicConsumer> retryConsumer,
+                                      ObjectProvider<RelayGuard> relayGuard,
+                                      ObjectProvider<Outbox> outbox,
+                                      ChannelRouter channelRouter,
+                                      @Value("${app.mail.guard.pause-listeners:true}") boolean pauseListeners) {
+        this.registry = registry;
+        this.retryConsumer = retryConsumer;
+        this.relayGuard = relayGuard.getIfAvailable();
+        boolean emailOnly = emailOnly(channelRouter);
+        this.enabled = pauseListeners && this.relayGuard != null && outbox.getIfAvailable() == null && emailOnly;
+        if (pauseListeners && this.relayGuard != null && !emailOnly) {
+            log.info("События доставляются не только почтой, при недоступном SMTP-релее чтение из Kafka "
+                    + "не приостанавливается");
+        }
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        if (enabled) {
+            relayGuard.addListener(this::onStateChange);
+        }
+    }
+
+    void onStateChange(RelayGuard.State state) {
+        if (state == RelayGuard.State.OPEN) {
+            log.warn("SMTP-релей недоступен, чтение из Kafka приостановлено");
+            mailContainers().forEach(MessageListenerContainer::pause);
+        } else {
+            log.info("Чтение из Kafka возобновлено, размыкатель SMTP-релея: {}", state);
+            mailContainers().forEach(MessageListenerContainer::resume);
+        }
+    }
+
+    /**
+     * Контейнеры, слушатели которых отправляют письма: основные и ступени повторов
+     */
+    private List<MessageListenerContainer> mailContainers() {
+        List<MessageListenerContainer> containers = registry.getListenerContainers().stream()
+                .filter(RelayOutageListenerControl::sendsMail)
+                .collect(Collectors.toCollection(ArrayList::new));
+        retryConsumer.ifAvailable(consumer -> containers.addAll(consumer.getContainers()));
+        return containers;
+    }
+
+    /**
+     * Все ли типы событий доставляются только почтой
+     */
+    static boolean emailOnly(ChannelRouter channelRouter) {
+        for (UserEvent.EventType type : UserEvent.EventType.values()) {
+            if (!List.of(EmailChannel.NAME).equals(channelRouter.routeOf(type))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Обновления списка подавления не отправляют писем и читаются и при недоступном релее
+     */
+    private static boolean sendsMail(MessageListenerContainer container) {
+        return !SuppressionListener.LISTENER_ID.equals(container.getListenerId());
+    }
+}
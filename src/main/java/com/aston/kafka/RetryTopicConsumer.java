@@ -0,0 +1,243 @@
+package com.aston.kafka;
+
+import com.aston.channel.ChannelDeliveryException;
+import com.aston.channel.ChannelRouter;
+import com.aston.dto.UserEvent;
+import com.aston.kafka.RetryTopicRouter.RetryTier;
+import com.aston.mail.SendDeferredException;
+import com.aston.metrics.NotificationMetrics;
+import com.aston.metrics.NotificationMetrics.Outcome;
+import com.aston.metrics.NotificationMetrics.Stage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.listener.AcknowledgingConsumerAwareMessageListener;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Потребители топиков отложенных повторов.
+ *
+ * На каждую ступень {@link RetryTopicRouter} запускается свой контейнер в своей группе
+ * потребителей {@code <группа>-retry-<задержка>}.
+ * Запись, время которой еще не пришло, не обрабатывается: потребитель возвращается
+ * к ее оффсету и ставит партицию на паузу до нужного момента, остальные партиции
+ * и ступени продолжают работать. Так же запись ждет, если канал отложил доставку
+ * (лимит скорости, недоступный SMTP-релей, заполненная очередь канала): отложенная доставка
+ * не считается неудачей, и после паузы событие уходит только в отложившие каналы.
+ * Повторная неудача отправляет событие на следующую ступень для не справившихся каналов.
+ * Если события доставляются только почтой, на время недоступности релея контейнеры ступеней
+ * ставит на паузу {@link RelayOutageListenerControl}; при штатной остановке их сливает {@link GracefulDrain}
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RetryTopicConsumer implements SmartLifecycle {
+
+    /**
+     * Вместе с контейнерами слушателей (фаза Integer.MAX_VALUE - 100): после слива
+     */
+    static final int PHASE = Integer.MAX_VALUE - 100;
+
+    private final ConsumerFactory<String, UserEvent> consumerFactory;
+    private final RetryTopicRouter router;
+    private final ChannelRouter channelRouter;
+    private final NotificationMetrics metrics;
+
+    /**
+     * Каналы записей, возвращенных в партицию после отсрочки части каналов
+     */
+    private final PendingChannels pending = new PendingChannels();
+
+    /**
+     * Новая группа ступени начинает с начала топика, а не пропускает уже ожидающие повторы
+     */
+    private static final Properties RETRY_CONSUMER_PROPERTIES = new Properties();
+
+    static {
+        RETRY_CONSUMER_PROPERTIES.setProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+    }
+
+    private final List<KafkaMessageListenerContainer<String, UserEvent>> containers = new ArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private volatile boolean running;
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "retry-topic-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (RetryTier tier : router.getTiers()) {
+            ContainerProperties properties = new ContainerProperties(tier.getTopic());
+            properties.setAckMode(ContainerProperties.AckMode.MANUAL);
+            properties.setGroupId(groupIdOf(tier));
+            properties.setKafkaConsumerProperties(RETRY_CONSUMER_PROPERTIES);
+            KafkaMessageListenerContainer<String, UserEvent> container =
+                    new KafkaMessageListenerContainer<>(consumerFactory, properties);
+            container.setBeanName("retry-" + tier.getAttempt());
+            container.setupMessageListener(new TierListener(container));
+            container.start();
+            containers.add(container);
+            log.info("Запущен потребитель топика повторов {} (задержка {})", tier.getTopic(), tier.getDelay());
+        }
+        running = true;
+    }
+
+    /**
+     * Своя группа на каждую ступень: запуск и остановка контейнеров повторов
+     * не вызывают перебалансировку основного потребителя и друг друга
+     */
+    String groupIdOf(RetryTier tier) {
+        Object mainGroupId = consumerFactory.getConfigurationProperties().get(ConsumerConfig.GROUP_ID_CONFIG);
+        return mainGroupId + tier.getTopic().substring(router.getMainTopic().length());
+    }
+
+    @Override
+    public synchronized void stop() {
+        containers.forEach(KafkaMessageListenerContainer::stop);
+        containers.clear();
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    /**
+     * Запущенные контейнеры ступеней
+     */
+    public synchronized List<MessageListenerContainer> getContainers() {
+        return List.copyOf(containers);
+    }
+
+    /**
+     * Обрабатывает событие из топика повторов: доставляет его каналам, которые не справились
+     * в прошлый раз, ожидая их доставки. Каналы со сбоем передаются на следующую ступень
+     *
+     * @throws SendDeferredException часть каналов отложила доставку, событие остается на этой ступени
+     *                               и после паузы уходит только в них
+     */
+    void handle(ConsumerRecord<String, UserEvent> record) {
+        UserEvent event = record.value();
+        List<String> channels = pending.take(record);
+        log.info("Повтор {} события из {} в каналы {}: {}", RetryTopicRouter.attemptOf(record), record.topic(),
+                channels != null ? channels : "маршрута", event);
+
+        long start = metrics.start();
+        try {
+            channelRouter.dispatchAndWait(event, channels);
+            metrics.record(Stage.HANDLE, event.getEventType(), Outcome.SUCCESS, start);
+        } catch (IllegalArgumentException e) {
+            metrics.record(Stage.HANDLE, event.getEventType(), Outcome.SKIPPED, start);
+            log.warn("Событие {} пропущено: {}", event.getEventType(), e.getMessage());
+        } catch (ChannelDeliveryException e) {
+            if (!e.getFailedChannels().isEmpty()) {
+                metrics.record(Stage.HANDLE, event.getEventType(), Outcome.FAILURE, start);
+                try {
+                    router.route(record, e);
+                } catch (KafkaException published) {
+                    // Запись будет прочитана снова: доставившие каналы не повторяются
+                    pending.put(record, e.getUndeliveredChannels());
+                    throw published;
+                }
+            } else if (!e.isDeferred()) {
+                metrics.record(Stage.HANDLE, event.getEventType(), Outcome.SKIPPED, start);
+                log.warn("Событие {} пропущено: {}", event.getEventType(), e.getMessage());
+            }
+            if (e.isDeferred()) {
+                pending.put(record, e.getDeferredChannels());
+                throw new SendDeferredException(e.getMessage(), e.getRetryAfterMillis());
+            }
+        }
+    }
+
+    /**
+     * Слушатель одной ступени. Работает в потоке потребителя своего контейнера
+     */
+    private class TierListener implements AcknowledgingConsumerAwareMessageListener<String, UserEvent> {
+
+        private final KafkaMessageListenerContainer<String, UserEvent> container;
+
+        /**
+         * Оффсеты записей, ожидающих своего времени, по партициям
+         */
+        private final Map<TopicPartition, Long> waiting = new HashMap<>();
+
+        TierListener(KafkaMessageListenerContainer<String, UserEvent> container) {
+            this.container = container;
+        }
+
+        @Override
+        public void onMessage(ConsumerRecord<String, UserEvent> record, Acknowledgment acknowledgment,
+                              Consumer<?, ?> consumer) {
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            Long waitingOffset = waiting.get(partition);
+            if (waitingOffset != null) {
+                if (record.offset() > waitingOffset) {
+                    // Остаток poll за ожидающей записью будет получен заново после паузы
+                    return;
+                }
+                waiting.remove(partition);
+            }
+
+            long delay = RetryTopicRouter.dueAtOf(record) - System.currentTimeMillis();
+            if (delay > 0) {
+                pauseAt(record, partition, consumer, delay);
+                return;
+            }
+
+            if (record.value() != null) {
+                try {
+                    handle(record);
+                } catch (SendDeferredException e) {
+                    pauseAt(record, partition, consumer, e.getRetryAfterMillis());
+                    return;
+                }
+            }
+            acknowledgment.acknowledge();
+        }
+
+        /**
+         * Возвращает потребителя к оффсету записи и ставит партицию на паузу на delay мс
+         */
+        private void pauseAt(ConsumerRecord<String, UserEvent> record, TopicPartition partition,
+                             Consumer<?, ?> consumer, long delay) {
+            consumer.seek(partition, record.offset());
+            container.pausePartition(partition);
+            waiting.put(partition, record.offset());
+            scheduler.schedule(() -> container.resumePartition(partition), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+}
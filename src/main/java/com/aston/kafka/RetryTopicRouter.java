@@ -0,0 +1,247 @@
+package com.aston.kafka;
+
+import com.aston.channel.ChannelDeliveryException;
+import com.aston.dto.UserEvent;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Маршрутизация необработанных событий по топикам отложенных повторов.
+ *
+ * Событие, которое не удалось обработать, публикуется в топик следующей ступени
+ * {@code <топик>-retry-<задержка>} с заголовком времени, раньше которого его не нужно
+ * обрабатывать, а после последней ступени - в топик недоставленных {@code <топик>-dlt}.
+ * Поток потребителя при этом не ждет: запись подтверждается сразу после публикации.
+ * Если событие не доставили только некоторые каналы ({@link ChannelDeliveryException}),
+ * их имена уходят в заголовке {@link #CHANNELS_HEADER}, и повтор доставляет событие только им
+ */
+@Slf4j
+@Component
+public class RetryTopicRouter {
+
+    public static final String ATTEMPT_HEADER = "x-retry-attempt";
+    public static final String DUE_AT_HEADER = "x-retry-due-at";
+    public static final String ORIGINAL_TOPIC_HEADER = "x-original-topic";
+    public static final String EXCEPTION_HEADER = "x-exception-message";
+    public static final String CHANNELS_HEADER = "x-channels";
+
+    private static final long SEND_TIMEOUT_SECONDS = 10;
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 30000;
+
+    private final KafkaTemplate<String, UserEvent> kafkaTemplate;
+
+    @Getter
+    private final String mainTopic;
+
+    @Getter
+    private final String deadLetterTopic;
+
+    /**
+     * Ступени повторов в порядке возрастания задержки
+     */
+    @Getter
+    private final List<RetryTier> tiers;
+
+    public RetryTopicRouter(KafkaTemplate<String, UserEvent> kafkaTemplate,
+                            @Value("${kafka.topics.user-events}") String mainTopic,
+                            @Value("${kafka.topics.retry.delays:5s,30s,5m}") String[] delays) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.mainTopic = mainTopic;
+        this.deadLetterTopic = mainTopic + "-dlt";
+
+        List<RetryTier> tiers = new ArrayList<>(delays.length);
+        for (String delay : delays) {
+            String suffix = delay.trim();
+            tiers.add(new RetryTier(tiers.size() + 1, mainTopic + "-retry-" + suffix,
+                    DurationStyle.detectAndParse(suffix)));
+        }
+        this.tiers = Collections.unmodifiableList(tiers);
+    }
+
+    /**
+     * Публикует событие записи в следующую ступень повторов или в топик недоставленных.
+     * Возвращает имя топика, в который ушло событие
+     *
+     * @throws KafkaException если брокер не подтвердил публикацию
+     */
+    public String route(ConsumerRecord<String, UserEvent> record, Exception cause) {
+        int attempt = attemptOf(record) + 1;
+        String originalTopic = headerValue(record, ORIGINAL_TOPIC_HEADER);
+
+        ProducerRecord<String, UserEvent> retry;
+        if (attempt <= tiers.size()) {
+            RetryTier tier = tiers.get(attempt - 1);
+            retry = new ProducerRecord<>(tier.getTopic(), record.key(), record.value());
+            long dueAt = System.currentTimeMillis() + tier.getDelay().toMillis();
+            retry.headers().add(DUE_AT_HEADER, bytes(String.valueOf(dueAt)));
+            log.warn("Событие {}-{}@{} отправлено на повтор {} через {}: {}",
+                    record.topic(), record.partition(), record.offset(), attempt, tier.getDelay(), message(cause));
+        } else {
+            retry = new ProducerRecord<>(deadLetterTopic, record.key(), record.value());
+            log.error("Событие {}-{}@{} отправлено в {} после {} попыток: {}",
+                    record.topic(), record.partition(), record.offset(), deadLetterTopic, attempt, message(cause));
+        }
+        retry.headers().add(ATTEMPT_HEADER, bytes(String.valueOf(attempt)));
+        retry.headers().add(ORIGINAL_TOPIC_HEADER, bytes(originalTopic != null ? originalTopic : record.topic()));
+        retry.headers().add(EXCEPTION_HEADER, bytes(message(cause)));
+        String channels = failedChannels(cause);
+        if (channels == null) {
+            channels = headerValue(record, CHANNELS_HEADER);
+        }
+        if (channels != null) {
+            retry.headers().add(CHANNELS_HEADER, bytes(channels));
+        }
+
+        publish(retry);
+        return retry.topic();
+    }
+
+    /**
+     * Публикует в топик недоставленных событие, которое пришло не из записи Kafka
+     * и которое больше не нужно повторять
+     *
+     * @throws KafkaException если брокер не подтвердил публикацию
+     */
+    public void deadLetter(String key, UserEvent event, Exception cause) {
+        ProducerRecord<String, UserEvent> deadLetter = new ProducerRecord<>(deadLetterTopic, key, event);
+        deadLetter.headers().add(ATTEMPT_HEADER, bytes(String.valueOf(tiers.size() + 1)));
+        deadLetter.headers().add(ORIGINAL_TOPIC_HEADER, bytes(mainTopic));
+        deadLetter.headers().add(EXCEPTION_HEADER, bytes(message(cause)));
+        if (cause instanceof ChannelDeliveryException) {
+            // Отсроченные каналы больше никто не повторит: в топик уходят и они
+            List<String> undelivered = ((ChannelDeliveryException) cause).getUndeliveredChannels();
+            if (!undelivered.isEmpty()) {
+                deadLetter.headers().add(CHANNELS_HEADER, bytes(String.join(",", undelivered)));
+            }
+        }
+        publish(deadLetter);
+        log.error("Событие {} отправлено в {}: {}", key, deadLetterTopic, message(cause));
+    }
+
+    private void publish(ProducerRecord<String, UserEvent> record) {
+        try {
+            kafkaTemplate.send(record).get(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KafkaException("Прервана публикация события в " + record.topic(), e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new KafkaException("Не удалось опубликовать событие в " + record.topic(), e);
+        }
+    }
+
+    /**
+     * Публикует событие, как {@link #route}, но неудачную публикацию повторяет с паузой
+     * от 1 до 30 с, пока она не удастся. Для потоков, которые подтверждают запись сами
+     * и не могут вернуть ее контейнеру: запись подтверждается только после публикации,
+     * а до тех пор контейнер не коммитит ее оффсет
+     *
+     * @throws KafkaException если поток прерван до успешной публикации
+     */
+    public String routeUntilPublished(ConsumerRecord<String, UserEvent> record, Exception cause) {
+        long backoff = INITIAL_BACKOFF_MS;
+        while (true) {
+            try {
+                return route(record, cause);
+            } catch (KafkaException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                log.error("Событие {}-{}@{} не опубликовано на повтор, следующая попытка через {} мс: {}",
+                        record.topic(), record.partition(), record.offset(), backoff, e.getMessage());
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new KafkaException("Прервана публикация события на повтор", e);
+            }
+            backoff = Math.min(MAX_BACKOFF_MS, backoff * 2);
+        }
+    }
+
+    /**
+     * Номер попытки, на которой находится запись: 0 для основного топика
+     */
+    static int attemptOf(ConsumerRecord<?, ?> record) {
+        String attempt = headerValue(record, ATTEMPT_HEADER);
+        return attempt != null ? Integer.parseInt(attempt) : 0;
+    }
+
+    /**
+     * Время в мс, раньше которого запись не нужно обрабатывать, 0 если не задано
+     */
+    static long dueAtOf(ConsumerRecord<?, ?> record) {
+        String dueAt = headerValue(record, DUE_AT_HEADER);
+        return dueAt != null ? Long.parseLong(dueAt) : 0L;
+    }
+
+    /**
+     * Каналы, которым нужно доставить событие записи, null - все каналы маршрута
+     */
+    public static List<String> channelsOf(ConsumerRecord<?, ?> record) {
+        String channels = headerValue(record, CHANNELS_HEADER);
+        return channels != null ? List.of(channels.split(",")) : null;
+    }
+
+    /**
+     * Имена каналов со сбоем доставки через запятую, null - ошибка не каналов
+     */
+    private static String failedChannels(Exception cause) {
+        if (cause instanceof ChannelDeliveryException) {
+            List<String> failed = ((ChannelDeliveryException) cause).getFailedChannels();
+            return failed.isEmpty() ? null : String.join(",", failed);
+        }
+        return null;
+    }
+
+    private static String headerValue(ConsumerRecord<?, ?> record, String name) {
+        Header header = record.headers().lastHeader(name);
+        return header != null && header.value() != null
+                ? new String(header.value(), StandardCharsets.UTF_8)
+                : null;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String message(Exception cause) {
+        String message = cause.getMessage();
+        return message != null ? message : cause.getClass().getName();
+    }
+
+    /**
+     * Ступень повторов: топик и задержка перед обработкой его записей
+     */
+    @Getter
+    public static class RetryTier {
+
+        private final int attempt;
+        private final String topic;
+        private final Duration delay;
+
+        RetryTier(int attempt, String topic, Duration delay) {
+            this.attempt = attempt;
+            this.topic = topic;
+            this.delay = delay;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.aston.kafka;
+
+import com.aston.suppression.SuppressionIndex;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Обновления списка подавления из топика kafka.topics.suppressions.
+ *
+ * Ключ записи - адрес, значение - причина (bounce, unsubscribe...); запись с пустым значением
+ * убирает адрес из списка, поэтому топик можно сжимать (cleanup.policy=compact).
+ * У каждого экземпляра сервиса своя группа потребителей: список ведется локально
+ * и должен получать все обновления.
+ *
+ * Оффсеты пачки коммитятся только после сброса таблицы на диск. Закоммиченные оффсеты группы
+ * относятся к прежнему файлу таблицы, поэтому новую таблицу (файл удален, нет app.suppression.path)
+ * слушатель наполняет с начала топика, а не с последнего коммита
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = {"app.suppression.enabled", "kafka.consumer.suppressions.enabled"},
+        havingValue = "true")
+@RequiredArgsConstructor
+public class SuppressionListener implements ConsumerSeekAware {
+
+    public static final String LISTENER_ID = "suppressions";
+
+    private final SuppressionIndex suppressionIndex;
+
+    /**
+     * Разделы, которые новая таблица уже читает с начала; доступ из потока потребителя
+     */
+    private final Set<TopicPartition> replayed = new HashSet<>();
+
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        if (!suppressionIndex.isFresh()) {
+            return;
+        }
+        List<TopicPartition> partitions = new ArrayList<>();
+        for (TopicPartition partition : assignments.keySet()) {
+            if (replayed.add(partition)) {
+                partitions.add(partition);
+            }
+        }
+        if (!partitions.isEmpty()) {
+            log.info("Список подавления создан заново, разделы {} читаются с начала", partitions);
+            callback.seekToBeginning(partitions);
+        }
+    }
+
+    @KafkaListener(
+            id = LISTENER_ID,
+            topics = "${kafka.topics.suppressions}",
+            groupId = "${kafka.consumer.suppressions.group-id}",
+            containerFactory = "suppressionKafkaListenerContainerFactory"
+    )
+    public void consume(List<ConsumerRecord<String, String>> records) {
+        int added = 0;
+        int removed = 0;
+        for (ConsumerRecord<String, String> record : records) {
+            if (record.key() == null) {
+                log.warn("Пропущена запись без адреса {}-{}@{}", record.topic(), record.partition(), record.offset());
+                continue;
+            }
+            try {
+                if (record.value() == null) {
+                    removed += suppressionIndex.remove(record.key()) ? 1 : 0;
+                } else {
+                    added += suppressionIndex.add(record.key()) ? 1 : 0;
+                }
+            } catch (IllegalArgumentException e) {
+                log.warn("Пропущена запись {}-{}@{}: {}", record.topic(), record.partition(), record.offset(), e.getMessage());
+            }
+        }
+        // Контейнер коммитит оффсеты пачки после возврата: к этому моменту изменения на диске
+        suppressionIndex.flush();
+        log.debug("Список подавления обновлен: добавлено {}, удалено {}, всего {}",
+                added, removed, suppressionIndex.size());
+    }
+}
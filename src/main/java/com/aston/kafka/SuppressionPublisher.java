@@ -0,0 +1,84 @@
+package com.aston.kafka;
+
+import com.aston.address.AddressNormalizer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Публикация изменений списка подавления в сжимаемый топик kafka.topics.suppressions.
+ *
+ * Ключ записи - нормализованный адрес, значение - причина; удаление публикуется записью
+ * с пустым значением. Каждый экземпляр сервиса применяет записи топика к своей таблице
+ * в {@link SuppressionListener}
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.suppression.enabled", havingValue = "true")
+public class SuppressionPublisher {
+
+    /**
+     * Причина по умолчанию: запись без значения означает удаление
+     */
+    static final String DEFAULT_REASON = "manual";
+
+    private static final long SEND_TIMEOUT_SECONDS = 10;
+
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final String topic;
+
+    public SuppressionPublisher(@Qualifier("suppressionKafkaTemplate") KafkaTemplate<String, String> kafkaTemplate,
+                                @Value("${kafka.topics.suppressions}") String topic) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.topic = topic;
+    }
+
+    /**
+     * Публикует добавление адреса в список и ждет подтверждения брокера
+     *
+     * @return нормализованный адрес
+     * @throws com.aston.exception.InvalidAddressException если адрес ошибочен
+     * @throws KafkaException если брокер не подтвердил публикацию
+     */
+    public String suppress(String address, String reason) {
+        String normalized = AddressNormalizer.normalize(address);
+        publish(new ProducerRecord<>(topic, normalized, StringUtils.hasText(reason) ? reason : DEFAULT_REASON));
+        log.info("Адрес {} опубликован в {} для подавления", normalized, topic);
+        return normalized;
+    }
+
+    /**
+     * Публикует удаление адреса из списка и ждет подтверждения брокера
+     *
+     * @return нормализованный адрес
+     * @throws com.aston.exception.InvalidAddressException если адрес ошибочен
+     * @throws KafkaException если брокер не подтвердил публикацию
+     */
+    public String unsuppress(String address) {
+        String normalized = AddressNormalizer.normalize(address);
+        publish(new ProducerRecord<>(topic, normalized, null));
+        log.info("Снятие подавления адреса {} опубликовано в {}", normalized, topic);
+        return normalized;
+    }
+
+    private void publish(ProducerRecord<String, String> record) {
+        try {
+            kafkaTemplate.send(record).get(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KafkaException("Прервана публикация в " + record.topic(), e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new KafkaException("Не удалось опубликовать изменение списка подавления в " + record.topic(), e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.aston.kafka;
+
+import com.aston.channel.ChannelDeliveryException;
+import com.aston.channel.ChannelRouter;
+import com.aston.dto.UserEvent;
+import com.aston.metrics.NotificationMetrics;
+import com.aston.metrics.NotificationMetrics.Outcome;
+import com.aston.metrics.NotificationMetrics.Stage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Пакетный слушатель событий пользователей.
+ *
+ * Ставит все события одного poll в очереди каналов {@link ChannelRouter} и ждет их доставки;
+ * каналы собирают очереди в пачки, и письма пачки уходят через одно SMTP-соединение.
+ * Каналы, не доставившие событие, публикуются в топик отложенного повтора {@link RetryTopicRouter}
+ * в заголовке записи, поэтому сбой одного письма или канала не приводит к повторной доставке
+ * всей пачки, не дублирует уведомление в других каналах и не задерживает следующую пачку.
+ * Пачка подтверждается после обработки. Доставка, отложенная каналом (недоступный релей,
+ * лимит скорости, заполненная очередь), на повтор не публикуется: пачка подтверждается
+ * до первой такой записи, а остаток читается снова после паузы и доставляется только
+ * каналам, которые его еще не приняли.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "kafka.consumer.batch.enabled", havingValue = "true")
+public class UserEventBatchConsumer {
+
+    private final ChannelRouter channelRouter;
+    private final NotificationMetrics metrics;
+    private final RetryTopicRouter retryRouter;
+
+    /**
+     * Каналы записей, которые будут прочитаны снова
+     */
+    private final PendingChannels pending = new PendingChannels();
+
+    @KafkaListener(topics = "${kafka.topics.user-events}")
+    public void handleUserEvents(List<ConsumerRecord<String, UserEvent>> records, Acknowledgment acknowledgment) {
+        log.info("Получена пачка из {} событий из Kafka", records.size());
+        long start = metrics.start();
+
+        List<CompletableFuture<Void>> results = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, UserEvent> record : records) {
+            if (record.value() == null) {
+                log.warn("Пропущена пустая запись {}-{}@{}", record.topic(), record.partition(), record.offset());
+                results.add(null);
+                continue;
+            }
+            results.add(channelRouter.dispatch(record.value(), pending.take(record)));
+        }
+
+        RuntimeException[] failures = new RuntimeException[records.size()];
+        int deferredFrom = records.size();
+        long retryAfter = 0;
+        for (int position = 0; position < records.size(); position++) {
+            if (results.get(position) == null) {
+                continue;
+            }
+            try {
+                results.get(position).join();
+            } catch (CompletionException e) {
+                RuntimeException cause = ChannelRouter.unwrap(e);
+                failures[position] = cause;
+                if (cause instanceof ChannelDeliveryException && ((ChannelDeliveryException) cause).isDeferred()) {
+                    deferredFrom = Math.min(deferredFrom, position);
+                    retryAfter = Math.max(retryAfter, ((ChannelDeliveryException) cause).getRetryAfterMillis());
+                }
+            }
+        }
+
+        // Время обработки каждого события пачки - от получения пачки до доставки его каналами
+        for (int position = 0; position < deferredFrom; position++) {
+            ConsumerRecord<String, UserEvent> record = records.get(position);
+            RuntimeException cause = failures[position];
+            if (record.value() == null) {
+                continue;
+            }
+            UserEvent.EventType type = record.value().getEventType();
+            if (cause == null) {
+                metrics.record(Stage.HANDLE, type, Outcome.SUCCESS, start);
+            } else if (cause instanceof ChannelDeliveryException
+                    && !((ChannelDeliveryException) cause).getFailedChannels().isEmpty()) {
+                try {
+                    retryRouter.route(record, cause);
+                } catch (KafkaException e) {
+                    // Контейнер прочитает пачку снова: каналы, уже принявшие события, не повторяются
+                    remember(records, failures, 0, position);
+                    throw e;
+                }
+                metrics.record(Stage.HANDLE, type, Outcome.FAILURE, start);
+            } else {
+                metrics.record(Stage.HANDLE, type, Outcome.SKIPPED, start);
+                log.warn("Пропущено событие {}: {}", record.value(), cause.getMessage());
+            }
+        }
+
+        if (deferredFrom < records.size()) {
+            remember(records, failures, deferredFrom, deferredFrom);
+            log.warn("Доставка отложена, {} из {} событий пачки будут прочитаны снова через {} мс",
+                    records.size() - deferredFrom, records.size(), retryAfter);
+            acknowledgment.nack(deferredFrom, retryAfter);
+        } else {
+            acknowledgment.acknowledge();
+        }
+    }
+
+    /**
+     * Запоминает каналы без доставки для записей пачки с позиции rereadFrom, которые будут прочитаны снова.
+     * Записи до handledTo уже обработаны, и при повторном чтении им доставлять нечего
+     */
+    private void remember(List<ConsumerRecord<String, UserEvent>> records, RuntimeException[] failures,
+                          int rereadFrom, int handledTo) {
+        for (int position = rereadFrom; position < records.size(); position++) {
+            ConsumerRecord<String, UserEvent> record = records.get(position);
+            if (record.value() == null) {
+                continue;
+            }
+            RuntimeException cause = failures[position];
+            pending.put(record, position >= handledTo && cause instanceof ChannelDeliveryException
+                    ? ((ChannelDeliveryException) cause).getUndeliveredChannels()
+                    : List.of());
+        }
+    }
+}
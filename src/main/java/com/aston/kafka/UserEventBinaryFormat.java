@@ -0,0 +1,147 @@
+package com.aston.kafka;
+
+import com.aston.dto.UserEvent;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Компактный двоичный формат {@link UserEvent}, альтернатива JSON для производителей,
+ * которым важен размер записи. Запись в этом формате помечается заголовком
+ * {@link UserEventDeserializer#FORMAT_HEADER} со значением {@link UserEventDeserializer#BINARY_FORMAT}.
+ *
+ * Формат: версия (1 байт), флаги заполненных полей (1 байт), затем заполненные поля:
+ * id (8 байт), код типа события (1 байт), email и name (длина 2 байта + UTF-8).
+ * Коды типов событий фиксированы в {@link #EVENT_TYPES}: новые типы добавляются в конец
+ */
+public final class UserEventBinaryFormat {
+
+    static final byte VERSION = 1;
+
+    private static final int HAS_ID = 1;
+    private static final int HAS_TYPE = 1 << 1;
+    private static final int HAS_EMAIL = 1 << 2;
+    private static final int HAS_NAME = 1 << 3;
+
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    /**
+     * Тип события по коду, код 0 не используется
+     */
+    private static final UserEvent.EventType[] EVENT_TYPES = {
+            null,
+            UserEvent.EventType.USER_CREATED,
+            UserEvent.EventType.USER_DELETED
+    };
+
+    private UserEventBinaryFormat() {
+    }
+
+    public static byte[] write(UserEvent event) {
+        byte[] email = event.getEmail() != null ? event.getEmail().getBytes(StandardCharsets.UTF_8) : null;
+        byte[] name = event.getName() != null ? event.getName().getBytes(StandardCharsets.UTF_8) : null;
+
+        int flags = 0;
+        int size = 2;
+        if (event.getId() != null) {
+            flags |= HAS_ID;
+            size += 8;
+        }
+        if (event.getEventType() != null) {
+            flags |= HAS_TYPE;
+            size += 1;
+        }
+        if (email != null) {
+            flags |= HAS_EMAIL;
+            size += 2 + checkLength(email, "email");
+        }
+        if (name != null) {
+            flags |= HAS_NAME;
+            size += 2 + checkLength(name, "name");
+        }
+
+        byte[] data = new byte[size];
+        data[0] = VERSION;
+        data[1] = (byte) flags;
+        int position = 2;
+        if (event.getId() != null) {
+            long id = event.getId();
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                data[position++] = (byte) (id >>> shift);
+            }
+        }
+        if (event.getEventType() != null) {
+            data[position++] = code(event.getEventType());
+        }
+        if (email != null) {
+            position = writeString(data, position, email);
+        }
+        if (name != null) {
+            writeString(data, position, name);
+        }
+        return data;
+    }
+
+    public static UserEvent read(byte[] data) {
+        if (data.length < 2) {
+            throw new SerializationException("Двоичная запись UserEvent короче заголовка: " + data.length + " байт");
+        }
+        if (data[0] != VERSION) {
+            throw new SerializationException("Неизвестная версия двоичного формата UserEvent: " + data[0]);
+        }
+        int flags = data[1];
+        int position = 2;
+        UserEvent event = new UserEvent();
+        try {
+            if ((flags & HAS_ID) != 0) {
+                long id = 0;
+                for (int i = 0; i < 8; i++) {
+                    id = (id << 8) | (data[position++] & 0xFF);
+                }
+                event.setId(id);
+            }
+            if ((flags & HAS_TYPE) != 0) {
+                int code = data[position++] & 0xFF;
+                if (code == 0 || code >= EVENT_TYPES.length) {
+                    throw new SerializationException("Неизвестный код типа события: " + code);
+                }
+                event.setEventType(EVENT_TYPES[code]);
+            }
+            if ((flags & HAS_EMAIL) != 0) {
+                int length = ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+                event.setEmail(new String(data, position + 2, length, StandardCharsets.UTF_8));
+                position += 2 + length;
+            }
+            if ((flags & HAS_NAME) != 0) {
+                int length = ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+                event.setName(new String(data, position + 2, length, StandardCharsets.UTF_8));
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new SerializationException("Двоичная запись UserEvent обрезана", e);
+        }
+        return event;
+    }
+
+    private static byte code(UserEvent.EventType eventType) {
+        for (int code = 1; code < EVENT_TYPES.length; code++) {
+            if (EVENT_TYPES[code] == eventType) {
+                return (byte) code;
+            }
+        }
+        throw new SerializationException("Для типа события " + eventType + " нет кода двоичного формата");
+    }
+
+    private static int checkLength(byte[] value, String field) {
+        if (value.length > MAX_STRING_BYTES) {
+            throw new SerializationException("Поле " + field + " длиннее " + MAX_STRING_BYTES + " байт");
+        }
+        return value.length;
+    }
+
+    private static int writeString(byte[] data, int position, byte[] value) {
+        data[position] = (byte) (value.length >>> 8);
+        data[position + 1] = (byte) value.length;
+        System.arraycopy(value, 0, data, position + 2, value.length);
+        return position + 2 + value.length;
+    }
+}
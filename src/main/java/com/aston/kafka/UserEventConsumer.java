@@ -1,47 +1,410 @@
 package com.aston.kafka;
 
+import com.aston.channel.ChannelDeliveryException;
+import com.aston.channel.ChannelRouter;
 import com.aston.dto.UserEvent;
-import com.aston.service.EmailService;
-import lombok.RequiredArgsConstructor;
+import com.aston.metrics.NotificationMetrics;
+import com.aston.metrics.NotificationMetrics.Outcome;
+import com.aston.metrics.NotificationMetrics.Stage;
+import com.aston.outbox.Outbox;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.KafkaException;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.retry.annotation.Backoff;
-import org.springframework.retry.annotation.Retryable;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 @Slf4j
 @Component
-@RequiredArgsConstructor
+@ConditionalOnProperty(name = {"kafka.consumer.batch.enabled", "app.reactive.enabled"},
+        havingValue = "false", matchIfMissing = true)
 public class UserEventConsumer {
 
-    private final EmailService emailService;
+    private static final int RETRY_PUBLISHER_THREADS = 2;
+
+    private final NotificationMetrics metrics;
+    private final RetryTopicRouter retryRouter;
+
+    /**
+     * Каналы уведомлений: единственный путь доставки событий
+     */
+    private final ChannelRouter channelRouter;
+
+    /**
+     * Полосы параллельной обработки, null - события разных пользователей не упорядочиваются
+     */
+    private final KeyOrderedExecutor orderedExecutor;
+
+    /**
+     * Очередь исходящих уведомлений на диске, null - события доставляются при обработке записи
+     */
+    private final Outbox outbox;
+
+    /**
+     * Окно схлопывания событий пользователя, null - события обрабатываются сразу
+     */
+    private final EventCoalescer coalescer;
+
+    /**
+     * Обработчик событий, чье окно схлопывания закончилось
+     */
+    private final EventCoalescer.Handler releaseHandler = this::dispatchReleased;
+
+    /**
+     * Записи, переданные в другие потоки и еще не подтвержденные
+     */
+    private final AtomicInteger pendingRecords = new AtomicInteger();
 
+    /**
+     * Потоки, в которых завершается доставка со сбоем: публикация на повтор ждет брокера
+     * и не должна занимать потоки каналов и сброса очереди исходящих уведомлений
+     */
+    private final ExecutorService retryPublisher;
+
+    public UserEventConsumer(NotificationMetrics metrics,
+                             RetryTopicRouter retryRouter,
+                             ChannelRouter channelRouter,
+                             ObjectProvider<KeyOrderedExecutor> orderedExecutor,
+                             ObjectProvider<Outbox> outbox,
+                             ObjectProvider<EventCoalescer> coalescer) {
+        this.metrics = metrics;
+        this.retryRouter = retryRouter;
+        this.channelRouter = channelRouter;
+        this.orderedExecutor = orderedExecutor.getIfAvailable();
+        this.outbox = outbox.getIfAvailable();
+        this.coalescer = coalescer.getIfAvailable();
+
+        AtomicInteger counter = new AtomicInteger();
+        this.retryPublisher = Executors.newFixedThreadPool(RETRY_PUBLISHER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "retry-publisher-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Принимает запись из Kafka.
+     *
+     * Со схлопыванием событие ставится в окно {@link EventCoalescer}, и запись подтверждается
+     * после его обработки по окончании окна, а отброшенная окном запись - сразу. Асинхронные
+     * подтверждения ставят потребителя на паузу до подтверждения всех записей poll, поэтому
+     * схлопываются события одного poll, а следующий poll читается после окна.
+     * При штатной остановке окна обрабатываются досрочно.
+     *
+     * С очередью исходящих уведомлений событие только записывается в журнал, и запись
+     * подтверждается после сброса журнала на диск, общего для всех записей poll;
+     * каналам его доставит {@link com.aston.outbox.OutboxDispatcher}. Если очередь заполнена, ошибка
+     * уходит контейнеру, и запись будет прочитана снова; если не удался сброс, событие
+     * публикуется на повтор.
+     *
+     * Иначе событие ставится в очереди каналов своего маршрута {@link ChannelRouter}, и запись
+     * подтверждается, когда все каналы ответили. С полосами событие ждет каналов в полосе своего
+     * пользователя, и порядок событий пользователя сохраняется; без полос поток не занимается,
+     * и порядок не гарантируется. Канал, отложивший доставку (лимит скорости, недоступный
+     * SMTP-релей, заполненная очередь канала), повторяется после паузы только сам: запись
+     * до тех пор не подтверждается, и на повтор такая доставка не публикуется.
+     * Каналы со сбоем публикуются в топик отложенного повтора {@link RetryTopicRouter}, и повтор
+     * доставляет событие только им; запись подтверждается без ожидания повтора, но только
+     * после публикации: если публикация не удалась, запись не подтверждается.
+     * Событие, от которого отказались все каналы, пропускается
+     */
     @KafkaListener(topics = "${kafka.topics.user-events}")
-    @Retryable(
-            value = {Exception.class},
-            maxAttempts = 3,
-            backoff = @Backoff(delay = 1000, multiplier = 2)
-    )
-    public void handleUserEvent(UserEvent event) {
-        log.info("Получено событие из Kafka: {}", event);
+    public void consume(ConsumerRecord<String, UserEvent> record, Acknowledgment acknowledgment) {
+        UserEvent event = record.value();
+        if (event == null) {
+            log.warn("Пропущена пустая запись {}-{}@{}", record.topic(), record.partition(), record.offset());
+            acknowledgment.acknowledge();
+            return;
+        }
+
+        if (coalescer != null) {
+            pendingRecords.incrementAndGet();
+            coalescer.offer(record, () -> {
+                pendingRecords.decrementAndGet();
+                acknowledgment.acknowledge();
+            }, releaseHandler);
+            return;
+        }
+
+        dispatch(record, acknowledgment);
+    }
+
+    /**
+     * Принимает запись из высокоприоритетного топика, который читает отдельный контейнер.
+     * События не задерживаются в окне схлопывания
+     */
+    @KafkaListener(
+            id = "user-events-priority",
+            topics = "${kafka.topics.user-events-priority:user-events-priority-topic}",
+            containerFactory = "priorityKafkaListenerContainerFactory",
+            autoStartup = "${kafka.consumer.priority.enabled:false}")
+    public void consumePriority(ConsumerRecord<String, UserEvent> record, Acknowledgment acknowledgment) {
+        if (record.value() == null) {
+            log.warn("Пропущена пустая запись {}-{}@{}", record.topic(), record.partition(), record.offset());
+            acknowledgment.acknowledge();
+            return;
+        }
+        dispatch(record, acknowledgment);
+    }
+
+    /**
+     * Досрочно обрабатывает события в окне схлопывания
+     */
+    public void flushCoalescer() {
+        if (coalescer != null) {
+            coalescer.flush();
+        }
+    }
+
+    /**
+     * Обрабатывает окна схлопывания и дожидается публикаций на повтор
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        flushCoalescer();
+        retryPublisher.shutdown();
+        if (!retryPublisher.awaitTermination(30, TimeUnit.SECONDS)) {
+            retryPublisher.shutdownNow();
+        }
+    }
+
+    /**
+     * Записи, которые обрабатываются в каналах, полосах или очереди исходящих уведомлений
+     * и еще не подтверждены
+     */
+    public int getPendingRecords() {
+        return pendingRecords.get();
+    }
 
+    /**
+     * Обрабатывает событие после окна схлопывания. Поток окна - не поток потребителя, поэтому
+     * ошибку нельзя вернуть контейнеру: событие публикуется на повтор, и запись подтверждается
+     * после публикации
+     */
+    private void dispatchReleased(ConsumerRecord<String, UserEvent> record, Acknowledgment acknowledgment) {
         try {
-            switch (event.getEventType()) {
-                case USER_CREATED:
-                    emailService.sendUserCreatedEmail(event.getEmail(), event.getName());
-                    log.info("Отправлено email приветствия для пользователя: {}", event.getEmail());
-                    break;
-                case USER_DELETED:
-                    emailService.sendUserDeletedEmail(event.getEmail(), event.getName());
-                    log.info("Отправлено email об удалении для пользователя: {}", event.getEmail());
+            dispatch(record, acknowledgment);
+        } catch (RuntimeException e) {
+            if (routeToRetry(record, e)) {
+                acknowledgment.acknowledge();
+            }
+        }
+    }
+
+    private void dispatch(ConsumerRecord<String, UserEvent> record, Acknowledgment acknowledgment) {
+        UserEvent event = record.value();
+        List<String> channels = RetryTopicRouter.channelsOf(record);
+
+        if (outbox != null) {
+            CompletableFuture<Outbox.Entry> submitted = outbox.submitAsync(event, channels);
+            pendingRecords.incrementAndGet();
+            submitted.whenComplete((ignored, e) -> {
+                if (e == null) {
+                    acknowledgment.acknowledge();
+                    pendingRecords.decrementAndGet();
+                    return;
+                }
+                publishLater(record, () -> {
+                    if (routeToRetry(record, ChannelRouter.unwrap(e))) {
+                        acknowledgment.acknowledge();
+                    }
+                });
+            });
+            return;
+        }
+
+        long start = metrics.start();
+        pendingRecords.incrementAndGet();
+        if (orderedExecutor != null) {
+            try {
+                orderedExecutor.execute(orderingKey(record), () -> {
+                    try {
+                        deliverWhenAccepted(event, channels);
+                        complete(record, acknowledgment, start, null);
+                    } catch (RuntimeException e) {
+                        complete(record, acknowledgment, start, e);
+                    } finally {
+                        pendingRecords.decrementAndGet();
+                    }
+                });
+            } catch (RuntimeException e) {
+                pendingRecords.decrementAndGet();
+                throw e;
+            }
+            return;
+        }
+
+        CompletableFuture<Void> delivered = new CompletableFuture<>();
+        deliverAsync(event, channels, null, delivered);
+        delivered.whenComplete((ignored, e) -> {
+            if (e == null) {
+                complete(record, acknowledgment, start, null);
+                pendingRecords.decrementAndGet();
+                return;
+            }
+            publishLater(record, () -> complete(record, acknowledgment, start, ChannelRouter.unwrap(e)));
+        });
+    }
+
+    /**
+     * Завершает обработку записи со сбоем в потоке публикации на повтор: обратный вызов
+     * доставки выполняется в потоке канала или сброса очереди, и ожидание брокера их бы заняло.
+     * Запись считается необработанной, пока completion не выполнится. Если потоки публикации
+     * уже остановлены, запись не подтверждается и будет прочитана снова после перезапуска
+     */
+    private void publishLater(ConsumerRecord<String, UserEvent> record, Runnable completion) {
+        try {
+            retryPublisher.execute(() -> {
+                try {
+                    completion.run();
+                } finally {
+                    pendingRecords.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingRecords.decrementAndGet();
+            log.warn("Обработчик остановлен, запись {}-{}@{} не подтверждена",
+                    record.topic(), record.partition(), record.offset());
+        }
+    }
+
+    /**
+     * Доставляет событие каналам, не занимая поток: каналы, отложившие доставку, повторяются
+     * после паузы, пока каналы не остановлены. Результат завершается, когда ответили все каналы
+     * без отсрочки; ошибки - {@link ChannelDeliveryException} со всеми не справившимися каналами
+     *
+     * @param failed ошибки прошлых попыток без отсрочек, null - их не было
+     */
+    private void deliverAsync(UserEvent event, List<String> channels, ChannelDeliveryException failed,
+                              CompletableFuture<Void> result) {
+        channelRouter.dispatch(event, channels).whenComplete((ignored, e) -> {
+            if (e == null) {
+                if (failed == null) {
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(failed);
+                }
+                return;
+            }
+            RuntimeException cause = ChannelRouter.unwrap(e);
+            if (!(cause instanceof ChannelDeliveryException)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            ChannelDeliveryException error = (ChannelDeliveryException) cause;
+            if (!error.isDeferred() || channelRouter.isClosed()) {
+                result.completeExceptionally(ChannelDeliveryException.merge(failed, error));
+                return;
+            }
+            ChannelDeliveryException rest = ChannelDeliveryException.merge(failed, error.withoutDeferred());
+            CompletableFuture.delayedExecutor(error.getRetryAfterMillis(), TimeUnit.MILLISECONDS)
+                    .execute(() -> deliverAsync(event, error.getDeferredChannels(), rest, result));
+        });
+    }
+
+    /**
+     * Доставляет событие каналам в потоке полосы. Каналы, отложившие доставку, повторяются
+     * здесь же после паузы, и следующие события пользователя ждут
+     *
+     * @throws ChannelDeliveryException ошибки не справившихся каналов; с отсрочками -
+     *                                  если поток прерван при остановке
+     * @throws IllegalArgumentException если у события нет типа
+     */
+    private void deliverWhenAccepted(UserEvent event, List<String> channels) {
+        ChannelDeliveryException failed = null;
+        while (true) {
+            try {
+                channelRouter.dispatchAndWait(event, channels);
+                break;
+            } catch (ChannelDeliveryException e) {
+                failed = ChannelDeliveryException.merge(failed, e.withoutDeferred());
+                if (!e.isDeferred()) {
                     break;
-                default:
-                    log.warn("Неизвестный тип события: {}", event.getEventType());
+                }
+                try {
+                    Thread.sleep(e.getRetryAfterMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw ChannelDeliveryException.merge(failed, e);
+                }
+                channels = e.getDeferredChannels();
+            }
+        }
+        if (failed != null) {
+            throw failed;
+        }
+    }
+
+    /**
+     * Учитывает результат доставки и подтверждает запись: после успеха, отказа всех каналов
+     * или публикации не справившихся каналов на повтор
+     */
+    private void complete(ConsumerRecord<String, UserEvent> record, Acknowledgment acknowledgment,
+                          long start, RuntimeException error) {
+        UserEvent event = record.value();
+        if (error == null) {
+            metrics.record(Stage.HANDLE, event.getEventType(), Outcome.SUCCESS, start);
+        } else if (error instanceof IllegalArgumentException
+                || error instanceof ChannelDeliveryException && ((ChannelDeliveryException) error).isRejected()) {
+            metrics.record(Stage.HANDLE, event.getEventType(), Outcome.SKIPPED, start);
+            log.warn("Событие {} пропущено: {}", event.getEventType(), error.getMessage());
+        } else {
+            metrics.record(Stage.HANDLE, event.getEventType(), Outcome.FAILURE, start);
+            log.error("Ошибка при обработке события {}: {}", event.getEventType(), error.getMessage());
+            if (!routeToRetry(record, error)) {
+                return;
             }
+        }
+        acknowledgment.acknowledge();
+    }
+
+    /**
+     * Публикует событие на повтор из потока публикации, полосы или окна схлопывания. Вернуть запись
+     * контейнеру отсюда нельзя, поэтому неудачная публикация повторяется, пока не удастся.
+     * Для ошибки каналов на повтор уходят только каналы со сбоем. Если остались каналы
+     * с отсрочкой (каналы остановлены), событие не публикуется, и запись не подтверждается:
+     * после перезапуска она будет прочитана снова
+     *
+     * @return false - событие не опубликовано, и запись нельзя подтверждать
+     */
+    private boolean routeToRetry(ConsumerRecord<String, UserEvent> record, RuntimeException cause) {
+        if (cause instanceof ChannelDeliveryException && ((ChannelDeliveryException) cause).isDeferred()) {
+            log.warn("Доставка события {}-{}@{} отложена при остановке, запись не подтверждена: {}",
+                    record.topic(), record.partition(), record.offset(), cause.getMessage());
+            return false;
+        }
+        try {
+            retryRouter.routeUntilPublished(record, cause);
+            return true;
+        } catch (KafkaException e) {
+            log.error("Событие {}-{}@{} не обработано и не отправлено на повтор, запись не подтверждена: {}",
+                    record.topic(), record.partition(), record.offset(), e.getMessage());
+            return false;
+        }
+    }
 
-        } catch (Exception e) {
-            log.error("Ошибка при обработке события {}: {}", event.getEventType(), e.getMessage(), e);
-            throw e; // Перебрасываем для retry
+    /**
+     * Ключ упорядочивания: события одного пользователя попадают на одну полосу
+     */
+    static Object orderingKey(ConsumerRecord<String, UserEvent> record) {
+        UserEvent event = record.value();
+        if (event.getId() != null) {
+            return event.getId();
+        }
+        if (event.getEmail() != null) {
+            return event.getEmail();
         }
+        return record.key();
     }
-}
\ No newline at end of file
+}
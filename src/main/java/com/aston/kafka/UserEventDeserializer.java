@@ -0,0 +1,321 @@
+package com.aston.kafka;
+
+import com.aston.dto.UserEvent;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Десериализатор {@link UserEvent} для топика событий пользователей.
+ *
+ * Тип значения известен заранее, поэтому заголовки с типом не читаются.
+ * Плоский JSON-объект без escape-последовательностей, то есть обычная запись
+ * производителя, разбирается прямо по байтам записи: создаются только сам
+ * UserEvent, его строки и id. Тип события сравнивается с именами констант по байтам.
+ * Остальное (вложенные значения, escape-последовательности, ошибки) читается
+ * потоковым парсером Jackson. Неизвестные поля пропускаются, как и у JsonDeserializer.
+ *
+ * Запись с заголовком {@link #FORMAT_HEADER}={@link #BINARY_FORMAT} читается
+ * в двоичном формате {@link UserEventBinaryFormat}
+ */
+public class UserEventDeserializer implements Deserializer<UserEvent> {
+
+    public static final String FORMAT_HEADER = "x-event-format";
+    public static final String BINARY_FORMAT = "binary";
+    public static final String JSON_FORMAT = "json";
+
+    private static final byte[] BINARY_FORMAT_BYTES = BINARY_FORMAT.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JSON_FORMAT_BYTES = JSON_FORMAT.getBytes(StandardCharsets.UTF_8);
+
+    private static final UserEvent.EventType[] EVENT_TYPES = UserEvent.EventType.values();
+    private static final char[][] EVENT_TYPE_NAMES = Arrays.stream(EVENT_TYPES)
+            .map(type -> type.name().toCharArray())
+            .toArray(char[][]::new);
+
+    private static final byte[][] EVENT_TYPE_BYTES = Arrays.stream(EVENT_TYPES)
+            .map(type -> type.name().getBytes(StandardCharsets.US_ASCII))
+            .toArray(byte[][]::new);
+
+    private static final byte[] EVENT_TYPE_FIELD = bytes("eventType");
+    private static final byte[] EMAIL_FIELD = bytes("email");
+    private static final byte[] NAME_FIELD = bytes("name");
+    private static final byte[] ID_FIELD = bytes("id");
+    private static final byte[] NULL = bytes("null");
+
+    /**
+     * Больше цифр не разбирается по байтам, чтобы не проверять переполнение long
+     */
+    private static final int MAX_FAST_DIGITS = 18;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Override
+    public UserEvent deserialize(String topic, byte[] data) {
+        return data == null ? null : readJson(data);
+    }
+
+    @Override
+    public UserEvent deserialize(String topic, Headers headers, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        Header format = headers != null ? headers.lastHeader(FORMAT_HEADER) : null;
+        if (format == null || Arrays.equals(format.value(), JSON_FORMAT_BYTES)) {
+            return readJson(data);
+        }
+        if (Arrays.equals(format.value(), BINARY_FORMAT_BYTES)) {
+            return UserEventBinaryFormat.read(data);
+        }
+        throw new SerializationException("Неизвестный формат записи UserEvent: "
+                + (format.value() != null ? new String(format.value(), StandardCharsets.UTF_8) : null));
+    }
+
+    private static UserEvent readJson(byte[] data) {
+        UserEvent event = readFlatJson(data);
+        return event != null ? event : readJsonStream(data);
+    }
+
+    /**
+     * Разбирает плоский JSON-объект по байтам
+     *
+     * @return событие или null, если запись нужно читать парсером Jackson
+     */
+    static UserEvent readFlatJson(byte[] data) {
+        int position = skipWhitespace(data, 0);
+        if (position >= data.length || data[position] != '{') {
+            return null;
+        }
+        UserEvent event = new UserEvent();
+        position = skipWhitespace(data, position + 1);
+        if (position < data.length && data[position] == '}') {
+            return skipWhitespace(data, position + 1) == data.length ? event : null;
+        }
+
+        while (true) {
+            // Имя поля
+            if (position >= data.length || data[position] != '"') {
+                return null;
+            }
+            int nameStart = position + 1;
+            int nameEnd = closingQuote(data, nameStart);
+            if (nameEnd < 0) {
+                return null;
+            }
+            position = skipWhitespace(data, nameEnd + 1);
+            if (position >= data.length || data[position] != ':') {
+                return null;
+            }
+            position = skipWhitespace(data, position + 1);
+            if (position >= data.length) {
+                return null;
+            }
+
+            // Значение: строка, целое число или null
+            byte first = data[position];
+            int valueStart;
+            int valueEnd;
+            boolean string = first == '"';
+            if (string) {
+                valueStart = position + 1;
+                valueEnd = closingQuote(data, valueStart);
+                if (valueEnd < 0) {
+                    return null;
+                }
+                position = valueEnd + 1;
+            } else if (first == 'n') {
+                if (!regionEquals(data, position, NULL)) {
+                    return null;
+                }
+                valueStart = -1;
+                valueEnd = -1;
+                position += NULL.length;
+            } else if (first == '-' || (first >= '0' && first <= '9')) {
+                valueStart = position;
+                valueEnd = position + 1;
+                while (valueEnd < data.length && data[valueEnd] >= '0' && data[valueEnd] <= '9') {
+                    valueEnd++;
+                }
+                if (first == '-' && valueEnd == valueStart + 1) {
+                    return null;
+                }
+                position = valueEnd;
+            } else {
+                return null;
+            }
+
+            if (valueStart >= 0 && !setField(event, data, nameStart, nameEnd, string, valueStart, valueEnd)) {
+                return null;
+            }
+
+            position = skipWhitespace(data, position);
+            if (position >= data.length) {
+                return null;
+            }
+            if (data[position] == '}') {
+                return skipWhitespace(data, position + 1) == data.length ? event : null;
+            }
+            if (data[position] != ',') {
+                return null;
+            }
+            position = skipWhitespace(data, position + 1);
+        }
+    }
+
+    /**
+     * Записывает значение в поле события; false - значение нужно разобрать парсером Jackson
+     */
+    private static boolean setField(UserEvent event, byte[] data, int nameStart, int nameEnd,
+                                    boolean string, int valueStart, int valueEnd) {
+        int nameLength = nameEnd - nameStart;
+        if (fieldEquals(data, nameStart, nameLength, EVENT_TYPE_FIELD)) {
+            if (!string) {
+                return false;
+            }
+            for (int i = 0; i < EVENT_TYPE_BYTES.length; i++) {
+                byte[] name = EVENT_TYPE_BYTES[i];
+                if (name.length == valueEnd - valueStart && regionEquals(data, valueStart, name)) {
+                    event.setEventType(EVENT_TYPES[i]);
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (fieldEquals(data, nameStart, nameLength, EMAIL_FIELD)) {
+            if (string) {
+                event.setEmail(new String(data, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8));
+            }
+            return string;
+        }
+        if (fieldEquals(data, nameStart, nameLength, NAME_FIELD)) {
+            if (string) {
+                event.setName(new String(data, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8));
+            }
+            return string;
+        }
+        if (fieldEquals(data, nameStart, nameLength, ID_FIELD)) {
+            int start = valueStart;
+            boolean negative = !string && data[start] == '-';
+            if (negative) {
+                start++;
+            }
+            if (valueEnd == start || valueEnd - start > MAX_FAST_DIGITS) {
+                return false;
+            }
+            long id = 0;
+            for (int i = start; i < valueEnd; i++) {
+                if (data[i] < '0' || data[i] > '9') {
+                    return false;
+                }
+                id = id * 10 + (data[i] - '0');
+            }
+            event.setId(negative ? -id : id);
+            return true;
+        }
+        // Неизвестное поле со строкой, числом или null пропускается
+        return true;
+    }
+
+    private static UserEvent readJsonStream(byte[] data) {
+        try (JsonParser parser = JSON_FACTORY.createParser(data)) {
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new SerializationException("Ожидается JSON-объект UserEvent, получено " + token);
+            }
+
+            UserEvent event = new UserEvent();
+            String field;
+            while ((field = parser.nextFieldName()) != null) {
+                token = parser.nextToken();
+                if (token == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                // Имена полей парсер канонизирует, поэтому switch по ним не создает строк
+                switch (field) {
+                    case "eventType":
+                        event.setEventType(eventType(parser));
+                        break;
+                    case "email":
+                        event.setEmail(parser.getText());
+                        break;
+                    case "name":
+                        event.setName(parser.getText());
+                        break;
+                    case "id":
+                        event.setId(token == JsonToken.VALUE_STRING
+                                ? Long.valueOf(parser.getText().trim())
+                                : parser.getLongValue());
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            return event;
+        } catch (IOException | NumberFormatException e) {
+            throw new SerializationException("Некорректный JSON UserEvent: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Позиция закрывающей кавычки строки или -1, если строка не закрыта или содержит
+     * escape-последовательность
+     */
+    private static int closingQuote(byte[] data, int position) {
+        for (int i = position; i < data.length; i++) {
+            if (data[i] == '"') {
+                return i;
+            }
+            if (data[i] == '\\') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipWhitespace(byte[] data, int position) {
+        while (position < data.length
+                && (data[position] == ' ' || data[position] == '\n' || data[position] == '\r' || data[position] == '\t')) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean fieldEquals(byte[] data, int start, int length, byte[] field) {
+        return length == field.length && regionEquals(data, start, field);
+    }
+
+    private static boolean regionEquals(byte[] data, int start, byte[] expected) {
+        return start + expected.length <= data.length
+                && Arrays.equals(data, start, start + expected.length, expected, 0, expected.length);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static UserEvent.EventType eventType(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.VALUE_STRING) {
+            throw new SerializationException("Тип события должен быть строкой, получено " + parser.currentToken());
+        }
+        char[] text = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        for (int i = 0; i < EVENT_TYPE_NAMES.length; i++) {
+            char[] name = EVENT_TYPE_NAMES[i];
+            if (name.length == length && Arrays.equals(name, 0, length, text, offset, offset + length)) {
+                return EVENT_TYPES[i];
+            }
+        }
+        throw new SerializationException("Неизвестный тип события: " + new String(text, offset, length));
+    }
+}
@@ -0,0 +1,434 @@
+package com.aston.ledger;
+
+import com.aston.dto.UserEvent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Журнал доставленных писем для подавления повторов при повторной доставке событий.
+ *
+ * Ключ - пара (id пользователя, тип события); события без id не учитываются.
+ * Проверка идет по таблице с открытой адресацией на примитивных массивах без блокировки
+ * и выделения памяти, отметка дописывается в {@link LedgerLog}, из которого таблица
+ * восстанавливается при старте. Отметки старше window не учитываются и удаляются
+ * фоновым уплотнением, которое заодно переписывает файл журнала.
+ *
+ * Отметок не больше maxEntries: при заполнении таблицы удаляется самая старая четверть,
+ * и повтор такого события уже не будет подавлен.
+ *
+ * Отправитель сначала занимает событие {@link #claim(UserEvent)}, а после отправки отмечает
+ * его {@link #markDelivered(UserEvent)} или освобождает {@link #release(UserEvent)}, поэтому
+ * одновременные повторные доставки одного события не отправляют письмо дважды
+ */
+@Slf4j
+public class DeliveryLedger implements AutoCloseable {
+
+    private static final float MAX_LOAD = 0.5f;
+
+    /**
+     * Время занятого события: отправка идет, в файл журнала отметка еще не записана
+     */
+    private static final long CLAIMED = Long.MAX_VALUE;
+
+    private final LedgerLog ledgerLog;
+    private final long windowMillis;
+    private final int maxEntries;
+    private final Clock clock;
+    private final StampedLock lock = new StampedLock();
+    private final ScheduledExecutorService compactor;
+
+    private long[] ids;
+    /**
+     * Номер типа события плюс один, 0 - ячейка свободна
+     */
+    private byte[] types;
+    private long[] deliveredAt;
+    private int size;
+
+    /**
+     * @param path файл журнала, null - только в памяти
+     */
+    public DeliveryLedger(Path path, Duration window, int initialCapacity, int maxEntries, Duration compactInterval,
+                          Clock clock) throws IOException {
+        this.windowMillis = window.toMillis();
+        this.maxEntries = Math.max(16, maxEntries);
+        this.clock = clock;
+        int capacity = Integer.highestOneBit(Math.max(16, Math.min(initialCapacity, this.maxEntries)) * 2 - 1);
+        this.ids = new long[capacity];
+        this.types = new byte[capacity];
+        this.deliveredAt = new long[capacity];
+
+        this.ledgerLog = path != null ? new LedgerLog(path) : null;
+        if (ledgerLog != null) {
+            long expiredBefore = clock.millis() - windowMillis;
+            ledgerLog.forEach((id, type, time) -> {
+                if (type > 0 && time > expiredBefore) {
+                    put(id, (byte) type, time);
+                }
+            });
+            log.info("Журнал доставок {} загружен: {} отметок из {} записей", path, size, ledgerLog.count());
+        }
+
+        if (compactInterval.isZero() || compactInterval.isNegative()) {
+            this.compactor = null;
+        } else {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "delivery-ledger-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = compactInterval.toMillis();
+            compactor.scheduleWithFixedDelay(this::compactQuietly, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Было ли письмо для события уже отправлено в пределах окна или отправляется сейчас
+     */
+    public boolean isDelivered(UserEvent event) {
+        byte type = type(event);
+        if (type == 0) {
+            return false;
+        }
+        long id = event.getId();
+        long expiredBefore = clock.millis() - windowMillis;
+
+        long stamp = lock.tryOptimisticRead();
+        long[] currentIds = ids;
+        byte[] currentTypes = types;
+        long[] currentTimes = deliveredAt;
+        // При замене массивов во время чтения их длины могут не совпасть, результат отбросит validate
+        long time = currentIds.length == currentTypes.length && currentIds.length == currentTimes.length
+                ? find(currentIds, currentTypes, currentTimes, id, type)
+                : 0;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                time = find(ids, types, deliveredAt, id, type);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return time > expiredBefore;
+    }
+
+    /**
+     * Занимает событие перед отправкой письма
+     *
+     * @return true - письмо нужно отправить и затем вызвать {@link #markDelivered} или {@link #release};
+     * false - письмо уже отправлено в пределах окна или его отправляет другой поток
+     */
+    public boolean claim(UserEvent event) {
+        byte type = type(event);
+        if (type == 0) {
+            return true;
+        }
+        long id = event.getId();
+        long expiredBefore = clock.millis() - windowMillis;
+        long stamp = lock.writeLock();
+        try {
+            if (find(ids, types, deliveredAt, id, type) > expiredBefore) {
+                return false;
+            }
+            put(id, type, CLAIMED);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Освобождает занятое событие, письмо которого отправить не удалось
+     */
+    public void release(UserEvent event) {
+        byte type = type(event);
+        if (type == 0) {
+            return;
+        }
+        long id = event.getId();
+        long stamp = lock.writeLock();
+        try {
+            int index = indexOf(id, type);
+            if (index >= 0 && deliveredAt[index] == CLAIMED) {
+                removeAt(index);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Отмечает письмо для события как отправленное
+     */
+    public void markDelivered(UserEvent event) {
+        byte type = type(event);
+        if (type == 0) {
+            return;
+        }
+        long id = event.getId();
+        long now = clock.millis();
+        long stamp = lock.writeLock();
+        try {
+            put(id, type, now);
+            if (ledgerLog != null) {
+                ledgerLog.append(id, type, now);
+                if (ledgerLog.count() > 2L * maxEntries) {
+                    rewriteLog();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать отметку в журнал доставок", e);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Удаляет отметки старше окна и переписывает файл журнала, если в нем
+     * больше половины устаревших записей
+     *
+     * @return число удаленных отметок
+     */
+    public int compact() throws IOException {
+        long expiredBefore = clock.millis() - windowMillis;
+        long stamp = lock.writeLock();
+        try {
+            int removed = retainNewerThan(expiredBefore);
+            if (ledgerLog != null && ledgerLog.count() > 2L * size) {
+                rewriteLog();
+            }
+            if (removed > 0) {
+                log.info("Журнал доставок уплотнен: удалено {} отметок, осталось {}", removed, size);
+            }
+            return removed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        long stamp = lock.writeLock();
+        try {
+            if (ledgerLog != null) {
+                ledgerLog.close();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Номер типа события плюс один, 0 - событие не учитывается
+     */
+    private static byte type(UserEvent event) {
+        if (event.getId() == null || event.getEventType() == null) {
+            return 0;
+        }
+        return (byte) (event.getEventType().ordinal() + 1);
+    }
+
+    /**
+     * Время отметки для ключа или 0. Читает только переданные массивы,
+     * поэтому безопасна при оптимистичном чтении во время их замены
+     */
+    private static long find(long[] ids, byte[] types, long[] deliveredAt, long id, byte type) {
+        int mask = ids.length - 1;
+        for (int i = slot(id, type, mask); ; i = (i + 1) & mask) {
+            byte current = types[i];
+            if (current == 0) {
+                return 0;
+            }
+            if (current == type && ids[i] == id) {
+                return deliveredAt[i];
+            }
+        }
+    }
+
+    private int indexOf(long id, byte type) {
+        int mask = ids.length - 1;
+        for (int i = slot(id, type, mask); ; i = (i + 1) & mask) {
+            if (types[i] == 0) {
+                return -1;
+            }
+            if (types[i] == type && ids[i] == id) {
+                return i;
+            }
+        }
+    }
+
+    private void put(long id, byte type, long time) {
+        int index = indexOf(id, type);
+        if (index >= 0) {
+            // Отметка доставки заменяет занятость, занятость не затирает отметку
+            deliveredAt[index] = time == CLAIMED || deliveredAt[index] == CLAIMED
+                    ? time
+                    : Math.max(deliveredAt[index], time);
+            return;
+        }
+        if (size >= maxEntries) {
+            evictOldest();
+        }
+        if (size + 1 > ids.length * MAX_LOAD) {
+            resize(ids.length * 2);
+        }
+        insert(id, type, time);
+    }
+
+    /**
+     * Удаляет ячейку, сдвигая назад следующие за ней ключи той же цепочки
+     */
+    private void removeAt(int index) {
+        int mask = ids.length - 1;
+        int gap = index;
+        for (int i = (index + 1) & mask; types[i] != 0; i = (i + 1) & mask) {
+            int home = slot(ids[i], types[i], mask);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                ids[gap] = ids[i];
+                types[gap] = types[i];
+                deliveredAt[gap] = deliveredAt[i];
+                gap = i;
+            }
+        }
+        types[gap] = 0;
+        ids[gap] = 0;
+        deliveredAt[gap] = 0;
+        size--;
+    }
+
+    /**
+     * Освобождает место при заполнении таблицы: удаляет устаревшие отметки и самую старую
+     * четверть остальных. Занятые события не удаляются
+     */
+    private void evictOldest() {
+        long expiredBefore = clock.millis() - windowMillis;
+        long[] times = new long[size];
+        int live = 0;
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] != 0 && deliveredAt[i] != CLAIMED && deliveredAt[i] > expiredBefore) {
+                times[live++] = deliveredAt[i];
+            }
+        }
+        long keepAfter = expiredBefore;
+        if (live > 0) {
+            Arrays.sort(times, 0, live);
+            keepAfter = Math.max(keepAfter, times[live / 4]);
+        }
+        int removed = retainNewerThan(keepAfter);
+        log.warn("Журнал доставок заполнен ({} отметок), удалено {} самых старых", maxEntries, removed);
+    }
+
+    /**
+     * Оставляет в таблице только отметки новее keepAfter
+     *
+     * @return число удаленных отметок
+     */
+    private int retainNewerThan(long keepAfter) {
+        long[] oldIds = ids;
+        byte[] oldTypes = types;
+        long[] oldTimes = deliveredAt;
+        int removed = 0;
+        for (int i = 0; i < oldTypes.length; i++) {
+            if (oldTypes[i] != 0 && oldTimes[i] <= keepAfter) {
+                removed++;
+            }
+        }
+        if (removed == 0) {
+            return 0;
+        }
+        ids = new long[oldIds.length];
+        types = new byte[oldTypes.length];
+        deliveredAt = new long[oldTimes.length];
+        size = 0;
+        for (int i = 0; i < oldTypes.length; i++) {
+            if (oldTypes[i] != 0 && oldTimes[i] > keepAfter) {
+                insert(oldIds[i], oldTypes[i], oldTimes[i]);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Переписывает файл журнала отметками таблицы, кроме занятых событий
+     */
+    private void rewriteLog() throws IOException {
+        long[] liveIds = new long[size];
+        byte[] liveTypes = new byte[size];
+        long[] liveTimes = new long[size];
+        int live = 0;
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] != 0 && deliveredAt[i] != CLAIMED) {
+                liveIds[live] = ids[i];
+                liveTypes[live] = types[i];
+                liveTimes[live] = deliveredAt[i];
+                live++;
+            }
+        }
+        ledgerLog.rewrite(liveIds, liveTypes, liveTimes, live);
+    }
+
+    private void resize(int capacity) {
+        long[] oldIds = ids;
+        byte[] oldTypes = types;
+        long[] oldTimes = deliveredAt;
+        ids = new long[capacity];
+        types = new byte[capacity];
+        deliveredAt = new long[capacity];
+        size = 0;
+        for (int i = 0; i < oldTypes.length; i++) {
+            if (oldTypes[i] != 0) {
+                insert(oldIds[i], oldTypes[i], oldTimes[i]);
+            }
+        }
+    }
+
+    /**
+     * Вставляет ключ, которого нет в таблице, без проверки заполнения
+     */
+    private void insert(long id, byte type, long time) {
+        int mask = ids.length - 1;
+        int i = slot(id, type, mask);
+        while (types[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        ids[i] = id;
+        types[i] = type;
+        deliveredAt[i] = time;
+        size++;
+    }
+
+    private static int slot(long id, byte type, int mask) {
+        long hash = (id ^ ((long) type << 57)) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            log.error("Ошибка уплотнения журнала доставок: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.aston.ledger;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Файл журнала доставок, отображенный в память.
+ *
+ * Первая запись - заголовок с {@link #MAGIC} и версией формата. Остальные записи - 16 байт:
+ * id пользователя и слово, в старшем байте которого номер типа события плюс один, а в остальных -
+ * время доставки в мс. Слово учитываемой записи не бывает нулевым, поэтому конец данных - первая
+ * запись с нулевым словом. Файл растет блоками по {@link #GROWTH_BYTES}, хвост блока заполнен нулями.
+ * Запись попадает в страничный кеш и переживает падение процесса без fsync
+ */
+@Slf4j
+final class LedgerLog implements AutoCloseable {
+
+    static final int RECORD_BYTES = 16;
+    static final long GROWTH_BYTES = 1 << 20;
+
+    /**
+     * "DLEDGER" и номер версии формата
+     */
+    static final long MAGIC = 0x444C4544474552L;
+    static final long VERSION = 2;
+
+    private static final int TYPE_SHIFT = 56;
+    private static final long TIME_MASK = (1L << TYPE_SHIFT) - 1;
+
+    /**
+     * Получатель записей журнала при чтении
+     */
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long id, int type, long deliveredAt);
+    }
+
+    private final Path path;
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    private long count;
+
+    LedgerLog(Path path) throws IOException {
+        this.path = path;
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        open();
+    }
+
+    /**
+     * Читает все записи журнала от начала файла
+     */
+    void forEach(EntryConsumer consumer) {
+        for (long i = 0; i < count; i++) {
+            int position = (int) ((i + 1) * RECORD_BYTES);
+            long word = buffer.getLong(position + 8);
+            consumer.accept(buffer.getLong(position), (int) (word >>> TYPE_SHIFT), word & TIME_MASK);
+        }
+    }
+
+    /**
+     * @param type номер типа события плюс один, от 1 до 127
+     */
+    void append(long id, int type, long deliveredAt) throws IOException {
+        long position = (count + 1) * RECORD_BYTES;
+        if (position + RECORD_BYTES > buffer.capacity()) {
+            map(buffer.capacity() + GROWTH_BYTES);
+        }
+        // Слово пишется после id: оборванная запись без слова считается концом данных
+        buffer.putLong((int) position, id);
+        buffer.putLong((int) position + 8, ((long) type << TYPE_SHIFT) | (deliveredAt & TIME_MASK));
+        count++;
+    }
+
+    long count() {
+        return count;
+    }
+
+    /**
+     * Заменяет журнал файлом, содержащим только переданные записи
+     */
+    void rewrite(long[] ids, byte[] types, long[] deliveredAt, int size) throws IOException {
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        Files.deleteIfExists(compacted);
+        try (LedgerLog target = new LedgerLog(compacted)) {
+            for (int i = 0; i < size; i++) {
+                target.append(ids[i], types[i], deliveredAt[i]);
+            }
+            target.buffer.force();
+        }
+        close();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            buffer.force();
+            file.close();
+            file = null;
+        }
+    }
+
+    private void open() throws IOException {
+        file = new RandomAccessFile(path.toFile(), "rw");
+        long length = file.length();
+        map(Math.max(GROWTH_BYTES, length - length % RECORD_BYTES));
+
+        if (buffer.getLong(0) != MAGIC || buffer.getLong(8) != VERSION) {
+            if (buffer.getLong(0) != 0) {
+                // Файл прежнего формата: ключи в нем неоднозначны, отметки отбрасываются
+                log.warn("Журнал доставок {} в неизвестном формате, отметки сброшены", path);
+                for (int position = 0; position < buffer.capacity(); position += 8) {
+                    buffer.putLong(position, 0);
+                }
+            }
+            buffer.putLong(0, MAGIC);
+            buffer.putLong(8, VERSION);
+        }
+
+        count = 0;
+        long capacityRecords = buffer.capacity() / RECORD_BYTES - 1;
+        while (count < capacityRecords && buffer.getLong((int) ((count + 1) * RECORD_BYTES) + 8) != 0) {
+            count++;
+        }
+    }
+
+    private void map(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Журнал доставок превысил 2 ГБ: " + path);
+        }
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+}
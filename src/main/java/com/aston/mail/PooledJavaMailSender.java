@@ -0,0 +1,113 @@
+package com.aston.mail;
+
+import com.aston.mail.SmtpTransportPool.PooledTransport;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.lang.Nullable;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.time.Duration;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JavaMailSender, переиспользующий авторизованные SMTP-соединения из пула.
+ *
+ * В отличие от JavaMailSenderImpl не открывает новое соединение (TCP, STARTTLS, AUTH)
+ * на каждый вызов send, а берет его из {@link SmtpTransportPool} и возвращает обратно.
+ */
+@Slf4j
+public class PooledJavaMailSender extends JavaMailSenderImpl implements DisposableBean {
+
+    private static final String HEADER_MESSAGE_ID = "Message-ID";
+
+    private final SmtpTransportPool pool;
+    private final int maxMessagesPerConnection;
+
+    public PooledJavaMailSender(int poolSize, int maxMessagesPerConnection, Duration maxIdle,
+                                Duration validateAfterIdle, Duration borrowTimeout) {
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.pool = new SmtpTransportPool(this::connectTransport, poolSize, maxMessagesPerConnection,
+                maxIdle, validateAfterIdle, borrowTimeout);
+    }
+
+    public SmtpTransportPool getPool() {
+        return pool;
+    }
+
+    @Override
+    protected void doSend(MimeMessage[] mimeMessages, @Nullable Object[] originalMessages) throws MailException {
+        Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+        PooledTransport transport = null;
+
+        try {
+            for (int i = 0; i < mimeMessages.length; i++) {
+                if (transport != null && transport.getMessagesSent() >= maxMessagesPerConnection) {
+                    pool.release(transport);
+                    transport = null;
+                }
+                if (transport == null) {
+                    try {
+                        transport = pool.borrow();
+                    } catch (AuthenticationFailedException ex) {
+                        throw new MailAuthenticationException(ex);
+                    } catch (MessagingException | RuntimeException ex) {
+                        // Соединение получить не удалось - все оставшиеся письма считаем неотправленными
+                        for (int j = i; j < mimeMessages.length; j++) {
+                            failedMessages.put(original(mimeMessages, originalMessages, j), ex);
+                        }
+                        throw new MailSendException("Mail server connection failed", ex, failedMessages);
+                    }
+                }
+
+                MimeMessage mimeMessage = mimeMessages[i];
+                try {
+                    if (mimeMessage.getSentDate() == null) {
+                        mimeMessage.setSentDate(new Date());
+                    }
+                    String messageId = mimeMessage.getMessageID();
+                    mimeMessage.saveChanges();
+                    if (messageId != null) {
+                        // Сохраняем явно заданный Message-ID, saveChanges его перезаписывает
+                        mimeMessage.setHeader(HEADER_MESSAGE_ID, messageId);
+                    }
+                    Address[] addresses = mimeMessage.getAllRecipients();
+                    transport.getTransport().sendMessage(mimeMessage, addresses != null ? addresses : new Address[0]);
+                    transport.markSent();
+                } catch (Exception ex) {
+                    failedMessages.put(original(mimeMessages, originalMessages, i), ex);
+                    if (!transport.isConnected()) {
+                        log.warn("SMTP-соединение разорвано, удаляем его из пула: {}", ex.getMessage());
+                        pool.invalidate(transport);
+                        transport = null;
+                    }
+                }
+            }
+        } finally {
+            if (transport != null) {
+                pool.release(transport);
+            }
+        }
+
+        if (!failedMessages.isEmpty()) {
+            throw new MailSendException(failedMessages);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        pool.close();
+    }
+
+    private static Object original(MimeMessage[] mimeMessages, @Nullable Object[] originalMessages, int index) {
+        return originalMessages != null ? originalMessages[index] : mimeMessages[index];
+    }
+}
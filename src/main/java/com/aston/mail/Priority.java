@@ -0,0 +1,28 @@
+package com.aston.mail;
+
+import java.util.Locale;
+
+/**
+ * Класс приоритета отправки. Каждый класс - отдельная полоса {@link PriorityLanes}
+ */
+public enum Priority {
+    /**
+     * Транзакционные письма: подтверждения удаления, отправки через REST
+     */
+    HIGH,
+    NORMAL,
+    /**
+     * Массовые письма, например приветственные
+     */
+    BULK;
+
+    private final String tag = name().toLowerCase(Locale.ROOT);
+
+    public String getTag() {
+        return tag;
+    }
+
+    public static Priority parse(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,187 @@
+package com.aston.mail;
+
+import com.aston.dto.UserEvent;
+import com.aston.metrics.NotificationMetrics;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Полосы приоритетов перед потоками отправки SMTP.
+ *
+ * У каждого класса {@link Priority} своя ограниченная очередь. Свободный поток отправки
+ * берет следующую задачу по алгоритму deficit round robin: при обходе полоса получает
+ * кредит по своему весу и отдает задачи, пока кредит покрывает их стоимость. Поэтому
+ * очередь массовых писем не задерживает транзакционные больше, чем на долю их веса,
+ * но и сама не голодает, пока полосы выше заняты.
+ *
+ * Типы событий без отдельной настройки идут в полосу NORMAL
+ */
+@Slf4j
+public class PriorityLanes {
+
+    /**
+     * Задача в очереди полосы
+     */
+    private static final class Task {
+
+        private final Runnable action;
+        private final int cost;
+        private final long enqueuedAt;
+
+        Task(Runnable action, int cost, long enqueuedAt) {
+            this.action = action;
+            this.cost = cost;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private final Priority[] priorities = Priority.values();
+    private final ArrayDeque<Task>[] queues;
+    private final int[] capacity;
+    private final int[] quantum;
+    private final int[] deficit;
+    private final Timer[] waitTimers;
+    private final Map<UserEvent.EventType, Priority> eventPriorities;
+    private final Priority restPriority;
+    private int current;
+    private boolean turnStarted;
+    private int size;
+
+    /**
+     * @param weights        вес полосы: сколько задач единичной стоимости она отдает за один обход
+     * @param capacity       максимум задач в очереди каждой полосы
+     * @param eventPriorities полосы типов событий
+     * @param restPriority   полоса отправок через REST
+     */
+    @SuppressWarnings("unchecked")
+    public PriorityLanes(Map<Priority, Integer> weights,
+                         int capacity,
+                         Map<UserEvent.EventType, Priority> eventPriorities,
+                         Priority restPriority,
+                         NotificationMetrics metrics) {
+        int laneCount = priorities.length;
+        this.queues = new ArrayDeque[laneCount];
+        this.capacity = new int[laneCount];
+        this.quantum = new int[laneCount];
+        this.deficit = new int[laneCount];
+        this.waitTimers = new Timer[laneCount];
+        for (Priority priority : priorities) {
+            int lane = priority.ordinal();
+            queues[lane] = new ArrayDeque<>();
+            this.capacity[lane] = capacity;
+            quantum[lane] = Math.max(1, weights.getOrDefault(priority, 1));
+            waitTimers[lane] = Timer.builder("notification.priority.wait")
+                    .description("Ожидание отправки в очереди полосы приоритета")
+                    .tag("lane", priority.getTag())
+                    .register(metrics.getRegistry());
+            Gauge.builder("notification.priority.depth", this, lanes -> lanes.getDepth(priority))
+                    .description("Задачи в очереди полосы приоритета")
+                    .tag("lane", priority.getTag())
+                    .register(metrics.getRegistry());
+        }
+        this.eventPriorities = new EnumMap<>(UserEvent.EventType.class);
+        this.eventPriorities.putAll(eventPriorities);
+        this.restPriority = restPriority;
+        log.info("Полосы приоритетов: веса {}, очередь полосы до {} задач, типы событий {}, REST - {}",
+                weights, capacity, eventPriorities, restPriority);
+    }
+
+    /**
+     * Ставит задачу в очередь полосы
+     *
+     * @param cost стоимость задачи для планировщика, например число писем пачки
+     * @return false, если очередь полосы заполнена
+     */
+    public synchronized boolean offer(Priority priority, int cost, Runnable action) {
+        int lane = priority.ordinal();
+        if (queues[lane].size() >= capacity[lane]) {
+            return false;
+        }
+        queues[lane].add(new Task(action, Math.max(1, cost), System.nanoTime()));
+        size++;
+        return true;
+    }
+
+    /**
+     * Снимает следующую задачу по весам полос
+     *
+     * @return null, если все очереди пусты
+     */
+    public Runnable poll() {
+        Task task;
+        int lane;
+        synchronized (this) {
+            if (size == 0) {
+                return null;
+            }
+            while (true) {
+                ArrayDeque<Task> queue = queues[current];
+                Task head = queue.peek();
+                if (head != null) {
+                    if (!turnStarted) {
+                        deficit[current] += quantum[current];
+                        turnStarted = true;
+                    }
+                    if (deficit[current] >= head.cost) {
+                        deficit[current] -= head.cost;
+                        queue.poll();
+                        size--;
+                        lane = current;
+                        task = head;
+                        if (queue.isEmpty()) {
+                            // Опустевшая полоса не копит кредит и уступает ход
+                            deficit[current] = 0;
+                            nextLane();
+                        }
+                        break;
+                    }
+                } else {
+                    deficit[current] = 0;
+                }
+                nextLane();
+            }
+        }
+        waitTimers[lane].record(System.nanoTime() - task.enqueuedAt, TimeUnit.NANOSECONDS);
+        return task.action;
+    }
+
+    /**
+     * Снимает задачу с очереди, если ее еще не взял поток отправки
+     *
+     * @return false, если задачи в очереди нет
+     */
+    public synchronized boolean remove(Priority priority, Runnable action) {
+        if (queues[priority.ordinal()].removeIf(task -> task.action == action)) {
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    public Priority priorityOf(UserEvent.EventType eventType) {
+        return eventType != null ? eventPriorities.getOrDefault(eventType, Priority.NORMAL) : Priority.NORMAL;
+    }
+
+    public Priority getRestPriority() {
+        return restPriority;
+    }
+
+    public synchronized int getDepth(Priority priority) {
+        return queues[priority.ordinal()].size();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private void nextLane() {
+        current = (current + 1) % queues.length;
+        turnStarted = false;
+    }
+}
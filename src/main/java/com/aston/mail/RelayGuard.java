@@ -0,0 +1,341 @@
+package com.aston.mail;
+
+import com.aston.metrics.NotificationMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Защита от медленного или недоступного SMTP-релея: адаптивный лимит одновременных
+ * отправок и размыкатель.
+ *
+ * Лимит меняется по AIMD: отправка быстрее latencyThreshold увеличивает его на 1/limit,
+ * то есть примерно на единицу за каждый лимит успешных отправок, а ошибка релея или
+ * медленная отправка умножает на backoffRatio, но не чаще раза за latencyThreshold.
+ * Поток, не дождавшийся места в лимите за acquireTimeout, получает ошибку, а не копится
+ * в очереди за таймаутами TCP.
+ *
+ * После failureThreshold ошибок релея подряд размыкатель открывается, и отправки на время
+ * openDuration сразу завершаются {@link RelayUnavailableException}. Затем одна пробная
+ * отправка решает, закрыть размыкатель или открыть снова. Ошибки отдельных получателей
+ * (ответы 5xx, кроме ошибок авторизации) состояние релея не меняют
+ */
+@Slf4j
+public class RelayGuard implements AutoCloseable {
+
+    public enum State {
+        CLOSED,
+        HALF_OPEN,
+        OPEN
+    }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final long acquireTimeoutNanos;
+
+    private double limit;
+    private int inFlight;
+    private long lastDecrease;
+    private int consecutiveFailures;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    /**
+     * Место в лимите, занятое потоком заранее {@link #reserve}: true - пробная отправка
+     */
+    private final ThreadLocal<Boolean> reservation = new ThreadLocal<>();
+
+    private final List<Consumer<State>> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService timer;
+    private final Counter rejected;
+
+    public RelayGuard(int initialLimit,
+                      int minLimit,
+                      int maxLimit,
+                      Duration latencyThreshold,
+                      double backoffRatio,
+                      int failureThreshold,
+                      Duration openDuration,
+                      Duration acquireTimeout,
+                      NotificationMetrics metrics) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = openDuration.toNanos();
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+        this.lastDecrease = System.nanoTime() - latencyThresholdNanos;
+
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "relay-guard");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.rejected = Counter.builder("notification.relay.rejected")
+                .description("Отправки, завершенные без обращения к релею: размыкатель открыт или лимит занят")
+                .register(metrics.getRegistry());
+        Gauge.builder("notification.relay.limit", this, RelayGuard::getLimit)
+                .description("Текущий лимит одновременных отправок через SMTP-релей")
+                .register(metrics.getRegistry());
+        Gauge.builder("notification.relay.in-flight", this, RelayGuard::getInFlight)
+                .description("Отправки, выполняемые через SMTP-релей")
+                .register(metrics.getRegistry());
+        Gauge.builder("notification.relay.state", this, guard -> guard.getState().ordinal())
+                .description("Состояние размыкателя: 0 - закрыт, 1 - пробная отправка, 2 - открыт")
+                .register(metrics.getRegistry());
+    }
+
+    /**
+     * Выполняет отправку в пределах лимита
+     *
+     * @throws RelayUnavailableException если размыкатель открыт или место в лимите не освободилось
+     */
+    public void execute(Runnable send) throws MailException {
+        Boolean reserved = reservation.get();
+        boolean probe;
+        if (reserved != null) {
+            reservation.remove();
+            probe = reserved;
+        } else {
+            probe = acquire();
+        }
+        long start = System.nanoTime();
+        boolean relayFailure = false;
+        try {
+            send.run();
+        } catch (MailException e) {
+            relayFailure = isRelayFailure(e);
+            throw e;
+        } finally {
+            release(System.nanoTime() - start, relayFailure, probe);
+        }
+    }
+
+    /**
+     * Занимает место в лимите для следующей отправки этого потока
+     *
+     * @throws RelayUnavailableException если размыкатель открыт или место в лимите не освободилось
+     */
+    public void reserve() {
+        if (reservation.get() == null) {
+            reservation.set(acquire());
+        }
+    }
+
+    /**
+     * Освобождает место, занятое {@link #reserve}, если отправка его не использовала
+     */
+    public void cancelReservation() {
+        Boolean probe = reservation.get();
+        if (probe == null) {
+            return;
+        }
+        reservation.remove();
+        synchronized (this) {
+            inFlight--;
+            if (probe) {
+                probeInFlight = false;
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Проверяет, что размыкатель пропускает отправки
+     *
+     * @throws RelayUnavailableException если размыкатель открыт
+     */
+    public synchronized void checkAvailable() {
+        if (state == State.OPEN) {
+            rejected.increment();
+            throw new RelayUnavailableException("SMTP-релей недоступен, отправка отложена", getRetryAfterSeconds());
+        }
+    }
+
+    /**
+     * Подписывает на смену состояния размыкателя. Подписчики вызываются в отдельном потоке
+     * по порядку смены состояний
+     */
+    public void addListener(Consumer<State> listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Через сколько секунд размыкатель пропустит пробную отправку
+     */
+    public synchronized long getRetryAfterSeconds() {
+        if (state != State.OPEN) {
+            return 1;
+        }
+        long remaining = openedAt + openNanos - System.nanoTime();
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining) + 1);
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Переводит открытый размыкатель в режим пробной отправки
+     */
+    void halfOpen() {
+        synchronized (this) {
+            if (state != State.OPEN) {
+                return;
+            }
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        log.info("Размыкатель SMTP-релея пропускает пробную отправку");
+        notifyListeners(State.HALF_OPEN);
+    }
+
+    private synchronized boolean acquire() {
+        if (state == State.OPEN) {
+            rejected.increment();
+            throw new RelayUnavailableException("SMTP-релей недоступен, отправка отложена", getRetryAfterSeconds());
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) {
+                rejected.increment();
+                throw new RelayUnavailableException("SMTP-релей проверяется пробной отправкой", 1);
+            }
+            probeInFlight = true;
+            inFlight++;
+            return true;
+        }
+
+        long deadline = System.nanoTime() + acquireTimeoutNanos;
+        while (inFlight >= (int) limit) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || state != State.CLOSED) {
+                rejected.increment();
+                throw new RelayUnavailableException(
+                        "Не дождались места в лимите одновременных отправок (" + (int) limit + ")", 1);
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RelayUnavailableException("Прервано ожидание места в лимите отправок", 1);
+            }
+        }
+        inFlight++;
+        return false;
+    }
+
+    private void release(long latencyNanos, boolean relayFailure, boolean probe) {
+        State changed = null;
+        synchronized (this) {
+            inFlight--;
+            long now = System.nanoTime();
+            if (relayFailure || latencyNanos > latencyThresholdNanos) {
+                if (now - lastDecrease >= latencyThresholdNanos) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    lastDecrease = now;
+                }
+            } else {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+
+            if (probe) {
+                probeInFlight = false;
+                changed = relayFailure ? trip(now) : reset();
+            } else if (relayFailure) {
+                consecutiveFailures++;
+                if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+                    changed = trip(now);
+                }
+            } else {
+                consecutiveFailures = 0;
+            }
+            notifyAll();
+        }
+        if (changed == State.OPEN) {
+            log.warn("Размыкатель SMTP-релея открыт на {} мс после {} ошибок подряд, лимит отправок {}",
+                    TimeUnit.NANOSECONDS.toMillis(openNanos), failureThreshold, getLimit());
+        } else if (changed == State.CLOSED) {
+            log.info("Размыкатель SMTP-релея закрыт, отправки возобновлены с лимитом {}", getLimit());
+        }
+        if (changed != null) {
+            notifyListeners(changed);
+        }
+    }
+
+    private State trip(long now) {
+        state = State.OPEN;
+        openedAt = now;
+        consecutiveFailures = 0;
+        try {
+            timer.schedule(this::halfOpen, openNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("Размыкатель остановлен, пробная отправка не запланирована");
+        }
+        return State.OPEN;
+    }
+
+    private State reset() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        return State.CLOSED;
+    }
+
+    private void notifyListeners(State newState) {
+        try {
+            timer.execute(() -> listeners.forEach(listener -> {
+                try {
+                    listener.accept(newState);
+                } catch (RuntimeException e) {
+                    log.error("Ошибка подписчика размыкателя SMTP-релея: {}", e.getMessage(), e);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            log.debug("Размыкатель остановлен, подписчики не уведомлены о состоянии {}", newState);
+        }
+    }
+
+    /**
+     * Ошибка говорит о состоянии релея, а не об отдельном получателе
+     */
+    static boolean isRelayFailure(MailException e) {
+        if (e instanceof RelayUnavailableException) {
+            return false;
+        }
+        if (e instanceof MailAuthenticationException) {
+            return true;
+        }
+        int reply = SendScheduler.smtpReply(e);
+        return reply < 500 || reply > 599;
+    }
+}
@@ -0,0 +1,20 @@
+package com.aston.mail;
+
+/**
+ * SMTP-релей признан недоступным, и письмо не отправлялось: размыкатель {@link RelayGuard}
+ * открыт или не дождались свободного места в лимите одновременных отправок.
+ * Это не ошибка письма: событие ждет релея, а не уходит на повтор
+ */
+public class RelayUnavailableException extends SendDeferredException {
+
+    private final long retryAfterSeconds;
+
+    public RelayUnavailableException(String message, long retryAfterSeconds) {
+        super(message, Math.max(retryAfterSeconds, 1) * 1000);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,23 @@
+package com.aston.mail;
+
+import org.springframework.mail.MailException;
+
+/**
+ * Письмо не отправлялось и может быть отправлено позже: разрешение лимита скорости наступит
+ * позже, чем может ждать поток потребителя Kafka, или SMTP-релей недоступен
+ * ({@link RelayUnavailableException}). Запись нужно вернуть в партицию и прочитать снова
+ * через retryAfterMillis, а не отправлять на повтор
+ */
+public class SendDeferredException extends MailException {
+
+    private final long retryAfterMillis;
+
+    public SendDeferredException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
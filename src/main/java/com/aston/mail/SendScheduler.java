@@ -0,0 +1,476 @@
+package com.aston.mail;
+
+import com.aston.metrics.NotificationMetrics;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Планировщик исходящих писем между EmailService и JavaMailSender.
+ *
+ * Перед отправкой письмо получает разрешение у ведра SMTP-релея и у ведра домена получателя
+ * ({@link TokenBucket}); если разрешение будет позже, поток ждет своей очереди, а не получает
+ * ошибку. Ошибка отправки возникает, только если ждать пришлось бы дольше max-wait.
+ * Отправка {@link #sendOrDefer} ждет не дольше max-channel-wait: так отправляют потоки каналов,
+ * которые не должны стоять на лимите, пока за ними копится очередь. Разрешения возвращаются,
+ * и письмо завершается {@link SendDeferredException}, чтобы вызывающий повторил его после паузы.
+ * Ответы 421 замедляют релей и домен, ответы 450-452 - только домен.
+ *
+ * Сами обращения к JavaMailSender проходят через {@link RelayGuard}, если он настроен:
+ * ожидание лимитов скорости не занимает место в лимите одновременных отправок.
+ */
+@Slf4j
+@Component
+public class SendScheduler {
+
+    /**
+     * Код ответа SMTP в начале текста ошибки, например "421 4.7.0 Try again later"
+     */
+    private static final Pattern SMTP_REPLY = Pattern.compile("^\\s*(\\d{3})\\b");
+
+    /**
+     * Больше доменов отдельными ведрами не отслеживается, остальные делят общее ведро
+     */
+    private static final int MAX_TRACKED_DOMAINS = 10_000;
+
+    private static final String OTHER_DOMAINS = "*";
+
+    /**
+     * Через сколько повторять письмо после {@link SendDeferredException} из-за лимита
+     */
+    private static final long DEFERRED_RETRY_AFTER_MS = 1000;
+
+    private final JavaMailSender mailSender;
+    private final boolean enabled;
+    private final long maxWaitNanos;
+    private final long maxDeferrableWaitNanos;
+
+    private final double defaultDomainRate;
+    private final int domainBurst;
+    private final double minRateFactor;
+
+    private final TokenBucket relayBucket;
+    private final Map<String, TokenBucket> domainBuckets = new ConcurrentHashMap<>();
+
+    private final Timer waitTimer;
+    private final Counter relayThrottled;
+    private final Counter domainThrottled;
+
+    /**
+     * Лимит одновременных отправок и размыкатель релея, null - без защиты
+     */
+    private final RelayGuard relayGuard;
+
+    /**
+     * Разрешение ведра релея, полученное потоком до выбора задачи {@link #acquireRelayPermit}
+     */
+    private final ThreadLocal<Boolean> prepaidRelay = new ThreadLocal<>();
+
+    public SendScheduler(JavaMailSender mailSender,
+                         NotificationMetrics metrics,
+                         boolean enabled,
+                         double relayRate,
+                         int relayBurst,
+                         double defaultDomainRate,
+                         int domainBurst,
+                         String[] domainRates,
+                         double minRateFactor,
+                         Duration maxWait) {
+        this(mailSender, metrics, enabled, relayRate, relayBurst, defaultDomainRate, domainBurst, domainRates,
+                minRateFactor, maxWait, maxWait, (RelayGuard) null);
+    }
+
+    @Autowired
+    public SendScheduler(JavaMailSender mailSender,
+                         NotificationMetrics metrics,
+                         @Value("${app.mail.rate-limit.enabled:false}") boolean enabled,
+                         @Value("${app.mail.rate-limit.relay-rate:20}") double relayRate,
+                         @Value("${app.mail.rate-limit.relay-burst:20}") int relayBurst,
+                         @Value("${app.mail.rate-limit.default-domain-rate:5}") double defaultDomainRate,
+                         @Value("${app.mail.rate-limit.domain-burst:5}") int domainBurst,
+                         @Value("${app.mail.rate-limit.domains:}") String[] domainRates,
+                         @Value("${app.mail.rate-limit.min-rate-factor:0.1}") double minRateFactor,
+                         @Value("${app.mail.rate-limit.max-wait:60s}") Duration maxWait,
+                         @Value("${app.mail.rate-limit.max-channel-wait:500ms}") Duration maxChannelWait,
+                         ObjectProvider<RelayGuard> relayGuard) {
+        this(mailSender, metrics, enabled, relayRate, relayBurst, defaultDomainRate, domainBurst, domainRates,
+                minRateFactor, maxWait, maxChannelWait, relayGuard.getIfAvailable());
+    }
+
+    public SendScheduler(JavaMailSender mailSender,
+                         NotificationMetrics metrics,
+                         boolean enabled,
+                         double relayRate,
+                         int relayBurst,
+                         double defaultDomainRate,
+                         int domainBurst,
+                         String[] domainRates,
+                         double minRateFactor,
+                         Duration maxWait,
+                         Duration maxChannelWait,
+                         RelayGuard relayGuard) {
+        this.mailSender = mailSender;
+        this.relayGuard = relayGuard;
+        this.enabled = enabled;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.maxDeferrableWaitNanos = Math.min(maxWaitNanos, maxChannelWait.toNanos());
+        this.defaultDomainRate = defaultDomainRate;
+        this.domainBurst = domainBurst;
+        this.minRateFactor = minRateFactor;
+        this.relayBucket = new TokenBucket(relayRate, relayBurst, minRateFactor);
+
+        for (String domainRate : domainRates) {
+            if (domainRate.isBlank()) {
+                continue;
+            }
+            int separator = domainRate.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Ожидается <домен>=<писем в секунду>: " + domainRate);
+            }
+            String domain = domainRate.substring(0, separator).trim().toLowerCase(Locale.ROOT);
+            double rate = Double.parseDouble(domainRate.substring(separator + 1).trim());
+            domainBuckets.put(domain, new TokenBucket(rate, domainBurst, minRateFactor));
+        }
+
+        this.waitTimer = Timer.builder("notification.smtp.rate-limit.wait")
+                .description("Ожидание разрешения на отправку письма")
+                .register(metrics.getRegistry());
+        this.relayThrottled = Counter.builder("notification.smtp.throttled")
+                .description("Ответы SMTP-сервера об ограничении скорости")
+                .tag("scope", "relay")
+                .register(metrics.getRegistry());
+        this.domainThrottled = Counter.builder("notification.smtp.throttled")
+                .description("Ответы SMTP-сервера об ограничении скорости")
+                .tag("scope", "domain")
+                .register(metrics.getRegistry());
+    }
+
+    /**
+     * Отправляет письмо, дождавшись разрешения релея и домена получателя
+     */
+    public void send(SimpleMailMessage message) throws MailException {
+        send(message, false);
+    }
+
+    /**
+     * Отправляет письмо, если разрешение релея и домена наступит не позже max-channel-wait
+     *
+     * @throws SendDeferredException если ждать разрешения дольше: письмо не отправлялось
+     */
+    public void sendOrDefer(SimpleMailMessage message) throws MailException {
+        send(message, true);
+    }
+
+    /**
+     * Отправляет пачку писем. Письма, разрешения для которых уже наступили, уходят
+     * одним вызовом через одно соединение; перед следующим письмом, которому нужно
+     * ждать, накопленная часть отправляется, и поток ждет разрешения.
+     *
+     * @throws MailSendException со всеми неотправленными письмами пачки
+     */
+    public void send(SimpleMailMessage... messages) throws MailException {
+        send(messages, false);
+    }
+
+    /**
+     * Отправляет пачку писем как {@link #send(SimpleMailMessage...)}, но ждет разрешения
+     * для письма не дольше max-channel-wait
+     *
+     * @throws MailSendException со всеми неотправленными письмами пачки; письма, разрешения
+     *                           для которых не дождались, - с причиной {@link SendDeferredException}
+     */
+    public void sendOrDefer(SimpleMailMessage... messages) throws MailException {
+        send(messages, true);
+    }
+
+    private void send(SimpleMailMessage message, boolean deferrable) {
+        if (relayGuard != null) {
+            relayGuard.checkAvailable();
+        }
+        if (!enabled) {
+            deliver(message);
+            return;
+        }
+        TokenBucket domain = domainBucket(message);
+        parkUntil(reserve(domain, domainOf(message), deferrable));
+        try {
+            deliver(message);
+            onSuccess(domain);
+        } catch (MailException e) {
+            onFailure(domain, e);
+            throw e;
+        }
+    }
+
+    private void send(SimpleMailMessage[] messages, boolean deferrable) {
+        if (relayGuard != null) {
+            relayGuard.checkAvailable();
+        }
+        if (!enabled) {
+            deliverAll(messages);
+            return;
+        }
+        Map<Object, Exception> failed = new LinkedHashMap<>();
+        List<SimpleMailMessage> chunk = new ArrayList<>();
+        for (SimpleMailMessage message : messages) {
+            long permitted;
+            try {
+                permitted = reserve(domainBucket(message), domainOf(message), deferrable);
+            } catch (MailSendException | SendDeferredException e) {
+                failed.put(message, e);
+                continue;
+            }
+            if (permitted - System.nanoTime() > 0 && !chunk.isEmpty()) {
+                sendChunk(chunk, failed);
+                chunk.clear();
+            }
+            parkUntil(permitted);
+            chunk.add(message);
+        }
+        sendChunk(chunk, failed);
+
+        if (!failed.isEmpty()) {
+            throw new MailSendException(failed);
+        }
+    }
+
+    /**
+     * Дожидается разрешения ведра релея и места в лимите {@link RelayGuard} до того, как поток
+     * выберет задачу: поток с задачей не встает в очередь за общим ограничением, и выбор
+     * по приоритетам делается, когда отправку действительно можно выполнить.
+     * Следующая отправка этого потока использует полученные разрешения; неиспользованные
+     * нужно вернуть {@link #releaseRelayPermit}. Если разрешения не дождались, отправка
+     * получит их обычным порядком
+     */
+    public void acquireRelayPermit() {
+        if (enabled) {
+            long now = System.nanoTime();
+            long permitted = relayBucket.reserve(now, now + maxWaitNanos);
+            if (permitted != -1) {
+                try {
+                    parkUntil(permitted);
+                } catch (MailSendException e) {
+                    relayBucket.cancel();
+                    return;
+                }
+                prepaidRelay.set(Boolean.TRUE);
+            }
+        }
+        if (relayGuard != null) {
+            try {
+                relayGuard.reserve();
+            } catch (RelayUnavailableException e) {
+                log.debug("Место в лимите релея не получено до выбора задачи: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Возвращает разрешения {@link #acquireRelayPermit}, не использованные отправкой
+     */
+    public void releaseRelayPermit() {
+        if (prepaidRelay.get() != null) {
+            prepaidRelay.remove();
+            relayBucket.cancel();
+        }
+        if (relayGuard != null) {
+            relayGuard.cancelReservation();
+        }
+    }
+
+    /**
+     * Текущая скорость релея, писем в секунду
+     */
+    public double getRelayRate() {
+        return relayBucket.getRate();
+    }
+
+    private void sendChunk(List<SimpleMailMessage> chunk, Map<Object, Exception> failed) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        Map<Object, Exception> chunkFailed = new HashMap<>();
+        try {
+            deliverAll(chunk.toArray(new SimpleMailMessage[0]));
+        } catch (MailSendException e) {
+            chunkFailed.putAll(e.getFailedMessages());
+            if (chunkFailed.isEmpty()) {
+                chunk.forEach(message -> chunkFailed.put(message, e));
+            }
+        } catch (MailException e) {
+            chunk.forEach(message -> chunkFailed.put(message, e));
+        }
+        for (SimpleMailMessage message : chunk) {
+            Exception cause = chunkFailed.get(message);
+            if (cause == null) {
+                onSuccess(domainBucket(message));
+            } else {
+                onFailure(domainBucket(message), cause);
+            }
+        }
+        failed.putAll(chunkFailed);
+    }
+
+    /**
+     * Передает письма JavaMailSender через защиту релея
+     */
+    private void deliver(SimpleMailMessage message) {
+        if (relayGuard == null) {
+            mailSender.send(message);
+        } else {
+            relayGuard.execute(() -> mailSender.send(message));
+        }
+    }
+
+    private void deliverAll(SimpleMailMessage[] messages) {
+        if (relayGuard == null) {
+            mailSender.send(messages);
+        } else {
+            relayGuard.execute(() -> mailSender.send(messages));
+        }
+    }
+
+    /**
+     * Резервирует разрешение домена, затем релея не раньше его. Если релей не дает разрешения
+     * до срока, разрешение домена возвращается
+     *
+     * @param deferrable ждать не дольше max-channel-wait
+     * @return момент по System.nanoTime, с которого разрешена отправка
+     * @throws SendDeferredException если deferrable и ждать дольше max-channel-wait
+     */
+    private long reserve(TokenBucket domain, String domainName, boolean deferrable) {
+        long now = System.nanoTime();
+        long deadline = now + (deferrable ? maxDeferrableWaitNanos : maxWaitNanos);
+        long permitted = domain.reserve(now, deadline);
+        if (permitted != -1 && prepaidRelay.get() != null) {
+            // Разрешение релея уже получено до выбора задачи
+            prepaidRelay.remove();
+        } else if (permitted != -1) {
+            permitted = relayBucket.reserve(permitted, deadline);
+            if (permitted == -1) {
+                domain.cancel();
+            }
+        }
+        if (permitted == -1) {
+            if (deferrable) {
+                throw new SendDeferredException("Лимит отправки для домена " + domainName
+                        + " не позволяет отправить письмо без ожидания", DEFERRED_RETRY_AFTER_MS);
+            }
+            throw new MailSendException("Превышено время ожидания лимита отправки для домена " + domainName);
+        }
+        waitTimer.record(Math.max(0, permitted - now), TimeUnit.NANOSECONDS);
+        return permitted;
+    }
+
+    private static void parkUntil(long permitted) {
+        long remaining;
+        while ((remaining = permitted - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new MailSendException("Прервано ожидание лимита отправки");
+            }
+        }
+    }
+
+    private void onSuccess(TokenBucket domain) {
+        relayBucket.recover();
+        domain.recover();
+    }
+
+    private void onFailure(TokenBucket domain, Exception e) {
+        int reply = smtpReply(e);
+        if (reply == 421) {
+            relayBucket.slowDown();
+            domain.slowDown();
+            relayThrottled.increment();
+            log.warn("SMTP-релей ограничивает отправку ({}), скорость снижена до {} писем/с",
+                    reply, String.format(Locale.ROOT, "%.2f", relayBucket.getRate()));
+        } else if (reply >= 450 && reply <= 452) {
+            domain.slowDown();
+            domainThrottled.increment();
+            log.warn("Домен получателя ограничивает отправку ({}), скорость снижена до {} писем/с",
+                    reply, String.format(Locale.ROOT, "%.2f", domain.getRate()));
+        }
+    }
+
+    private TokenBucket domainBucket(SimpleMailMessage message) {
+        String domain = domainOf(message);
+        TokenBucket bucket = domainBuckets.get(domain);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (domainBuckets.size() >= MAX_TRACKED_DOMAINS) {
+            domain = OTHER_DOMAINS;
+        }
+        return domainBuckets.computeIfAbsent(domain,
+                key -> new TokenBucket(defaultDomainRate, domainBurst, minRateFactor));
+    }
+
+    private static String domainOf(SimpleMailMessage message) {
+        String[] to = message.getTo();
+        if (to == null || to.length == 0 || to[0] == null) {
+            return OTHER_DOMAINS;
+        }
+        String address = to[0];
+        int at = address.lastIndexOf('@');
+        String domain = at >= 0 ? address.substring(at + 1) : address;
+        int end = domain.indexOf('>');
+        return (end >= 0 ? domain.substring(0, end) : domain).trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Код ответа SMTP из цепочки причин ошибки, 0 если не найден
+     */
+    static int smtpReply(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SMTPSendFailedException) {
+                return ((SMTPSendFailedException) cause).getReturnCode();
+            }
+            if (cause instanceof SMTPAddressFailedException) {
+                return ((SMTPAddressFailedException) cause).getReturnCode();
+            }
+            if (cause instanceof MailSendException) {
+                for (Exception failure : ((MailSendException) cause).getFailedMessages().values()) {
+                    int reply = smtpReply(failure);
+                    if (reply != 0) {
+                        return reply;
+                    }
+                }
+            }
+            if (cause.getMessage() != null) {
+                Matcher matcher = SMTP_REPLY.matcher(cause.getMessage());
+                if (matcher.find()) {
+                    return Integer.parseInt(matcher.group(1));
+                }
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,109 @@
+package com.aston.mail;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.stereotype.Component;
+
+import javax.mail.MessagingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Прогрев пула SMTP-соединений при старте: все места пула открываются параллельно
+ * (TCP, STARTTLS, AUTH), пока контейнеры Kafka подключаются к группе и получают партиции.
+ *
+ * Старт не ждет прогрева, ошибка подключения только пишется в журнал: соединение откроется
+ * при первой отправке. Прогретое соединение закрывается по app.mail.pool.max-idle,
+ * если письма не пришли раньше
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = {"app.mail.pool.enabled", "app.mail.pool.warm-up"},
+        havingValue = "true", matchIfMissing = true)
+public class SmtpPoolWarmUp implements SmartLifecycle {
+
+    /**
+     * Раньше контейнеров Kafka (фаза Integer.MAX_VALUE - 100)
+     */
+    static final int PHASE = 0;
+
+    /**
+     * Пул отправителя, null - отправитель без пула
+     */
+    private final SmtpTransportPool pool;
+
+    private ExecutorService executor;
+    private volatile boolean running;
+
+    public SmtpPoolWarmUp(JavaMailSender mailSender) {
+        this.pool = mailSender instanceof PooledJavaMailSender ? ((PooledJavaMailSender) mailSender).getPool() : null;
+    }
+
+    @Override
+    public synchronized void start() {
+        running = true;
+        if (pool == null || executor != null) {
+            return;
+        }
+        executor = newExecutor(pool.getSize());
+        warmUp(pool, executor).whenComplete((opened, e) -> executor.shutdown());
+    }
+
+    /**
+     * Открывает соединения на все свободные места пула, по одному на задачу executor
+     *
+     * @return число открытых соединений
+     */
+    static CompletableFuture<Integer> warmUp(SmtpTransportPool pool, ExecutorService executor) {
+        long start = System.nanoTime();
+        AtomicInteger opened = new AtomicInteger();
+        CompletableFuture<?>[] connections = new CompletableFuture<?>[pool.getSize()];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    if (pool.prefill()) {
+                        opened.incrementAndGet();
+                    }
+                } catch (MessagingException | RuntimeException e) {
+                    log.warn("Не удалось заранее открыть SMTP-соединение: {}", e.getMessage());
+                }
+            }, executor);
+        }
+        return CompletableFuture.allOf(connections).thenApply(ignored -> {
+            log.info("Пул SMTP прогрет: открыто соединений {} из {} за {} мс", opened.get(), connections.length,
+                    (System.nanoTime() - start) / 1_000_000);
+            return opened.get();
+        });
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    private static ExecutorService newExecutor(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "smtp-warm-up-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,292 @@
+package com.aston.mail;
+
+import com.aston.dto.UserEvent;
+import com.aston.exception.DispatchQueueFullException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Исполнитель блокирующих отправок SMTP.
+ *
+ * Режимы app.mail.executor.mode:
+ * inline - отправка в вызывающем потоке, как раньше;
+ * platform - фиксированный пул обычных потоков;
+ * virtual - виртуальный поток на каждую отправку (JDK 21+). Фабрика виртуальных потоков
+ * получается через reflection, поэтому сборка под Java 11 не меняется, а на JDK без
+ * виртуальных потоков режим откатывается на platform.
+ *
+ * Одновременных SMTP-сессий не больше max-concurrent-sessions независимо от числа потоков.
+ *
+ * С {@link PriorityLanes} задачи с приоритетом не уходят в пул напрямую: поток пула,
+ * получив SMTP-сессию, разрешение лимита скорости и место в лимите релея
+ * ({@link SendScheduler#acquireRelayPermit}), сам берет из полос следующую задачу по их весам.
+ * Поэтому задачи массовой полосы не занимают потоки в ожидании общего ограничения раньше
+ * транзакционных
+ */
+@Slf4j
+@Component
+public class SmtpSendExecutor implements DisposableBean {
+
+    public enum Mode {
+        INLINE,
+        PLATFORM,
+        VIRTUAL
+    }
+
+    private final Mode mode;
+    private final ExecutorService executor;
+    private final Semaphore sessions;
+    private final int maxSessions;
+
+    /**
+     * Полосы приоритетов, null - задачи уходят в пул по порядку поступления
+     */
+    private final PriorityLanes lanes;
+
+    /**
+     * Лимиты релея, которые полосы проходят до выбора задачи, null - без них
+     */
+    private final SendScheduler sendScheduler;
+
+    public SmtpSendExecutor(String mode, int platformThreads, int maxSessions) {
+        this(mode, platformThreads, maxSessions, (PriorityLanes) null, null);
+    }
+
+    @Autowired
+    public SmtpSendExecutor(@Value("${app.mail.executor.mode:inline}") String mode,
+                            @Value("${app.mail.executor.platform-threads:64}") int platformThreads,
+                            @Value("${app.mail.executor.max-concurrent-sessions:200}") int maxSessions,
+                            ObjectProvider<PriorityLanes> lanes,
+                            ObjectProvider<SendScheduler> sendScheduler) {
+        this(mode, platformThreads, maxSessions, lanes.getIfAvailable(), sendScheduler.getIfAvailable());
+    }
+
+    public SmtpSendExecutor(String mode, int platformThreads, int maxSessions, PriorityLanes lanes,
+                            SendScheduler sendScheduler) {
+        Mode requested = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        if (requested == Mode.VIRTUAL && !virtualThreadsSupported()) {
+            log.warn("Виртуальные потоки недоступны в Java {}, отправки выполняются на пуле обычных потоков",
+                    System.getProperty("java.specification.version"));
+            requested = Mode.PLATFORM;
+        }
+        this.mode = requested;
+        this.maxSessions = maxSessions;
+        this.sessions = new Semaphore(maxSessions);
+        this.executor = requested == Mode.INLINE ? null : newWorkerPool("smtp-send-", platformThreads);
+        if (lanes != null && executor == null) {
+            log.warn("Полосы приоритетов не действуют в режиме inline: отправки выполняются в потоке вызова");
+        }
+        this.lanes = executor != null ? lanes : null;
+        this.sendScheduler = sendScheduler;
+        log.info("Отправки SMTP выполняются в режиме {}, сессий не больше {}", this.mode, maxSessions);
+    }
+
+    /**
+     * Выполняет отправку в режиме исполнителя. В режиме inline задача выполняется
+     * сразу в вызывающем потоке, и возвращается уже завершенный результат
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> task) {
+        if (executor == null) {
+            try {
+                return CompletableFuture.completedFuture(withSession(task));
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return CompletableFuture.supplyAsync(() -> withSession(task), executor);
+    }
+
+    public CompletableFuture<Void> run(Runnable task) {
+        return supply(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Выполняет отправку в полосе приоритета. Без полос - как {@link #supply(Supplier)}
+     *
+     * @throws DispatchQueueFullException если очередь полосы заполнена
+     */
+    public <T> CompletableFuture<T> supply(Priority priority, Supplier<T> task) {
+        if (lanes == null) {
+            return supply(task);
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable action = () -> {
+            try {
+                future.complete(task.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        };
+        if (!lanes.offer(priority, 1, action)) {
+            throw new DispatchQueueFullException(1);
+        }
+        // Задача в пуле - только сигнал взять следующую задачу из полос
+        try {
+            executor.execute(this::runNextPrioritized);
+        } catch (RejectedExecutionException e) {
+            // Пул остановлен: задачу без сигнала никто не возьмет, она снимается с полосы.
+            // Если ее уже взял поток по сигналу другой задачи, результат придет от него
+            if (lanes.remove(priority, action)) {
+                throw e;
+            }
+        }
+        return future;
+    }
+
+    public CompletableFuture<Void> run(Priority priority, Runnable task) {
+        return supply(priority, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Полоса приоритета для письма события; NORMAL, если полосы не настроены
+     */
+    public Priority priorityOf(UserEvent.EventType eventType) {
+        return lanes != null ? lanes.priorityOf(eventType) : Priority.NORMAL;
+    }
+
+    /**
+     * Полоса приоритета для отправок через REST
+     */
+    public Priority getRestPriority() {
+        return lanes != null ? lanes.getRestPriority() : Priority.NORMAL;
+    }
+
+    /**
+     * Выполняет задачу в текущем потоке, заняв одну из SMTP-сессий
+     */
+    public <T> T withSession(Supplier<T> task) {
+        try {
+            sessions.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Прервано ожидание свободной SMTP-сессии", e);
+        }
+        try {
+            return task.get();
+        } finally {
+            sessions.release();
+        }
+    }
+
+    public void withSession(Runnable task) {
+        withSession(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Отправки выполняются не в вызывающем потоке
+     */
+    public boolean isAsync() {
+        return mode != Mode.INLINE;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getActiveSessions() {
+        return maxSessions - sessions.availablePermits();
+    }
+
+    /**
+     * Пул потоков для блокирующих задач: виртуальный поток на задачу в режиме virtual,
+     * иначе фиксированный пул из platformThreads обычных потоков
+     */
+    public ExecutorService newWorkerPool(String namePrefix, int platformThreads) {
+        if (mode == Mode.VIRTUAL) {
+            return newVirtualThreadPerTaskExecutor(namePrefix);
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(platformThreads, runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Занимает SMTP-сессию и разрешения релея и только затем выбирает задачу: выбор
+     * по весам полос делается в момент, когда задачу действительно можно выполнить
+     */
+    private void runNextPrioritized() {
+        try {
+            sessions.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            if (sendScheduler != null) {
+                sendScheduler.acquireRelayPermit();
+            }
+            Runnable task = lanes.poll();
+            if (task != null) {
+                task.run();
+            }
+        } finally {
+            if (sendScheduler != null) {
+                sendScheduler.releaseRelayPermit();
+            }
+            sessions.release();
+        }
+    }
+
+    static boolean virtualThreadsSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 1).factory())
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Не удалось создать исполнитель на виртуальных потоках", e);
+        }
+    }
+}
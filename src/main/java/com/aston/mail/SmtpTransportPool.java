@@ -0,0 +1,236 @@
+package com.aston.mail;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ограниченный пул авторизованных SMTP-соединений.
+ *
+ * Соединение, простоявшее дольше validateAfterIdle, перед выдачей проверяется (NOOP),
+ * соединения, простоявшие дольше maxIdle, закрываются фоновой задачей,
+ * а соединение, через которое ушло maxMessagesPerConnection писем, пересоздается.
+ */
+@Slf4j
+public class SmtpTransportPool implements AutoCloseable {
+
+    /**
+     * Создает новое подключенное соединение
+     */
+    @FunctionalInterface
+    public interface TransportFactory {
+        Transport connect() throws MessagingException;
+    }
+
+    private final TransportFactory factory;
+    private final int size;
+    private final int maxMessagesPerConnection;
+    private final long maxIdleNanos;
+    private final long validateAfterIdleNanos;
+    private final long borrowTimeoutNanos;
+
+    private final Semaphore permits;
+    private final BlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+
+    private volatile boolean closed;
+
+    public SmtpTransportPool(TransportFactory factory, int size, int maxMessagesPerConnection,
+                             Duration maxIdle, Duration validateAfterIdle, Duration borrowTimeout) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Размер пула должен быть положительным: " + size);
+        }
+        this.factory = factory;
+        this.size = size;
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.maxIdleNanos = maxIdle.toNanos();
+        this.validateAfterIdleNanos = validateAfterIdle.toNanos();
+        this.borrowTimeoutNanos = borrowTimeout.toNanos();
+        this.permits = new Semaphore(size, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "smtp-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(TimeUnit.NANOSECONDS.toMillis(maxIdleNanos) / 2, 1000);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Выдает соединение из пула, при необходимости открывая новое.
+     * Ждет освобождения соединения не дольше borrowTimeout
+     */
+    public PooledTransport borrow() throws MessagingException {
+        if (closed) {
+            throw new MessagingException("Пул SMTP-соединений закрыт");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new MessagingException("Нет свободных SMTP-соединений в пуле");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Ожидание SMTP-соединения прервано", e);
+        }
+
+        try {
+            PooledTransport pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    return pooled;
+                }
+                pooled.close();
+            }
+            return new PooledTransport(factory.connect());
+        } catch (MessagingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Открывает соединение впрок и кладет его к простаивающим, если в пуле есть место.
+     * Несколько вызовов из разных потоков открывают соединения параллельно
+     *
+     * @return false, если пул закрыт или уже заполнен
+     */
+    public boolean prefill() throws MessagingException {
+        if (closed || !permits.tryAcquire()) {
+            return false;
+        }
+        // Соединение, возвращаемое в пул прямо сейчас, может быть посчитано дважды:
+        // тогда место считается занятым, и лишнее соединение не открывается
+        if (idle.size() + size - permits.availablePermits() > size) {
+            permits.release();
+            return false;
+        }
+        PooledTransport transport;
+        try {
+            transport = new PooledTransport(factory.connect());
+        } catch (MessagingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        release(transport);
+        return true;
+    }
+
+    /**
+     * Возвращает исправное соединение в пул
+     */
+    public void release(PooledTransport transport) {
+        if (closed || transport.getMessagesSent() >= maxMessagesPerConnection) {
+            invalidate(transport);
+            return;
+        }
+        transport.touch();
+        idle.offerFirst(transport);
+        permits.release();
+    }
+
+    /**
+     * Закрывает соединение, которое нельзя использовать повторно
+     */
+    public void invalidate(PooledTransport transport) {
+        transport.close();
+        permits.release();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    private boolean isUsable(PooledTransport pooled) {
+        long idleNanos = pooled.idleNanos();
+        if (idleNanos > maxIdleNanos) {
+            return false;
+        }
+        // Проверяем соединение только после простоя, чтобы не платить за NOOP на каждом письме
+        return idleNanos < validateAfterIdleNanos || pooled.isConnected();
+    }
+
+    private void evictIdle() {
+        Iterator<PooledTransport> iterator = idle.descendingIterator();
+        while (iterator.hasNext()) {
+            PooledTransport pooled = iterator.next();
+            if (pooled.idleNanos() > maxIdleNanos && idle.removeLastOccurrence(pooled)) {
+                log.debug("Закрыто простаивающее SMTP-соединение");
+                pooled.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledTransport pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.close();
+        }
+    }
+
+    /**
+     * SMTP-соединение с учетом времени простоя и числа отправленных писем
+     */
+    public static final class PooledTransport {
+
+        private final Transport transport;
+        private long lastUsedNanos = System.nanoTime();
+        private int messagesSent;
+
+        PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+
+        public int getMessagesSent() {
+            return messagesSent;
+        }
+
+        public void markSent() {
+            messagesSent++;
+        }
+
+        public boolean isConnected() {
+            return transport.isConnected();
+        }
+
+        void touch() {
+            lastUsedNanos = System.nanoTime();
+        }
+
+        long idleNanos() {
+            return System.nanoTime() - lastUsedNanos;
+        }
+
+        void close() {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                log.debug("Ошибка при закрытии SMTP-соединения: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.aston.mail;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Неблокирующее ведро токенов в форме GCRA: все состояние - теоретическое время
+ * следующего прихода (TAT) в одном AtomicLong, обновляемом через CAS.
+ *
+ * Разрешение не отклоняется, а резервируется на ближайший свободный момент,
+ * поэтому ожидающие отправки выстраиваются в очередь по времени.
+ * Скорость снижается вдвое при признаках ограничения со стороны сервера
+ * и возвращается к настроенной постепенно, по небольшой доле за каждую успешную отправку
+ */
+public class TokenBucket {
+
+    /**
+     * Доля настроенной скорости, возвращаемая за одну успешную отправку
+     */
+    private static final double RECOVERY_STEP = 0.05;
+
+    private final long baseIntervalNanos;
+    private final long maxIntervalNanos;
+    private final int burst;
+
+    private final AtomicLong theoreticalArrival;
+    private final AtomicLong intervalNanos;
+
+    /**
+     * @param ratePerSecond настроенная скорость, писем в секунду
+     * @param burst         сколько писем можно отправить подряд без ожидания
+     * @param minRateFactor нижняя граница скорости при замедлении, доля от настроенной
+     */
+    public TokenBucket(double ratePerSecond, int burst, double minRateFactor) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Скорость должна быть положительной: " + ratePerSecond);
+        }
+        this.baseIntervalNanos = Math.max(1, (long) (1_000_000_000L / ratePerSecond));
+        this.maxIntervalNanos = (long) (baseIntervalNanos / Math.min(1.0, Math.max(minRateFactor, 0.001)));
+        this.burst = Math.max(1, burst);
+        this.theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+        this.intervalNanos = new AtomicLong(baseIntervalNanos);
+    }
+
+    /**
+     * Резервирует разрешение не раньше момента notBefore.
+     *
+     * @return момент по System.nanoTime, с которого разрешена отправка,
+     * или -1, если он позже deadline; в этом случае ничего не резервируется
+     */
+    public long reserve(long notBefore, long deadline) {
+        while (true) {
+            long interval = intervalNanos.get();
+            long tolerance = (burst - 1) * interval;
+            long tat = theoreticalArrival.get();
+            long start = tat == Long.MIN_VALUE ? notBefore : Math.max(tat, notBefore);
+            long permitted = Math.max(notBefore, start - tolerance);
+            if (permitted - deadline > 0) {
+                return -1;
+            }
+            if (theoreticalArrival.compareAndSet(tat, start + interval)) {
+                return permitted;
+            }
+        }
+    }
+
+    /**
+     * Возвращает разрешение, зарезервированное {@link #reserve}, но не использованное:
+     * следующие резервирования сдвигаются на один интервал раньше
+     */
+    public void cancel() {
+        long interval = intervalNanos.get();
+        theoreticalArrival.updateAndGet(tat -> tat == Long.MIN_VALUE ? tat : tat - interval);
+    }
+
+    /**
+     * Сервер сообщил об ограничении: скорость уменьшается вдвое, но не ниже минимальной
+     */
+    public void slowDown() {
+        intervalNanos.updateAndGet(interval -> Math.min(maxIntervalNanos, interval * 2));
+    }
+
+    /**
+     * Успешная отправка: скорость растет на долю настроенной, но не выше нее
+     */
+    public void recover() {
+        long interval = intervalNanos.get();
+        if (interval == baseIntervalNanos) {
+            return;
+        }
+        double rate = 1.0 / interval + RECOVERY_STEP / baseIntervalNanos;
+        long recovered = Math.max(baseIntervalNanos, (long) (1.0 / rate));
+        intervalNanos.compareAndSet(interval, recovered);
+    }
+
+    /**
+     * Текущая скорость, писем в секунду
+     */
+    public double getRate() {
+        return 1_000_000_000.0 / intervalNanos.get();
+    }
+}
@@ -0,0 +1,166 @@
+package com.aston.metrics;
+
+import com.aston.dto.UserEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Метрики конвейера "чтение из Kafka - формирование письма - отправка по SMTP".
+ *
+ * Таймеры этапов размечены тегами type (тип события или unknown) и outcome.
+ * Все комбинации тегов регистрируются при старте, поэтому запись метрики на горячем пути
+ * не создает объектов. Гистограммы и перцентили включаются для отдельных метрик
+ * через management.metrics.distribution.* в application.yml
+ */
+@Slf4j
+@Component
+public class NotificationMetrics {
+
+    public enum Stage {
+        DESERIALIZE("notification.deserialize", "Десериализация события из Kafka"),
+        RENDER("notification.render", "Формирование письма по шаблону"),
+        SEND("notification.smtp.send", "Отправка одного письма по SMTP"),
+        HANDLE("notification.event.handle", "Полная обработка события");
+
+        private final String metricName;
+        private final String description;
+
+        Stage(String metricName, String description) {
+            this.metricName = metricName;
+            this.description = description;
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+    }
+
+    public enum Outcome {
+        SUCCESS,
+        FAILURE,
+        SKIPPED,
+        /**
+         * Письмо уже было отправлено, повтор подавлен журналом доставок
+         */
+        DUPLICATE;
+
+        private final String tag = name().toLowerCase();
+    }
+
+    private static final String UNKNOWN_TYPE = "unknown";
+
+    private final MeterRegistry registry;
+
+    /**
+     * timers[этап][тип события + 1][исход], индекс типа 0 - тип неизвестен
+     */
+    private final Timer[][][] timers;
+    private final Timer[] batchSendTimers;
+    private final Counter[] sentMessages;
+    private final AtomicInteger inFlightSends = new AtomicInteger();
+
+    /**
+     * Миллисекунды от запуска JVM до первого принятого SMTP-сервером письма, NaN - писем еще не было
+     */
+    private volatile double timeToFirstSendMillis = Double.NaN;
+
+    public NotificationMetrics(MeterRegistry registry) {
+        this.registry = registry;
+
+        UserEvent.EventType[] types = UserEvent.EventType.values();
+        Outcome[] outcomes = Outcome.values();
+        this.timers = new Timer[Stage.values().length][types.length + 1][outcomes.length];
+        for (Stage stage : Stage.values()) {
+            for (int type = 0; type <= types.length; type++) {
+                String typeTag = type == 0 ? UNKNOWN_TYPE : types[type - 1].name();
+                for (Outcome outcome : outcomes) {
+                    timers[stage.ordinal()][type][outcome.ordinal()] = Timer.builder(stage.metricName)
+                            .description(stage.description)
+                            .tag("type", typeTag)
+                            .tag("outcome", outcome.tag)
+                            .register(registry);
+                }
+            }
+        }
+
+        this.batchSendTimers = new Timer[outcomes.length];
+        this.sentMessages = new Counter[outcomes.length];
+        for (Outcome outcome : outcomes) {
+            batchSendTimers[outcome.ordinal()] = Timer.builder("notification.smtp.send.batch")
+                    .description("Отправка пачки писем через одно SMTP-соединение")
+                    .tag("outcome", outcome.tag)
+                    .register(registry);
+            sentMessages[outcome.ordinal()] = Counter.builder("notification.smtp.messages")
+                    .description("Письма, переданные SMTP-серверу")
+                    .tag("outcome", outcome.tag)
+                    .register(registry);
+        }
+
+        Gauge.builder("notification.smtp.in-flight", inFlightSends, AtomicInteger::get)
+                .description("Отправки SMTP, выполняющиеся в данный момент")
+                .register(registry);
+        TimeGauge.builder("notification.startup.time-to-first-send", this, TimeUnit.MILLISECONDS,
+                        metrics -> metrics.timeToFirstSendMillis)
+                .description("Время от запуска JVM до первого отправленного письма")
+                .register(registry);
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Время начала замера для последующего вызова record
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void record(Stage stage, UserEvent.EventType type, Outcome outcome, long startNanos) {
+        timer(stage, type, outcome).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public Timer timer(Stage stage, UserEvent.EventType type, Outcome outcome) {
+        return timers[stage.ordinal()][type == null ? 0 : type.ordinal() + 1][outcome.ordinal()];
+    }
+
+    public void recordBatchSend(Outcome outcome, long startNanos) {
+        batchSendTimers[outcome.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void countMessages(Outcome outcome, int count) {
+        sentMessages[outcome.ordinal()].increment(count);
+        if (outcome == Outcome.SUCCESS && count > 0 && Double.isNaN(timeToFirstSendMillis)) {
+            firstSend();
+        }
+    }
+
+    public void sendStarted() {
+        inFlightSends.incrementAndGet();
+    }
+
+    public void sendFinished() {
+        inFlightSends.decrementAndGet();
+    }
+
+    public int getInFlightSends() {
+        return inFlightSends.get();
+    }
+
+    private synchronized void firstSend() {
+        if (Double.isNaN(timeToFirstSendMillis)) {
+            long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+            timeToFirstSendMillis = uptime;
+            log.info("Первое письмо отправлено через {} мс после запуска JVM", uptime);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.aston.metrics;
+
+import com.aston.dto.UserEvent;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.util.Map;
+
+/**
+ * Десериализатор событий, замеряющий время десериализации каждой записи
+ */
+public class TimedUserEventDeserializer implements Deserializer<UserEvent> {
+
+    private final Deserializer<UserEvent> delegate;
+    private final NotificationMetrics metrics;
+
+    public TimedUserEventDeserializer(Deserializer<UserEvent> delegate, NotificationMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        delegate.configure(configs, isKey);
+    }
+
+    @Override
+    public UserEvent deserialize(String topic, byte[] data) {
+        long start = metrics.start();
+        try {
+            return recorded(delegate.deserialize(topic, data), start);
+        } catch (RuntimeException e) {
+            metrics.record(NotificationMetrics.Stage.DESERIALIZE, null, NotificationMetrics.Outcome.FAILURE, start);
+            throw e;
+        }
+    }
+
+    @Override
+    public UserEvent deserialize(String topic, Headers headers, byte[] data) {
+        long start = metrics.start();
+        try {
+            return recorded(delegate.deserialize(topic, headers, data), start);
+        } catch (RuntimeException e) {
+            metrics.record(NotificationMetrics.Stage.DESERIALIZE, null, NotificationMetrics.Outcome.FAILURE, start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private UserEvent recorded(UserEvent event, long start) {
+        metrics.record(NotificationMetrics.Stage.DESERIALIZE,
+                event != null ? event.getEventType() : null,
+                event != null ? NotificationMetrics.Outcome.SUCCESS : NotificationMetrics.Outcome.SKIPPED,
+                start);
+        return event;
+    }
+}
@@ -0,0 +1,477 @@
+package com.aston.outbox;
+
+import com.aston.dto.UserEvent;
+import com.aston.exception.DispatchQueueFullException;
+import com.aston.metrics.NotificationMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Локальная очередь исходящих уведомлений на диске.
+ *
+ * {@link #submit} возвращается, когда событие записано в {@link OutboxJournal} и сброшено на диск;
+ * после этого на запрос HTTP можно ответить 202, не дожидаясь SMTP. {@link #submitAsync} только
+ * записывает событие и возвращает future, которое завершит поток сброса: он одним force покрывает
+ * все события, записанные к этому моменту, поэтому записи одного poll Kafka сбрасываются вместе,
+ * и подтверждаются после сброса.
+ * Письма отправляет {@link OutboxDispatcher}, отправленные события отмечаются в журнале.
+ * При старте журнал читается заново, и неотправленные события снова попадают в очередь.
+ *
+ * Отметки о доставке пишутся без сброса на диск: потерянная при сбое отметка приводит
+ * к повторной отправке, которую для событий с id подавляет журнал доставок.
+ * Фоновое сжатие удаляет старые сегменты, в которых все события отправлены; немногие
+ * оставшиеся в почти отправленном сегменте события переносятся в активный сегмент
+ */
+@Slf4j
+public class Outbox implements AutoCloseable {
+
+    /**
+     * Событие в очереди на отправку
+     */
+    public static final class Entry {
+
+        private final long sequence;
+        private final UserEvent event;
+        private final long submittedAt;
+        private long segment;
+        private int attempts;
+        private volatile List<String> channels;
+
+        Entry(long sequence, UserEvent event, long submittedAt, long segment) {
+            this.sequence = sequence;
+            this.event = event;
+            this.submittedAt = submittedAt;
+            this.segment = segment;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public UserEvent getEvent() {
+            return event;
+        }
+
+        /**
+         * Время приема события, мс от эпохи
+         */
+        public long getSubmittedAt() {
+            return submittedAt;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        int nextAttempt() {
+            return ++attempts;
+        }
+
+        /**
+         * Каналы, которым осталось доставить событие, null - все каналы маршрута.
+         * Хранятся только в памяти: после перезапуска событие уходит во все каналы
+         */
+        public List<String> getChannels() {
+            return channels;
+        }
+
+        void setChannels(List<String> channels) {
+            this.channels = channels;
+        }
+    }
+
+    private static final byte[] NO_DATA = new byte[0];
+
+    /**
+     * Сегмент переносится, если в нем осталось не больше этой доли неотправленных событий
+     */
+    private static final int RELOCATE_RATIO = 4;
+
+    private final OutboxJournal journal;
+    private final ObjectMapper objectMapper;
+    private final int maxPending;
+    private final long retryAfterSeconds;
+    private final ScheduledExecutorService compactor;
+    private final Timer syncTimer;
+
+    /**
+     * Записанные, но еще не сброшенные на диск события {@link #submitAsync} и поток их сброса
+     */
+    private final BlockingQueue<Unsynced> unsynced = new LinkedBlockingQueue<>();
+    private final Thread syncer;
+
+    private final Object lock = new Object();
+    private final Map<Long, Entry> pending = new ConcurrentHashMap<>();
+    private final BlockingQueue<Entry> ready = new LinkedBlockingQueue<>();
+
+    /**
+     * Для сегментов журнала: число неотправленных событий и число всех записанных событий
+     */
+    private final Map<Long, Integer> segmentPending = new HashMap<>();
+    private final Map<Long, Integer> segmentEntries = new HashMap<>();
+    private long nextSequence = 1;
+
+    public Outbox(Path directory,
+                  int segmentBytes,
+                  int maxPending,
+                  Duration retryAfter,
+                  Duration compactInterval,
+                  ObjectMapper objectMapper,
+                  NotificationMetrics metrics) throws IOException {
+        this.journal = new OutboxJournal(directory, segmentBytes);
+        this.objectMapper = objectMapper;
+        this.maxPending = maxPending;
+        this.retryAfterSeconds = Math.max(1, retryAfter.getSeconds());
+
+        replay();
+        log.info("Очередь исходящих уведомлений открыта в {}: сегментов {}, неотправленных событий {}",
+                directory, journal.segmentCount(), pending.size());
+
+        this.syncTimer = Timer.builder("notification.outbox.sync")
+                .description("Сброс журнала исходящих уведомлений на диск")
+                .register(metrics.getRegistry());
+        Gauge.builder("notification.outbox.pending", pending, Map::size)
+                .description("Принятые, но еще не отправленные уведомления")
+                .register(metrics.getRegistry());
+        Gauge.builder("notification.outbox.segments", journal, OutboxJournal::segmentCount)
+                .description("Сегменты журнала исходящих уведомлений на диске")
+                .register(metrics.getRegistry());
+
+        this.syncer = new Thread(this::syncLoop, "outbox-syncer");
+        syncer.setDaemon(true);
+        syncer.start();
+
+        if (compactInterval.isZero() || compactInterval.isNegative()) {
+            this.compactor = null;
+        } else {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "outbox-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = compactInterval.toMillis();
+            compactor.scheduleWithFixedDelay(this::compactQuietly, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Записывает событие в журнал и ставит его в очередь на отправку
+     *
+     * @return событие в очереди; к моменту возврата оно сохранено на диске
+     * @throws DispatchQueueFullException если неотправленных событий уже max-pending
+     */
+    public Entry submit(UserEvent event) {
+        Unsynced appended = append(event);
+
+        // Групповой сброс: один force на всех, кто записал событие к этому моменту
+        try {
+            sync(appended.mark);
+        } catch (RuntimeException e) {
+            // Вызывающий получит ошибку: событие не должно уйти ни сейчас, ни после перезапуска
+            abandon(appended, e);
+            throw e;
+        }
+
+        ready.offer(appended.entry);
+        return appended.entry;
+    }
+
+    /**
+     * Записывает событие в журнал без ожидания сброса на диск. Событие попадает в очередь
+     * на отправку, когда поток сброса сбросит его вместе с другими записанными событиями
+     *
+     * @return future, завершаемое после сброса; если сбросить не удалось, событие
+     * не отправляется и future завершается ошибкой
+     * @throws DispatchQueueFullException если неотправленных событий уже max-pending
+     */
+    public CompletableFuture<Entry> submitAsync(UserEvent event) {
+        return submitAsync(event, null);
+    }
+
+    /**
+     * Записывает событие, как {@link #submitAsync(UserEvent)}, для доставки только
+     * перечисленным каналам
+     *
+     * @param channels имена каналов, null - все каналы маршрута
+     */
+    public CompletableFuture<Entry> submitAsync(UserEvent event, List<String> channels) {
+        Unsynced appended = append(event);
+        appended.entry.channels = channels;
+        unsynced.offer(appended);
+        return appended.synced;
+    }
+
+    /**
+     * Следующее событие к отправке или null, если за timeout событий не появилось
+     */
+    public Entry poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return ready.poll(timeout, unit);
+    }
+
+    /**
+     * Возвращает событие в очередь после неудачной попытки отправки
+     */
+    public void retry(Entry entry) {
+        if (pending.containsKey(entry.sequence)) {
+            ready.offer(entry);
+        }
+    }
+
+    /**
+     * Отмечает событие отправленным, после этого оно не читается из журнала при старте
+     */
+    public void delivered(Entry entry) {
+        synchronized (lock) {
+            if (pending.remove(entry.sequence) == null) {
+                return;
+            }
+            segmentPending.merge(entry.segment, -1, Integer::sum);
+            try {
+                journal.append(OutboxJournal.DELIVERED, entry.sequence, NO_DATA);
+            } catch (IOException e) {
+                log.warn("Не удалось отметить событие {} отправленным, после перезапуска оно будет отправлено снова: {}",
+                        entry.sequence, e.getMessage());
+            }
+        }
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    public int getSegments() {
+        return journal.segmentCount();
+    }
+
+    /**
+     * Удаляет старые закрытые сегменты, пока в них нет неотправленных событий или их немного.
+     * Сегменты удаляются строго от старых к новым
+     *
+     * @return число удаленных сегментов
+     */
+    public int compact() throws IOException {
+        int deleted = 0;
+        synchronized (lock) {
+            for (long segment : journal.sealedSegments()) {
+                int live = segmentPending.getOrDefault(segment, 0);
+                int total = segmentEntries.getOrDefault(segment, 0);
+                if (live > 0 && live * RELOCATE_RATIO > total) {
+                    break;
+                }
+                if (live > 0) {
+                    relocate(segment);
+                }
+                journal.deleteOldest(segment);
+                segmentPending.remove(segment);
+                segmentEntries.remove(segment);
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            log.info("Из журнала исходящих уведомлений удалено сегментов: {}, осталось: {}",
+                    deleted, journal.segmentCount());
+        }
+        return deleted;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        syncer.interrupt();
+        try {
+            syncer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            journal.close();
+        }
+    }
+
+    private Unsynced append(UserEvent event) {
+        if (pending.size() >= maxPending) {
+            throw new DispatchQueueFullException(retryAfterSeconds);
+        }
+        long submittedAt = System.currentTimeMillis();
+        byte[] data = encode(event, submittedAt);
+
+        synchronized (lock) {
+            long sequence = nextSequence++;
+            long mark;
+            try {
+                mark = journal.append(OutboxJournal.ENTRY, sequence, data);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось записать событие в очередь исходящих уведомлений", e);
+            }
+            Entry entry = new Entry(sequence, event, submittedAt, journal.activeSegment());
+            pending.put(sequence, entry);
+            segmentPending.merge(entry.segment, 1, Integer::sum);
+            segmentEntries.merge(entry.segment, 1, Integer::sum);
+            return new Unsynced(entry, mark);
+        }
+    }
+
+    private void sync(long mark) {
+        long start = System.nanoTime();
+        journal.sync(mark);
+        syncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Поток сброса: забирает все записанные события, сбрасывает их одним force
+     * и завершает их future
+     */
+    private void syncLoop() {
+        List<Unsynced> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(unsynced.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            unsynced.drainTo(batch);
+            long mark = 0;
+            for (Unsynced appended : batch) {
+                mark = Math.max(mark, appended.mark);
+            }
+            try {
+                sync(mark);
+                for (Unsynced appended : batch) {
+                    ready.offer(appended.entry);
+                    appended.synced.complete(appended.entry);
+                }
+            } catch (RuntimeException e) {
+                log.error("Не удалось сбросить на диск {} событий очереди исходящих уведомлений: {}",
+                        batch.size(), e.getMessage());
+                batch.forEach(appended -> abandon(appended, e));
+            }
+            batch.clear();
+        }
+        // Остановка: события без сброса не подтверждаются, вызывающий прочитает их снова
+        unsynced.drainTo(batch);
+        IllegalStateException closed = new IllegalStateException("Очередь исходящих уведомлений закрыта");
+        batch.forEach(appended -> abandon(appended, closed));
+    }
+
+    /**
+     * Снимает с отправки событие, которое не удалось сбросить на диск. Запись события может
+     * попасть на диск со следующим сбросом, поэтому рядом пишется отметка, и при старте
+     * оно не читается
+     */
+    private void abandon(Unsynced appended, Exception cause) {
+        synchronized (lock) {
+            if (pending.remove(appended.entry.sequence) != null) {
+                segmentPending.merge(appended.entry.segment, -1, Integer::sum);
+                try {
+                    journal.append(OutboxJournal.DELIVERED, appended.entry.sequence, NO_DATA);
+                } catch (IOException e) {
+                    log.warn("Не удалось отметить несохраненное событие {}: {}", appended.entry.sequence, e.getMessage());
+                }
+            }
+        }
+        appended.synced.completeExceptionally(cause);
+    }
+
+    /**
+     * Переписывает неотправленные события сегмента в активный сегмент
+     */
+    private void relocate(long segment) throws IOException {
+        long mark = 0;
+        for (Entry entry : pending.values()) {
+            if (entry.segment != segment) {
+                continue;
+            }
+            mark = journal.append(OutboxJournal.ENTRY, entry.sequence, encode(entry.event, entry.submittedAt));
+            entry.segment = journal.activeSegment();
+            segmentPending.merge(entry.segment, 1, Integer::sum);
+            segmentEntries.merge(entry.segment, 1, Integer::sum);
+        }
+        // Копии должны оказаться на диске раньше, чем удален исходный сегмент
+        journal.sync(mark);
+    }
+
+    private void replay() throws IOException {
+        Map<Long, byte[]> entries = new HashMap<>();
+        Map<Long, Long> entrySegments = new HashMap<>();
+        journal.open((segment, kind, sequence, data) -> {
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            if (kind == OutboxJournal.ENTRY) {
+                entries.put(sequence, data);
+                entrySegments.put(sequence, segment);
+                segmentEntries.merge(segment, 1, Integer::sum);
+            } else if (kind == OutboxJournal.DELIVERED) {
+                entries.remove(sequence);
+            }
+        });
+
+        entries.keySet().stream().sorted().forEach(sequence -> {
+            ByteBuffer data = ByteBuffer.wrap(entries.get(sequence));
+            long submittedAt = data.getLong();
+            UserEvent event;
+            try {
+                event = objectMapper.readValue(data.array(), data.position(), data.remaining(), UserEvent.class);
+            } catch (IOException e) {
+                log.error("Событие {} из журнала исходящих уведомлений не прочитано и пропущено: {}",
+                        sequence, e.getMessage());
+                return;
+            }
+            Entry entry = new Entry(sequence, event, submittedAt, entrySegments.get(sequence));
+            pending.put(sequence, entry);
+            segmentPending.merge(entry.segment, 1, Integer::sum);
+            ready.offer(entry);
+        });
+    }
+
+    private byte[] encode(UserEvent event, long submittedAt) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(event);
+            return ByteBuffer.allocate(8 + json.length).putLong(submittedAt).put(json).array();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось сериализовать событие для очереди исходящих уведомлений", e);
+        }
+    }
+
+    /**
+     * Событие, записанное в журнал, и отметка записи для сброса на диск
+     */
+    private static final class Unsynced {
+
+        private final Entry entry;
+        private final long mark;
+        private final CompletableFuture<Entry> synced = new CompletableFuture<>();
+
+        Unsynced(Entry entry, long mark) {
+            this.entry = entry;
+            this.mark = mark;
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (Exception e) {
+            log.warn("Не удалось сжать журнал исходящих уведомлений: {}", e.getMessage());
+        }
+    }
+}
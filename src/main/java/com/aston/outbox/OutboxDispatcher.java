@@ -0,0 +1,241 @@
+package com.aston.outbox;
+
+import com.aston.channel.ChannelDeliveryException;
+import com.aston.channel.ChannelRouter;
+import com.aston.dto.UserEvent;
+import com.aston.kafka.RetryTopicRouter;
+import com.aston.mail.SmtpSendExecutor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.KafkaException;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Фоновая доставка уведомлений из {@link Outbox}.
+ *
+ * Рабочие потоки забирают события из очереди и доставляют их каналами маршрута {@link ChannelRouter}.
+ * После ошибки событие возвращается в очередь с экспоненциальной задержкой и повторяется только
+ * в каналах, которые его не доставили, поэтому недоступность канала не теряет событий,
+ * не нагружает его повторами и не дублирует уведомления в других каналах.
+ * Событие, от которого отказались все каналы, отбрасывается с записью в лог, событие старше max-age
+ * публикуется в топик недоставленных {@link RetryTopicRouter#deadLetter} и отмечается отправленным
+ * только после публикации. Доставка, отложенная каналом (недоступный релей, лимит скорости,
+ * заполненная очередь канала), не считается попыткой и не ведет к топику недоставленных:
+ * событие ждет указанное время.
+ * Порядок событий одного пользователя при нескольких потоках и повторах не гарантируется.
+ * При штатной остановке {@link com.aston.kafka.GracefulDrain} сначала {@link #pause приостанавливает}
+ * выборку и ждет начатых отправок, поэтому фаза ниже, чем у нее
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.outbox.enabled", havingValue = "true")
+public class OutboxDispatcher implements SmartLifecycle {
+
+    private static final long POLL_TIMEOUT_MS = 500;
+
+    /**
+     * Вместе с контейнерами Kafka (фаза Integer.MAX_VALUE - 100): после слива
+     */
+    static final int PHASE = Integer.MAX_VALUE - 100;
+
+    private final Outbox outbox;
+    private final ChannelRouter channelRouter;
+    private final SmtpSendExecutor sendExecutor;
+    private final RetryTopicRouter retryRouter;
+    private final int threads;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final long maxAgeMs;
+
+    private ExecutorService workers;
+    private ScheduledExecutorService retryScheduler;
+    private volatile boolean running;
+    private volatile boolean paused;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public OutboxDispatcher(Outbox outbox,
+                            ChannelRouter channelRouter,
+                            SmtpSendExecutor sendExecutor,
+                            RetryTopicRouter retryRouter,
+                            @Value("${app.outbox.dispatcher-threads:4}") int threads,
+                            @Value("${app.outbox.initial-backoff:1s}") Duration initialBackoff,
+                            @Value("${app.outbox.max-backoff:5m}") Duration maxBackoff,
+                            @Value("${app.outbox.max-age:24h}") Duration maxAge) {
+        this.outbox = outbox;
+        this.channelRouter = channelRouter;
+        this.sendExecutor = sendExecutor;
+        this.retryRouter = retryRouter;
+        this.threads = threads;
+        this.initialBackoffMs = initialBackoff.toMillis();
+        this.maxBackoffMs = maxBackoff.toMillis();
+        this.maxAgeMs = maxAge.toMillis();
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        paused = false;
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbox-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        workers = sendExecutor.newWorkerPool("outbox-dispatcher-", threads);
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::drain);
+        }
+        log.info("Отправка из очереди исходящих уведомлений запущена: потоков {}, в очереди {}",
+                threads, outbox.getPending());
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        retryScheduler.shutdownNow();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        log.info("Отправка из очереди исходящих уведомлений остановлена, в очереди {}", outbox.getPending());
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    /**
+     * Прекращает забирать события из очереди: начатые отправки завершаются,
+     * остальные события остаются в журнале до перезапуска
+     */
+    public void pause() {
+        paused = true;
+    }
+
+    /**
+     * Событий, отправка которых начата и не завершена
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private void drain() {
+        while (running && !paused) {
+            Outbox.Entry entry;
+            try {
+                entry = outbox.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (entry == null) {
+                continue;
+            }
+            inFlight.incrementAndGet();
+            try {
+                dispatch(entry);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    void dispatch(Outbox.Entry entry) {
+        try {
+            channelRouter.dispatchAndWait(entry.getEvent(), entry.getChannels());
+            outbox.delivered(entry);
+        } catch (IllegalArgumentException e) {
+            log.warn("Событие {} из очереди исходящих уведомлений пропущено: {}", entry.getSequence(), e.getMessage());
+            outbox.delivered(entry);
+        } catch (ChannelDeliveryException e) {
+            List<String> failed = e.getFailedChannels();
+            if (failed.isEmpty() && !e.isDeferred()) {
+                log.warn("Событие {} из очереди исходящих уведомлений пропущено: {}", entry.getSequence(), e.getMessage());
+                outbox.delivered(entry);
+                return;
+            }
+            entry.setChannels(e.getUndeliveredChannels());
+            if (failed.isEmpty()) {
+                log.debug("Событие {} отложено на {} мс: {}", entry.getSequence(), e.getRetryAfterMillis(), e.getMessage());
+                retryLater(entry, e.getRetryAfterMillis());
+                return;
+            }
+            retryAfterFailure(entry, e, e.getRetryAfterMillis());
+        } catch (RuntimeException e) {
+            retryAfterFailure(entry, e, 0);
+        }
+    }
+
+    /**
+     * Засчитывает неудачную попытку: повторяет событие с задержкой не меньше minDelayMs
+     * или публикует просроченное событие в топик недоставленных
+     */
+    private void retryAfterFailure(Outbox.Entry entry, RuntimeException cause, long minDelayMs) {
+        int attempt = entry.nextAttempt();
+        if (System.currentTimeMillis() - entry.getSubmittedAt() > maxAgeMs && deadLetter(entry, attempt, cause)) {
+            return;
+        }
+        long backoff = Math.max(backoff(attempt), minDelayMs);
+        log.warn("Событие {} не доставлено (попытка {}), повтор через {} мс: {}",
+                entry.getSequence(), attempt, backoff, cause.getMessage());
+        retryLater(entry, backoff);
+    }
+
+    private void retryLater(Outbox.Entry entry, long delayMs) {
+        try {
+            retryScheduler.schedule(() -> outbox.retry(entry), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException stopped) {
+            // Остановка: событие остается в журнале и будет отправлено после перезапуска
+        }
+    }
+
+    /**
+     * Публикует просроченное событие в топик недоставленных и снимает его с отправки
+     *
+     * @return false, если публикация не удалась: событие остается в очереди и повторяется
+     */
+    private boolean deadLetter(Outbox.Entry entry, int attempt, Exception cause) {
+        UserEvent event = entry.getEvent();
+        try {
+            retryRouter.deadLetter(event.getId() != null ? String.valueOf(event.getId()) : null, event, cause);
+        } catch (KafkaException e) {
+            log.error("Событие {} не отправлено за {} попыток и не опубликовано в топик недоставленных: {}",
+                    entry.getSequence(), attempt, e.getMessage());
+            return false;
+        }
+        outbox.delivered(entry);
+        return true;
+    }
+
+    private long backoff(int attempt) {
+        long backoff = initialBackoffMs << Math.min(attempt - 1, 30);
+        return backoff <= 0 || backoff > maxBackoffMs ? maxBackoffMs : backoff;
+    }
+}
@@ -0,0 +1,271 @@
+package com.aston.outbox;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал исходящих уведомлений из сегментов, отображенных в память.
+ *
+ * Запись: длина записи (int), CRC32 (int), вид записи (byte), номер уведомления (long), данные.
+ * Длина пишется последней, поэтому оборванная запись читается как конец сегмента.
+ * Когда в активном сегменте не хватает места, он сбрасывается на диск и закрывается,
+ * и начинается новый сегмент. Сегмент создается сразу полного размера, хвост заполнен нулями.
+ *
+ * Сброс на диск групповой: {@link #sync(long)} одним вызовом force покрывает все записи,
+ * сделанные к этому моменту, а потоки, ждавшие его, возвращаются без своего force
+ */
+@Slf4j
+final class OutboxJournal implements AutoCloseable {
+
+    static final byte ENTRY = 1;
+    static final byte DELIVERED = 2;
+
+    static final int HEADER_BYTES = 4 + 4 + 1 + 8;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * Получатель записей журнала при чтении
+     */
+    @FunctionalInterface
+    interface RecordConsumer {
+        void accept(long segment, byte kind, long sequence, byte[] data);
+    }
+
+    private final Path directory;
+    private final int segmentBytes;
+
+    /**
+     * Закрытые сегменты от старых к новым, без активного
+     */
+    private final List<Long> sealed = new ArrayList<>();
+
+    private long activeSegment;
+    private RandomAccessFile activeFile;
+    private MappedByteBuffer active;
+
+    /**
+     * Число сделанных записей и число записей, гарантированно сброшенных на диск
+     */
+    private long written;
+    private volatile long durable;
+    private final Object syncLock = new Object();
+
+    OutboxJournal(Path directory, int segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Читает все сегменты от старых к новым и открывает последний как активный.
+     * Вызывается один раз перед первой записью
+     */
+    synchronized void open(RecordConsumer consumer) throws IOException {
+        List<Long> segments = listSegments();
+        for (long segment : segments) {
+            try (RandomAccessFile file = new RandomAccessFile(segmentPath(segment).toFile(), "rw")) {
+                MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+                int end = read(segment, buffer, consumer);
+                if (segment == segments.get(segments.size() - 1) && file.length() == segmentBytes) {
+                    // Последний сегмент продолжает принимать записи с конца прочитанных данных
+                    activeSegment = segment;
+                    activeFile = new RandomAccessFile(segmentPath(segment).toFile(), "rw");
+                    active = activeFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+                    active.position(end);
+                    // Все после прочитанных данных затирается: за оборванной записью могут лежать
+                    // целые записи, которые после новых записей прочитались бы как настоящие
+                    clearTail(active, end);
+                } else {
+                    sealed.add(segment);
+                }
+            }
+        }
+        if (active == null) {
+            openSegment(segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1);
+        }
+    }
+
+    /**
+     * Дописывает запись в активный сегмент без сброса на диск
+     *
+     * @return отметка записи для {@link #sync(long)}
+     */
+    synchronized long append(byte kind, long sequence, byte[] data) throws IOException {
+        int size = HEADER_BYTES + data.length;
+        if (size > segmentBytes) {
+            throw new IOException("Запись " + size + " байт не помещается в сегмент журнала " + segmentBytes + " байт");
+        }
+        if (active.remaining() < size) {
+            rotate();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(kind);
+        crc.update(longBytes(sequence));
+        crc.update(data);
+
+        int position = active.position();
+        active.put(position + 8, kind);
+        active.putLong(position + 9, sequence);
+        active.position(position + HEADER_BYTES);
+        active.put(data);
+        active.putInt(position + 4, (int) crc.getValue());
+        active.putInt(position, size);
+        return ++written;
+    }
+
+    /**
+     * Ждет, пока запись с отметкой mark и все предыдущие окажутся на диске
+     */
+    void sync(long mark) {
+        if (durable >= mark) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durable >= mark) {
+                return;
+            }
+            long target;
+            MappedByteBuffer buffer;
+            synchronized (this) {
+                target = written;
+                buffer = active;
+            }
+            buffer.force();
+            durable = target;
+        }
+    }
+
+    synchronized long activeSegment() {
+        return activeSegment;
+    }
+
+    /**
+     * Закрытые сегменты от старых к новым
+     */
+    synchronized List<Long> sealedSegments() {
+        return new ArrayList<>(sealed);
+    }
+
+    synchronized int segmentCount() {
+        return sealed.size() + 1;
+    }
+
+    /**
+     * Удаляет самый старый закрытый сегмент. Удаление только по порядку сохраняет отметки
+     * о доставке для записей из оставшихся сегментов
+     */
+    synchronized void deleteOldest(long segment) throws IOException {
+        if (sealed.isEmpty() || sealed.get(0) != segment) {
+            throw new IllegalStateException("Сегмент " + segment + " не самый старый в журнале");
+        }
+        Files.deleteIfExists(segmentPath(segment));
+        sealed.remove(0);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (activeFile != null) {
+            active.force();
+            activeFile.close();
+            activeFile = null;
+        }
+    }
+
+    private static void clearTail(MappedByteBuffer buffer, int from) {
+        byte[] zeros = new byte[4096];
+        for (int position = from; position < buffer.capacity(); position += zeros.length) {
+            int length = Math.min(zeros.length, buffer.capacity() - position);
+            buffer.position(position);
+            buffer.put(zeros, 0, length);
+        }
+        buffer.position(from);
+    }
+
+    private void rotate() throws IOException {
+        // Записи закрываемого сегмента должны оказаться на диске раньше, чем записи нового
+        active.force();
+        activeFile.close();
+        sealed.add(activeSegment);
+        openSegment(activeSegment + 1);
+        log.debug("Журнал исходящих уведомлений перешел на сегмент {}", activeSegment);
+    }
+
+    private void openSegment(long segment) throws IOException {
+        activeSegment = segment;
+        activeFile = new RandomAccessFile(segmentPath(segment).toFile(), "rw");
+        activeFile.setLength(segmentBytes);
+        active = activeFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+    }
+
+    /**
+     * Читает записи сегмента до первой пустой или поврежденной
+     *
+     * @return позиция конца прочитанных данных
+     */
+    private static int read(long segment, MappedByteBuffer buffer, RecordConsumer consumer) {
+        int position = 0;
+        while (position + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length < HEADER_BYTES || position + length > buffer.capacity()) {
+                break;
+            }
+            int checksum = buffer.getInt(position + 4);
+            byte kind = buffer.get(position + 8);
+            long sequence = buffer.getLong(position + 9);
+            byte[] data = new byte[length - HEADER_BYTES];
+            buffer.position(position + HEADER_BYTES);
+            buffer.get(data);
+
+            CRC32 crc = new CRC32();
+            crc.update(kind);
+            crc.update(longBytes(sequence));
+            crc.update(data);
+            if ((int) crc.getValue() != checksum) {
+                log.warn("Поврежденная запись в сегменте {} журнала исходящих уведомлений на позиции {}, " +
+                        "чтение сегмента остановлено", segment, position);
+                break;
+            }
+            consumer.accept(segment, kind, sequence, data);
+            position += length;
+        }
+        return position;
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private static byte[] longBytes(long value) {
+        byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,240 @@
+package com.aston.service;
+
+import com.aston.dto.BatchItemResult;
+import com.aston.dto.BatchItemResult.Status;
+import com.aston.dto.BatchEmailRequest;
+import com.aston.dto.UserEvent;
+import com.aston.mail.SendDeferredException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.stereotype.Service;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Пакетная отправка писем из потока запроса.
+ *
+ * Тело - JSON-массив или NDJSON объектов {@link BatchEmailRequest}. Элементы читаются
+ * потоковым парсером по одному, проверяются валидатором и копятся в порцию
+ * из chunk-size писем, которая уходит одним вызовом {@link EmailService#sendBatch}.
+ * Результат каждого элемента пишется строкой NDJSON сразу после отправки его порции,
+ * поэтому в памяти одновременно находится не больше одной порции.
+ *
+ * Неудачи отправки JavaMailSender сообщает по равенству писем, поэтому письмо, равное уже
+ * стоящему в порции, начинает следующую порцию: внутри порции письма различимы, и результат
+ * достается именно своему элементу. Запрос занимает поток сервера до последней порции,
+ * поэтому число элементов ограничено max-items.
+ */
+@Slf4j
+@Service
+public class BatchEmailService {
+
+    private final EmailService emailService;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final int chunkSize;
+    private final long maxItems;
+
+    public BatchEmailService(EmailService emailService,
+                             ObjectMapper objectMapper,
+                             Validator validator,
+                             @Value("${app.notifications.batch.chunk-size:100}") int chunkSize,
+                             @Value("${app.notifications.batch.max-items:1000}") long maxItems) {
+        this.emailService = emailService;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.chunkSize = chunkSize;
+        this.maxItems = maxItems;
+    }
+
+    /**
+     * Читает запросы из in, отправляет письма и пишет результаты в out
+     *
+     * @return число элементов по статусам
+     */
+    public Map<Status, Integer> process(InputStream in, OutputStream out) throws IOException {
+        Map<Status, Integer> summary = new EnumMap<>(Status.class);
+        List<Item> chunk = new ArrayList<>(chunkSize);
+        long index = 0;
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(in);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            // Каждый результат - отдельная строка, без разделителя корневых значений по умолчанию
+            generator.setRootValueSeparator(null);
+            try {
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.START_ARRAY) {
+                    token = parser.nextToken();
+                }
+                while (token != null && token != JsonToken.END_ARRAY) {
+                    if (index >= maxItems) {
+                        flush(chunk, generator, summary);
+                        write(generator, summary, error(index, "Превышено число элементов в запросе: " + maxItems));
+                        return summary;
+                    }
+                    if (token != JsonToken.START_OBJECT) {
+                        throw new JsonParseException(parser, "Ожидается объект BatchEmailRequest, получено " + token);
+                    }
+                    JsonNode node = parser.readValueAsTree();
+                    Item item = toItem(index++, node);
+                    if (item.message != null && containsEqual(chunk, item.message)) {
+                        flush(chunk, generator, summary);
+                    }
+                    chunk.add(item);
+                    if (chunk.size() >= chunkSize) {
+                        flush(chunk, generator, summary);
+                    }
+                    token = parser.nextToken();
+                }
+            } catch (JsonProcessingException e) {
+                flush(chunk, generator, summary);
+                write(generator, summary, error(index, "Некорректный JSON: " + e.getOriginalMessage()));
+                return summary;
+            }
+            flush(chunk, generator, summary);
+        }
+        return summary;
+    }
+
+    /**
+     * Проверяет элемент и формирует его письмо; некорректный элемент сразу получает результат INVALID
+     */
+    private Item toItem(long index, JsonNode node) {
+        BatchEmailRequest request;
+        try {
+            request = objectMapper.treeToValue(node, BatchEmailRequest.class);
+        } catch (JsonProcessingException e) {
+            return new Item(null, invalid(index, null, e.getOriginalMessage()));
+        }
+
+        Set<ConstraintViolation<BatchEmailRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            String error = violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining("; "));
+            return new Item(null, invalid(index, request.getToEmail(), error));
+        }
+
+        try {
+            SimpleMailMessage message = emailService.createMessage(UserEvent.builder()
+                    .eventType(request.getEventType() != null
+                            ? request.getEventType() : UserEvent.EventType.USER_CREATED)
+                    .email(request.getToEmail())
+                    .name(request.getUserName())
+                    .build());
+            return new Item(message, BatchItemResult.builder()
+                    .index(index)
+                    .toEmail(request.getToEmail())
+                    .build());
+        } catch (IllegalArgumentException e) {
+            return new Item(null, invalid(index, request.getToEmail(), e.getMessage()));
+        }
+    }
+
+    /**
+     * Отправляет письма порции одним вызовом и пишет результаты элементов в порядке запроса.
+     * Неудача письма относится к элементу по его позиции в порции; при недоступном релее
+     * все письма порции получают FAILED с причиной
+     */
+    private void flush(List<Item> chunk, JsonGenerator generator, Map<Status, Integer> summary) throws IOException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<SimpleMailMessage> messages = new ArrayList<>(chunk.size());
+        for (Item item : chunk) {
+            if (item.message != null) {
+                messages.add(item.message);
+            }
+        }
+        Exception[] causes = new Exception[messages.size()];
+        try {
+            Map<SimpleMailMessage, Exception> failed = emailService.sendBatch(messages);
+            for (int i = 0; i < causes.length; i++) {
+                causes[i] = failed.get(messages.get(i));
+            }
+        } catch (SendDeferredException e) {
+            // Релей недоступен: ни одно письмо порции не отправлялось
+            Arrays.fill(causes, e);
+        }
+
+        int position = 0;
+        for (Item item : chunk) {
+            BatchItemResult result = item.result;
+            if (item.message != null) {
+                Exception cause = causes[position++];
+                result.setStatus(cause == null ? Status.SENT : Status.FAILED);
+                result.setError(cause == null ? null : cause.getMessage());
+            }
+            write(generator, summary, result);
+        }
+        generator.flush();
+        chunk.clear();
+    }
+
+    private static boolean containsEqual(List<Item> chunk, SimpleMailMessage message) {
+        for (Item item : chunk) {
+            if (message.equals(item.message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void write(JsonGenerator generator, Map<Status, Integer> summary, BatchItemResult result)
+            throws IOException {
+        generator.writeObject(result);
+        generator.writeRaw('\n');
+        summary.merge(result.getStatus(), 1, Integer::sum);
+    }
+
+    private static BatchItemResult invalid(long index, String toEmail, String error) {
+        return BatchItemResult.builder()
+                .index(index)
+                .toEmail(toEmail)
+                .status(Status.INVALID)
+                .error(error)
+                .build();
+    }
+
+    private static BatchItemResult error(long index, String error) {
+        return BatchItemResult.builder()
+                .index(index)
+                .status(Status.ERROR)
+                .error(error)
+                .build();
+    }
+
+    /**
+     * Элемент порции: письмо к отправке или готовый результат некорректного элемента
+     */
+    private static final class Item {
+
+        private final SimpleMailMessage message;
+        private final BatchItemResult result;
+
+        Item(SimpleMailMessage message, BatchItemResult result) {
+            this.message = message;
+            this.result = result;
+        }
+    }
+}
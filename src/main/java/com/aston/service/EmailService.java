@@ -1,18 +1,40 @@
 package com.aston.service;
 
+import com.aston.address.AddressValidator;
+import com.aston.digest.DigestService;
+import com.aston.dto.UserEvent;
+import com.aston.ledger.DeliveryLedger;
+import com.aston.mail.SendDeferredException;
+import com.aston.mail.SendScheduler;
+import com.aston.metrics.NotificationMetrics;
+import com.aston.metrics.NotificationMetrics.Outcome;
+import com.aston.metrics.NotificationMetrics.Stage;
+import com.aston.template.EmailTemplate;
+import com.aston.template.EmailTemplateRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class EmailService {
 
-    private final JavaMailSender mailSender;
+    private final SendScheduler sendScheduler;
+    private final EmailTemplateRegistry templateRegistry;
+    private final NotificationMetrics metrics;
+    private final DeliveryLedger deliveryLedger;
+    private final DigestService digestService;
+    private final AddressValidator addressValidator;
 
     @Value("${app.email.from}")
     private String fromEmail;
@@ -21,45 +43,219 @@ public class EmailService {
     private String siteUrl;
 
     public void sendUserCreatedEmail(String toEmail, String userName) {
-        String subject = "Добро пожаловать!";
-        String message = String.format(
-                "Здравствуйте, %s!\n\n" +
-                        "Ваш аккаунт на сайте %s был успешно создан.\n\n" +
-                        "С уважением,\n" +
-                        "Команда поддержки",
-                userName != null ? userName : "пользователь",
-                siteUrl
-        );
-
-        sendEmail(toEmail, subject, message);
+        sendEventEmail(userEvent(UserEvent.EventType.USER_CREATED, toEmail, userName));
     }
 
     public void sendUserDeletedEmail(String toEmail, String userName) {
-        String subject = "Аккаунт удален";
-        String message = String.format(
-                "Здравствуйте%s!\n\n" +
-                        "Ваш аккаунт был удалён.\n\n" +
-                        "С уважением,\n" +
-                        "Команда поддержки",
-                userName != null ? ", " + userName : ""
-        );
-
-        sendEmail(toEmail, subject, message);
+        sendEventEmail(userEvent(UserEvent.EventType.USER_DELETED, toEmail, userName));
+    }
+
+    /**
+     * Отправляет письмо по шаблону типа события, если оно еще не было отправлено
+     * и не отправляется в другом потоке
+     *
+     * @return false, если письмо уже отправлялось или отправляется и повтор подавлен журналом доставок
+     */
+    public boolean sendEventEmail(UserEvent event) {
+        return sendEventEmail(event, false);
     }
 
-    private void sendEmail(String toEmail, String subject, String text) {
+    /**
+     * Отправляет письмо по шаблону типа события, как {@link #sendEventEmail(UserEvent)}
+     *
+     * @param deferrable не ждать лимита скорости дольше max-channel-wait
+     * @throws SendDeferredException если deferrable и лимит не позволяет отправить письмо без ожидания
+     */
+    public boolean sendEventEmail(UserEvent event, boolean deferrable) {
+        if (!deliveryLedger.claim(event)) {
+            log.info("Письмо {} для пользователя {} уже отправлено, повтор пропущен", event.getEventType(), event.getId());
+            return false;
+        }
         try {
-            SimpleMailMessage message = new SimpleMailMessage();
-            message.setFrom(fromEmail);
-            message.setTo(toEmail);
-            message.setSubject(subject);
-            message.setText(text);
+            send(createMessage(event), event.getEventType(), deferrable);
+        } catch (RuntimeException e) {
+            deliveryLedger.release(event);
+            throw e;
+        }
+        deliveryLedger.markDelivered(event);
+        return true;
+    }
 
-            mailSender.send(message);
+    /**
+     * Формирует письмо для события пользователя без отправки.
+     * Адрес получателя проверяется и нормализуется {@link AddressValidator},
+     * тема и текст берутся из скомпилированного шаблона типа события
+     *
+     * @throws IllegalArgumentException если для типа события нет шаблона
+     * @throws com.aston.exception.InvalidAddressException если адрес ошибочен или домен не принимает почту
+     */
+    public SimpleMailMessage createMessage(UserEvent event) {
+        if (event.getEventType() == null) {
+            throw new IllegalArgumentException("Не указан тип события");
+        }
+        String toEmail = addressValidator.validate(event.getEmail());
+        long start = metrics.start();
+        try {
+            EmailTemplate template = templateRegistry.get(event.getEventType());
+            SimpleMailMessage message = createMessage(
+                    toEmail,
+                    template.getSubject().render(event, siteUrl),
+                    template.getBody().render(event, siteUrl)
+            );
+            metrics.record(Stage.RENDER, event.getEventType(), Outcome.SUCCESS, start);
+            return message;
+        } catch (RuntimeException e) {
+            metrics.record(Stage.RENDER, event.getEventType(), Outcome.FAILURE, start);
+            throw e;
+        }
+    }
+
+    /**
+     * Отправляет пачку писем одним вызовом JavaMailSender, то есть через одно SMTP-соединение.
+     * Если лимиты скорости не позволяют отправить всю пачку сразу, {@link SendScheduler}
+     * делит ее на части по мере поступления разрешений.
+     *
+     * Ошибка одного письма не прерывает отправку остальных.
+     * Письма на адреса сводок откладываются в {@link DigestService} и в пачку не входят.
+     * Письма, отложенные из-за недоступного релея или лимита скорости, возвращаются
+     * с причиной {@link SendDeferredException} и не считаются неудачными отправками.
+     *
+     * @return письма, которые не удалось отправить, с причиной ошибки
+     * @throws SendDeferredException релей недоступен, ни одно письмо пачки не отправлялось
+     */
+    public Map<SimpleMailMessage, Exception> sendBatch(List<SimpleMailMessage> batch) {
+        return sendBatch(batch, false);
+    }
+
+    /**
+     * Отправляет пачку писем, как {@link #sendBatch(List)}
+     *
+     * @param deferrable не ждать лимита скорости дольше max-channel-wait: такие письма
+     *                   возвращаются с причиной {@link SendDeferredException}
+     */
+    public Map<SimpleMailMessage, Exception> sendBatch(List<SimpleMailMessage> batch, boolean deferrable) {
+        Map<SimpleMailMessage, Exception> failed = new LinkedHashMap<>();
+        List<SimpleMailMessage> messages = batch;
+        if (digestService.isEnabled()) {
+            messages = new ArrayList<>(batch.size());
+            for (SimpleMailMessage message : batch) {
+                if (!digestService.offer(message)) {
+                    messages.add(message);
+                }
+            }
+        }
+        if (messages.isEmpty()) {
+            return failed;
+        }
+
+        metrics.sendStarted();
+        long start = metrics.start();
+        try {
+            SimpleMailMessage[] pending = messages.toArray(new SimpleMailMessage[0]);
+            if (deferrable) {
+                sendScheduler.sendOrDefer(pending);
+            } else {
+                sendScheduler.send(pending);
+            }
+            log.info("Пачка из {} писем успешно отправлена", messages.size());
+        } catch (SendDeferredException e) {
+            metrics.recordBatchSend(Outcome.SKIPPED, start);
+            metrics.countMessages(Outcome.SKIPPED, messages.size());
+            log.warn("Пачка из {} писем не отправлена: {}", messages.size(), e.getMessage());
+            throw e;
+        } catch (MailSendException e) {
+            e.getFailedMessages().forEach((message, cause) -> {
+                if (message instanceof SimpleMailMessage) {
+                    failed.put((SimpleMailMessage) message, cause);
+                }
+            });
+            if (failed.isEmpty()) {
+                // Ошибка не привязана к конкретным письмам - считаем неотправленной всю пачку
+                messages.forEach(message -> failed.put(message, e));
+            }
+            log.warn("Не удалось отправить {} из {} писем пачки", failed.size(), messages.size());
+        } catch (MailException e) {
+            log.error("Ошибка при отправке пачки из {} писем: {}", messages.size(), e.getMessage(), e);
+            messages.forEach(message -> failed.put(message, e));
+        } finally {
+            metrics.sendFinished();
+        }
+
+        int deferred = (int) failed.values().stream().filter(SendDeferredException.class::isInstance).count();
+        metrics.recordBatchSend(failed.size() == deferred ? Outcome.SUCCESS : Outcome.FAILURE, start);
+        metrics.countMessages(Outcome.SUCCESS, messages.size() - failed.size());
+        metrics.countMessages(Outcome.FAILURE, failed.size() - deferred);
+        metrics.countMessages(Outcome.SKIPPED, deferred);
+        return failed;
+    }
+
+    /**
+     * Отправляет одно заранее сформированное письмо
+     */
+    public void send(SimpleMailMessage message) {
+        send(message, null);
+    }
+
+    /**
+     * Отправляет одно заранее сформированное письмо для события указанного типа.
+     * Письмо на адрес сводок откладывается в {@link DigestService}
+     */
+    public void send(SimpleMailMessage message, UserEvent.EventType eventType) {
+        send(message, eventType, false);
+    }
+
+    private void send(SimpleMailMessage message, UserEvent.EventType eventType, boolean deferrable) {
+        String toEmail = firstRecipient(message);
+        if (digestService.offer(message)) {
+            log.info("Email на адрес {} отложен в сводку", toEmail);
+            return;
+        }
+        metrics.sendStarted();
+        long start = metrics.start();
+        try {
+            if (deferrable) {
+                sendScheduler.sendOrDefer(message);
+            } else {
+                sendScheduler.send(message);
+            }
+            metrics.record(Stage.SEND, eventType, Outcome.SUCCESS, start);
+            metrics.countMessages(Outcome.SUCCESS, 1);
             log.info("Email успешно отправлен на адрес: {}", toEmail);
+        } catch (SendDeferredException e) {
+            // Письмо не отправлялось: релей недоступен или лимит не позволяет ждать
+            // без отсрочки, ошибка уходит вызывающему как есть
+            metrics.record(Stage.SEND, eventType, Outcome.SKIPPED, start);
+            log.warn("Email на адрес {} не отправлен: {}", toEmail, e.getMessage());
+            throw e;
         } catch (Exception e) {
+            metrics.record(Stage.SEND, eventType, Outcome.FAILURE, start);
+            metrics.countMessages(Outcome.FAILURE, 1);
             log.error("Ошибка при отправке email на адрес {}: {}", toEmail, e.getMessage(), e);
             throw new RuntimeException("Не удалось отправить email на адрес: " + toEmail, e);
+        } finally {
+            metrics.sendFinished();
         }
     }
-}
\ No newline at end of file
+
+    private SimpleMailMessage createMessage(String toEmail, String subject, String text) {
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom(fromEmail);
+        message.setTo(toEmail);
+        message.setSubject(subject);
+        message.setText(text);
+        return message;
+    }
+
+    private static UserEvent userEvent(UserEvent.EventType eventType, String toEmail, String userName) {
+        return UserEvent.builder()
+                .eventType(eventType)
+                .email(toEmail)
+                .name(userName)
+                .build();
+    }
+
+    private static String firstRecipient(SimpleMailMessage message) {
+        String[] to = message.getTo();
+        return to != null && to.length > 0 ? to[0] : null;
+    }
+}
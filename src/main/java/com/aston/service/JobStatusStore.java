@@ -0,0 +1,61 @@
+package com.aston.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Хранилище статусов заданий ограниченного размера.
+ *
+ * При превышении app.notifications.async.job-store-size вытесняется самое старое задание
+ */
+@Component
+public class JobStatusStore {
+
+    private final Map<String, NotificationJob> jobs;
+
+    public JobStatusStore(@Value("${app.notifications.async.job-store-size:10000}") int maxSize) {
+        this.jobs = new LinkedHashMap<>(Math.min(maxSize, 1024), 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, NotificationJob> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public synchronized void put(NotificationJob job) {
+        jobs.put(job.getId(), job);
+    }
+
+    /**
+     * Обновляет статус задания, если оно еще не вытеснено
+     */
+    public synchronized void update(String id, NotificationJob.Status status, String error) {
+        NotificationJob job = jobs.get(id);
+        if (job == null) {
+            return;
+        }
+        NotificationJob.NotificationJobBuilder updated = job.toBuilder().status(status).error(error);
+        if (status == NotificationJob.Status.SENT || status == NotificationJob.Status.FAILED) {
+            updated.completedAt(LocalDateTime.now());
+        }
+        // replace сохраняет позицию записи в порядке вытеснения
+        jobs.replace(id, updated.build());
+    }
+
+    public synchronized Optional<NotificationJob> find(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    public synchronized void remove(String id) {
+        jobs.remove(id);
+    }
+
+    public synchronized int size() {
+        return jobs.size();
+    }
+}
@@ -0,0 +1,105 @@
+package com.aston.service;
+
+import com.aston.exception.DispatchQueueFullException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Асинхронная отправка email через ограниченную очередь внутри процесса.
+ *
+ * Запрос HTTP только ставит задание в очередь, письмо отправляют рабочие потоки.
+ * Если очередь заполнена, задание отклоняется с {@link DispatchQueueFullException}
+ */
+@Slf4j
+@Service
+public class NotificationDispatcher {
+
+    private final EmailService emailService;
+    private final JobStatusStore jobStatusStore;
+    private final ThreadPoolExecutor executor;
+    private final long retryAfterSeconds;
+
+    public NotificationDispatcher(EmailService emailService,
+                                  JobStatusStore jobStatusStore,
+                                  @Value("${app.notifications.async.workers:4}") int workers,
+                                  @Value("${app.notifications.async.queue-capacity:1000}") int queueCapacity,
+                                  @Value("${app.notifications.async.retry-after:5s}") Duration retryAfter) {
+        this.emailService = emailService;
+        this.jobStatusStore = jobStatusStore;
+        this.retryAfterSeconds = Math.max(1, retryAfter.getSeconds());
+
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "notification-dispatcher-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Ставит в очередь приветственное письмо
+     *
+     * @return созданное задание
+     */
+    public NotificationJob submitUserCreated(String toEmail, String userName, String emailType) {
+        NotificationJob job = NotificationJob.builder()
+                .id(UUID.randomUUID().toString())
+                .status(NotificationJob.Status.QUEUED)
+                .toEmail(toEmail)
+                .emailType(emailType)
+                .createdAt(LocalDateTime.now())
+                .build();
+        jobStatusStore.put(job);
+
+        try {
+            executor.execute(() -> deliver(job.getId(), () -> emailService.sendUserCreatedEmail(toEmail, userName)));
+        } catch (RejectedExecutionException e) {
+            log.warn("Очередь отправки заполнена, задание {} отклонено", job.getId());
+            jobStatusStore.remove(job.getId());
+            throw new DispatchQueueFullException(retryAfterSeconds);
+        }
+        return job;
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Задания в очереди и выполняющиеся
+     */
+    public int getPendingJobs() {
+        return executor.getQueue().size() + executor.getActiveCount();
+    }
+
+    private void deliver(String jobId, Runnable send) {
+        jobStatusStore.update(jobId, NotificationJob.Status.SENDING, null);
+        try {
+            send.run();
+            jobStatusStore.update(jobId, NotificationJob.Status.SENT, null);
+        } catch (RuntimeException e) {
+            log.error("Задание {} завершилось ошибкой: {}", jobId, e.getMessage());
+            jobStatusStore.update(jobId, NotificationJob.Status.FAILED, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
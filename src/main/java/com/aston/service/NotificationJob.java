@@ -0,0 +1,30 @@
+package com.aston.service;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Снимок состояния задания на асинхронную отправку email.
+ * Экземпляры неизменяемы: при смене статуса в хранилище кладется новый снимок
+ */
+@Getter
+@Builder(toBuilder = true)
+public class NotificationJob {
+
+    public enum Status {
+        QUEUED,
+        SENDING,
+        SENT,
+        FAILED
+    }
+
+    private final String id;
+    private final Status status;
+    private final String toEmail;
+    private final String emailType;
+    private final LocalDateTime createdAt;
+    private final LocalDateTime completedAt;
+    private final String error;
+}
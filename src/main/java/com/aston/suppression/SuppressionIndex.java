@@ -0,0 +1,406 @@
+package com.aston.suppression;
+
+import com.aston.address.AddressNormalizer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Список подавления: адреса с жесткими отказами и отписками, на которые письма не отправляются.
+ *
+ * Хранит 64-битные хэши нормализованных адресов (регистр не учитывается) в таблице открытой
+ * адресации с линейным пробированием вне кучи: в файле, отображенном в память, или, без файла,
+ * в direct-буфере. Десять миллионов адресов занимают около 130 МБ вне кучи и не нагружают GC.
+ * Файл открывается без чтения и разбора, страницы подгружаются ОС по мере обращения.
+ *
+ * Проверка {@link #contains} не выделяет памяти и не берет блокировок: слоты читаются с
+ * семантикой acquire, а запись выполняется одним писателем под блокировкой. Удаленный адрес
+ * помечается надгробием, поэтому удаление не сдвигает записи под читателем. При заполнении
+ * больше чем на 70% таблица перестраивается в новый файл, который атомарно заменяет старый.
+ *
+ * Формат файла: заголовок 64 байта (магия, версия, флаги, емкость, размер, надгробия),
+ * затем слоты по 8 байт little-endian. Флаг dirty стоит, пока файл открыт; если процесс
+ * завершился без {@link #close}, размер пересчитывается по слотам при следующем открытии.
+ * Таблица, созданная при открытии, помечается {@link #isFresh() новой}: ее наполняют заново
+ * из источника обновлений.
+ * Ложное срабатывание возможно только при совпадении 64-битных хэшей
+ */
+@Slf4j
+public class SuppressionIndex implements Closeable {
+
+    private static final long MAGIC = 0x3158444950505553L; // "SUPPIDX1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 8;
+    private static final int OFFSET_FLAGS = 12;
+    private static final int OFFSET_CAPACITY = 16;
+    private static final int OFFSET_SIZE = 24;
+    private static final int OFFSET_TOMBSTONES = 32;
+    private static final int FLAG_DIRTY = 1;
+
+    private static final long EMPTY = 0;
+    private static final long TOMBSTONE = 1;
+
+    private static final int MIN_CAPACITY = 1024;
+    /**
+     * Больше слотов не помещается в один ByteBuffer: (2^31 - заголовок) / 8
+     */
+    static final int MAX_CAPACITY = 1 << 27;
+    private static final double MAX_LOAD = 0.7;
+
+    private static final VarHandle SLOT = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final class Table {
+
+        final ByteBuffer buffer;
+        final int mask;
+
+        Table(ByteBuffer buffer, int capacity) {
+            this.buffer = buffer;
+            this.mask = capacity - 1;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        long slot(int index) {
+            return (long) SLOT.getAcquire(buffer, HEADER_SIZE + (index << 3));
+        }
+
+        void setSlot(int index, long value) {
+            SLOT.setRelease(buffer, HEADER_SIZE + (index << 3), value);
+        }
+    }
+
+    /**
+     * Файл таблицы, null - таблица только в памяти
+     */
+    private final Path path;
+
+    /**
+     * Таблица создана при открытии, а не прочитана из файла
+     */
+    private final boolean fresh;
+
+    private volatile Table table;
+    private volatile int size;
+    private int tombstones;
+
+    private SuppressionIndex(Path path, boolean fresh, Table table, int size, int tombstones) {
+        this.path = path;
+        this.fresh = fresh;
+        this.table = table;
+        this.size = size;
+        this.tombstones = tombstones;
+    }
+
+    /**
+     * Открывает таблицу из файла или создает новую на initialCapacity адресов.
+     * Без path таблица живет в direct-буфере до перезапуска
+     */
+    public static SuppressionIndex open(Path path, int initialCapacity) throws IOException {
+        int capacity = capacityFor(initialCapacity);
+        if (path == null) {
+            Table table = new Table(allocate(capacity), capacity);
+            return new SuppressionIndex(null, true, table, 0, 0);
+        }
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        boolean fresh = !Files.exists(path) || Files.size(path) == 0;
+        if (fresh) {
+            writeEmpty(path, capacity);
+        }
+
+        long started = System.nanoTime();
+        MappedByteBuffer buffer = map(path);
+        if (buffer.getLong(OFFSET_MAGIC) != MAGIC || buffer.getInt(OFFSET_VERSION) != VERSION) {
+            throw new IOException("Файл " + path + " не является списком подавления версии " + VERSION);
+        }
+        long fileCapacity = buffer.getLong(OFFSET_CAPACITY);
+        if (Long.bitCount(fileCapacity) != 1 || fileCapacity > MAX_CAPACITY
+                || buffer.capacity() != HEADER_SIZE + (fileCapacity << 3)) {
+            throw new IOException("Поврежден заголовок списка подавления " + path);
+        }
+        Table table = new Table(buffer, (int) fileCapacity);
+
+        int size = (int) buffer.getLong(OFFSET_SIZE);
+        int tombstones = (int) buffer.getLong(OFFSET_TOMBSTONES);
+        boolean dirty = (buffer.getInt(OFFSET_FLAGS) & FLAG_DIRTY) != 0;
+        if (dirty) {
+            size = 0;
+            tombstones = 0;
+            for (int i = 0; i < table.capacity(); i++) {
+                long slot = table.slot(i);
+                if (slot == TOMBSTONE) {
+                    tombstones++;
+                } else if (slot != EMPTY) {
+                    size++;
+                }
+            }
+            log.warn("Список подавления {} не был закрыт, размер пересчитан: {}", path, size);
+        }
+        buffer.putInt(OFFSET_FLAGS, FLAG_DIRTY);
+        SuppressionIndex index = new SuppressionIndex(path, fresh, table, size, tombstones);
+        index.writeCounts();
+        log.info("Открыт список подавления {}: адресов {}, слотов {}, {} мс",
+                path, size, table.capacity(), (System.nanoTime() - started) / 1_000_000);
+        return index;
+    }
+
+    /**
+     * Есть ли нормализованный адрес в списке. Не выделяет памяти и не блокируется
+     */
+    public boolean contains(String address) {
+        long hash = hash(address);
+        Table current = table;
+        int index = (int) hash & current.mask;
+        while (true) {
+            long slot = current.slot(index);
+            if (slot == hash) {
+                return true;
+            }
+            if (slot == EMPTY) {
+                return false;
+            }
+            index = (index + 1) & current.mask;
+        }
+    }
+
+    /**
+     * Добавляет адрес в список
+     *
+     * @return false, если адрес уже был в списке
+     * @throws com.aston.exception.InvalidAddressException если адрес ошибочен
+     */
+    public synchronized boolean add(String address) {
+        long hash = hash(AddressNormalizer.normalize(address));
+        if (contains(hash)) {
+            return false;
+        }
+        if (size + tombstones + 1 > table.capacity() * MAX_LOAD) {
+            rebuild();
+        }
+        Table current = table;
+        int index = (int) hash & current.mask;
+        long slot;
+        while ((slot = current.slot(index)) != EMPTY && slot != TOMBSTONE) {
+            index = (index + 1) & current.mask;
+        }
+        if (slot == TOMBSTONE) {
+            tombstones--;
+        }
+        current.setSlot(index, hash);
+        size++;
+        writeCounts();
+        return true;
+    }
+
+    /**
+     * Убирает адрес из списка, например после повторной подписки
+     *
+     * @return false, если адреса не было в списке
+     * @throws com.aston.exception.InvalidAddressException если адрес ошибочен
+     */
+    public synchronized boolean remove(String address) {
+        long hash = hash(AddressNormalizer.normalize(address));
+        Table current = table;
+        int index = (int) hash & current.mask;
+        while (true) {
+            long slot = current.slot(index);
+            if (slot == EMPTY) {
+                return false;
+            }
+            if (slot == hash) {
+                current.setSlot(index, TOMBSTONE);
+                size--;
+                tombstones++;
+                writeCounts();
+                return true;
+            }
+            index = (index + 1) & current.mask;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Таблица создана при открытии: в памяти или в новом файле, и не содержит ранее
+     * примененных обновлений
+     */
+    public boolean isFresh() {
+        return fresh;
+    }
+
+    public int capacity() {
+        return table.capacity();
+    }
+
+    /**
+     * Сбрасывает изменения таблицы на диск
+     */
+    public synchronized void flush() {
+        if (table.buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) table.buffer).force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (path != null) {
+            writeCounts();
+            flush();
+            table.buffer.putInt(OFFSET_FLAGS, 0);
+            flush();
+        }
+    }
+
+    /**
+     * 64-битный хэш адреса без учета регистра ASCII: FNV-1a по символам и финальное
+     * перемешивание MurmurHash3. Значения 0 и 1 заняты пустым слотом и надгробием
+     */
+    static long hash(CharSequence address) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0, length = address.length(); i < length; i++) {
+            char c = address.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            hash = (hash ^ c) * 0x100000001b3L;
+        }
+        hash = mix(hash);
+        return hash == EMPTY || hash == TOMBSTONE ? hash + 2 : hash;
+    }
+
+    private boolean contains(long hash) {
+        Table current = table;
+        int index = (int) hash & current.mask;
+        long slot;
+        while ((slot = current.slot(index)) != EMPTY) {
+            if (slot == hash) {
+                return true;
+            }
+            index = (index + 1) & current.mask;
+        }
+        return false;
+    }
+
+    /**
+     * Перестраивает таблицу без надгробий, при необходимости удваивая емкость.
+     * Читатели до замены ссылки работают со старой таблицей
+     */
+    private void rebuild() {
+        Table old = table;
+        int capacity = old.capacity();
+        if ((size + 1) > capacity * MAX_LOAD / 2) {
+            if (capacity >= MAX_CAPACITY) {
+                throw new IllegalStateException("Список подавления заполнен: " + size + " адресов");
+            }
+            capacity <<= 1;
+        }
+        long started = System.nanoTime();
+        try {
+            ByteBuffer buffer;
+            Path next = null;
+            if (path == null) {
+                buffer = allocate(capacity);
+            } else {
+                next = path.resolveSibling(path.getFileName() + ".next");
+                writeEmpty(next, capacity);
+                buffer = map(next);
+            }
+            Table rebuilt = new Table(buffer, capacity);
+            for (int i = 0; i < old.capacity(); i++) {
+                long slot = old.slot(i);
+                if (slot != EMPTY && slot != TOMBSTONE) {
+                    int index = (int) slot & rebuilt.mask;
+                    while (rebuilt.slot(index) != EMPTY) {
+                        index = (index + 1) & rebuilt.mask;
+                    }
+                    rebuilt.setSlot(index, slot);
+                }
+            }
+            buffer.putLong(OFFSET_SIZE, size);
+            buffer.putLong(OFFSET_TOMBSTONES, 0);
+            buffer.putInt(OFFSET_FLAGS, FLAG_DIRTY);
+            if (next != null) {
+                ((MappedByteBuffer) buffer).force();
+                Files.move(next, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            table = rebuilt;
+            tombstones = 0;
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось перестроить список подавления " + path, e);
+        }
+        log.info("Список подавления перестроен: адресов {}, слотов {}, {} мс",
+                size, capacity, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private void writeCounts() {
+        ByteBuffer buffer = table.buffer;
+        buffer.putLong(OFFSET_SIZE, size);
+        buffer.putLong(OFFSET_TOMBSTONES, tombstones);
+    }
+
+    /**
+     * Перемешивание MurmurHash3 fmix64: младшие биты хэша сразу годятся для выбора слота
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static int capacityFor(int entries) {
+        long slots = (long) Math.ceil(Math.max(entries, 1) / MAX_LOAD);
+        long capacity = Math.max(MIN_CAPACITY, Long.highestOneBit(slots - 1) << 1);
+        return (int) Math.min(capacity, MAX_CAPACITY);
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_SIZE + (capacity << 3)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(OFFSET_MAGIC, MAGIC);
+        buffer.putInt(OFFSET_VERSION, VERSION);
+        buffer.putLong(OFFSET_CAPACITY, capacity);
+        return buffer;
+    }
+
+    private static void writeEmpty(Path file, int capacity) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(OFFSET_MAGIC, MAGIC);
+        header.putInt(OFFSET_VERSION, VERSION);
+        header.putLong(OFFSET_CAPACITY, capacity);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(header, 0);
+            // Слоты - разреженная область файла, заполненная нулями
+            channel.write(ByteBuffer.allocate(1), HEADER_SIZE + ((long) capacity << 3) - 1);
+        }
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+}
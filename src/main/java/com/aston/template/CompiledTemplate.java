@@ -0,0 +1,144 @@
+package com.aston.template;
+
+import com.aston.dto.UserEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Шаблон, заранее разобранный на литеральные сегменты и подстановки.
+ *
+ * Поддерживаемый синтаксис подстановок:
+ * <ul>
+ *     <li>{@code {{name}}} - значение переменной или пустая строка</li>
+ *     <li>{@code {{name:-пользователь}}} - значение или текст по умолчанию, если значения нет</li>
+ *     <li>{@code {{name:+, }}} - текст и значение, если значение есть, иначе ничего</li>
+ * </ul>
+ */
+public final class CompiledTemplate {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    /**
+     * Буферы больше этого размера не переиспользуются, чтобы не удерживать память потока
+     */
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(512));
+
+    private final Segment[] segments;
+
+    private CompiledTemplate(Segment[] segments) {
+        this.segments = segments;
+    }
+
+    public static CompiledTemplate compile(String source) {
+        List<Segment> segments = new ArrayList<>();
+        int position = 0;
+        while (position < source.length()) {
+            int open = source.indexOf(OPEN, position);
+            if (open < 0) {
+                segments.add(Segment.literal(source.substring(position)));
+                break;
+            }
+            if (open > position) {
+                segments.add(Segment.literal(source.substring(position, open)));
+            }
+            int close = source.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                throw new IllegalArgumentException("Незакрытая подстановка в шаблоне на позиции " + open);
+            }
+            segments.add(Segment.placeholder(source.substring(open + OPEN.length(), close)));
+            position = close + CLOSE.length();
+        }
+        return new CompiledTemplate(segments.toArray(new Segment[0]));
+    }
+
+    /**
+     * Подставляет значения в переиспользуемый буфер потока и возвращает результат
+     */
+    public String render(UserEvent event, String siteUrl) {
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+        renderTo(out, event, siteUrl);
+        String result = out.toString();
+        if (out.capacity() > MAX_RETAINED_CAPACITY) {
+            BUFFER.remove();
+        }
+        return result;
+    }
+
+    /**
+     * Дописывает результат подстановки в out
+     */
+    public void renderTo(StringBuilder out, UserEvent event, String siteUrl) {
+        for (Segment segment : segments) {
+            if (segment.variable == null) {
+                out.append(segment.text);
+                continue;
+            }
+            String value = segment.variable.resolve(event, siteUrl);
+            boolean present = value != null && !value.isEmpty();
+            switch (segment.kind) {
+                case VALUE:
+                    if (present) {
+                        out.append(value);
+                    }
+                    break;
+                case DEFAULT:
+                    out.append(present ? value : segment.text);
+                    break;
+                case PREFIXED:
+                    if (present) {
+                        out.append(segment.text).append(value);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Неизвестный вид подстановки: " + segment.kind);
+            }
+        }
+    }
+
+    private enum Kind {
+        LITERAL,
+        VALUE,
+        DEFAULT,
+        PREFIXED
+    }
+
+    private static final class Segment {
+
+        private final Kind kind;
+        private final TemplateVariable variable;
+        private final String text;
+
+        private Segment(Kind kind, TemplateVariable variable, String text) {
+            this.kind = kind;
+            this.variable = variable;
+            this.text = text;
+        }
+
+        static Segment literal(String text) {
+            return new Segment(Kind.LITERAL, null, text);
+        }
+
+        static Segment placeholder(String expression) {
+            int defaultIndex = expression.indexOf(":-");
+            if (defaultIndex >= 0) {
+                return new Segment(Kind.DEFAULT, variable(expression.substring(0, defaultIndex)),
+                        expression.substring(defaultIndex + 2));
+            }
+            int prefixIndex = expression.indexOf(":+");
+            if (prefixIndex >= 0) {
+                return new Segment(Kind.PREFIXED, variable(expression.substring(0, prefixIndex)),
+                        expression.substring(prefixIndex + 2));
+            }
+            return new Segment(Kind.VALUE, variable(expression), null);
+        }
+
+        private static TemplateVariable variable(String name) {
+            return TemplateVariable.byPlaceholder(name.trim());
+        }
+    }
+}
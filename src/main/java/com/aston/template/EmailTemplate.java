@@ -0,0 +1,18 @@
+package com.aston.template;
+
+import com.aston.dto.UserEvent;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Скомпилированный шаблон письма: тема и текст
+ */
+@Getter
+@RequiredArgsConstructor
+public class EmailTemplate {
+
+    private final UserEvent.EventType eventType;
+    private final String locale;
+    private final CompiledTemplate subject;
+    private final CompiledTemplate body;
+}
@@ -0,0 +1,111 @@
+package com.aston.template;
+
+import com.aston.dto.UserEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Реестр шаблонов писем.
+ *
+ * Шаблоны загружаются один раз при старте из classpath:templates/email/ и сразу компилируются.
+ * Имя файла - {@code <ТИП_СОБЫТИЯ>.<локаль>.tmpl}, первая строка - {@code Subject: тема},
+ * после пустой строки идет текст письма. Шаблоны ищутся по {@link UserEvent.EventType}, поэтому
+ * новому типу события нужны и константа перечисления, и файл шаблона; файл с именем
+ * неизвестного типа пропускается с предупреждением. Новая локаль для существующего типа
+ * добавляется одним файлом
+ */
+@Slf4j
+@Component
+public class EmailTemplateRegistry {
+
+    static final String LOCATION = "classpath*:templates/email/*.tmpl";
+    private static final String EXTENSION = ".tmpl";
+    private static final String SUBJECT_HEADER = "Subject:";
+
+    private final Map<UserEvent.EventType, Map<String, EmailTemplate>> templates =
+            new EnumMap<>(UserEvent.EventType.class);
+    private final String defaultLocale;
+
+    public EmailTemplateRegistry(@Value("${app.email.locale:ru}") String defaultLocale) throws IOException {
+        this.defaultLocale = defaultLocale;
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources(LOCATION)) {
+            load(resource);
+        }
+        log.info("Загружено шаблонов писем: {}", templates.values().stream().mapToInt(Map::size).sum());
+    }
+
+    /**
+     * Шаблон для типа события и локали, при отсутствии локали - для локали по умолчанию
+     */
+    public EmailTemplate get(UserEvent.EventType eventType, String locale) {
+        Map<String, EmailTemplate> byLocale = templates.get(eventType);
+        if (byLocale != null) {
+            EmailTemplate template = locale != null ? byLocale.get(locale) : null;
+            if (template == null) {
+                template = byLocale.get(defaultLocale);
+            }
+            if (template != null) {
+                return template;
+            }
+        }
+        throw new IllegalArgumentException("Нет шаблона письма для события: " + eventType);
+    }
+
+    public EmailTemplate get(UserEvent.EventType eventType) {
+        return get(eventType, defaultLocale);
+    }
+
+    private void load(Resource resource) throws IOException {
+        String filename = resource.getFilename();
+        if (filename == null || !filename.endsWith(EXTENSION)) {
+            return;
+        }
+        String[] parts = filename.substring(0, filename.length() - EXTENSION.length()).split("\\.");
+        if (parts.length != 2) {
+            log.warn("Пропущен шаблон с некорректным именем: {}", filename);
+            return;
+        }
+
+        UserEvent.EventType eventType;
+        try {
+            eventType = UserEvent.EventType.valueOf(parts[0]);
+        } catch (IllegalArgumentException e) {
+            log.warn("Пропущен шаблон для неизвестного типа события: {}", filename);
+            return;
+        }
+
+        String content;
+        try (InputStream in = resource.getInputStream()) {
+            content = StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        }
+        EmailTemplate template = parse(eventType, parts[1], content);
+        templates.computeIfAbsent(eventType, type -> new HashMap<>()).put(parts[1], template);
+        log.debug("Загружен шаблон письма {} ({})", eventType, parts[1]);
+    }
+
+    static EmailTemplate parse(UserEvent.EventType eventType, String locale, String content) {
+        String normalized = content.replace("\r\n", "\n");
+        int headerEnd = normalized.indexOf("\n\n");
+        if (!normalized.startsWith(SUBJECT_HEADER) || headerEnd < 0) {
+            throw new IllegalArgumentException("Шаблон " + eventType + "." + locale
+                    + " должен начинаться со строки 'Subject:' и пустой строки");
+        }
+        String subject = normalized.substring(SUBJECT_HEADER.length(), headerEnd).trim();
+        String body = normalized.substring(headerEnd + 2);
+        if (body.endsWith("\n")) {
+            body = body.substring(0, body.length() - 1);
+        }
+        return new EmailTemplate(eventType, locale, CompiledTemplate.compile(subject), CompiledTemplate.compile(body));
+    }
+}
@@ -0,0 +1,51 @@
+package com.aston.template;
+
+import com.aston.dto.UserEvent;
+
+/**
+ * Переменные, доступные в шаблонах писем
+ */
+public enum TemplateVariable {
+
+    NAME("name"),
+    EMAIL("email"),
+    ID("id"),
+    SITE_URL("siteUrl");
+
+    private final String placeholder;
+
+    TemplateVariable(String placeholder) {
+        this.placeholder = placeholder;
+    }
+
+    public String getPlaceholder() {
+        return placeholder;
+    }
+
+    /**
+     * Значение переменной для события, null - значение отсутствует
+     */
+    public String resolve(UserEvent event, String siteUrl) {
+        switch (this) {
+            case NAME:
+                return event.getName();
+            case EMAIL:
+                return event.getEmail();
+            case ID:
+                return event.getId() != null ? event.getId().toString() : null;
+            case SITE_URL:
+                return siteUrl;
+            default:
+                throw new IllegalStateException("Неизвестная переменная шаблона: " + this);
+        }
+    }
+
+    public static TemplateVariable byPlaceholder(String placeholder) {
+        for (TemplateVariable variable : values()) {
+            if (variable.placeholder.equals(placeholder)) {
+                return variable;
+            }
+        }
+        throw new IllegalArgumentException("Неизвестная переменная шаблона: " + placeholder);
+    }
+}
@@ -0,0 +1,85 @@
+package com.aston.controller;
+
+import com.aston.dto.EmailRequest;
+import com.aston.handler.ReactiveExceptionHandler;
+import com.aston.mail.RelayGuard;
+import com.aston.mail.RelayUnavailableException;
+import com.aston.service.EmailService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ReactiveNotificationControllerTest {
+
+    private final EmailService emailService = mock(EmailService.class);
+    private Scheduler smtpScheduler;
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() {
+        smtpScheduler = Schedulers.newBoundedElastic(2, 10, "smtp-test");
+        ReactiveNotificationController controller = new ReactiveNotificationController(emailService, smtpScheduler,
+                new StaticListableBeanFactory().getBeanProvider(RelayGuard.class));
+        client = WebTestClient.bindToController(controller)
+                .controllerAdvice(new ReactiveExceptionHandler())
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        smtpScheduler.dispose();
+    }
+
+    @Test
+    void testSendsOnSmtpScheduler() {
+        AtomicReference<String> sendThread = new AtomicReference<>();
+        doAnswer(invocation -> {
+            sendThread.set(Thread.currentThread().getName());
+            return null;
+        }).when(emailService).sendUserCreatedEmail("user@example.com", "Иван");
+
+        client.post().uri("/api/v1/notifications/email")
+                .bodyValue(new EmailRequest("user@example.com", "Иван"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.status").isEqualTo("SUCCESS")
+                .jsonPath("$.sentAt").exists();
+
+        assertThat(sendThread.get()).startsWith("smtp-test");
+    }
+
+    @Test
+    void testRejectsInvalidRequest() {
+        client.post().uri("/api/v1/notifications/email")
+                .bodyValue(new EmailRequest("not-an-email", "Иван"))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.details.toEmail").exists();
+
+        verify(emailService, never()).sendUserCreatedEmail(any(), any());
+    }
+
+    @Test
+    void testRelayOutageReturnsServiceUnavailable() {
+        doThrow(new RelayUnavailableException("SMTP-релей недоступен", 7))
+                .when(emailService).sendUserCreatedEmail(any(), any());
+
+        client.post().uri("/api/v1/notifications/test-email")
+                .exchange()
+                .expectStatus().isEqualTo(503)
+                .expectHeader().valueEquals(HttpHeaders.RETRY_AFTER, "7");
+    }
+}
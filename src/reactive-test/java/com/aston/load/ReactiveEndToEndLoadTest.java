@@ -0,0 +1,19 @@
+package com.aston.load;
+
+import com.aston.NotificationServiceApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ * Реактивный профиль при той же нагрузке: события читает ReactiveUserEventReceiver (reactor-kafka)
+ */
+@SpringBootTest(classes = NotificationServiceApplication.class,
+        properties = "spring.main.web-application-type=reactive")
+@ActiveProfiles({"test", "load", "reactive"})
+class ReactiveEndToEndLoadTest extends AbstractEndToEndLoadTest {
+
+    @Override
+    protected String scenario() {
+        return "kafka-to-smtp-reactive";
+    }
+}
@@ -0,0 +1,65 @@
+package com.aston.config;
+
+import com.aston.dto.UserEvent;
+import com.aston.metrics.NotificationMetrics;
+import com.aston.metrics.TimedUserEventDeserializer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.core.ConsumerFactory;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.kafka.receiver.ReceiverOptions;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Реактивный профиль (application-reactive.yml): WebFlux-контроллер и чтение Kafka
+ * через reactor-kafka.
+ *
+ * Блокирующие вызовы JavaMailSender выполняются на отдельном ограниченном планировщике:
+ * потоков не больше smtp-threads, задач в очереди не больше smtp-queue-capacity,
+ * поэтому медленный релей не отнимает потоки обработки запросов и чтения Kafka,
+ * а память не растет с числом ожидающих отправок
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.reactive.enabled", havingValue = "true")
+public class ReactiveConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public Scheduler smtpScheduler(
+            @Value("${app.reactive.smtp-threads:64}") int threads,
+            @Value("${app.reactive.smtp-queue-capacity:10000}") int queueCapacity) {
+        return Schedulers.newBoundedElastic(threads, queueCapacity, "smtp-reactive");
+    }
+
+    /**
+     * Настройки чтения топика событий через reactor-kafka: те же, что у контейнеров
+     * spring-kafka, но записей за poll не больше max-poll-records. Подтверждения приходят
+     * не по порядку, и оффсет коммитится только до первой необработанной записи партиции;
+     * при max-deferred-commits неподтвержденных записях чтение приостанавливается
+     */
+    @Bean
+    public ReceiverOptions<String, UserEvent> userEventReceiverOptions(
+            ConsumerFactory<String, UserEvent> consumerFactory,
+            NotificationMetrics metrics,
+            @Value("${kafka.topics.user-events}") String topic,
+            @Value("${kafka.consumer.reactive.max-poll-records:100}") int maxPollRecords,
+            @Value("${kafka.consumer.reactive.commit-interval:1s}") Duration commitInterval,
+            @Value("${kafka.consumer.reactive.max-deferred-commits:1000}") int maxDeferredCommits) {
+        Map<String, Object> props = new HashMap<>(consumerFactory.getConfigurationProperties());
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        return ReceiverOptions.<String, UserEvent>create(props)
+                .withKeyDeserializer(new StringDeserializer())
+                .withValueDeserializer(new TimedUserEventDeserializer(KafkaConfig.userEventDeserializer(), metrics))
+                .commitInterval(commitInterval)
+                .maxDeferredCommits(maxDeferredCommits)
+                .subscription(Collections.singletonList(topic));
+    }
+}
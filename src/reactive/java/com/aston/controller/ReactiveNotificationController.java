@@ -0,0 +1,167 @@
+package com.aston.controller;
+
+import com.aston.dto.EmailRequest;
+import com.aston.dto.EmailResponse;
+import com.aston.mail.RelayGuard;
+import com.aston.service.EmailService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import javax.validation.Valid;
+import java.time.LocalDateTime;
+
+/**
+ * WebFlux-вариант {@link NotificationController} для реактивного профиля.
+ *
+ * Поток обработки запросов не блокируется: отправка письма выполняется на ограниченном
+ * планировщике smtpScheduler, и запрос, ожидающий медленный релей, не держит поток.
+ * Здесь только отправка и статус; пакетная отправка, задания и DLT доступны в профиле MVC
+ */
+@Slf4j
+@Validated
+@RestController
+@RequestMapping("/api/v1/notifications")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@ConditionalOnProperty(name = "app.reactive.enabled", havingValue = "true")
+public class ReactiveNotificationController {
+
+    private static final String BASE_PATH = "/api/v1/notifications";
+    private static final String TEST_EMAIL = "test@example.com";
+
+    private final EmailService emailService;
+    private final Scheduler smtpScheduler;
+    private final ObjectProvider<RelayGuard> relayGuard;
+    private final LocalDateTime startedAt = LocalDateTime.now();
+
+    public ReactiveNotificationController(EmailService emailService,
+                                          Scheduler smtpScheduler,
+                                          ObjectProvider<RelayGuard> relayGuard) {
+        this.emailService = emailService;
+        this.smtpScheduler = smtpScheduler;
+        this.relayGuard = relayGuard;
+    }
+
+    @PostMapping("/email")
+    public Mono<ResponseEntity<EmailResponse>> sendEmail(@Valid @RequestBody EmailRequest request,
+                                                         ServerHttpRequest httpRequest) {
+
+        log.info("POST /api/v1/notifications/email - Отправка email на адрес: {}", request.getToEmail());
+        String base = baseUri(httpRequest);
+
+        EmailResponse response = EmailResponse.builder()
+                .status("SUCCESS")
+                .message("Email успешно отправлен")
+                .toEmail(request.getToEmail())
+                .emailType("USER_CREATED_NOTIFICATION")
+                .build();
+        response.add(Link.of(base + "/email", IanaLinkRelations.SELF));
+        response.add(Link.of(base + "/status", "status"));
+        response.add(Link.of(base + "/test-email", "test-email"));
+
+        return send(request.getToEmail(), request.getUserName(), response);
+    }
+
+    @PostMapping("/test-email")
+    public Mono<ResponseEntity<EmailResponse>> sendTestEmail(ServerHttpRequest httpRequest) {
+
+        log.info("POST /api/v1/notifications/test-email - Отправка тестового email");
+        String base = baseUri(httpRequest);
+
+        EmailResponse response = EmailResponse.builder()
+                .status("SUCCESS")
+                .message("Тестовый email успешно отправлен")
+                .toEmail(TEST_EMAIL)
+                .emailType("TEST_NOTIFICATION")
+                .build();
+        response.add(Link.of(base + "/test-email", IanaLinkRelations.SELF));
+        response.add(Link.of(base + "/status", "status"));
+        response.add(Link.of(base + "/email", "send-email"));
+
+        return send(TEST_EMAIL, "Тестовый пользователь", response);
+    }
+
+    @GetMapping("/status")
+    public ResponseEntity<EmailResponse> getServiceStatus(ServerHttpRequest httpRequest) {
+
+        log.debug("GET /api/v1/notifications/status - Получение статуса сервиса");
+        String base = baseUri(httpRequest);
+
+        RelayGuard guard = relayGuard.getIfAvailable();
+        RelayGuard.State state = guard != null ? guard.getState() : RelayGuard.State.CLOSED;
+        EmailResponse.EmailResponseBuilder builder = EmailResponse.builder()
+                .sentAt(LocalDateTime.now())
+                .relayState(state.name());
+        if (guard != null) {
+            builder.concurrencyLimit(guard.getLimit()).inFlightSends(guard.getInFlight());
+        }
+        if (state == RelayGuard.State.CLOSED) {
+            builder.status("RUNNING").message("Сервис уведомлений работает нормально");
+        } else if (state == RelayGuard.State.HALF_OPEN) {
+            builder.status("DEGRADED").message("SMTP-релей проверяется пробной отправкой");
+        } else {
+            builder.status("DEGRADED").message("SMTP-релей недоступен, отправки отложены на "
+                    + guard.getRetryAfterSeconds() + " с");
+        }
+        EmailResponse response = builder.build();
+        response.add(Link.of(base + "/status", IanaLinkRelations.SELF));
+        response.add(Link.of(base + "/test-email", "test-email"));
+        response.add(Link.of(base + "/email", "send-email"));
+
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping
+    public ResponseEntity<EmailResponse> getServiceInfo(ServerHttpRequest httpRequest) {
+
+        log.debug("GET /api/v1/notifications - Получение информации о сервисе");
+        String base = baseUri(httpRequest);
+
+        EmailResponse response = EmailResponse.builder()
+                .status("AVAILABLE")
+                .message("Сервис уведомлений готов к работе")
+                .sentAt(startedAt)
+                .build();
+        response.add(Link.of(base, IanaLinkRelations.SELF));
+        response.add(Link.of(base + "/status", "status"));
+        response.add(Link.of(base + "/test-email", "test-email"));
+        response.add(Link.of(base + "/email", "send-email"));
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Отправляет письмо на планировщике отправок; ошибки обрабатывает {@link com.aston.handler.ReactiveExceptionHandler}
+     */
+    private Mono<ResponseEntity<EmailResponse>> send(String toEmail, String userName, EmailResponse response) {
+        return Mono.fromCallable(() -> {
+                    emailService.sendUserCreatedEmail(toEmail, userName);
+                    response.setSentAt(LocalDateTime.now());
+                    return ResponseEntity.ok(response);
+                })
+                .subscribeOn(smtpScheduler);
+    }
+
+    private static String baseUri(ServerHttpRequest request) {
+        return UriComponentsBuilder.fromUri(request.getURI())
+                .replacePath(request.getPath().contextPath().value() + BASE_PATH)
+                .replaceQuery(null)
+                .fragment(null)
+                .build()
+                .toUriString();
+    }
+}
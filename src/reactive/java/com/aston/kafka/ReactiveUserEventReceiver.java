@@ -0,0 +1,285 @@
+package com.aston.kafka;
+
+import com.aston.channel.ChannelDeliveryException;
+import com.aston.channel.ChannelRouter;
+import com.aston.dto.UserEvent;
+import com.aston.mail.SendDeferredException;
+import com.aston.metrics.NotificationMetrics;
+import com.aston.metrics.NotificationMetrics.Outcome;
+import com.aston.metrics.NotificationMetrics.Stage;
+import com.aston.outbox.Outbox;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.kafka.receiver.KafkaReceiver;
+import reactor.kafka.receiver.ReceiverOptions;
+import reactor.kafka.receiver.ReceiverRecord;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Чтение топика событий через reactor-kafka вместо {@link UserEventConsumer}
+ * (app.reactive.enabled=true).
+ *
+ * Записи читаются по запросу: события распределяются по lanes полосам по пользователю,
+ * в полосе обрабатываются по порядку, полосы - параллельно, а доставляют их каналы маршрута
+ * {@link ChannelRouter}. Пока все полосы ждут каналов, новые записи не запрашиваются,
+ * и reactor-kafka приостанавливает потребителя, так что чтение идет со скоростью доставки,
+ * а в памяти, кроме lanes обрабатываемых событий, лежит только ограниченный буфер прочитанных записей.
+ *
+ * Каналы со сбоем публикуются в топик отложенного повтора {@link RetryTopicRouter}, и повтор
+ * доставляет событие только им; запись подтверждается после доставки или публикации.
+ * Отложенная каналом доставка (размыкатель релея открыт, лимит скорости, заполненная очередь канала)
+ * на повтор не публикуется: полоса ждет указанное время и повторяет только отложившие каналы,
+ * а пока ждут все полосы, записи не запрашиваются, и чтение стоит на паузе, как контейнеры при
+ * {@link RelayOutageListenerControl}. Публикация на повтор выполняется на планировщике smtpScheduler;
+ * если его очередь заполнена запросами HTTP, полоса ждет: отказ планировщика - это обратное
+ * давление, а не ошибка события.
+ * При ошибке потребителя или
+ * публикации на повтор чтение перезапускается с нарастающей задержкой; неподтвержденные
+ * записи будут прочитаны снова.
+ * Высокоприоритетный топик в этом режиме не читается.
+ *
+ * При остановке новые записи больше не обрабатываются и остаются неподтвержденными,
+ * начатые обработки завершаются не дольше app.lifecycle.drain-timeout, и только затем
+ * потребитель закрывается и фиксирует подтвержденные смещения
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.reactive.enabled", havingValue = "true")
+public class ReactiveUserEventReceiver implements SmartLifecycle {
+
+    /**
+     * Через сколько полоса снова ставит задачу в заполненную очередь smtpScheduler
+     */
+    private static final Duration BUSY_RETRY_DELAY = Duration.ofMillis(50);
+
+    private final ReceiverOptions<String, UserEvent> options;
+    private final ChannelRouter channelRouter;
+    private final NotificationMetrics metrics;
+    private final RetryTopicRouter retryRouter;
+    private final Scheduler smtpScheduler;
+    private final int lanes;
+    private final long drainTimeoutNanos;
+
+    /**
+     * Очередь исходящих уведомлений на диске, null - события доставляются при обработке записи
+     */
+    private final Outbox outbox;
+
+    private Disposable subscription;
+
+    /**
+     * Записи, обработка которых начата и еще не подтверждена
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean draining;
+
+    public ReactiveUserEventReceiver(ReceiverOptions<String, UserEvent> options,
+                                     ChannelRouter channelRouter,
+                                     NotificationMetrics metrics,
+                                     RetryTopicRouter retryRouter,
+                                     Scheduler smtpScheduler,
+                                     @Value("${kafka.consumer.reactive.lanes:64}") int lanes,
+                                     @Value("${app.lifecycle.drain-timeout:30s}") Duration drainTimeout,
+                                     ObjectProvider<Outbox> outbox) {
+        this.options = options;
+        this.channelRouter = channelRouter;
+        this.metrics = metrics;
+        this.retryRouter = retryRouter;
+        this.smtpScheduler = smtpScheduler;
+        this.lanes = Math.max(1, lanes);
+        this.drainTimeoutNanos = drainTimeout.toNanos();
+        this.outbox = outbox.getIfAvailable();
+    }
+
+    @Override
+    public synchronized void start() {
+        if (subscription != null) {
+            return;
+        }
+        draining = false;
+        subscription = KafkaReceiver.create(options)
+                .receive()
+                .groupBy(this::lane)
+                .flatMap(lane -> lane.concatMap(this::process, 1), lanes, 1)
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30))
+                        .doBeforeRetry(signal -> log.error("Ошибка чтения топика событий, повтор {}: {}",
+                                signal.totalRetries() + 1, signal.failure().getMessage())))
+                .subscribe();
+        log.info("Запущено реактивное чтение топика {}: полос {}", options.subscriptionTopics(), lanes);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (subscription != null) {
+            drain();
+            subscription.dispose();
+            subscription = null;
+        }
+    }
+
+    /**
+     * Сливает в отдельном потоке, чтобы остальные участники фазы останавливались одновременно
+     */
+    @Override
+    public void stop(Runnable callback) {
+        Thread thread = new Thread(() -> {
+            try {
+                stop();
+            } finally {
+                callback.run();
+            }
+        }, "reactive-receiver-drain");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void drain() {
+        draining = true;
+        long deadline = System.nanoTime() + drainTimeoutNanos;
+        while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (inFlight.get() > 0) {
+            log.warn("Обработка не завершилась за {} мс, неподтвержденных записей {}; они будут прочитаны снова",
+                    TimeUnit.NANOSECONDS.toMillis(drainTimeoutNanos), inFlight.get());
+        } else {
+            log.info("Реактивное чтение остановлено, начатые записи обработаны");
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return subscription != null;
+    }
+
+    /**
+     * Доставляет событие каналами и подтверждает запись. С очередью исходящих
+     * уведомлений запись подтверждается после общего сброса журнала на диск.
+     * Отложенная при остановке запись не подтверждается и будет прочитана снова
+     */
+    private Mono<Void> process(ReceiverRecord<String, UserEvent> record) {
+        if (draining) {
+            // Запись без подтверждения будет прочитана снова после перезапуска
+            return Mono.empty();
+        }
+        if (record.value() == null) {
+            log.warn("Пропущена пустая запись {}-{}@{}", record.topic(), record.partition(), record.offset());
+            record.receiverOffset().acknowledge();
+            return Mono.empty();
+        }
+        inFlight.incrementAndGet();
+        Mono<Boolean> handled = outbox != null
+                ? Mono.fromFuture(() -> outbox.submitAsync(record.value(), RetryTopicRouter.channelsOf(record)))
+                        .thenReturn(true)
+                        .onErrorResume(e -> routeToRetry(record, e).thenReturn(true))
+                : deliver(record);
+        return handled
+                .doOnNext(processed -> {
+                    if (processed) {
+                        record.receiverOffset().acknowledge();
+                    }
+                })
+                .doFinally(signal -> inFlight.decrementAndGet())
+                .then();
+    }
+
+    /**
+     * Доставляет событие каналами маршрута. Каналы, отложившие доставку, повторяются
+     * после паузы только сами; ошибки остальных каналов копятся до конца доставки
+     *
+     * @return true - запись можно подтвердить, false - доставка отложена при остановке
+     */
+    private Mono<Boolean> deliver(ReceiverRecord<String, UserEvent> record) {
+        UserEvent event = record.value();
+        long start = metrics.start();
+        AtomicReference<List<String>> channels = new AtomicReference<>(RetryTopicRouter.channelsOf(record));
+        AtomicReference<ChannelDeliveryException> failed = new AtomicReference<>();
+        return Mono.fromFuture(() -> channelRouter.dispatch(event, channels.get()))
+                .onErrorMap(ChannelDeliveryException.class, e -> {
+                    ChannelDeliveryException rest = failed.accumulateAndGet(e.withoutDeferred(),
+                            ChannelDeliveryException::merge);
+                    if (!e.isDeferred()) {
+                        return rest;
+                    }
+                    channels.set(e.getDeferredChannels());
+                    return new SendDeferredException(e.getMessage(), e.getRetryAfterMillis());
+                })
+                .retryWhen(whileDeferred())
+                .then(Mono.defer(() -> failed.get() != null ? Mono.<Void>error(failed.get()) : Mono.<Void>empty()))
+                .then(Mono.fromCallable(() -> {
+                    metrics.record(Stage.HANDLE, event.getEventType(), Outcome.SUCCESS, start);
+                    return true;
+                }))
+                .onErrorResume(e -> {
+                    if (e instanceof SendDeferredException) {
+                        log.info("Доставка события {} отложена при остановке: {}", event.getEventType(), e.getMessage());
+                        return Mono.just(false);
+                    }
+                    if (e instanceof IllegalArgumentException
+                            || e instanceof ChannelDeliveryException && ((ChannelDeliveryException) e).isRejected()) {
+                        metrics.record(Stage.HANDLE, event.getEventType(), Outcome.SKIPPED, start);
+                        log.warn("Событие {} пропущено: {}", event.getEventType(), e.getMessage());
+                        return Mono.just(true);
+                    }
+                    metrics.record(Stage.HANDLE, event.getEventType(), Outcome.FAILURE, start);
+                    log.error("Ошибка при обработке события {}: {}", event.getEventType(), e.getMessage());
+                    return routeToRetry(record, e).thenReturn(true);
+                });
+    }
+
+    /**
+     * Повторяет доставку, отложенную каналом, через указанное исключением время,
+     * а публикацию, отвергнутую заполненным планировщиком, - через BUSY_RETRY_DELAY.
+     * При остановке отложенная доставка больше не ждет
+     */
+    private Retry whileDeferred() {
+        return Retry.from(signals -> signals.concatMap(signal -> {
+            Throwable failure = signal.failure();
+            if (failure instanceof SendDeferredException && !draining) {
+                return Mono.delay(Duration.ofMillis(((SendDeferredException) failure).getRetryAfterMillis()));
+            }
+            if (failure instanceof RejectedExecutionException) {
+                return Mono.delay(BUSY_RETRY_DELAY);
+            }
+            return Mono.error(failure);
+        }));
+    }
+
+    /**
+     * Публикует событие на повтор. Если публикация не удалась, ошибка завершает чтение
+     * без подтверждения записи, и после перезапуска чтения запись будет прочитана снова
+     */
+    private Mono<Void> routeToRetry(ReceiverRecord<String, UserEvent> record, Throwable cause) {
+        return Mono.<Void>fromRunnable(() -> retryRouter.route(record,
+                        cause instanceof Exception ? (Exception) cause : new RuntimeException(cause)))
+                .subscribeOn(smtpScheduler)
+                .retryWhen(whileDeferred())
+                .doOnError(e -> log.error("Событие {}-{}@{} не обработано и не отправлено на повтор, запись не подтверждена: {}",
+                        record.topic(), record.partition(), record.offset(), e.getMessage()));
+    }
+
+    private int lane(ReceiverRecord<String, UserEvent> record) {
+        Object key = record.value() != null ? UserEventConsumer.orderingKey(record) : record.key();
+        return key != null ? Math.floorMod(key.hashCode(), lanes) : record.partition() % lanes;
+    }
+}
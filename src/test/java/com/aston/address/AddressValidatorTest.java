@@ -0,0 +1,252 @@
+package com.aston.address;
+
+import com.aston.exception.InvalidAddressException;
+import com.aston.exception.InvalidAddressException.Reason;
+import com.aston.support.StubDnsServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AddressValidatorTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final MutableClock clock = new MutableClock();
+
+    @Test
+    void testNormalizesValidAddresses() {
+        String normalized = "user@example.com";
+        assertThat(AddressNormalizer.normalize(normalized)).isSameAs(normalized);
+        assertThat(AddressNormalizer.normalize("  First.Last+tag@Mail.Example.COM. "))
+                .isEqualTo("First.Last+tag@mail.example.com");
+        assertThat(AddressNormalizer.normalize("o'brien_{x}@sub-1.example.org")).isEqualTo("o'brien_{x}@sub-1.example.org");
+        assertThat(AddressNormalizer.normalize("user@пример.рф")).isEqualTo("user@xn--e1afmkfd.xn--p1ai");
+        assertThat(AddressNormalizer.normalize("a".repeat(64) + "@example.com")).hasSize(76);
+    }
+
+    @Test
+    void testRejectsMalformedAddresses() {
+        String[] invalid = {
+                null, "", "   ", "user", "@example.com", "user@", "user@@example.com", "user@localhost",
+                ".user@example.com", "user.@example.com", "us..er@example.com", "us er@example.com",
+                "\"quoted\"@example.com", "юзер@example.com", "user@-example.com", "user@example-.com",
+                "user@exa_mple.com", "user@example..com", "user@[192.0.2.1]", "user@192.0.2.1",
+                "a".repeat(65) + "@example.com", "user@" + "a".repeat(64) + ".com",
+                "user@" + ("a".repeat(60) + ".").repeat(5) + "com"
+        };
+        for (String address : invalid) {
+            assertThatThrownBy(() -> AddressNormalizer.normalize(address))
+                    .as(address)
+                    .isInstanceOfSatisfying(InvalidAddressException.class,
+                            e -> assertThat(e.getReason()).isEqualTo(Reason.SYNTAX));
+        }
+    }
+
+    @Test
+    void testCachesVerdictsWithSeparateTtls() {
+        Map<String, DomainVerdict> verdicts = Map.of(
+                "good.test", DomainVerdict.ACCEPTS_MAIL,
+                "nomail.test", DomainVerdict.NO_MAIL,
+                "flaky.test", DomainVerdict.UNKNOWN);
+        Map<String, AtomicInteger> lookups = new ConcurrentHashMap<>();
+        DomainVerdictCache cache = cache(domain -> {
+            lookups.computeIfAbsent(domain, ignored -> new AtomicInteger()).incrementAndGet();
+            return verdicts.get(domain);
+        }, 100);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(cache.verdict("good.test")).isEqualTo(DomainVerdict.ACCEPTS_MAIL);
+            assertThat(cache.verdict("nomail.test")).isEqualTo(DomainVerdict.NO_MAIL);
+            assertThat(cache.verdict("flaky.test")).isEqualTo(DomainVerdict.UNKNOWN);
+        }
+        assertThat(lookups.get("good.test")).hasValue(1);
+        assertThat(lookups.get("nomail.test")).hasValue(1);
+        assertThat(cache.hitRatio()).isEqualTo(27 / 30.0);
+        assertThat(registry.get("notification.address.domain.cache.hit-ratio").gauge().value()).isEqualTo(0.9);
+
+        // UNKNOWN живет 30 с, отрицательный вердикт 15 мин, положительный 1 ч
+        clock.advance(Duration.ofMinutes(1));
+        cache.verdict("good.test");
+        cache.verdict("nomail.test");
+        cache.verdict("flaky.test");
+        assertThat(lookups.get("good.test")).hasValue(1);
+        assertThat(lookups.get("nomail.test")).hasValue(1);
+        assertThat(lookups.get("flaky.test")).hasValue(2);
+
+        clock.advance(Duration.ofMinutes(15));
+        cache.verdict("good.test");
+        cache.verdict("nomail.test");
+        assertThat(lookups.get("good.test")).hasValue(1);
+        assertThat(lookups.get("nomail.test")).hasValue(2);
+        assertThat(registry.get("notification.address.domain.cache").tag("result", "miss").functionCounter().count())
+                .isEqualTo(5);
+    }
+
+    @Test
+    void testResolvesDomainOnceForConcurrentMisses() throws Exception {
+        CountDownLatch resolving = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger lookups = new AtomicInteger();
+        DomainVerdictCache cache = cache(domain -> {
+            lookups.incrementAndGet();
+            resolving.countDown();
+            await(release);
+            return DomainVerdict.ACCEPTS_MAIL;
+        }, 100);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<DomainVerdict> first = executor.submit(() -> cache.verdict("slow.test"));
+            assertThat(resolving.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<?>[] others = new Future<?>[7];
+            for (int i = 0; i < others.length; i++) {
+                others[i] = executor.submit(() -> cache.verdict("slow.test"));
+            }
+            Thread.sleep(50);
+            release.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(DomainVerdict.ACCEPTS_MAIL);
+            for (Future<?> other : others) {
+                assertThat(other.get(5, TimeUnit.SECONDS)).isEqualTo(DomainVerdict.ACCEPTS_MAIL);
+            }
+            assertThat(lookups).hasValue(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testSlowResolutionDoesNotHoldCaller() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger lookups = new AtomicInteger();
+        try (DomainVerdictCache cache = new DomainVerdictCache(domain -> {
+            lookups.incrementAndGet();
+            await(release);
+            return DomainVerdict.NO_MAIL;
+        }, 100, Duration.ofHours(1), Duration.ofMinutes(15), Duration.ofSeconds(30), registry, clock,
+                1, Duration.ofMillis(50))) {
+            long start = System.nanoTime();
+            assertThat(cache.verdict("slow.test")).isEqualTo(DomainVerdict.UNKNOWN);
+            assertThat(cache.verdict("slow.test")).isEqualTo(DomainVerdict.UNKNOWN);
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+            assertThat(registry.get("notification.address.domain.lookup.timeouts").counter().count()).isEqualTo(2);
+
+            release.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (cache.size() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(cache.verdict("slow.test")).isEqualTo(DomainVerdict.NO_MAIL);
+            assertThat(lookups).hasValue(1);
+        }
+    }
+
+    @Test
+    void testBoundedSizeAndResolverFailureIsUnknown() {
+        DomainVerdictCache cache = cache(domain -> {
+            if (domain.startsWith("broken")) {
+                throw new IllegalStateException("DNS недоступен");
+            }
+            return DomainVerdict.ACCEPTS_MAIL;
+        }, 50);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.verdict("d" + i + ".test");
+            assertThat(cache.size()).isLessThanOrEqualTo(50);
+        }
+        assertThat(cache.verdict("broken.test")).isEqualTo(DomainVerdict.UNKNOWN);
+    }
+
+    @Test
+    void testValidatorRejectsDomainsWithoutMail() {
+        DomainVerdictCache cache = cache(domain -> domain.equals("nomail.test")
+                ? DomainVerdict.NO_MAIL : DomainVerdict.ACCEPTS_MAIL, 100);
+        AddressValidator validator = new AddressValidator(cache, Set.of("trusted.test"), registry);
+
+        assertThat(validator.validate("User@Good.Test")).isEqualTo("User@good.test");
+        assertThatThrownBy(() -> validator.validate("user@NoMail.test"))
+                .isInstanceOfSatisfying(InvalidAddressException.class,
+                        e -> assertThat(e.getReason()).isEqualTo(Reason.NO_MAIL));
+        assertThatThrownBy(() -> validator.validate("not-an-address"))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        AddressValidator trusting = new AddressValidator(cache(domain -> DomainVerdict.NO_MAIL, 100),
+                Set.of("trusted.test"), new SimpleMeterRegistry());
+        assertThat(trusting.validate("user@trusted.test")).isEqualTo("user@trusted.test");
+
+        assertThat(registry.get("notification.address.rejected").tag("reason", "no_mail").counter().count()).isEqualTo(1);
+        assertThat(registry.get("notification.address.rejected").tag("reason", "syntax").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void testJndiResolverAgainstStubDns() {
+        try (StubDnsServer dns = StubDnsServer.start()
+                .mx("mail.test", 10, "mx.mail.test")
+                .nullMx("nullmx.test")
+                .a("implicit.test", "192.0.2.1")
+                .empty("nothing.test")
+                .silent("timeout.test")) {
+            JndiDomainResolver resolver = new JndiDomainResolver(dns.getUrl(), Duration.ofMillis(200), 1);
+
+            assertThat(resolver.resolve("mail.test")).isEqualTo(DomainVerdict.ACCEPTS_MAIL);
+            assertThat(resolver.resolve("nullmx.test")).isEqualTo(DomainVerdict.NO_MAIL);
+            assertThat(resolver.resolve("implicit.test")).isEqualTo(DomainVerdict.ACCEPTS_MAIL);
+            assertThat(resolver.resolve("nothing.test")).isEqualTo(DomainVerdict.NO_MAIL);
+            assertThat(resolver.resolve("missing.test")).isEqualTo(DomainVerdict.NO_MAIL);
+            assertThat(resolver.resolve("timeout.test")).isEqualTo(DomainVerdict.UNKNOWN);
+        }
+    }
+
+    private DomainVerdictCache cache(DomainResolver resolver, int maxEntries) {
+        return new DomainVerdictCache(resolver, maxEntries, Duration.ofHours(1), Duration.ofMinutes(15),
+                Duration.ofSeconds(30), registry, clock);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private volatile Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
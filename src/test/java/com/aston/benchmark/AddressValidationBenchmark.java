@@ -0,0 +1,77 @@
+package com.aston.benchmark;
+
+import com.aston.address.AddressNormalizer;
+import com.aston.address.AddressValidator;
+import com.aston.address.DomainVerdict;
+import com.aston.address.DomainVerdictCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Проверка адреса получателя: регулярное выражение против {@link AddressNormalizer}
+ * и полная проверка с вердиктом домена из кэша
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AddressValidationBenchmark {
+
+    /**
+     * Выражение того же толка, что у Hibernate Validator @Email
+     */
+    private static final Pattern EMAIL = Pattern.compile(
+            "^[a-zA-Z0-9!#$%&'*+/=?^_`{|}~-]+(\\.[a-zA-Z0-9!#$%&'*+/=?^_`{|}~-]+)*"
+                    + "@([a-zA-Z0-9]([a-zA-Z0-9-]{0,61}[a-zA-Z0-9])?\\.)+[a-zA-Z]{2,}$");
+
+    private final String normalized = "ivan.ivanov+news@mail.example.com";
+    private final String mixedCase = "Ivan.Ivanov+news@Mail.Example.COM";
+
+    private AddressValidator validator;
+
+    @Setup
+    public void setUp() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        DomainVerdictCache cache = new DomainVerdictCache(domain -> DomainVerdict.ACCEPTS_MAIL, 1000,
+                Duration.ofHours(1), Duration.ofMinutes(15), Duration.ofSeconds(30), registry, Clock.systemUTC());
+        validator = new AddressValidator(cache, Set.of(), registry);
+        validator.validate(normalized);
+    }
+
+    @Benchmark
+    public boolean regex() {
+        return EMAIL.matcher(normalized).matches();
+    }
+
+    @Benchmark
+    public String normalizeNormalized() {
+        return AddressNormalizer.normalize(normalized);
+    }
+
+    @Benchmark
+    public String normalizeMixedCase() {
+        return AddressNormalizer.normalize(mixedCase);
+    }
+
+    @Benchmark
+    public String validateCachedDomain() {
+        return validator.validate(normalized);
+    }
+}
@@ -0,0 +1,79 @@
+package com.aston.benchmark;
+
+import com.aston.address.AddressValidator;
+import com.aston.digest.DigestService;
+import com.aston.dto.UserEvent;
+import com.aston.ledger.DeliveryLedger;
+import com.aston.mail.SendScheduler;
+import com.aston.metrics.NotificationMetrics;
+import com.aston.service.EmailService;
+import com.aston.template.EmailTemplateRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Общие объекты для бенчмарков, собранные без контекста Spring
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    static NotificationMetrics metrics() {
+        return new NotificationMetrics(new SimpleMeterRegistry());
+    }
+
+    static EmailService emailService(JavaMailSender mailSender) throws IOException {
+        SendScheduler sendScheduler = sendScheduler(mailSender);
+        EmailService emailService = new EmailService(sendScheduler, new EmailTemplateRegistry("ru"), metrics(),
+                deliveryLedger(), digestService(sendScheduler), addressValidator());
+        ReflectionTestUtils.setField(emailService, "fromEmail", "noreply@example.com");
+        ReflectionTestUtils.setField(emailService, "siteUrl", "https://kakoi-site.com");
+        return emailService;
+    }
+
+    /**
+     * Планировщик отправки без лимитов скорости
+     */
+    static SendScheduler sendScheduler(JavaMailSender mailSender) {
+        return new SendScheduler(mailSender, metrics(), false, 1, 1, 1, 1, new String[0], 1, Duration.ZERO);
+    }
+
+    /**
+     * Проверка только синтаксиса адресов, без DNS
+     */
+    static AddressValidator addressValidator() {
+        return new AddressValidator(null, Set.of(), new SimpleMeterRegistry());
+    }
+
+    /**
+     * Журнал доставок только в памяти, без фонового уплотнения
+     */
+    static DeliveryLedger deliveryLedger() throws IOException {
+        return new DeliveryLedger(null, Duration.ofDays(7), 1 << 16, 1 << 20, Duration.ZERO, Clock.systemUTC());
+    }
+
+    /**
+     * Выключенные сводки: все письма отправляются сразу
+     */
+    static DigestService digestService(SendScheduler sendScheduler) throws IOException {
+        return new DigestService(sendScheduler, null, metrics(), null, List.of(), List.of(), Duration.ofHours(1),
+                50, 100, 1000, Duration.ZERO, "noreply@example.com", Clock.systemUTC());
+    }
+
+    static UserEvent userCreated(long id) {
+        return UserEvent.builder()
+                .id(id)
+                .eventType(UserEvent.EventType.USER_CREATED)
+                .email("user" + id + "@example.com")
+                .name("Иван Иванов")
+                .build();
+    }
+}
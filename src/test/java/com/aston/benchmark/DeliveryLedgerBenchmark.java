@@ -0,0 +1,66 @@
+package com.aston.benchmark;
+
+import com.aston.dto.UserEvent;
+import com.aston.ledger.DeliveryLedger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проверка журнала доставок на горячем пути: время isDelivered при 100 тыс. отметок
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeliveryLedgerBenchmark {
+
+    private DeliveryLedger ledger;
+    private UserEvent delivered;
+    private UserEvent fresh;
+
+    @Setup
+    public void setUp() throws IOException {
+        ledger = BenchmarkFixtures.deliveryLedger();
+        for (long id = 0; id < 100_000; id++) {
+            ledger.markDelivered(BenchmarkFixtures.userCreated(id));
+        }
+        delivered = BenchmarkFixtures.userCreated(54_321L);
+        fresh = BenchmarkFixtures.userCreated(1_000_000L);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ledger.close();
+    }
+
+    @Benchmark
+    public boolean isDeliveredHit() {
+        return ledger.isDelivered(delivered);
+    }
+
+    @Benchmark
+    public boolean isDeliveredMiss() {
+        return ledger.isDelivered(fresh);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean isDeliveredHitContended() {
+        return ledger.isDelivered(delivered);
+    }
+}
@@ -0,0 +1,45 @@
+package com.aston.benchmark;
+
+import com.aston.dto.UserEvent;
+import com.aston.service.EmailService;
+import com.aston.support.InMemoryMailSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mail.SimpleMailMessage;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Формирование письма в EmailService: шаблон темы и текста плюс SimpleMailMessage
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmailRenderBenchmark {
+
+    private EmailService emailService;
+    private UserEvent event;
+
+    @Setup
+    public void setUp() throws IOException {
+        emailService = BenchmarkFixtures.emailService(new InMemoryMailSink(false));
+        event = BenchmarkFixtures.userCreated(42L);
+    }
+
+    @Benchmark
+    public SimpleMailMessage createMessage() {
+        return emailService.createMessage(event);
+    }
+}
@@ -0,0 +1,104 @@
+package com.aston.benchmark;
+
+import com.aston.controller.NotificationController;
+import com.aston.controller.NotificationLinks;
+import com.aston.dto.EmailResponse;
+import com.aston.kafka.SuppressionPublisher;
+import com.aston.mail.RelayGuard;
+import com.aston.suppression.SuppressionIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
+
+/**
+ * Построение ответов NotificationController со ссылками HATEOAS.
+ *
+ * Методы uncached* повторяют прежний путь: ссылки через linkTo(methodOn(...)) в каждом ответе.
+ *
+ * Состояние на поток: ссылки строятся от текущего запроса, который хранится в ThreadLocal
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotificationControllerBenchmark {
+
+    private NotificationController controller;
+
+    @Setup
+    public void setUp() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/notifications/status");
+        request.setServerName("localhost");
+        request.setServerPort(8081);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+
+        controller = new NotificationController(null, null, null, null, null, null, null,
+                new StaticListableBeanFactory().getBeanProvider(RelayGuard.class),
+                new NotificationLinks(),
+                new StaticListableBeanFactory().getBeanProvider(SuppressionIndex.class),
+                new StaticListableBeanFactory().getBeanProvider(SuppressionPublisher.class));
+    }
+
+    @TearDown
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Benchmark
+    public ResponseEntity<EmailResponse> getServiceStatus() {
+        return controller.getServiceStatus();
+    }
+
+    @Benchmark
+    public ResponseEntity<EmailResponse> getServiceInfo() {
+        return controller.getServiceInfo();
+    }
+
+    @Benchmark
+    public EmailResponse uncachedServiceStatus() {
+        EmailResponse response = EmailResponse.builder()
+                .status("RUNNING")
+                .message("Сервис уведомлений работает")
+                .sentAt(LocalDateTime.now())
+                .build();
+        response.add(linkTo(methodOn(NotificationController.class).getServiceStatus()).withSelfRel());
+        response.add(linkTo(NotificationController.class).slash("test-email").withRel("test-email"));
+        response.add(linkTo(NotificationController.class).slash("email").withRel("send-email"));
+        return response;
+    }
+
+    @Benchmark
+    public EmailResponse uncachedServiceInfo() {
+        EmailResponse response = EmailResponse.builder()
+                .status("AVAILABLE")
+                .message("Сервис уведомлений готов к работе")
+                .sentAt(LocalDateTime.now())
+                .build();
+        response.add(linkTo(NotificationController.class).withSelfRel());
+        response.add(linkTo(methodOn(NotificationController.class).getServiceStatus()).withRel("status"));
+        response.add(linkTo(NotificationController.class).slash("test-email").withRel("test-email"));
+        response.add(linkTo(NotificationController.class).slash("email").withRel("send-email"));
+        return response;
+    }
+}
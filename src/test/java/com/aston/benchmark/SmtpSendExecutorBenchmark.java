@@ -0,0 +1,77 @@
+package com.aston.benchmark;
+
+import com.aston.dto.UserEvent;
+import com.aston.mail.SmtpSendExecutor;
+import com.aston.service.EmailService;
+import com.aston.support.InMemoryMailSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность отправок с имитацией задержки SMTP:
+ * фиксированный пул обычных потоков против виртуального потока на отправку.
+ * На JDK без виртуальных потоков режим virtual совпадает с platform
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class SmtpSendExecutorBenchmark {
+
+    private static final int SENDS = 2000;
+
+    @Param({"platform", "virtual"})
+    private String mode;
+
+    @Param({"20"})
+    private int latencyMillis;
+
+    private SmtpSendExecutor sendExecutor;
+    private EmailService emailService;
+    private UserEvent event;
+
+    @Setup
+    public void setUp() throws IOException {
+        sendExecutor = new SmtpSendExecutor(mode, 64, SENDS);
+        emailService = BenchmarkFixtures.emailService(new InMemoryMailSink(false, Duration.ofMillis(latencyMillis)));
+        // Без id событие не попадает в журнал доставок и отправляется каждый раз
+        event = UserEvent.builder()
+                .eventType(UserEvent.EventType.USER_CREATED)
+                .email("user@example.com")
+                .name("Иван Иванов")
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        sendExecutor.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SENDS)
+    public void sendBurst() {
+        CompletableFuture<?>[] sends = new CompletableFuture<?>[SENDS];
+        for (int i = 0; i < SENDS; i++) {
+            sends[i] = sendExecutor.run(() -> emailService.sendEventEmail(event));
+        }
+        CompletableFuture.allOf(sends).join();
+    }
+}
@@ -0,0 +1,84 @@
+package com.aston.benchmark;
+
+import com.aston.suppression.SuppressionIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проверка получателя по списку подавления: {@link SuppressionIndex} вне кучи против HashSet строк
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class SuppressionIndexBenchmark {
+
+    @Param({"1000000"})
+    private int size;
+
+    private SuppressionIndex index;
+    private Set<String> hashSet;
+    private String[] probes;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        index = SuppressionIndex.open(null, size);
+        hashSet = new HashSet<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            String address = "user" + i + "@example.com";
+            index.add(address);
+            hashSet.add(address);
+        }
+        // Половина проверок - подавленные адреса, половина - нет
+        probes = new String[1024];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = (i % 2 == 0 ? "user" : "other") + (i * 977 % size) + "@example.com";
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        index.close();
+    }
+
+    @Benchmark
+    public boolean offHeapIndex() {
+        return index.contains(probes[next++ & (probes.length - 1)]);
+    }
+
+    @Benchmark
+    public boolean hashSet() {
+        return hashSet.contains(probes[next++ & (probes.length - 1)]);
+    }
+
+    /**
+     * Адрес письма - новая строка без вычисленного hashCode, как на пути отправки
+     */
+    @Benchmark
+    public boolean offHeapIndexFreshAddress() {
+        return index.contains(new String(probes[next++ & (probes.length - 1)]));
+    }
+
+    @Benchmark
+    public boolean hashSetFreshAddress() {
+        return hashSet.contains(new String(probes[next++ & (probes.length - 1)]));
+    }
+}
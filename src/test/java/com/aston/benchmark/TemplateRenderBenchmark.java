@@ -0,0 +1,89 @@
+package com.aston.benchmark;
+
+import com.aston.dto.UserEvent;
+import com.aston.template.EmailTemplate;
+import com.aston.template.EmailTemplateRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение рендеринга текста писем: String.format против скомпилированных шаблонов
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateRenderBenchmark {
+
+    private static final String SITE_URL = "https://kakoi-site.com";
+
+    private UserEvent created;
+    private UserEvent deleted;
+    private EmailTemplate createdTemplate;
+    private EmailTemplate deletedTemplate;
+
+    @Setup
+    public void setUp() throws IOException {
+        EmailTemplateRegistry registry = new EmailTemplateRegistry("ru");
+        createdTemplate = registry.get(UserEvent.EventType.USER_CREATED);
+        deletedTemplate = registry.get(UserEvent.EventType.USER_DELETED);
+        created = UserEvent.builder()
+                .id(42L)
+                .eventType(UserEvent.EventType.USER_CREATED)
+                .email("user@example.com")
+                .name("Иван Иванов")
+                .build();
+        deleted = UserEvent.builder()
+                .id(42L)
+                .eventType(UserEvent.EventType.USER_DELETED)
+                .email("user@example.com")
+                .name("Иван Иванов")
+                .build();
+    }
+
+    @Benchmark
+    public String stringFormatUserCreated() {
+        return String.format(
+                "Здравствуйте, %s!\n\n" +
+                        "Ваш аккаунт на сайте %s был успешно создан.\n\n" +
+                        "С уважением,\n" +
+                        "Команда поддержки",
+                created.getName() != null ? created.getName() : "пользователь",
+                SITE_URL
+        );
+    }
+
+    @Benchmark
+    public String templateUserCreated() {
+        return createdTemplate.getBody().render(created, SITE_URL);
+    }
+
+    @Benchmark
+    public String stringFormatUserDeleted() {
+        return String.format(
+                "Здравствуйте%s!\n\n" +
+                        "Ваш аккаунт был удалён.\n\n" +
+                        "С уважением,\n" +
+                        "Команда поддержки",
+                deleted.getName() != null ? ", " + deleted.getName() : ""
+        );
+    }
+
+    @Benchmark
+    public String templateUserDeleted() {
+        return deletedTemplate.getBody().render(deleted, SITE_URL);
+    }
+}
@@ -0,0 +1,85 @@
+package com.aston.benchmark;
+
+import com.aston.channel.ChannelRouter;
+import com.aston.channel.EmailChannel;
+import com.aston.dto.UserEvent;
+import com.aston.kafka.EventCoalescer;
+import com.aston.kafka.KeyOrderedExecutor;
+import com.aston.kafka.UserEventConsumer;
+import com.aston.mail.SmtpSendExecutor;
+import com.aston.outbox.Outbox;
+import com.aston.service.EmailService;
+import com.aston.support.InMemoryMailSink;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Полная обработка записи UserEventConsumer.consume каналом email с отправкой в память,
+ * до подтверждения записи
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserEventConsumerBenchmark {
+
+    private ChannelRouter channelRouter;
+    private UserEventConsumer consumer;
+    private ConsumerRecord<String, UserEvent> record;
+
+    @Setup
+    public void setUp() throws IOException {
+        EmailService emailService = BenchmarkFixtures.emailService(new InMemoryMailSink(false));
+        EmailChannel emailChannel = new EmailChannel(emailService, BenchmarkFixtures.deliveryLedger(),
+                new SmtpSendExecutor("inline", 1, 1));
+        channelRouter = new ChannelRouter(List.of(emailChannel), Map.of(), Map.of(), List.of(EmailChannel.NAME),
+                new SimpleMeterRegistry());
+        consumer = new UserEventConsumer(
+                BenchmarkFixtures.metrics(),
+                null,
+                channelRouter,
+                new StaticListableBeanFactory().getBeanProvider(KeyOrderedExecutor.class),
+                new StaticListableBeanFactory().getBeanProvider(Outbox.class),
+                new StaticListableBeanFactory().getBeanProvider(EventCoalescer.class));
+        // Без id событие не попадает в журнал доставок и отправляется каждый раз
+        UserEvent event = UserEvent.builder()
+                .eventType(UserEvent.EventType.USER_CREATED)
+                .email("user@example.com")
+                .name("Иван Иванов")
+                .build();
+        record = new ConsumerRecord<>("user-events-topic", 0, 0, null, event);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        channelRouter.close();
+        consumer.close();
+    }
+
+    @Benchmark
+    public void consume() throws InterruptedException {
+        CountDownLatch acknowledged = new CountDownLatch(1);
+        consumer.consume(record, acknowledged::countDown);
+        acknowledged.await();
+    }
+}
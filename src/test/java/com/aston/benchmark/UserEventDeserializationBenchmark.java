@@ -0,0 +1,82 @@
+package com.aston.benchmark;
+
+import com.aston.config.KafkaConfig;
+import com.aston.dto.UserEvent;
+import com.aston.kafka.UserEventBinaryFormat;
+import com.aston.kafka.UserEventDeserializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Десериализация UserEvent: JsonDeserializer Spring для сравнения, десериализатор
+ * из KafkaConfig на JSON и на двоичном формате.
+ * Байты на запись - gc.alloc.rate.norm профилировщика gc (профиль benchmarks)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserEventDeserializationBenchmark {
+
+    private static final String TOPIC = "user-events-topic";
+
+    private Deserializer<UserEvent> springDeserializer;
+    private Deserializer<UserEvent> deserializer;
+    private byte[] payload;
+    private byte[] binaryPayload;
+    private Headers jsonHeaders;
+    private Headers binaryHeaders;
+
+    @Setup
+    public void setUp() throws Exception {
+        springDeserializer = new JsonDeserializer<>(UserEvent.class);
+        deserializer = KafkaConfig.userEventDeserializer();
+        UserEvent event = BenchmarkFixtures.userCreated(42L);
+        payload = new ObjectMapper().writeValueAsBytes(event);
+        binaryPayload = UserEventBinaryFormat.write(event);
+        jsonHeaders = new RecordHeaders();
+        binaryHeaders = new RecordHeaders().add(UserEventDeserializer.FORMAT_HEADER,
+                UserEventDeserializer.BINARY_FORMAT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown
+    public void tearDown() {
+        springDeserializer.close();
+        deserializer.close();
+    }
+
+    @Benchmark
+    public UserEvent springJson() {
+        return springDeserializer.deserialize(TOPIC, jsonHeaders, payload);
+    }
+
+    @Benchmark
+    public UserEvent streamingJson() {
+        return deserializer.deserialize(TOPIC, jsonHeaders, payload);
+    }
+
+    @Benchmark
+    public UserEvent binary() {
+        return deserializer.deserialize(TOPIC, binaryHeaders, binaryPayload);
+    }
+}
@@ -0,0 +1,214 @@
+package com.aston.channel;
+
+import com.aston.dto.UserEvent;
+import com.aston.dto.UserEvent.EventType;
+import com.aston.exception.DispatchQueueFullException;
+import com.aston.support.StubHttpServer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChannelRouterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<ChannelRouter> routers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        routers.forEach(ChannelRouter::close);
+    }
+
+    @Test
+    void testSlowChannelDoesNotDelayOthers() {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingChannel slow = new RecordingChannel("slow", release);
+        RecordingChannel fast = new RecordingChannel("fast", null);
+        Map<String, ChannelRouter.Settings> settings = Map.of(
+                "slow", new ChannelRouter.Settings(1, 2, 1),
+                "fast", new ChannelRouter.Settings(1, 100, 1));
+        ChannelRouter router = router(List.of(slow, fast), settings,
+                Map.of(EventType.USER_CREATED, List.of("slow")), List.of("fast"));
+
+        CompletableFuture<Void> stuck = router.dispatch(event(EventType.USER_CREATED, 1L));
+        for (long id = 2; id <= 50; id++) {
+            router.dispatch(event(EventType.USER_DELETED, id)).join();
+        }
+
+        assertThat(fast.events).hasSize(49);
+        assertThat(stuck).isNotDone();
+
+        router.dispatch(event(EventType.USER_CREATED, 51L));
+        router.dispatch(event(EventType.USER_CREATED, 52L));
+        assertThat(router.dispatch(event(EventType.USER_CREATED, 53L)))
+                .failsWithin(Duration.ofSeconds(1))
+                .withThrowableOfType(Exception.class)
+                .withCauseInstanceOf(ChannelDeliveryException.class)
+                .withRootCauseInstanceOf(DispatchQueueFullException.class);
+
+        release.countDown();
+        assertThat(stuck).succeedsWithin(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void testDrainsQueueIntoBatches() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingChannel channel = new RecordingChannel("email", release);
+        ChannelRouter router = router(List.of(channel), Map.of("email", new ChannelRouter.Settings(1, 100, 10)),
+                Map.of(), List.of("email"));
+
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+        results.add(router.dispatch(event(EventType.USER_CREATED, 0L)));
+        assertThat(channel.started.await(5, TimeUnit.SECONDS)).isTrue();
+        for (long id = 1; id <= 25; id++) {
+            results.add(router.dispatch(event(EventType.USER_CREATED, id)));
+        }
+        release.countDown();
+
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+        assertThat(channel.batchSizes).containsExactly(1, 10, 10, 5);
+    }
+
+    @Test
+    void testFailsWhenAnyChannelOfRouteFails() {
+        RecordingChannel email = new RecordingChannel("email", null);
+        NotificationChannel broken = new NotificationChannel() {
+            @Override
+            public String getName() {
+                return "broken";
+            }
+
+            @Override
+            public Map<UserEvent, Exception> send(List<UserEvent> events) {
+                throw new IllegalStateException("канал недоступен");
+            }
+        };
+        ChannelRouter router = router(List.of(email, broken), Map.of(),
+                Map.of(EventType.USER_CREATED, List.of("email", "broken")), List.of("email"));
+
+        assertThatThrownBy(() -> router.dispatchAndWait(event(EventType.USER_CREATED, 1L)))
+                .isInstanceOfSatisfying(ChannelDeliveryException.class, e -> {
+                    assertThat(e.getFailures()).containsOnlyKeys("broken");
+                    assertThat(e.getFailedChannels()).containsExactly("broken");
+                    assertThat(e.isDeferred()).isFalse();
+                })
+                .hasCauseInstanceOf(IllegalStateException.class);
+        assertThat(email.events).hasSize(1);
+        assertThatThrownBy(() -> router.dispatchAndWait(event(null, 2L)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testRejectsUnknownChannelInRoute() {
+        RecordingChannel email = new RecordingChannel("email", null);
+
+        assertThatThrownBy(() -> router(List.of(email), Map.of(),
+                Map.of(EventType.USER_DELETED, List.of("sms")), List.of("email")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("sms");
+    }
+
+    @Test
+    void testRejectsEmptyRoute() {
+        RecordingChannel email = new RecordingChannel("email", null);
+
+        assertThatThrownBy(() -> router(List.of(email), Map.of(),
+                Map.of(EventType.USER_DELETED, List.of()), List.of("email")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("USER_DELETED");
+    }
+
+    @Test
+    void testDispatchesOnlyToListedChannels() {
+        RecordingChannel email = new RecordingChannel("email", null);
+        RecordingChannel sms = new RecordingChannel("sms", null);
+        ChannelRouter router = router(List.of(email, sms), Map.of(), Map.of(), List.of("email", "sms"));
+
+        router.dispatchAndWait(event(EventType.USER_CREATED, 1L), List.of("sms"));
+        router.dispatchAndWait(event(EventType.USER_CREATED, 2L), List.of());
+
+        assertThat(email.events).isEmpty();
+        assertThat(sms.events).extracting(UserEvent::getId).containsExactly(1L);
+    }
+
+    @Test
+    void testRoutesEventToWebhookAndEmail() {
+        try (StubHttpServer server = StubHttpServer.start()) {
+            RecordingChannel email = new RecordingChannel("email", null);
+            WebhookChannel webhook = new WebhookChannel(server.getUri("/hook"), Duration.ofSeconds(2), new ObjectMapper());
+            ChannelRouter router = router(List.of(email, webhook), Map.of(),
+                    Map.of(EventType.USER_CREATED, List.of("email", "webhook")), List.of("email"));
+
+            router.dispatchAndWait(event(EventType.USER_CREATED, 1L));
+            router.dispatchAndWait(event(EventType.USER_DELETED, 2L));
+
+            assertThat(router.routeOf(EventType.USER_CREATED)).containsExactly("email", "webhook");
+            assertThat(email.events).extracting(UserEvent::getId).containsExactly(1L, 2L);
+            assertThat(server.getBodies()).hasSize(1);
+            assertThat(server.getBodies().get(0)).contains("\"id\":1");
+            assertThat(registry.get("notification.channel.messages")
+                    .tags("channel", "webhook", "outcome", "success").counter().count()).isEqualTo(1.0);
+        }
+    }
+
+    private ChannelRouter router(List<NotificationChannel> channels, Map<String, ChannelRouter.Settings> settings,
+                                 Map<EventType, List<String>> routes, List<String> defaultRoute) {
+        ChannelRouter router = new ChannelRouter(channels, new HashMap<>(settings), routes, defaultRoute, registry);
+        routers.add(router);
+        return router;
+    }
+
+    private static UserEvent event(EventType type, Long id) {
+        return new UserEvent(type, "user" + id + "@example.com", "User " + id, id);
+    }
+
+    /**
+     * Запоминает доставленные события; с release ждет его перед каждой пачкой
+     */
+    private static class RecordingChannel implements NotificationChannel {
+
+        final String name;
+        final CountDownLatch release;
+        final CountDownLatch started = new CountDownLatch(1);
+        final List<UserEvent> events = new CopyOnWriteArrayList<>();
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+        RecordingChannel(String name, CountDownLatch release) {
+            this.name = name;
+            this.release = release;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Map<UserEvent, Exception> send(List<UserEvent> batch) {
+            started.countDown();
+            if (release != null) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            batchSizes.add(batch.size());
+            events.addAll(batch);
+            return Map.of();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.aston.channel;
+
+import com.aston.dto.UserEvent;
+import com.aston.support.StubHttpServer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WebhookChannelTest {
+
+    private final StubHttpServer server = StubHttpServer.start();
+    private final WebhookChannel channel =
+            new WebhookChannel(server.getUri("/notifications"), Duration.ofSeconds(2), new ObjectMapper());
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void testPostsBatchAsJsonArray() {
+        List<UserEvent> events = List.of(event(1L), event(2L));
+
+        Map<UserEvent, Exception> failed = channel.send(events);
+
+        assertThat(failed).isEmpty();
+        assertThat(server.getBodies()).hasSize(1);
+        assertThat(server.getBodies().get(0))
+                .startsWith("[")
+                .contains("\"id\":1", "\"id\":2", "\"eventType\":\"USER_CREATED\"");
+    }
+
+    @Test
+    void testServerErrorIsRetried() {
+        server.respond(503);
+        UserEvent event = event(1L);
+
+        Map<UserEvent, Exception> failed = channel.send(List.of(event));
+
+        assertThat(failed.get(event)).isInstanceOf(IllegalStateException.class).hasMessageContaining("503");
+    }
+
+    @Test
+    void testClientErrorIsSkipped() {
+        server.respond(400);
+        UserEvent event = event(1L);
+
+        Map<UserEvent, Exception> failed = channel.send(List.of(event));
+
+        assertThat(failed.get(event)).isInstanceOf(IllegalArgumentException.class).hasMessageContaining("400");
+    }
+
+    private static UserEvent event(Long id) {
+        return new UserEvent(UserEvent.EventType.USER_CREATED, "user" + id + "@example.com", "User " + id, id);
+    }
+}
@@ -0,0 +1,170 @@
+package com.aston.digest;
+
+import com.aston.mail.SendScheduler;
+import com.aston.metrics.NotificationMetrics;
+import com.aston.suppression.SuppressionIndex;
+import com.aston.support.InMemoryMailSink;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DigestServiceTest {
+
+    private static final Instant NOW = Instant.parse("2024-01-01T09:00:00Z");
+
+    @TempDir
+    Path directory;
+
+    private final FlakyMailSink sink = new FlakyMailSink();
+
+    @Test
+    void testDigestIsSentWhenCountThresholdIsReached() throws Exception {
+        try (DigestService digests = digestService(null, NOW)) {
+            assertFalse(digests.offer(message("user@example.com", "Аккаунт создан")));
+            assertTrue(digests.offer(message("Boss@Example.com", "Первое")));
+            assertTrue(digests.offer(message("boss@example.com", "Второе")));
+            assertTrue(digests.offer(message("admin@corp.ru", "Из домена")));
+            assertTrue(sink.getMessages().isEmpty());
+
+            // Третье уведомление отправляет сводку, строк в ней не больше двух
+            assertTrue(digests.offer(message("boss@example.com", "Третье")));
+
+            List<SimpleMailMessage> sent = sink.getMessages();
+            assertEquals(1, sent.size());
+            assertEquals("boss@example.com", sent.get(0).getTo()[0]);
+            assertEquals("Сводка уведомлений: 3", sent.get(0).getSubject());
+            assertTrue(sent.get(0).getText().contains("Второе"));
+            assertFalse(sent.get(0).getText().contains("Третье"));
+            assertTrue(sent.get(0).getText().contains("...и еще уведомлений: 1"));
+            assertEquals(1, digests.getPending());
+        }
+    }
+
+    @Test
+    void testPendingDigestsSurviveRestart() throws Exception {
+        Path file = directory.resolve("digest.log");
+
+        try (DigestService digests = digestService(file, NOW)) {
+            digests.offer(message("boss@example.com", "Первое"));
+            digests.offer(message("admin@corp.ru", "Второе"));
+        }
+
+        try (DigestService digests = digestService(file, NOW.plus(Duration.ofMinutes(30)))) {
+            assertEquals(2, digests.getPending());
+            digests.flushDue();
+            assertTrue(sink.getMessages().isEmpty());
+        }
+
+        try (DigestService digests = digestService(file, NOW.plus(Duration.ofHours(2)))) {
+            digests.flushDue();
+            assertEquals(2, sink.getMessages().size());
+        }
+
+        try (DigestService digests = digestService(file, NOW.plus(Duration.ofHours(3)))) {
+            assertEquals(0, digests.getPending());
+        }
+    }
+
+    @Test
+    void testFailedDigestIsKeptAndMergedWithNewerNotifications() throws Exception {
+        Path file = directory.resolve("digest.log");
+
+        try (DigestService digests = digestService(file, NOW)) {
+            sink.failing = true;
+            digests.offer(message("boss@example.com", "Первое"));
+            digests.offer(message("boss@example.com", "Второе"));
+            digests.offer(message("boss@example.com", "Третье"));
+            assertEquals(3, digests.getPending());
+            assertEquals(1, digests.getDigests());
+        }
+
+        try (DigestService digests = digestService(file, NOW.plus(Duration.ofHours(2)))) {
+            sink.failing = false;
+            assertEquals(3, digests.getPending());
+            digests.offer(message("boss@example.com", "Четвертое"));
+            digests.flushDue();
+
+            assertEquals(1, sink.getMessages().size());
+            assertEquals("Сводка уведомлений: 4", sink.getMessages().get(0).getSubject());
+            assertEquals(0, digests.getPending());
+        }
+    }
+
+    @Test
+    void testDigestForSuppressedAddressIsDropped() throws Exception {
+        Path file = directory.resolve("digest.log");
+        try (SuppressionIndex suppressionIndex = SuppressionIndex.open(null, 16)) {
+            try (DigestService digests = digestService(file, NOW, suppressionIndex)) {
+                digests.offer(message("boss@example.com", "Первое"));
+                digests.offer(message("admin@corp.ru", "Второе"));
+            }
+
+            // Адрес попал в список подавления, пока сводка копилась
+            suppressionIndex.add("Boss@example.com");
+            try (DigestService digests = digestService(file, NOW.plus(Duration.ofHours(2)), suppressionIndex)) {
+                digests.flushDue();
+                assertEquals(1, sink.getMessages().size());
+                assertEquals("admin@corp.ru", sink.getMessages().get(0).getTo()[0]);
+                assertEquals(0, digests.getPending());
+            }
+
+            try (DigestService digests = digestService(file, NOW.plus(Duration.ofHours(3)), suppressionIndex)) {
+                assertEquals(0, digests.getPending());
+            }
+        }
+    }
+
+    private DigestService digestService(Path file, Instant now) throws Exception {
+        return digestService(file, now, null);
+    }
+
+    private DigestService digestService(Path file, Instant now, SuppressionIndex suppressionIndex) throws Exception {
+        NotificationMetrics metrics = new NotificationMetrics(new SimpleMeterRegistry());
+        SendScheduler sendScheduler = new SendScheduler(sink, metrics, false, 1, 1, 1, 1, new String[0], 1,
+                Duration.ZERO);
+        return new DigestService(sendScheduler, suppressionIndex, metrics, file, List.of("boss@example.com"), List.of("CORP.ru"),
+                Duration.ofHours(1), 3, 2, 10, Duration.ZERO, "noreply@example.com",
+                Clock.fixed(now, ZoneOffset.UTC));
+    }
+
+    private static SimpleMailMessage message(String to, String subject) {
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setTo(to);
+        message.setSubject(subject);
+        message.setText("Здравствуйте!\n\n" + subject);
+        return message;
+    }
+
+    /**
+     * Сохраняет письма или отказывает в отправке, пока failing
+     */
+    private static final class FlakyMailSink extends InMemoryMailSink {
+
+        volatile boolean failing;
+
+        FlakyMailSink() {
+            super(true);
+        }
+
+        @Override
+        public void send(SimpleMailMessage simpleMessage) {
+            if (failing) {
+                throw new MailSendException("SMTP недоступен");
+            }
+            super.send(simpleMessage);
+        }
+    }
+}
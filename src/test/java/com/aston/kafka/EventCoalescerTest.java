@@ -0,0 +1,150 @@
+package com.aston.kafka;
+
+import com.aston.dto.UserEvent;
+import com.aston.metrics.NotificationMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class EventCoalescerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final ExecutorService releaseWorkers = Executors.newSingleThreadExecutor();
+    private final RetryTopicRouter retryRouter = mock(RetryTopicRouter.class);
+    private final List<UserEvent> released = new ArrayList<>();
+    private final List<UserEvent> acknowledged = new ArrayList<>();
+    private final EventCoalescer.Handler handler = (record, acknowledgment) -> {
+        synchronized (released) {
+            released.add(record.value());
+        }
+        acknowledgment.acknowledge();
+    };
+
+    // Окно 1 с из 10 тиков по 100 мс, таймер двигается вручную
+    private final EventCoalescer coalescer = new EventCoalescer(Duration.ofSeconds(1), Duration.ofMillis(100), 2,
+            releaseWorkers, retryRouter, new NotificationMetrics(registry), false);
+
+    @AfterEach
+    void tearDown() throws Exception {
+        coalescer.close();
+    }
+
+    @Test
+    void testRecordsAreAcknowledgedAfterReleaseAndNewestDuplicateWins() throws Exception {
+        offer(1L, UserEvent.EventType.USER_DELETED);
+        offer(1L, UserEvent.EventType.USER_CREATED);
+        offer(1L, UserEvent.EventType.USER_DELETED);
+        offer(1L, UserEvent.EventType.USER_DELETED, "fresh");
+
+        // Отменены CREATED и второй DELETED, первый DELETED заменен последним
+        assertEquals(3, acknowledged.size());
+        assertTrue(released.isEmpty());
+
+        advance(10);
+
+        assertEquals(1, released.size());
+        assertEquals("fresh", released.get(0).getName());
+        assertEquals(4, acknowledged.size());
+    }
+
+    @Test
+    void testCreatedThenDeletedCancelsBoth() throws Exception {
+        offer(1L, UserEvent.EventType.USER_CREATED);
+        offer(1L, UserEvent.EventType.USER_DELETED);
+        offer(2L, UserEvent.EventType.USER_CREATED);
+        offer(2L, UserEvent.EventType.USER_CREATED);
+
+        advance(10);
+
+        assertEquals(List.of(event(2L, UserEvent.EventType.USER_CREATED)), released);
+        assertEquals(2.0, suppressed("cancelled"));
+        assertEquals(1.0, suppressed("duplicate"));
+        assertEquals(0, coalescer.getHeldKeys());
+    }
+
+    @Test
+    void testEventsAreHeldForTheWindowOnly() throws Exception {
+        offer(1L, UserEvent.EventType.USER_DELETED);
+        advance(5);
+        offer(1L, UserEvent.EventType.USER_CREATED);
+        advance(4);
+        assertTrue(released.isEmpty());
+
+        // Окно отсчитывается от первого события: через 10 тиков уходят оба
+        advance(1);
+        assertEquals(List.of(event(1L, UserEvent.EventType.USER_DELETED), event(1L, UserEvent.EventType.USER_CREATED)),
+                released);
+    }
+
+    @Test
+    void testKeysBeyondLimitAndEventsWithoutIdBypassTheWindow() throws Exception {
+        offer(1L, UserEvent.EventType.USER_CREATED);
+        offer(2L, UserEvent.EventType.USER_CREATED);
+        offer(3L, UserEvent.EventType.USER_CREATED);
+        offer(null, UserEvent.EventType.USER_CREATED);
+
+        assertEquals(List.of(event(3L, UserEvent.EventType.USER_CREATED), event(null, UserEvent.EventType.USER_CREATED)),
+                released);
+        assertEquals(2, coalescer.getHeldKeys());
+    }
+
+    @Test
+    void testFailedReleaseIsRoutedToRetryAndAcknowledged() throws Exception {
+        IllegalStateException failure = new IllegalStateException("канал недоступен");
+        ConsumerRecord<String, UserEvent> record = new ConsumerRecord<>("user-events-topic", 0, 0, null,
+                event(1L, UserEvent.EventType.USER_CREATED));
+        coalescer.offer(record, () -> acknowledged.add(record.value()), (held, acknowledgment) -> {
+            throw failure;
+        });
+
+        advance(10);
+
+        verify(retryRouter).routeUntilPublished(eq(record), any());
+        assertEquals(List.of(record.value()), acknowledged);
+    }
+
+    private void offer(Long id, UserEvent.EventType type) {
+        offer(id, type, null);
+    }
+
+    private void offer(Long id, UserEvent.EventType type, String name) {
+        UserEvent event = event(id, type);
+        event.setName(name);
+        coalescer.offer(new ConsumerRecord<>("user-events-topic", 0, 0, null, event), () -> {
+            synchronized (acknowledged) {
+                acknowledged.add(event);
+            }
+        }, handler);
+    }
+
+    private void advance(int ticks) throws Exception {
+        for (int i = 0; i < ticks; i++) {
+            coalescer.tick();
+        }
+        // Дожидаемся передачи освобожденных событий в пуле
+        releaseWorkers.submit(() -> { }).get(5, TimeUnit.SECONDS);
+    }
+
+    private double suppressed(String reason) {
+        return registry.get("notification.coalescer.suppressed").tag("reason", reason).counter().count();
+    }
+
+    private static UserEvent event(Long id, UserEvent.EventType type) {
+        return UserEvent.builder().id(id).eventType(type).email("user" + id + "@example.com").build();
+    }
+}
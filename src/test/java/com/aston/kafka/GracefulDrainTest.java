@@ -0,0 +1,183 @@
+package com.aston.kafka;
+
+import com.aston.channel.ChannelRouter;
+import com.aston.channel.EmailChannel;
+import com.aston.dto.UserEvent;
+import com.aston.ledger.DeliveryLedger;
+import com.aston.mail.SmtpSendExecutor;
+import com.aston.metrics.NotificationMetrics;
+import com.aston.outbox.Outbox;
+import com.aston.outbox.OutboxDispatcher;
+import com.aston.service.EmailService;
+import com.aston.service.NotificationDispatcher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.*;
+
+class GracefulDrainTest {
+
+    private final EmailService emailService = mock(EmailService.class);
+    private final KafkaListenerEndpointRegistry registry = mock(KafkaListenerEndpointRegistry.class);
+    private final MessageListenerContainer container = mock(MessageListenerContainer.class);
+    private final NotificationMetrics metrics = new NotificationMetrics(new SimpleMeterRegistry());
+    private final SmtpSendExecutor sendExecutor = new SmtpSendExecutor("platform", 4, 4);
+    private final CountDownLatch sending = new CountDownLatch(1);
+    private final CountDownLatch relay = new CountDownLatch(1);
+
+    private ChannelRouter channelRouter;
+    private UserEventConsumer consumer;
+
+    @BeforeEach
+    void setUp() {
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        channelRouter = new ChannelRouter(List.of(new EmailChannel(emailService, mock(DeliveryLedger.class), sendExecutor)),
+                Map.of(), Map.of(), List.of(EmailChannel.NAME), new SimpleMeterRegistry());
+        consumer = new UserEventConsumer(metrics, mock(RetryTopicRouter.class), channelRouter,
+                beans.getBeanProvider(KeyOrderedExecutor.class),
+                beans.getBeanProvider(Outbox.class),
+                beans.getBeanProvider(EventCoalescer.class));
+
+        when(container.isRunning()).thenReturn(true);
+        when(container.getAssignedPartitions()).thenReturn(List.of(new TopicPartition("user-events-topic", 0)));
+        when(registry.getListenerContainers()).thenReturn(List.of(container));
+        when(emailService.sendEventEmail(any(), anyBoolean())).thenAnswer(invocation -> {
+            metrics.sendStarted();
+            try {
+                sending.countDown();
+                relay.await(5, TimeUnit.SECONDS);
+                return true;
+            } finally {
+                metrics.sendFinished();
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        relay.countDown();
+        channelRouter.close();
+        consumer.close();
+        sendExecutor.destroy();
+    }
+
+    @Test
+    void testWaitsForPolledRecordsBeforeContainersStop() throws Exception {
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+        consumer.consume(record(1L), acknowledgment);
+        assertThat(sending.await(5, TimeUnit.SECONDS)).isTrue();
+        // Потребитель подтверждает паузу, когда закончил записи последнего poll
+        when(container.isContainerPaused()).thenReturn(true);
+
+        GracefulDrain drain = drain(Duration.ofSeconds(5), null);
+        CompletableFuture<Boolean> drained = CompletableFuture.supplyAsync(drain::drain);
+
+        Thread.sleep(200);
+        assertThat(drained).isNotDone();
+        verify(container, atLeastOnce()).pause();
+        verify(acknowledgment, never()).acknowledge();
+
+        relay.countDown();
+        assertThat(drained.get(5, TimeUnit.SECONDS)).isTrue();
+        verify(acknowledgment).acknowledge();
+        assertThat(consumer.getPendingRecords()).isZero();
+    }
+
+    @Test
+    void testGivesUpAfterDrainTimeout() throws Exception {
+        Acknowledgment acknowledgment = mock(Acknowledgment.class);
+        consumer.consume(record(1L), acknowledgment);
+        assertThat(sending.await(5, TimeUnit.SECONDS)).isTrue();
+        NotificationDispatcher dispatcher = mock(NotificationDispatcher.class);
+        when(dispatcher.getPendingJobs()).thenReturn(1);
+
+        long start = System.nanoTime();
+        assertThat(drain(Duration.ofMillis(200), dispatcher).drain()).isFalse();
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isBetween(200L, 2000L);
+        verify(acknowledgment, never()).acknowledge();
+    }
+
+    @Test
+    void testContainerWithoutPartitionsIsDrainedImmediately() {
+        when(container.getAssignedPartitions()).thenReturn(List.of());
+
+        assertThat(drain(Duration.ofSeconds(5), null).drain()).isTrue();
+        verify(container, atLeastOnce()).pause();
+    }
+
+    @Test
+    void testDrainsRetryContainersAndOutbox() throws Exception {
+        when(registry.getListenerContainers()).thenReturn(List.of());
+        MessageListenerContainer retryContainer = mock(MessageListenerContainer.class);
+        when(retryContainer.isRunning()).thenReturn(true);
+        when(retryContainer.getAssignedPartitions())
+                .thenReturn(List.of(new TopicPartition("user-events-topic-retry-5s", 0)));
+        RetryTopicConsumer retryConsumer = mock(RetryTopicConsumer.class);
+        when(retryConsumer.getContainers()).thenReturn(List.of(retryContainer));
+        OutboxDispatcher outboxDispatcher = mock(OutboxDispatcher.class);
+        when(outboxDispatcher.getInFlight()).thenReturn(1);
+
+        StaticListableBeanFactory beans = beans(null);
+        beans.addBean("retryTopicConsumer", retryConsumer);
+        beans.addBean("outboxDispatcher", outboxDispatcher);
+        GracefulDrain drain = drainWith(Duration.ofSeconds(5), beans);
+        CompletableFuture<Boolean> drained = CompletableFuture.supplyAsync(drain::drain);
+
+        Thread.sleep(200);
+        assertThat(drained).isNotDone();
+        verify(retryContainer, atLeastOnce()).pause();
+        verify(outboxDispatcher).pause();
+
+        when(retryContainer.isContainerPaused()).thenReturn(true);
+        when(outboxDispatcher.getInFlight()).thenReturn(0);
+        assertThat(drained.get(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private GracefulDrain drain(Duration timeout, NotificationDispatcher dispatcher) {
+        return drainWith(timeout, beans(dispatcher));
+    }
+
+    private GracefulDrain drainWith(Duration timeout, StaticListableBeanFactory beans) {
+        return new GracefulDrain(registry, metrics, beans.getBeanProvider(UserEventConsumer.class),
+                beans.getBeanProvider(NotificationDispatcher.class),
+                beans.getBeanProvider(RetryTopicConsumer.class),
+                beans.getBeanProvider(OutboxDispatcher.class), timeout);
+    }
+
+    private StaticListableBeanFactory beans(NotificationDispatcher dispatcher) {
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        beans.addBean("userEventConsumer", consumer);
+        if (dispatcher != null) {
+            beans.addBean("notificationDispatcher", dispatcher);
+        }
+        return beans;
+    }
+
+    private static ConsumerRecord<String, UserEvent> record(Long id) {
+        UserEvent event = UserEvent.builder()
+                .id(id)
+                .email("user" + id + "@example.com")
+                .eventType(UserEvent.EventType.USER_CREATED)
+                .build();
+        return new ConsumerRecord<>("user-events-topic", 0, id, null, event);
+    }
+}
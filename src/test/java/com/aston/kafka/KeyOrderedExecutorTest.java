@@ -0,0 +1,68 @@
+package com.aston.kafka;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KeyOrderedExecutorTest {
+
+    private final KeyOrderedExecutor executor = new KeyOrderedExecutor(8, Executors.newFixedThreadPool(4));
+
+    @AfterEach
+    void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    void testKeepsOrderWithinKey() throws InterruptedException {
+        int users = 50;
+        int eventsPerUser = 200;
+        Map<Long, List<Integer>> seen = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(users * eventsPerUser);
+
+        for (int seq = 0; seq < eventsPerUser; seq++) {
+            for (long user = 0; user < users; user++) {
+                long key = user;
+                int value = seq;
+                executor.execute(key, () -> {
+                    seen.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<>())).add(value);
+                    done.countDown();
+                });
+            }
+        }
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        seen.values().forEach(values -> assertThat(values).isSorted().hasSize(eventsPerUser));
+    }
+
+    @Test
+    void testRejectedTaskDoesNotLeaveLaneScheduled() {
+        ExecutorService workers = Executors.newSingleThreadExecutor();
+        KeyOrderedExecutor stopped = new KeyOrderedExecutor(1, workers);
+        workers.shutdown();
+
+        assertThatThrownBy(() -> stopped.execute(1L, () -> { }))
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThatThrownBy(() -> stopped.execute(1L, () -> { }))
+                .isInstanceOf(RejectedExecutionException.class);
+    }
+
+    @Test
+    void testSameKeyMapsToSameLane() {
+        assertThat(executor.laneOf(42L)).isEqualTo(executor.laneOf(42L));
+        assertThat(executor.laneOf(null)).isZero();
+    }
+}
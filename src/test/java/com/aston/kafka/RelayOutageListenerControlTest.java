@@ -0,0 +1,59 @@
+package com.aston.kafka;
+
+import com.aston.channel.ChannelRouter;
+import com.aston.channel.NotificationChannel;
+import com.aston.dto.UserEvent;
+import com.aston.mail.RelayGuard;
+import com.aston.outbox.Outbox;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.*;
+
+class RelayOutageListenerControlTest {
+
+    private final KafkaListenerEndpointRegistry registry = mock(KafkaListenerEndpointRegistry.class);
+    private final RelayGuard relayGuard = mock(RelayGuard.class);
+
+    @Test
+    void testPausesListenersWhenEventsGoOnlyToEmail() {
+        try (ChannelRouter channelRouter = channelRouter(Map.of())) {
+            control(channelRouter).subscribe();
+
+            verify(relayGuard).addListener(any());
+        }
+    }
+
+    @Test
+    void testKeepsReadingWhenAnyRouteHasOtherChannels() {
+        try (ChannelRouter channelRouter = channelRouter(
+                Map.of(UserEvent.EventType.USER_DELETED, List.of("email", "webhook")))) {
+            control(channelRouter).subscribe();
+
+            verify(relayGuard, never()).addListener(any());
+        }
+    }
+
+    private RelayOutageListenerControl control(ChannelRouter channelRouter) {
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        beans.addBean("relayGuard", relayGuard);
+        return new RelayOutageListenerControl(registry, beans.getBeanProvider(RetryTopicConsumer.class),
+                beans.getBeanProvider(RelayGuard.class), beans.getBeanProvider(Outbox.class), channelRouter, true);
+    }
+
+    private static ChannelRouter channelRouter(Map<UserEvent.EventType, List<String>> routes) {
+        return new ChannelRouter(List.of(channel("email"), channel("webhook")), Map.of(), routes,
+                List.of("email"), new SimpleMeterRegistry());
+    }
+
+    private static NotificationChannel channel(String name) {
+        NotificationChannel channel = mock(NotificationChannel.class);
+        when(channel.getName()).thenReturn(name);
+        return channel;
+    }
+}
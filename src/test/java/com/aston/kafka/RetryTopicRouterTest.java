@@ -0,0 +1,99 @@
+package com.aston.kafka;
+
+import com.aston.dto.UserEvent;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class RetryTopicRouterTest {
+
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<String, UserEvent> kafkaTemplate = mock(KafkaTemplate.class);
+    private final RetryTopicRouter router = new RetryTopicRouter(
+            kafkaTemplate, "user-events-topic", new String[]{"5s", "30s", "5m"});
+
+    @BeforeEach
+    void setUp() {
+        SettableListenableFuture<Object> sent = new SettableListenableFuture<>();
+        sent.set(null);
+        doReturn(sent).when(kafkaTemplate).send(anyRecord());
+    }
+
+    @Test
+    void testTiersFollowConfiguredDelays() {
+        assertEquals(3, router.getTiers().size());
+        assertEquals("user-events-topic-retry-30s", router.getTiers().get(1).getTopic());
+        assertEquals(Duration.ofMinutes(5), router.getTiers().get(2).getDelay());
+        assertEquals("user-events-topic-dlt", router.getDeadLetterTopic());
+    }
+
+    @Test
+    void testFailedEventGoesThroughEveryTierThenToDeadLetterTopic() {
+        ConsumerRecord<String, UserEvent> record = new ConsumerRecord<>("user-events-topic", 0, 7L, "42", event());
+        long before = System.currentTimeMillis();
+
+        assertEquals("user-events-topic-retry-5s", router.route(record, new IllegalStateException("421")));
+        ProducerRecord<String, UserEvent> retry = lastSent();
+        assertEquals(1, RetryTopicRouter.attemptOf(consumed(retry)));
+        assertTrue(RetryTopicRouter.dueAtOf(consumed(retry)) >= before + 5000);
+
+        assertEquals("user-events-topic-retry-30s", router.route(consumed(retry), new IllegalStateException("421")));
+        assertEquals("user-events-topic-retry-5m", router.route(consumed(lastSent()), new IllegalStateException("421")));
+        assertEquals("user-events-topic-dlt", router.route(consumed(lastSent()), new IllegalStateException("550")));
+
+        ProducerRecord<String, UserEvent> dead = lastSent();
+        assertEquals("42", dead.key());
+        assertEquals(4, RetryTopicRouter.attemptOf(consumed(dead)));
+        assertEquals("user-events-topic",
+                new String(dead.headers().lastHeader(RetryTopicRouter.ORIGINAL_TOPIC_HEADER).value()));
+    }
+
+    @Test
+    void testRepeatsFailedPublicationUntilBrokerAccepts() {
+        SettableListenableFuture<Object> failed = new SettableListenableFuture<>();
+        failed.setException(new IllegalStateException("брокер недоступен"));
+        SettableListenableFuture<Object> sent = new SettableListenableFuture<>();
+        sent.set(null);
+        doReturn(failed, sent).when(kafkaTemplate).send(anyRecord());
+        ConsumerRecord<String, UserEvent> record = new ConsumerRecord<>("user-events-topic", 0, 7L, "42", event());
+
+        assertEquals("user-events-topic-retry-5s", router.routeUntilPublished(record, new IllegalStateException("421")));
+        verify(kafkaTemplate, times(2)).send(anyRecord());
+    }
+
+    @SuppressWarnings("unchecked")
+    private ProducerRecord<String, UserEvent> lastSent() {
+        ArgumentCaptor<ProducerRecord<String, UserEvent>> captor = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(kafkaTemplate, atLeastOnce()).send(captor.capture());
+        return captor.getValue();
+    }
+
+    private static ProducerRecord<String, UserEvent> anyRecord() {
+        return any();
+    }
+
+    private static ConsumerRecord<String, UserEvent> consumed(ProducerRecord<String, UserEvent> sent) {
+        ConsumerRecord<String, UserEvent> record = new ConsumerRecord<>(sent.topic(), 0, 0L, sent.key(), sent.value());
+        sent.headers().forEach(header -> record.headers().add(header));
+        return record;
+    }
+
+    private static UserEvent event() {
+        return UserEvent.builder()
+                .id(42L)
+                .email("user@example.com")
+                .eventType(UserEvent.EventType.USER_CREATED)
+                .build();
+    }
+}
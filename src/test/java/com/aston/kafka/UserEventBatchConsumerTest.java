@@ -0,0 +1,150 @@
+package com.aston.kafka;
+
+import com.aston.channel.ChannelDeliveryException;
+import com.aston.channel.ChannelRouter;
+import com.aston.channel.NotificationChannel;
+import com.aston.dto.UserEvent;
+import com.aston.mail.RelayUnavailableException;
+import com.aston.metrics.NotificationMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.mail.MailSendException;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class UserEventBatchConsumerTest {
+
+    private final FakeChannel email = new FakeChannel("email");
+    private final FakeChannel webhook = new FakeChannel("webhook");
+    private final ChannelRouter channelRouter = new ChannelRouter(List.of(email, webhook), Map.of(), Map.of(),
+            List.of("email", "webhook"), new SimpleMeterRegistry());
+    private final RetryTopicRouter retryRouter = mock(RetryTopicRouter.class);
+    private final Acknowledgment acknowledgment = mock(Acknowledgment.class);
+    private final UserEventBatchConsumer consumer = new UserEventBatchConsumer(
+            channelRouter, new NotificationMetrics(new SimpleMeterRegistry()), retryRouter);
+
+    @AfterEach
+    void tearDown() {
+        channelRouter.close();
+    }
+
+    @Test
+    void testOnlyFailedChannelsAreRoutedToRetry() {
+        email.failures.put(2L, new MailSendException("450 Try again later"));
+
+        ConsumerRecord<String, UserEvent> firstRecord = record(0, event(1L));
+        ConsumerRecord<String, UserEvent> secondRecord = record(1, event(2L));
+        consumer.handleUserEvents(List.of(firstRecord, secondRecord), acknowledgment);
+
+        ArgumentCaptor<Exception> cause = ArgumentCaptor.forClass(Exception.class);
+        verify(retryRouter, times(1)).route(eq(secondRecord), cause.capture());
+        verify(retryRouter, never()).route(eq(firstRecord), any());
+        assertThat(((ChannelDeliveryException) cause.getValue()).getFailedChannels()).containsExactly("email");
+        assertThat(webhook.ids).containsExactly(1L, 2L);
+        verify(acknowledgment, times(1)).acknowledge();
+    }
+
+    @Test
+    void testRejectedEventIsSkippedWithoutRetry() {
+        webhook.failures.put(1L, new IllegalArgumentException("400 Bad Request"));
+
+        consumer.handleUserEvents(List.of(record(0, event(1L))), acknowledgment);
+
+        verify(retryRouter, never()).route(any(), any());
+        assertThat(email.ids).containsExactly(1L);
+        verify(acknowledgment, times(1)).acknowledge();
+    }
+
+    @Test
+    void testDeferredEventsAreReadAgainOnlyForDeferredChannels() {
+        email.failures.put(1L, new MailSendException("550 Mailbox unavailable"));
+        email.failures.put(2L, new RelayUnavailableException("SMTP-релей недоступен", 5));
+        email.failures.put(3L, new MailSendException("550 Mailbox unavailable"));
+
+        ConsumerRecord<String, UserEvent> firstRecord = record(0, event(1L));
+        ConsumerRecord<String, UserEvent> secondRecord = record(1, event(2L));
+        ConsumerRecord<String, UserEvent> thirdRecord = record(2, event(3L));
+        consumer.handleUserEvents(List.of(firstRecord, secondRecord, thirdRecord), acknowledgment);
+
+        verify(retryRouter, times(1)).route(eq(firstRecord), any());
+        verify(retryRouter, times(1)).route(any(), any());
+        verify(acknowledgment, times(1)).nack(1, 5000);
+        verify(acknowledgment, never()).acknowledge();
+
+        email.failures.clear();
+        email.ids.clear();
+        webhook.ids.clear();
+        consumer.handleUserEvents(List.of(secondRecord, thirdRecord), acknowledgment);
+
+        assertThat(email.ids).containsExactly(2L, 3L);
+        assertThat(webhook.ids).isEmpty();
+        verify(acknowledgment, times(1)).acknowledge();
+    }
+
+    @Test
+    void testSkipsEmptyRecords() {
+        consumer.handleUserEvents(List.of(record(0, null)), acknowledgment);
+
+        assertThat(email.ids).isEmpty();
+        verify(retryRouter, never()).route(any(), any());
+        verify(acknowledgment, times(1)).acknowledge();
+    }
+
+    private static ConsumerRecord<String, UserEvent> record(long offset, UserEvent event) {
+        return new ConsumerRecord<>("user-events-topic", 0, offset, null, event);
+    }
+
+    private static UserEvent event(Long id) {
+        return UserEvent.builder()
+                .id(id)
+                .email("user" + id + "@example.com")
+                .eventType(UserEvent.EventType.USER_CREATED)
+                .build();
+    }
+
+    /**
+     * Запоминает id доставленных событий; события из failures не доставляет
+     */
+    private static class FakeChannel implements NotificationChannel {
+
+        final String name;
+        final Map<Long, Exception> failures = new HashMap<>();
+        final List<Long> ids = new CopyOnWriteArrayList<>();
+
+        FakeChannel(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Map<UserEvent, Exception> send(List<UserEvent> events) {
+            Map<UserEvent, Exception> failed = new IdentityHashMap<>();
+            for (UserEvent event : events) {
+                Exception cause = failures.get(event.getId());
+                if (cause != null) {
+                    failed.put(event, cause);
+                } else {
+                    ids.add(event.getId());
+                }
+            }
+            return failed;
+        }
+    }
+}
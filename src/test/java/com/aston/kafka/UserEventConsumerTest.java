@@ -0,0 +1,81 @@
+package com.aston.kafka;
+
+import com.aston.channel.ChannelRouter;
+import com.aston.channel.NotificationChannel;
+import com.aston.dto.UserEvent;
+import com.aston.metrics.NotificationMetrics;
+import com.aston.outbox.Outbox;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.mail.MailSendException;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class UserEventConsumerTest {
+
+    private final ChannelRouter channelRouter = new ChannelRouter(List.of(new FailingChannel()), Map.of(), Map.of(),
+            List.of("email"), new SimpleMeterRegistry());
+    private final RetryTopicRouter retryRouter = mock(RetryTopicRouter.class);
+    private final Acknowledgment acknowledgment = mock(Acknowledgment.class);
+    private final StaticListableBeanFactory beans = new StaticListableBeanFactory();
+    private final UserEventConsumer consumer = new UserEventConsumer(
+            new NotificationMetrics(new SimpleMeterRegistry()), retryRouter, channelRouter,
+            beans.getBeanProvider(KeyOrderedExecutor.class),
+            beans.getBeanProvider(Outbox.class),
+            beans.getBeanProvider(EventCoalescer.class));
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        channelRouter.close();
+        consumer.close();
+    }
+
+    @Test
+    void testFailedDeliveryIsPublishedOutsideChannelThreads() {
+        AtomicReference<String> publishedFrom = new AtomicReference<>();
+        when(retryRouter.routeUntilPublished(any(), any())).thenAnswer(invocation -> {
+            publishedFrom.set(Thread.currentThread().getName());
+            return "user-events-retry-topic";
+        });
+
+        ConsumerRecord<String, UserEvent> record = new ConsumerRecord<>("user-events-topic", 0, 0, null,
+                UserEvent.builder().id(1L).email("user1@example.com").eventType(UserEvent.EventType.USER_CREATED).build());
+        consumer.consume(record, acknowledgment);
+
+        verify(acknowledgment, timeout(5000)).acknowledge();
+        verify(retryRouter).routeUntilPublished(eq(record), any());
+        assertThat(publishedFrom.get()).startsWith("retry-publisher-");
+    }
+
+    /**
+     * Канал, не доставляющий ни одного уведомления
+     */
+    private static class FailingChannel implements NotificationChannel {
+
+        @Override
+        public String getName() {
+            return "email";
+        }
+
+        @Override
+        public Map<UserEvent, Exception> send(List<UserEvent> events) {
+            Map<UserEvent, Exception> failed = new IdentityHashMap<>();
+            for (UserEvent event : events) {
+                failed.put(event, new MailSendException("450 Try again later"));
+            }
+            return failed;
+        }
+    }
+}
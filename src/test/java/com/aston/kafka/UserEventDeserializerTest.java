@@ -0,0 +1,85 @@
+package com.aston.kafka;
+
+import com.aston.dto.UserEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UserEventDeserializerTest {
+
+    private static final String TOPIC = "user-events-topic";
+
+    private final UserEventDeserializer deserializer = new UserEventDeserializer();
+
+    @Test
+    void testJsonMatchesJacksonMapping() throws Exception {
+        UserEvent event = UserEvent.builder()
+                .id(42L)
+                .eventType(UserEvent.EventType.USER_DELETED)
+                .email("user@example.com")
+                .name("Пользователь \"42\"")
+                .build();
+        byte[] json = new ObjectMapper().writeValueAsBytes(event);
+
+        assertEquals(event, deserializer.deserialize(TOPIC, new RecordHeaders(), json));
+    }
+
+    @Test
+    void testJsonSkipsUnknownFieldsAndAcceptsStringId() {
+        byte[] json = ("{\"source\":{\"service\":\"users\",\"tags\":[1,2]},\"id\":\"7\"," +
+                "\"eventType\":\"USER_CREATED\",\"email\":\"a@example.com\",\"name\":null}")
+                .getBytes(StandardCharsets.UTF_8);
+
+        UserEvent event = deserializer.deserialize(TOPIC, json);
+
+        assertEquals(7L, event.getId());
+        assertSame(UserEvent.EventType.USER_CREATED, event.getEventType());
+        assertEquals("a@example.com", event.getEmail());
+        assertNull(event.getName());
+    }
+
+    @Test
+    void testFlatJsonIsParsedWithoutJackson() {
+        byte[] json = "{ \"id\": -5, \"eventType\": \"USER_DELETED\", \"email\": \"a@example.com\", \"name\": \"Иван\", \"v\": 2 }"
+                .getBytes(StandardCharsets.UTF_8);
+
+        UserEvent event = UserEventDeserializer.readFlatJson(json);
+
+        assertEquals(new UserEvent(UserEvent.EventType.USER_DELETED, "a@example.com", "Иван", -5L), event);
+        // Escape-последовательность и дробное число уходят парсеру Jackson
+        assertNull(UserEventDeserializer.readFlatJson("{\"name\":\"a\\\"b\"}".getBytes(StandardCharsets.UTF_8)));
+        assertNull(UserEventDeserializer.readFlatJson("{\"id\":1.5}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testUnknownEventTypeIsRejected() {
+        byte[] json = "{\"eventType\":\"USER_RENAMED\"}".getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(SerializationException.class, () -> deserializer.deserialize(TOPIC, json));
+    }
+
+    @Test
+    void testBinaryFormatSelectedByHeader() {
+        UserEvent event = UserEvent.builder()
+                .id(-1L)
+                .eventType(UserEvent.EventType.USER_CREATED)
+                .email("user@example.com")
+                .build();
+        Headers headers = new RecordHeaders().add(UserEventDeserializer.FORMAT_HEADER,
+                UserEventDeserializer.BINARY_FORMAT.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(event, deserializer.deserialize(TOPIC, headers, UserEventBinaryFormat.write(event)));
+        assertNull(deserializer.deserialize(TOPIC, headers, null));
+        assertThrows(SerializationException.class,
+                () -> deserializer.deserialize(TOPIC, headers, new byte[]{UserEventBinaryFormat.VERSION, 0x0F, 1}));
+    }
+}
@@ -0,0 +1,186 @@
+package com.aston.ledger;
+
+import com.aston.dto.UserEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeliveryLedgerTest {
+
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testDeliveriesSurviveRestart() throws Exception {
+        Path file = directory.resolve("ledger.log");
+
+        try (DeliveryLedger ledger = ledger(file, NOW)) {
+            ledger.markDelivered(event(1L, UserEvent.EventType.USER_CREATED));
+            for (long id = 100; id < 1000; id++) {
+                ledger.markDelivered(event(id, UserEvent.EventType.USER_DELETED));
+            }
+        }
+
+        try (DeliveryLedger ledger = ledger(file, NOW.plusSeconds(60))) {
+            assertTrue(ledger.isDelivered(event(1L, UserEvent.EventType.USER_CREATED)));
+            assertTrue(ledger.isDelivered(event(999L, UserEvent.EventType.USER_DELETED)));
+            assertFalse(ledger.isDelivered(event(1L, UserEvent.EventType.USER_DELETED)));
+            assertEquals(901, ledger.size());
+        }
+    }
+
+    @Test
+    void testEventsWithoutIdAreNotTracked() throws Exception {
+        try (DeliveryLedger ledger = ledger(null, NOW)) {
+            UserEvent event = UserEvent.builder()
+                    .email("user@example.com")
+                    .eventType(UserEvent.EventType.USER_CREATED)
+                    .build();
+            ledger.markDelivered(event);
+
+            assertFalse(ledger.isDelivered(event));
+            assertEquals(0, ledger.size());
+        }
+    }
+
+    @Test
+    void testCompactionDropsEntriesOutsideWindow() throws Exception {
+        Path file = directory.resolve("ledger.log");
+        try (DeliveryLedger ledger = ledger(file, NOW)) {
+            for (long id = 0; id < 100; id++) {
+                ledger.markDelivered(event(id, UserEvent.EventType.USER_CREATED));
+            }
+        }
+        try (DeliveryLedger ledger = ledger(file, NOW.plus(Duration.ofMinutes(45)))) {
+            ledger.markDelivered(event(500L, UserEvent.EventType.USER_CREATED));
+        }
+
+        // Через 1,5 часа при окне в 1 час первые сто отметок устарели
+        try (DeliveryLedger ledger = ledger(file, NOW.plus(Duration.ofMinutes(90)))) {
+            assertFalse(ledger.isDelivered(event(0L, UserEvent.EventType.USER_CREATED)));
+            assertTrue(ledger.isDelivered(event(500L, UserEvent.EventType.USER_CREATED)));
+            assertEquals(1, ledger.size());
+            ledger.compact();
+        }
+
+        assertEquals(LedgerLog.GROWTH_BYTES, Files.size(file));
+        try (LedgerLog log = new LedgerLog(file)) {
+            assertEquals(1, log.count());
+        }
+    }
+
+    @Test
+    void testIdsDifferingInHighBitsDoNotCollide() throws Exception {
+        try (DeliveryLedger ledger = ledger(null, NOW)) {
+            ledger.markDelivered(event(1L, UserEvent.EventType.USER_CREATED));
+
+            assertFalse(ledger.isDelivered(event(1L | (1L << 62), UserEvent.EventType.USER_CREATED)));
+            assertFalse(ledger.isDelivered(event(1L | Long.MIN_VALUE, UserEvent.EventType.USER_CREATED)));
+            assertTrue(ledger.isDelivered(event(1L, UserEvent.EventType.USER_CREATED)));
+        }
+    }
+
+    @Test
+    void testClaimLetsOnlyOneSenderThrough() throws Exception {
+        try (DeliveryLedger ledger = ledger(null, NOW)) {
+            UserEvent event = event(7L, UserEvent.EventType.USER_CREATED);
+
+            assertTrue(ledger.claim(event));
+            assertFalse(ledger.claim(event));
+            assertTrue(ledger.isDelivered(event));
+
+            ledger.release(event);
+            assertFalse(ledger.isDelivered(event));
+            assertTrue(ledger.claim(event));
+            ledger.markDelivered(event);
+            assertFalse(ledger.claim(event));
+            ledger.release(event);
+            assertTrue(ledger.isDelivered(event));
+        }
+    }
+
+    @Test
+    void testReleaseKeepsOtherKeysOfProbeChainReachable() throws Exception {
+        try (DeliveryLedger ledger = ledger(null, NOW)) {
+            for (long id = 0; id < 16; id++) {
+                assertTrue(ledger.claim(event(id, UserEvent.EventType.USER_CREATED)));
+            }
+            for (long id = 0; id < 16; id += 2) {
+                ledger.release(event(id, UserEvent.EventType.USER_CREATED));
+            }
+
+            for (long id = 0; id < 16; id++) {
+                assertEquals(id % 2 == 1, ledger.isDelivered(event(id, UserEvent.EventType.USER_CREATED)));
+            }
+            assertEquals(8, ledger.size());
+        }
+    }
+
+    @Test
+    void testOldestEntriesAreEvictedWhenFull() throws Exception {
+        Path file = directory.resolve("ledger.log");
+        MutableClock clock = new MutableClock(NOW);
+        try (DeliveryLedger ledger = new DeliveryLedger(file, Duration.ofHours(1), 16, 16, Duration.ZERO, clock)) {
+            for (long id = 0; id < 100; id++) {
+                clock.now = NOW.plusMillis(id);
+                ledger.markDelivered(event(id, UserEvent.EventType.USER_CREATED));
+            }
+
+            assertTrue(ledger.size() <= 16);
+            assertTrue(ledger.isDelivered(event(99L, UserEvent.EventType.USER_CREATED)));
+            assertFalse(ledger.isDelivered(event(0L, UserEvent.EventType.USER_CREATED)));
+        }
+        try (LedgerLog log = new LedgerLog(file)) {
+            assertTrue(log.count() <= 2 * 16);
+        }
+    }
+
+    private static DeliveryLedger ledger(Path file, Instant now) throws Exception {
+        return new DeliveryLedger(file, Duration.ofHours(1), 16, 1000, Duration.ZERO, Clock.fixed(now, ZoneOffset.UTC));
+    }
+
+    private static final class MutableClock extends Clock {
+
+        Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    private static UserEvent event(Long id, UserEvent.EventType type) {
+        return UserEvent.builder()
+                .id(id)
+                .email("user" + id + "@example.com")
+                .eventType(type)
+                .build();
+    }
+}
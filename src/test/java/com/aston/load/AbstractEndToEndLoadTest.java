@@ -0,0 +1,271 @@
+package com.aston.load;
+
+import com.aston.NotificationServiceApplication;
+import com.aston.dto.UserEvent;
+import com.aston.support.EmbeddedSmtpServer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Сквозная пропускная способность: события публикуются во встроенную Kafka, проходят
+ * потребителя профиля и EmailService и принимаются встроенным SMTP-сервером.
+ *
+ * Задержка письма - от публикации события до приема письма сервером, пропускная способность -
+ * число событий замера на время от первой публикации до последнего письма. Во время замера
+ * раз в 20 мс снимаются занятая куча и число потоков JVM. Сначала прогоняются события
+ * прогрева, они в замер не входят. Результат пишется в JSON-отчет
+ * load.report-dir/&lt;сценарий&gt;.json, параметры - в application-load.yml. Запуск: mvn -Pload test
+ */
+@Tag("load")
+@SpringBootTest(classes = NotificationServiceApplication.class)
+@EmbeddedKafka(partitions = AbstractEndToEndLoadTest.PARTITIONS, topics = AbstractEndToEndLoadTest.TOPIC,
+        bootstrapServersProperty = "spring.kafka.bootstrap-servers")
+abstract class AbstractEndToEndLoadTest {
+
+    static final String TOPIC = "user-events-topic";
+    static final int PARTITIONS = 4;
+
+    private static final EmbeddedSmtpServer SMTP = EmbeddedSmtpServer.start();
+
+    @DynamicPropertySource
+    static void smtpProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.mail.host", SMTP::getHost);
+        registry.add("spring.mail.port", SMTP::getPort);
+    }
+
+    @BeforeEach
+    void resetSmtp() {
+        SMTP.reset();
+    }
+
+    @Autowired
+    private KafkaTemplate<String, UserEvent> kafkaTemplate;
+
+    @Value("${load.events:2000}")
+    private int events;
+
+    @Value("${load.warmup-events:200}")
+    private int warmupEvents;
+
+    @Value("${load.smtp-latency:5ms}")
+    private Duration smtpLatency;
+
+    @Value("${load.timeout:120s}")
+    private Duration timeout;
+
+    @Value("${load.min-throughput:0}")
+    private double minThroughput;
+
+    @Value("${load.report-dir:target/load}")
+    private String reportDir;
+
+    @Value("${kafka.consumer.concurrency:1}")
+    private int concurrency;
+
+    @Value("${app.mail.executor.mode:inline}")
+    private String executorMode;
+
+    @Value("${app.mail.pool.size:4}")
+    private int poolSize;
+
+    @Value("${app.reactive.enabled:false}")
+    private boolean reactive;
+
+    @Value("${kafka.consumer.reactive.lanes:64}")
+    private int lanes;
+
+    private final Map<String, Long> publishedAt = new ConcurrentHashMap<>();
+
+    /**
+     * Имя сценария в отчете и имя файла отчета
+     */
+    protected abstract String scenario();
+
+    @Test
+    void measureKafkaToSmtpThroughput() throws Exception {
+        SMTP.withLatency(smtpLatency);
+
+        long[] measured = new long[events];
+        AtomicInteger received = new AtomicInteger();
+        AtomicLong lastReceivedAt = new AtomicLong();
+        SMTP.onMessage(message -> {
+            Long published = publishedAt.remove(message.getRecipients().get(0));
+            if (published != null) {
+                int index = received.getAndIncrement();
+                if (index < measured.length) {
+                    measured[index] = message.getReceivedAtNanos() - published;
+                }
+                lastReceivedAt.accumulateAndGet(message.getReceivedAtNanos(), Math::max);
+            }
+        });
+
+        publish(0, warmupEvents, false);
+        assertThat(SMTP.awaitMessages(warmupEvents, timeout))
+                .as("письма прогрева получены за %s", timeout)
+                .isTrue();
+
+        ResourceSampler sampler = new ResourceSampler();
+        long start = System.nanoTime();
+        publish(warmupEvents, events, true);
+        boolean completed = SMTP.awaitMessages(warmupEvents + events, timeout);
+        sampler.stop();
+
+        int delivered = Math.min(received.get(), events);
+        long[] sorted = Arrays.copyOf(measured, delivered);
+        Arrays.sort(sorted);
+        double seconds = (lastReceivedAt.get() - start) / 1e9;
+        double throughput = delivered > 0 ? delivered / seconds : 0;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("scenario", scenario());
+        result.put("timestamp", Instant.now().toString());
+        result.put("events", events);
+        result.put("delivered", delivered);
+        result.put("rejectedBySmtp", SMTP.getRejectedCount());
+        result.put("durationMs", round(seconds * 1000));
+        result.put("throughputPerSecond", round(throughput));
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("p50", percentile(sorted, 0.50));
+        latency.put("p90", percentile(sorted, 0.90));
+        latency.put("p99", percentile(sorted, 0.99));
+        latency.put("p999", percentile(sorted, 0.999));
+        latency.put("max", percentile(sorted, 1.0));
+        result.put("latencyMs", latency);
+        Map<String, Object> resources = new LinkedHashMap<>();
+        resources.put("heapBaselineMb", sampler.baselineHeapMb);
+        resources.put("heapPeakMb", sampler.peakHeapMb);
+        resources.put("heapGrowthMb", round(sampler.peakHeapMb - sampler.baselineHeapMb));
+        resources.put("threadsBaseline", sampler.baselineThreads);
+        resources.put("threadsPeak", sampler.peakThreads);
+        result.put("resources", resources);
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("partitions", PARTITIONS);
+        if (reactive) {
+            config.put("consumer", "reactor-kafka");
+            config.put("lanes", lanes);
+        } else {
+            config.put("consumer", "spring-kafka");
+            config.put("consumerConcurrency", concurrency);
+            config.put("executorMode", executorMode);
+        }
+        config.put("smtpPoolSize", poolSize);
+        config.put("smtpConnections", SMTP.getConnectionCount());
+        config.put("smtpLatencyMs", smtpLatency.toMillis());
+        config.put("warmupEvents", warmupEvents);
+        result.put("config", config);
+        writeReport(result);
+
+        assertThat(completed)
+                .as("все %d писем получены за %s, получено %d", events, timeout, delivered)
+                .isTrue();
+        assertThat(throughput).isGreaterThanOrEqualTo(minThroughput);
+    }
+
+    /**
+     * Публикует события USER_CREATED с id from..from+count-1, у каждого свой адрес получателя
+     */
+    private void publish(int from, int count, boolean measure) {
+        for (int i = from; i < from + count; i++) {
+            String email = "user" + i + "@load.test";
+            UserEvent event = UserEvent.builder()
+                    .id((long) i)
+                    .eventType(UserEvent.EventType.USER_CREATED)
+                    .email(email)
+                    .name("Пользователь " + i)
+                    .build();
+            if (measure) {
+                publishedAt.put(email, System.nanoTime());
+            }
+            kafkaTemplate.send(TOPIC, String.valueOf(i), event);
+        }
+        kafkaTemplate.flush();
+    }
+
+    private void writeReport(Map<String, Object> result) throws IOException {
+        Path dir = Paths.get(reportDir);
+        Files.createDirectories(dir);
+        Path path = dir.resolve(scenario() + ".json");
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(path.toFile(), result);
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return round(TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, index)]) / 1000.0);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    /**
+     * Снимает занятую кучу и число потоков, пока идет замер. Базовые значения - после сборки мусора
+     */
+    private static final class ResourceSampler {
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        private final double baselineHeapMb;
+        private final int baselineThreads;
+        private volatile double peakHeapMb;
+        private volatile int peakThreads;
+
+        ResourceSampler() {
+            System.gc();
+            this.baselineHeapMb = heapMb();
+            this.baselineThreads = threads.getThreadCount();
+            this.peakHeapMb = baselineHeapMb;
+            this.peakThreads = baselineThreads;
+            timer.scheduleAtFixedRate(this::sample, 0, 20, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() throws InterruptedException {
+            timer.shutdown();
+            timer.awaitTermination(1, TimeUnit.SECONDS);
+            sample();
+        }
+
+        private void sample() {
+            peakHeapMb = Math.max(peakHeapMb, heapMb());
+            peakThreads = Math.max(peakThreads, threads.getThreadCount());
+        }
+
+        private double heapMb() {
+            return round(memory.getHeapMemoryUsage().getUsed() / (1024.0 * 1024.0));
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.aston.load;
+
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ * Профиль MVC: события читает UserEventConsumer (@KafkaListener)
+ */
+@ActiveProfiles({"test", "load"})
+class EndToEndLoadTest extends AbstractEndToEndLoadTest {
+
+    @Override
+    protected String scenario() {
+        return "kafka-to-smtp-mvc";
+    }
+}
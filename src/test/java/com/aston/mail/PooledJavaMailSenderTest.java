@@ -0,0 +1,87 @@
+package com.aston.mail;
+
+import com.aston.support.EmbeddedSmtpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+
+import java.time.Duration;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+class PooledJavaMailSenderTest {
+
+    private EmbeddedSmtpServer smtp;
+    private PooledJavaMailSender sender;
+
+    @BeforeEach
+    void setUp() {
+        smtp = EmbeddedSmtpServer.start();
+        sender = new PooledJavaMailSender(2, 100, Duration.ofMinutes(1), Duration.ofSeconds(10), Duration.ofSeconds(5));
+        sender.setHost(smtp.getHost());
+        sender.setPort(smtp.getPort());
+        sender.setDefaultEncoding("UTF-8");
+        Properties props = sender.getJavaMailProperties();
+        props.put("mail.smtp.auth", "false");
+        props.put("mail.smtp.starttls.enable", "false");
+    }
+
+    @AfterEach
+    void tearDown() {
+        sender.destroy();
+        smtp.close();
+    }
+
+    @Test
+    void testSendsOverSingleConnection() {
+        for (int i = 0; i < 20; i++) {
+            sender.send(message("user" + i + "@example.com", "Письмо " + i));
+        }
+
+        assertThat(smtp.getReceivedCount()).isEqualTo(20);
+        assertThat(smtp.getConnectionCount()).isEqualTo(1);
+        assertThat(smtp.getMessages().get(7).getRecipients()).containsExactly("user7@example.com");
+        assertThat(smtp.getMessages().get(7).getSubject()).isEqualTo("Письмо 7");
+    }
+
+    @Test
+    void testRejectedMessageKeepsConnection() {
+        smtp.failNext(1, 451);
+
+        MailSendException failure = catchThrowableOfType(
+                () -> sender.send(message("user@example.com", "Отказ")), MailSendException.class);
+        sender.send(message("user@example.com", "Повтор"));
+
+        assertThat(SendScheduler.smtpReply(failure)).isEqualTo(451);
+        assertThat(smtp.getMessages()).extracting(EmbeddedSmtpServer.ReceivedMessage::getSubject)
+                .containsExactly("Повтор");
+        assertThat(smtp.getConnectionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void testDroppedConnectionIsReplaced() {
+        sender.send(message("user@example.com", "Первое"));
+        smtp.dropNext(1);
+
+        catchThrowableOfType(() -> sender.send(message("user@example.com", "Разрыв")), MailSendException.class);
+        sender.send(message("user@example.com", "После разрыва"));
+
+        assertThat(smtp.getMessages()).extracting(EmbeddedSmtpServer.ReceivedMessage::getSubject)
+                .containsExactly("Первое", "После разрыва");
+        assertThat(smtp.getConnectionCount()).isEqualTo(2);
+        assertThat(smtp.getRejectedCount()).isEqualTo(1);
+    }
+
+    private static SimpleMailMessage message(String to, String subject) {
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom("noreply@example.com");
+        message.setTo(to);
+        message.setSubject(subject);
+        message.setText("Текст письма");
+        return message;
+    }
+}
@@ -0,0 +1,79 @@
+package com.aston.mail;
+
+import com.aston.dto.UserEvent;
+import com.aston.metrics.NotificationMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PriorityLanesTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<String> executed = new ArrayList<>();
+
+    @Test
+    void testLanesAreServedByWeight() {
+        PriorityLanes lanes = lanes(4);
+        for (int i = 0; i < 4; i++) {
+            offer(lanes, Priority.BULK, "b" + i);
+        }
+        for (int i = 0; i < 4; i++) {
+            offer(lanes, Priority.HIGH, "h" + i);
+        }
+
+        drain(lanes);
+
+        // За обход high отдает две задачи, bulk - одну, и bulk не голодает
+        assertEquals(List.of("h0", "h1", "b0", "h2", "h3", "b1", "b2", "b3"), executed);
+        assertEquals(0, lanes.size());
+    }
+
+    @Test
+    void testFullLaneRejectsOnlyItsOwnTasks() {
+        PriorityLanes lanes = lanes(2);
+        assertTrue(offer(lanes, Priority.BULK, "b0"));
+        assertTrue(offer(lanes, Priority.BULK, "b1"));
+        assertFalse(offer(lanes, Priority.BULK, "b2"));
+        assertTrue(offer(lanes, Priority.HIGH, "h0"));
+
+        assertEquals(2, registry.get("notification.priority.depth").tag("lane", "bulk").gauge().value());
+        drain(lanes);
+        assertEquals(List.of("h0", "b0", "b1"), executed);
+        assertEquals(3, registry.get("notification.priority.wait").timers().stream()
+                .mapToLong(timer -> timer.count()).sum());
+    }
+
+    @Test
+    void testEventTypesMapToConfiguredLanes() {
+        PriorityLanes lanes = lanes(1);
+        assertEquals(Priority.HIGH, lanes.priorityOf(UserEvent.EventType.USER_DELETED));
+        assertEquals(Priority.NORMAL, lanes.priorityOf(UserEvent.EventType.USER_CREATED));
+        assertEquals(Priority.NORMAL, lanes.priorityOf(null));
+        assertEquals(Priority.HIGH, lanes.getRestPriority());
+    }
+
+    private PriorityLanes lanes(int capacity) {
+        return new PriorityLanes(Map.of(Priority.HIGH, 2, Priority.NORMAL, 1, Priority.BULK, 1), capacity,
+                Map.of(UserEvent.EventType.USER_DELETED, Priority.HIGH), Priority.HIGH,
+                new NotificationMetrics(registry));
+    }
+
+    private boolean offer(PriorityLanes lanes, Priority priority, String name) {
+        return lanes.offer(priority, 1, () -> executed.add(name));
+    }
+
+    private static void drain(PriorityLanes lanes) {
+        for (Runnable task; (task = lanes.poll()) != null; ) {
+            task.run();
+        }
+        assertNull(lanes.poll());
+    }
+}
@@ -0,0 +1,93 @@
+package com.aston.mail;
+
+import com.aston.metrics.NotificationMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.MailSendException;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RelayGuardTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    // Размыкатель открывается надолго, пробная отправка включается вручную
+    private final RelayGuard guard = new RelayGuard(4, 1, 8, Duration.ofSeconds(5), 0.5, 3,
+            Duration.ofHours(1), Duration.ofMillis(10), new NotificationMetrics(registry));
+
+    @AfterEach
+    void tearDown() {
+        guard.close();
+    }
+
+    @Test
+    void testLimitGrowsAdditivelyAndShrinksMultiplicatively() {
+        for (int i = 0; i < 20; i++) {
+            guard.execute(() -> { });
+        }
+        assertEquals(7, guard.getLimit());
+
+        assertThrows(MailSendException.class, () -> guard.execute(RelayGuardTest::relayDown));
+        assertEquals(3, guard.getLimit());
+        assertEquals(RelayGuard.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    void testBreakerOpensAfterConsecutiveRelayFailuresAndClosesAfterProbe() {
+        AtomicInteger attempts = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            assertThrows(MailSendException.class, () -> guard.execute(() -> {
+                attempts.incrementAndGet();
+                relayDown();
+            }));
+        }
+        assertEquals(RelayGuard.State.OPEN, guard.getState());
+
+        // Открытый размыкатель отказывает, не обращаясь к релею
+        assertThrows(RelayUnavailableException.class, () -> guard.execute(attempts::incrementAndGet));
+        assertEquals(3, attempts.get());
+
+        guard.halfOpen();
+        assertEquals(RelayGuard.State.HALF_OPEN, guard.getState());
+        guard.execute(attempts::incrementAndGet);
+        assertEquals(RelayGuard.State.CLOSED, guard.getState());
+        assertEquals(1.0, registry.get("notification.relay.rejected").counter().count());
+    }
+
+    @Test
+    void testRecipientRejectionsDoNotTripBreaker() {
+        for (int i = 0; i < 5; i++) {
+            assertThrows(MailSendException.class, () -> guard.execute(() -> {
+                throw new MailSendException("550 5.1.1 User unknown");
+            }));
+        }
+        assertEquals(RelayGuard.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    void testReservedSlotIsUsedBySendOrReturned() {
+        for (int i = 0; i < 4; i++) {
+            guard.reserve();
+            assertEquals(1, guard.getInFlight());
+            // Повторное резервирование в том же потоке не занимает второе место
+            guard.reserve();
+            assertEquals(1, guard.getInFlight());
+            guard.execute(() -> assertEquals(1, guard.getInFlight()));
+            assertEquals(0, guard.getInFlight());
+        }
+
+        guard.reserve();
+        guard.cancelReservation();
+        guard.cancelReservation();
+        assertEquals(0, guard.getInFlight());
+    }
+
+    private static void relayDown() {
+        throw new MailSendException("Mail server connection failed", new java.net.ConnectException("Connection refused"));
+    }
+}
@@ -0,0 +1,109 @@
+package com.aston.mail;
+
+import com.aston.metrics.NotificationMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SendSchedulerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void testBucketQueuesRequestsBeyondBurst() {
+        TokenBucket bucket = new TokenBucket(10, 2, 0.1);
+        long now = 0;
+
+        assertEquals(now, bucket.reserve(now, now + SECOND));
+        assertEquals(now, bucket.reserve(now, now + SECOND));
+        // Третье письмо - через интервал 100 мс, четвертое - еще через 100 мс
+        assertEquals(now + SECOND / 10, bucket.reserve(now, now + SECOND));
+        assertEquals(now + 2 * SECOND / 10, bucket.reserve(now, now + SECOND));
+        // Разрешение позже дедлайна не резервируется
+        assertEquals(-1, bucket.reserve(now, now + SECOND / 10));
+        assertEquals(now + 3 * SECOND / 10, bucket.reserve(now, now + SECOND));
+    }
+
+    @Test
+    void testBucketSlowsDownAndRecoversGradually() {
+        TokenBucket bucket = new TokenBucket(10, 1, 0.1);
+
+        bucket.slowDown();
+        bucket.slowDown();
+        bucket.slowDown();
+        bucket.slowDown();
+        assertEquals(1.0, bucket.getRate(), 0.01);
+
+        bucket.recover();
+        assertEquals(1.5, bucket.getRate(), 0.01);
+        for (int i = 0; i < 100; i++) {
+            bucket.recover();
+        }
+        assertEquals(10.0, bucket.getRate(), 0.01);
+    }
+
+    @Test
+    void testCancelledPermitIsReturned() {
+        TokenBucket bucket = new TokenBucket(10, 1, 0.1);
+        long now = 0;
+
+        assertEquals(now, bucket.reserve(now, now + SECOND));
+        bucket.cancel();
+        // Разрешение, не использованное из-за отказа релея, достается следующему письму
+        assertEquals(now, bucket.reserve(now, now + SECOND));
+        assertEquals(now + SECOND / 10, bucket.reserve(now, now + SECOND));
+    }
+
+    @Test
+    void testDeferrableSendIsDeferredInsteadOfParked() {
+        JavaMailSender mailSender = mock(JavaMailSender.class);
+        SendScheduler scheduler = new SendScheduler(mailSender, new NotificationMetrics(new SimpleMeterRegistry()),
+                true, 1, 1, 100, 100, new String[0], 0.1, Duration.ofSeconds(60), Duration.ZERO, (RelayGuard) null);
+        scheduler.sendOrDefer(message("first@example.com"));
+
+        SendDeferredException deferred = assertThrows(SendDeferredException.class,
+                () -> scheduler.sendOrDefer(message("second@example.com")));
+        assertTrue(deferred.getRetryAfterMillis() > 0);
+        verify(mailSender, times(1)).send(any(SimpleMailMessage.class));
+    }
+
+    @Test
+    void testThrottlingReplySlowsDownRelay() {
+        JavaMailSender mailSender = mock(JavaMailSender.class);
+        SendScheduler scheduler = new SendScheduler(mailSender, new NotificationMetrics(new SimpleMeterRegistry()),
+                true, 20, 20, 5, 5, new String[]{"gmail.com=10"}, 0.1, Duration.ofSeconds(5));
+        doThrow(new MailSendException("421 4.7.0 Try again later"))
+                .when(mailSender).send(any(SimpleMailMessage.class));
+
+        assertThrows(MailSendException.class, () -> scheduler.send(message("user@gmail.com")));
+        assertEquals(10.0, scheduler.getRelayRate(), 0.01);
+    }
+
+    @Test
+    void testSmtpReplyIsFoundInFailedMessages() {
+        MailSendException greylisted = new MailSendException(
+                Map.of(message("user@example.com"), new Exception("450 4.2.0 Greylisted")));
+
+        assertEquals(450, SendScheduler.smtpReply(greylisted));
+        assertEquals(0, SendScheduler.smtpReply(new MailSendException("Connection refused")));
+        assertEquals(421, SendScheduler.smtpReply(new RuntimeException("x", new Exception("421 busy"))));
+    }
+
+    private static SimpleMailMessage message(String to) {
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setTo(to);
+        return message;
+    }
+}
@@ -0,0 +1,121 @@
+package com.aston.mail;
+
+import com.aston.mail.SmtpTransportPool.PooledTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+class SmtpTransportPoolTest {
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private SmtpTransportPool pool;
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    void testReusesReleasedConnection() throws MessagingException {
+        pool = newPool(2, 100);
+
+        PooledTransport first = pool.borrow();
+        pool.release(first);
+        PooledTransport second = pool.borrow();
+
+        assertThat(second).isSameAs(first);
+        assertThat(connections).hasValue(1);
+    }
+
+    @Test
+    void testRecyclesConnectionAfterMessageLimit() throws MessagingException {
+        pool = newPool(1, 2);
+
+        PooledTransport transport = pool.borrow();
+        transport.markSent();
+        transport.markSent();
+        pool.release(transport);
+
+        PooledTransport next = pool.borrow();
+
+        assertThat(next).isNotSameAs(transport);
+        verify(transport.getTransport()).close();
+        assertThat(connections).hasValue(2);
+    }
+
+    @Test
+    void testBorrowFailsWhenPoolExhausted() throws MessagingException {
+        pool = newPool(1, 100);
+
+        pool.borrow();
+
+        assertThatThrownBy(() -> pool.borrow()).isInstanceOf(MessagingException.class);
+    }
+
+    @Test
+    void testInvalidatedConnectionFreesSlot() throws MessagingException {
+        pool = newPool(1, 100);
+
+        PooledTransport broken = pool.borrow();
+        pool.invalidate(broken);
+        PooledTransport next = pool.borrow();
+
+        assertThat(next).isNotSameAs(broken);
+        assertThat(pool.getAvailablePermits()).isZero();
+    }
+
+    @Test
+    void testWarmUpOpensAllSlotsInParallel() throws Exception {
+        pool = new SmtpTransportPool(() -> {
+            connections.incrementAndGet();
+            try {
+                // TCP, STARTTLS и AUTH медленного релея
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Transport transport = mock(Transport.class);
+            when(transport.isConnected()).thenReturn(true);
+            return transport;
+        }, 4, 100, Duration.ofMinutes(1), Duration.ofSeconds(10), Duration.ofMillis(50));
+        PooledTransport borrowed = pool.borrow();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            long start = System.nanoTime();
+            assertThat(SmtpPoolWarmUp.warmUp(pool, executor).get(5, TimeUnit.SECONDS)).isEqualTo(3);
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(900);
+
+            // Пул полон: занятое соединение и три прогретых
+            assertThat(pool.getIdleCount()).isEqualTo(3);
+            assertThat(pool.getAvailablePermits()).isEqualTo(3);
+            assertThat(SmtpPoolWarmUp.warmUp(pool, executor).get(5, TimeUnit.SECONDS)).isZero();
+            pool.release(borrowed);
+            for (int i = 0; i < 4; i++) {
+                pool.borrow();
+            }
+            assertThat(connections).hasValue(4);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private SmtpTransportPool newPool(int size, int maxMessages) {
+        return new SmtpTransportPool(() -> {
+            connections.incrementAndGet();
+            Transport transport = mock(Transport.class);
+            when(transport.isConnected()).thenReturn(true);
+            return transport;
+        }, size, maxMessages, Duration.ofMinutes(1), Duration.ofSeconds(10), Duration.ofMillis(50));
+    }
+}
@@ -0,0 +1,182 @@
+package com.aston.outbox;
+
+import com.aston.dto.UserEvent;
+import com.aston.metrics.NotificationMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class OutboxTest {
+
+    private static final int SEGMENT_BYTES = 4096;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testUndeliveredEventsAreReplayedAfterRestart() throws Exception {
+        try (Outbox outbox = outbox()) {
+            outbox.submit(event(1L));
+            outbox.submit(event(2L));
+            outbox.submit(event(3L));
+            outbox.delivered(outbox.poll(0, TimeUnit.MILLISECONDS));
+        }
+
+        try (Outbox outbox = outbox()) {
+            assertEquals(2, outbox.getPending());
+            assertEquals(2L, outbox.poll(0, TimeUnit.MILLISECONDS).getEvent().getId());
+            assertEquals(3L, outbox.poll(0, TimeUnit.MILLISECONDS).getEvent().getId());
+            assertNull(outbox.poll(0, TimeUnit.MILLISECONDS));
+            // Номера продолжаются после прочитанных из журнала
+            assertEquals(4L, outbox.submit(event(4L)).getSequence());
+        }
+    }
+
+    @Test
+    void testCompactionDeletesDeliveredSegmentsAndRelocatesStragglers() throws Exception {
+        try (Outbox outbox = outbox()) {
+            for (long id = 1; id <= 200; id++) {
+                outbox.submit(event(id));
+            }
+            List<Outbox.Entry> entries = drain(outbox);
+            // Все, кроме первого события, отправлены: оно переносится в активный сегмент
+            for (Outbox.Entry entry : entries.subList(1, entries.size())) {
+                outbox.delivered(entry);
+            }
+            int segments = outbox.getSegments();
+
+            assertEquals(segments - 1, outbox.compact());
+            assertEquals(1, outbox.getSegments());
+            assertEquals(1, segmentFiles());
+        }
+
+        try (Outbox outbox = outbox()) {
+            assertEquals(1, outbox.getPending());
+            assertEquals(1L, outbox.poll(0, TimeUnit.MILLISECONDS).getEvent().getId());
+        }
+    }
+
+    @Test
+    void testTornRecordAtTailIsIgnored() throws Exception {
+        try (Outbox outbox = outbox()) {
+            outbox.submit(event(1L));
+            outbox.submit(event(2L));
+        }
+        // Портим последний байт второй записи: ее контрольная сумма не сходится
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            int first = readInt(file, 0);
+            int second = readInt(file, first);
+            int last = first + second - 1;
+            file.seek(last);
+            int value = file.read();
+            file.seek(last);
+            file.write(value ^ 0xFF);
+        }
+
+        try (Outbox outbox = outbox()) {
+            assertEquals(1, outbox.getPending());
+            assertEquals(2L, outbox.submit(event(3L)).getSequence());
+        }
+        try (Outbox outbox = outbox()) {
+            assertEquals(2, outbox.getPending());
+        }
+    }
+
+    @Test
+    void testRecordsAfterTornRecordAreNotResurrected() throws Exception {
+        try (Outbox outbox = outbox()) {
+            outbox.submit(event(1L));
+            outbox.submit(event(2L));
+            outbox.submit(event(3L));
+        }
+        // Портим вторую запись: третья остается в файле за ней
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            int first = readInt(file, 0);
+            file.seek(first + 4);
+            file.writeInt(~readInt(file, first + 4));
+        }
+
+        try (Outbox outbox = outbox()) {
+            assertEquals(1, outbox.getPending());
+            // Новая запись той же длины встает на место испорченной, сразу перед старой третьей
+            outbox.submit(event(4L));
+        }
+        try (Outbox outbox = outbox()) {
+            assertEquals(2, outbox.getPending());
+        }
+    }
+
+    @Test
+    void testAsyncSubmitCompletesAfterSync() throws Exception {
+        try (Outbox outbox = outbox()) {
+            List<CompletableFuture<Outbox.Entry>> submitted = new ArrayList<>();
+            for (long id = 1; id <= 10; id++) {
+                submitted.add(outbox.submitAsync(event(id)));
+            }
+            for (CompletableFuture<Outbox.Entry> future : submitted) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(10, drain(outbox).size());
+        }
+
+        try (Outbox outbox = outbox()) {
+            assertEquals(10, outbox.getPending());
+        }
+    }
+
+    private Outbox outbox() throws Exception {
+        return new Outbox(directory, SEGMENT_BYTES, 10_000, Duration.ofSeconds(1), Duration.ZERO,
+                new ObjectMapper(), new NotificationMetrics(new SimpleMeterRegistry()));
+    }
+
+    private static List<Outbox.Entry> drain(Outbox outbox) throws InterruptedException {
+        List<Outbox.Entry> entries = new ArrayList<>();
+        Outbox.Entry entry;
+        while ((entry = outbox.poll(0, TimeUnit.MILLISECONDS)) != null) {
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private long segmentFiles() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static int readInt(RandomAccessFile file, long position) throws Exception {
+        file.seek(position);
+        return file.readInt();
+    }
+
+    private static UserEvent event(Long id) {
+        return UserEvent.builder()
+                .id(id)
+                .eventType(UserEvent.EventType.USER_CREATED)
+                .email("user" + id + "@example.com")
+                .name("User " + id)
+                .build();
+    }
+}
@@ -0,0 +1,118 @@
+package com.aston.service;
+
+import com.aston.dto.BatchItemResult;
+import com.aston.dto.BatchItemResult.Status;
+import com.aston.dto.UserEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class BatchEmailServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final EmailService emailService = mock(EmailService.class);
+    private final BatchEmailService batchEmailService = new BatchEmailService(
+            emailService, objectMapper, Validation.buildDefaultValidatorFactory().getValidator(), 2, 100);
+
+    @Test
+    void testArrayItemsAreValidatedAndSentInChunks() throws Exception {
+        when(emailService.createMessage(any())).thenAnswer(invocation -> {
+            SimpleMailMessage message = new SimpleMailMessage();
+            message.setTo(invocation.<UserEvent>getArgument(0).getEmail());
+            return message;
+        });
+        when(emailService.sendBatch(anyList())).thenAnswer(invocation -> {
+            List<SimpleMailMessage> messages = invocation.getArgument(0);
+            return messages.stream()
+                    .filter(message -> message.getTo()[0].startsWith("bounce"))
+                    .collect(Collectors.toMap(message -> message,
+                            message -> (Exception) new MailSendException("550 No such user")));
+        });
+
+        List<BatchItemResult> results = process("[" +
+                "{\"toEmail\":\"a@example.com\",\"userName\":\"A\"}," +
+                "{\"toEmail\":\"not-an-email\"}," +
+                "{\"toEmail\":\"bounce@example.com\"}," +
+                "{\"toEmail\":\"c@example.com\"}" +
+                "]");
+
+        assertEquals(4, results.size());
+        assertEquals(Status.SENT, results.get(0).getStatus());
+        assertEquals(Status.INVALID, results.get(1).getStatus());
+        assertTrue(results.get(1).getError().startsWith("toEmail"));
+        assertEquals(Status.FAILED, results.get(2).getStatus());
+        assertEquals(Status.SENT, results.get(3).getStatus());
+        assertEquals(3, results.get(3).getIndex());
+        // Порции по два элемента: [a, invalid] и [bounce, c]
+        verify(emailService, times(2)).sendBatch(anyList());
+    }
+
+    @Test
+    void testNdjsonWithMalformedTailReportsError() throws Exception {
+        when(emailService.createMessage(any())).thenReturn(new SimpleMailMessage());
+        when(emailService.sendBatch(anyList())).thenReturn(Map.of());
+
+        List<BatchItemResult> results = process(
+                "{\"toEmail\":\"a@example.com\"}\n" +
+                "{\"toEmail\":\"b@example.com\"}\n" +
+                "{\"toEmail\": ");
+
+        assertEquals(3, results.size());
+        assertEquals(Status.SENT, results.get(1).getStatus());
+        assertEquals(Status.ERROR, results.get(2).getStatus());
+        assertEquals(2, results.get(2).getIndex());
+    }
+
+    @Test
+    void testEqualMessagesGetTheirOwnResults() throws Exception {
+        when(emailService.createMessage(any())).thenAnswer(invocation -> {
+            SimpleMailMessage message = new SimpleMailMessage();
+            message.setTo(invocation.<UserEvent>getArgument(0).getEmail());
+            return message;
+        });
+        // Первая порция не отправлена, вторая отправлена
+        when(emailService.sendBatch(anyList())).thenAnswer(invocation -> {
+            List<SimpleMailMessage> messages = invocation.getArgument(0);
+            return messages.stream().collect(Collectors.toMap(message -> message,
+                    message -> (Exception) new MailSendException("421 Try again later")));
+        }).thenReturn(Map.of());
+
+        List<BatchItemResult> results = process("[" +
+                "{\"toEmail\":\"a@example.com\",\"eventType\":\"USER_DELETED\"}," +
+                "{\"toEmail\":\"a@example.com\",\"eventType\":\"USER_DELETED\"}" +
+                "]");
+
+        assertEquals(Status.FAILED, results.get(0).getStatus());
+        assertEquals(Status.SENT, results.get(1).getStatus());
+        verify(emailService, times(2)).sendBatch(anyList());
+        verify(emailService, times(2)).createMessage(argThat(event ->
+                event.getEventType() == UserEvent.EventType.USER_DELETED));
+    }
+
+    private List<BatchItemResult> process(String body) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batchEmailService.process(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), out);
+
+        List<BatchItemResult> results = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            results.add(objectMapper.readValue(line, BatchItemResult.class));
+        }
+        return results;
+    }
+}
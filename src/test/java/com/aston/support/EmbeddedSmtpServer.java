@@ -0,0 +1,426 @@
+package com.aston.support;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * SMTP-сервер в процессе теста: принимает письма на случайном порту loopback и сохраняет их.
+ *
+ * Понимает EHLO/HELO, MAIL, RCPT, DATA, RSET, NOOP и QUIT без AUTH и STARTTLS, поэтому
+ * отправителю нужны mail.smtp.auth=false и mail.smtp.starttls.enable=false. Задержка latency
+ * добавляется перед ответом на DATA и имитирует медленный релей. Ответ на DATA можно подменить
+ * ошибкой (4xx/5xx) или разрывом соединения: для следующих писем по порядку или для доли
+ * случайных писем
+ */
+public class EmbeddedSmtpServer implements AutoCloseable {
+
+    /**
+     * Принятое письмо
+     */
+    public static final class ReceivedMessage {
+
+        private static final Session SESSION = Session.getInstance(new Properties());
+
+        private final String from;
+        private final List<String> recipients;
+        private final byte[] data;
+        private final long receivedAtNanos;
+
+        ReceivedMessage(String from, List<String> recipients, byte[] data, long receivedAtNanos) {
+            this.from = from;
+            this.recipients = recipients;
+            this.data = data;
+            this.receivedAtNanos = receivedAtNanos;
+        }
+
+        public String getFrom() {
+            return from;
+        }
+
+        public List<String> getRecipients() {
+            return recipients;
+        }
+
+        /**
+         * Время приема по System.nanoTime()
+         */
+        public long getReceivedAtNanos() {
+            return receivedAtNanos;
+        }
+
+        public MimeMessage toMimeMessage() {
+            try {
+                return new MimeMessage(SESSION, new ByteArrayInputStream(data));
+            } catch (MessagingException e) {
+                throw new IllegalStateException("Не удалось разобрать принятое письмо", e);
+            }
+        }
+
+        public String getSubject() {
+            try {
+                return toMimeMessage().getSubject();
+            } catch (MessagingException e) {
+                throw new IllegalStateException("Не удалось прочитать тему письма", e);
+            }
+        }
+    }
+
+    private static final int DROP = -1;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private final List<ReceivedMessage> messages = Collections.synchronizedList(new ArrayList<>());
+    private final List<Consumer<ReceivedMessage>> listeners = new ArrayList<>();
+    private final Deque<Integer> scriptedFaults = new ArrayDeque<>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicInteger rejectedCount = new AtomicInteger();
+
+    private volatile long latencyMillis;
+    private volatile double faultRate;
+    private volatile int faultReply;
+    private volatile boolean closed;
+
+    private EmbeddedSmtpServer() throws IOException {
+        this.serverSocket = new ServerSocket(0, 200, InetAddress.getLoopbackAddress());
+        this.connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "embedded-smtp");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.connections.execute(this::acceptLoop);
+    }
+
+    /**
+     * Запускает сервер на свободном порту
+     */
+    public static EmbeddedSmtpServer start() {
+        try {
+            return new EmbeddedSmtpServer();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть порт SMTP", e);
+        }
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public EmbeddedSmtpServer withLatency(Duration latency) {
+        this.latencyMillis = latency.toMillis();
+        return this;
+    }
+
+    /**
+     * Следующие count писем получают ответ reply (например, 451 или 550) вместо 250
+     */
+    public EmbeddedSmtpServer failNext(int count, int reply) {
+        synchronized (scriptedFaults) {
+            for (int i = 0; i < count; i++) {
+                scriptedFaults.add(reply);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * На следующие count писем сервер не отвечает и закрывает соединение
+     */
+    public EmbeddedSmtpServer dropNext(int count) {
+        return failNext(count, DROP);
+    }
+
+    /**
+     * Доля случайных писем, получающих ответ reply; отрицательный reply - разрыв соединения
+     */
+    public EmbeddedSmtpServer withFaultRate(double rate, int reply) {
+        this.faultReply = reply;
+        this.faultRate = rate;
+        return this;
+    }
+
+    /**
+     * Вызывается в потоке соединения для каждого принятого письма
+     */
+    public EmbeddedSmtpServer onMessage(Consumer<ReceivedMessage> listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+        return this;
+    }
+
+    public List<ReceivedMessage> getMessages() {
+        synchronized (messages) {
+            return new ArrayList<>(messages);
+        }
+    }
+
+    public int getReceivedCount() {
+        return messages.size();
+    }
+
+    /**
+     * Письма, получившие ошибку или разрыв соединения
+     */
+    public int getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Сколько SMTP-соединений было открыто
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Ждет, пока сервер примет count писем
+     */
+    public boolean awaitMessages(int count, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (messages) {
+            while (messages.size() < count) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(messages, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Забывает принятые письма и подписчиков, сбрасывает задержку и ошибки
+     */
+    public void reset() {
+        messages.clear();
+        synchronized (listeners) {
+            listeners.clear();
+        }
+        synchronized (scriptedFaults) {
+            scriptedFaults.clear();
+        }
+        latencyMillis = 0;
+        faultRate = 0;
+        rejectedCount.set(0);
+        connectionCount.set(0);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+            // сервер уже остановлен
+        }
+        openSockets.forEach(EmbeddedSmtpServer::closeQuietly);
+        connections.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                connectionCount.incrementAndGet();
+                openSockets.add(socket);
+                connections.execute(() -> {
+                    try {
+                        handle(socket);
+                    } catch (IOException e) {
+                        // клиент закрыл соединение
+                    } finally {
+                        openSockets.remove(socket);
+                        closeQuietly(socket);
+                    }
+                });
+            } catch (SocketException e) {
+                return;
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+        OutputStream out = socket.getOutputStream();
+        reply(out, "220 localhost ESMTP embedded");
+
+        String from = null;
+        List<String> recipients = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+            switch (command) {
+                case "EHLO":
+                    reply(out, "250-localhost\r\n250-8BITMIME\r\n250 PIPELINING");
+                    break;
+                case "HELO":
+                    reply(out, "250 localhost");
+                    break;
+                case "MAIL":
+                    from = address(line);
+                    recipients = new ArrayList<>();
+                    reply(out, "250 2.1.0 Ok");
+                    break;
+                case "RCPT":
+                    if (from == null) {
+                        reply(out, "503 5.5.1 MAIL first");
+                    } else {
+                        recipients.add(address(line));
+                        reply(out, "250 2.1.5 Ok");
+                    }
+                    break;
+                case "DATA":
+                    if (recipients.isEmpty()) {
+                        reply(out, "503 5.5.1 RCPT first");
+                        break;
+                    }
+                    reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                    byte[] data = readData(in);
+                    if (!accept(out, from, recipients, data)) {
+                        return;
+                    }
+                    from = null;
+                    recipients = new ArrayList<>();
+                    break;
+                case "RSET":
+                    from = null;
+                    recipients = new ArrayList<>();
+                    reply(out, "250 2.0.0 Ok");
+                    break;
+                case "NOOP":
+                    reply(out, "250 2.0.0 Ok");
+                    break;
+                case "QUIT":
+                    reply(out, "221 2.0.0 Bye");
+                    return;
+                default:
+                    reply(out, "502 5.5.2 Command not recognized");
+            }
+        }
+    }
+
+    /**
+     * Отвечает на письмо и сохраняет его
+     *
+     * @return false, если соединение нужно разорвать
+     */
+    private boolean accept(OutputStream out, String from, List<String> recipients, byte[] data) throws IOException {
+        sleep(latencyMillis);
+        int fault = nextFault();
+        if (fault == DROP) {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        if (fault != 0) {
+            rejectedCount.incrementAndGet();
+            reply(out, fault + (fault < 500 ? " 4.3.0 Temporary failure" : " 5.7.1 Message rejected"));
+            return true;
+        }
+
+        ReceivedMessage message = new ReceivedMessage(from, Collections.unmodifiableList(recipients), data, System.nanoTime());
+        List<Consumer<ReceivedMessage>> current;
+        synchronized (listeners) {
+            current = new ArrayList<>(listeners);
+        }
+        current.forEach(listener -> listener.accept(message));
+        synchronized (messages) {
+            messages.add(message);
+            messages.notifyAll();
+        }
+        reply(out, "250 2.0.0 Ok: queued");
+        return true;
+    }
+
+    private int nextFault() {
+        synchronized (scriptedFaults) {
+            Integer scripted = scriptedFaults.poll();
+            if (scripted != null) {
+                return scripted;
+            }
+        }
+        double rate = faultRate;
+        if (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate) {
+            return faultReply < 0 ? DROP : faultReply;
+        }
+        return 0;
+    }
+
+    private static byte[] readData(BufferedReader in) throws IOException {
+        StringBuilder data = new StringBuilder(1024);
+        String line;
+        while ((line = in.readLine()) != null && !line.equals(".")) {
+            // Точка в начале строки удваивается отправителем (RFC 5321, 4.5.2)
+            data.append(line.startsWith("..") ? line.substring(1) : line).append("\r\n");
+        }
+        if (line == null) {
+            throw new IOException("Соединение закрыто во время DATA");
+        }
+        return data.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String address(String line) {
+        int start = line.indexOf('<');
+        int end = line.indexOf('>', start + 1);
+        return start >= 0 && end > start ? line.substring(start + 1, end) : line.substring(line.indexOf(':') + 1).trim();
+    }
+
+    private static void reply(OutputStream out, String reply) throws IOException {
+        out.write((reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private static void sleep(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // соединение уже закрыто
+        }
+    }
+}
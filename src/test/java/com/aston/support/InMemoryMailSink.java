@@ -0,0 +1,113 @@
+package com.aston.support;
+
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessagePreparator;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JavaMailSender, который никуда не отправляет письма, а только считает их
+ * и при необходимости сохраняет для проверок. Задержка latency имитирует SMTP-диалог
+ */
+public class InMemoryMailSink implements JavaMailSender {
+
+    private final Session session = Session.getInstance(new Properties());
+    private final boolean capture;
+    private final long latencyMillis;
+    private final AtomicLong sent = new AtomicLong();
+    private final List<SimpleMailMessage> messages = Collections.synchronizedList(new ArrayList<>());
+
+    public InMemoryMailSink(boolean capture) {
+        this(capture, Duration.ZERO);
+    }
+
+    public InMemoryMailSink(boolean capture, Duration latency) {
+        this.capture = capture;
+        this.latencyMillis = latency.toMillis();
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public List<SimpleMailMessage> getMessages() {
+        return messages;
+    }
+
+    @Override
+    public void send(SimpleMailMessage simpleMessage) {
+        simulateLatency();
+        sent.incrementAndGet();
+        if (capture) {
+            messages.add(simpleMessage);
+        }
+    }
+
+    @Override
+    public void send(SimpleMailMessage... simpleMessages) {
+        for (SimpleMailMessage message : simpleMessages) {
+            send(message);
+        }
+    }
+
+    @Override
+    public MimeMessage createMimeMessage() {
+        return new MimeMessage(session);
+    }
+
+    @Override
+    public MimeMessage createMimeMessage(InputStream contentStream) {
+        try {
+            return new MimeMessage(session, contentStream);
+        } catch (Exception e) {
+            throw new MailPreparationException("Не удалось прочитать письмо", e);
+        }
+    }
+
+    @Override
+    public void send(MimeMessage mimeMessage) {
+        sent.incrementAndGet();
+    }
+
+    @Override
+    public void send(MimeMessage... mimeMessages) {
+        sent.addAndGet(mimeMessages.length);
+    }
+
+    private void simulateLatency() {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void send(MimeMessagePreparator mimeMessagePreparator) {
+        send(new MimeMessagePreparator[]{mimeMessagePreparator});
+    }
+
+    @Override
+    public void send(MimeMessagePreparator... mimeMessagePreparators) {
+        for (MimeMessagePreparator preparator : mimeMessagePreparators) {
+            try {
+                preparator.prepare(createMimeMessage());
+            } catch (Exception e) {
+                throw new MailPreparationException(e);
+            }
+            sent.incrementAndGet();
+        }
+    }
+}
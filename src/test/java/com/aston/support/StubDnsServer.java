@@ -0,0 +1,216 @@
+package com.aston.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DNS-сервер в процессе теста: отвечает по UDP на loopback записями MX и A из заданной зоны.
+ *
+ * Имя вне зоны получает NXDOMAIN, имя без записей запрошенного типа - пустой ответ,
+ * имя из silent - не получает ответа (таймаут клиента). Запрос ANY возвращает все записи имени
+ */
+public class StubDnsServer implements AutoCloseable {
+
+    private static final int TYPE_A = 1;
+    private static final int TYPE_MX = 15;
+    private static final int TYPE_ANY = 255;
+
+    private static final class Record {
+
+        final int type;
+        final byte[] data;
+
+        Record(int type, byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    private final DatagramSocket socket;
+    private final Thread thread;
+    private final Map<String, List<Record>> zone = new ConcurrentHashMap<>();
+    private final Set<String> silent = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger queryCount = new AtomicInteger();
+
+    private StubDnsServer() throws SocketException {
+        this.socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        this.thread = new Thread(this::serve, "stub-dns");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Запускает сервер на свободном порту
+     */
+    public static StubDnsServer start() {
+        try {
+            return new StubDnsServer();
+        } catch (SocketException e) {
+            throw new UncheckedIOException("Не удалось открыть порт DNS", e);
+        }
+    }
+
+    /**
+     * URL для провайдера DNS JNDI
+     */
+    public String getUrl() {
+        return "dns://" + socket.getLocalAddress().getHostAddress() + ":" + socket.getLocalPort();
+    }
+
+    public int getQueryCount() {
+        return queryCount.get();
+    }
+
+    public StubDnsServer mx(String name, int preference, String host) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(preference >> 8);
+        data.write(preference);
+        writeName(data, host);
+        return add(name, new Record(TYPE_MX, data.toByteArray()));
+    }
+
+    /**
+     * Null MX (RFC 7505): домен не принимает почту
+     */
+    public StubDnsServer nullMx(String name) {
+        return mx(name, 0, "");
+    }
+
+    public StubDnsServer a(String name, String address) {
+        try {
+            return add(name, new Record(TYPE_A, InetAddress.getByName(address).getAddress()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Имя без записей: запросы получают пустой ответ, а не NXDOMAIN
+     */
+    public StubDnsServer empty(String name) {
+        zone.computeIfAbsent(key(name), ignored -> new ArrayList<>());
+        return this;
+    }
+
+    /**
+     * Запросы имени остаются без ответа
+     */
+    public StubDnsServer silent(String name) {
+        silent.add(key(name));
+        return this;
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+        thread.interrupt();
+    }
+
+    private StubDnsServer add(String name, Record record) {
+        zone.computeIfAbsent(key(name), ignored -> new ArrayList<>()).add(record);
+        return this;
+    }
+
+    private void serve() {
+        byte[] buffer = new byte[512];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+                queryCount.incrementAndGet();
+                byte[] response = respond(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+                if (response != null) {
+                    socket.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+                }
+            } catch (IOException e) {
+                // сокет закрыт
+            }
+        }
+    }
+
+    private byte[] respond(ByteBuffer query) {
+        int id = query.getShort(0) & 0xFFFF;
+        query.position(12);
+        StringBuilder name = new StringBuilder();
+        for (int length = query.get() & 0xFF; length > 0; length = query.get() & 0xFF) {
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            for (int i = 0; i < length; i++) {
+                name.append((char) query.get());
+            }
+        }
+        int type = query.getShort() & 0xFFFF;
+        query.getShort();
+        int questionEnd = query.position();
+
+        String key = key(name.toString());
+        if (silent.contains(key)) {
+            return null;
+        }
+        List<Record> records = zone.get(key);
+        List<Record> answers = new ArrayList<>();
+        if (records != null) {
+            for (Record record : records) {
+                if (type == TYPE_ANY || record.type == type) {
+                    answers.add(record);
+                }
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeShort(out, id);
+        // QR, RD, RA и код ответа: 0 - NOERROR, 3 - NXDOMAIN
+        writeShort(out, 0x8180 | (records == null ? 3 : 0));
+        writeShort(out, 1);
+        writeShort(out, answers.size());
+        writeShort(out, 0);
+        writeShort(out, 0);
+        out.write(query.array(), query.arrayOffset() + 12, questionEnd - 12);
+        for (Record record : answers) {
+            // Имя ответа - ссылка на вопрос по смещению 12
+            writeShort(out, 0xC00C);
+            writeShort(out, record.type);
+            writeShort(out, 1);
+            writeShort(out, 0);
+            writeShort(out, 60);
+            writeShort(out, record.data.length);
+            out.write(record.data, 0, record.data.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeName(ByteArrayOutputStream out, String name) {
+        if (!name.isEmpty()) {
+            for (String label : name.split("\\.")) {
+                out.write(label.length());
+                out.write(label.getBytes(StandardCharsets.US_ASCII), 0, label.length());
+            }
+        }
+        out.write(0);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    private static String key(String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        return key.endsWith(".") ? key.substring(0, key.length() - 1) : key;
+    }
+}
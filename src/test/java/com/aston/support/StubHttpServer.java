@@ -0,0 +1,75 @@
+package com.aston.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * HTTP-сервер в процессе теста: принимает запросы на loopback, запоминает их тела
+ * и отвечает заданным кодом статуса
+ */
+public class StubHttpServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private volatile int status = 200;
+
+    private StubHttpServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    /**
+     * Запускает сервер на свободном порту
+     */
+    public static StubHttpServer start() {
+        try {
+            return new StubHttpServer();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось открыть порт HTTP", e);
+        }
+    }
+
+    public URI getUri(String path) {
+        return URI.create("http://" + server.getAddress().getAddress().getHostAddress()
+                + ":" + server.getAddress().getPort() + path);
+    }
+
+    /**
+     * Код статуса следующих ответов
+     */
+    public StubHttpServer respond(int status) {
+        this.status = status;
+        return this;
+    }
+
+    /**
+     * Тела принятых запросов
+     */
+    public List<String> getBodies() {
+        return bodies;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            bodies.add(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,112 @@
+package com.aston.suppression;
+
+import com.aston.address.AddressValidator;
+import com.aston.exception.InvalidAddressException;
+import com.aston.exception.InvalidAddressException.Reason;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SuppressionIndexTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testAddRemoveAndGrowInMemory() throws Exception {
+        try (SuppressionIndex index = SuppressionIndex.open(null, 16)) {
+            assertThat(index.add("Bounced@Example.com")).isTrue();
+            assertThat(index.add("bounced@example.COM")).isFalse();
+            assertThat(index.contains("bounced@example.com")).isTrue();
+            assertThat(index.contains("other@example.com")).isFalse();
+
+            for (int i = 0; i < 5000; i++) {
+                index.add("user" + i + "@example.com");
+            }
+            assertThat(index.size()).isEqualTo(5001);
+            assertThat(index.capacity()).isGreaterThanOrEqualTo(8192);
+
+            for (int i = 0; i < 5000; i += 2) {
+                assertThat(index.remove("user" + i + "@example.com")).isTrue();
+            }
+            assertThat(index.remove("user0@example.com")).isFalse();
+            // Надгробия не обрывают цепочки пробирования
+            for (int i = 0; i < 5000; i++) {
+                assertThat(index.contains("user" + i + "@example.com")).isEqualTo(i % 2 == 1);
+            }
+            assertThat(index.size()).isEqualTo(2501);
+
+            // Повторное добавление и удаление не растит таблицу бесконечно
+            int capacity = index.capacity();
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < 1000; i++) {
+                    index.add("churn" + i + "@example.com");
+                }
+                for (int i = 0; i < 1000; i++) {
+                    index.remove("churn" + i + "@example.com");
+                }
+            }
+            assertThat(index.capacity()).isEqualTo(capacity);
+            assertThat(index.size()).isEqualTo(2501);
+        }
+    }
+
+    @Test
+    void testReopensMappedFileAndRecountsAfterCrash() throws Exception {
+        Path file = directory.resolve("suppression.idx");
+        try (SuppressionIndex index = SuppressionIndex.open(file, 100)) {
+            assertThat(index.isFresh()).isTrue();
+            for (int i = 0; i < 3000; i++) {
+                index.add("user" + i + "@example.com");
+            }
+            index.remove("user7@example.com");
+        }
+        assertThat(Files.list(directory)).containsExactly(file);
+
+        SuppressionIndex crashed = SuppressionIndex.open(file, 100);
+        assertThat(crashed.isFresh()).isFalse();
+        assertThat(crashed.size()).isEqualTo(2999);
+        assertThat(crashed.contains("user2999@example.com")).isTrue();
+        assertThat(crashed.contains("user7@example.com")).isFalse();
+        crashed.add("late@example.com");
+        crashed.flush();
+        // Без close флаг dirty остается, размер пересчитывается по слотам
+
+        try (SuppressionIndex index = SuppressionIndex.open(file, 100)) {
+            assertThat(index.size()).isEqualTo(3000);
+            assertThat(index.contains("late@example.com")).isTrue();
+        }
+    }
+
+    @Test
+    void testRejectsForeignFile() throws Exception {
+        Path file = directory.resolve("foreign.idx");
+        Files.write(file, new byte[128]);
+
+        assertThatThrownBy(() -> SuppressionIndex.open(file, 100))
+                .hasMessageContaining("не является списком подавления");
+    }
+
+    @Test
+    void testValidatorRejectsSuppressedRecipients() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        try (SuppressionIndex index = SuppressionIndex.open(null, 16)) {
+            index.add("unsubscribed@пример.рф");
+            AddressValidator validator = new AddressValidator(null, index, Set.of(), registry);
+
+            assertThat(validator.validate("user@example.com")).isEqualTo("user@example.com");
+            assertThatThrownBy(() -> validator.validate(" Unsubscribed@ПРИМЕР.рф"))
+                    .isInstanceOfSatisfying(InvalidAddressException.class,
+                            e -> assertThat(e.getReason()).isEqualTo(Reason.SUPPRESSED));
+            assertThat(registry.get("notification.address.rejected").tag("reason", "suppressed").counter().count())
+                    .isEqualTo(1);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.aston.template;
+
+import com.aston.dto.UserEvent;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EmailTemplateRegistryTest {
+
+    private static final String SITE_URL = "https://kakoi-site.com";
+
+    @Test
+    void testUserCreatedTemplateMatchesFormattedText() throws IOException {
+        EmailTemplate template = new EmailTemplateRegistry("ru").get(UserEvent.EventType.USER_CREATED);
+
+        assertThat(template.getSubject().render(event(UserEvent.EventType.USER_CREATED, "Иван"), SITE_URL))
+                .isEqualTo("Добро пожаловать!");
+        assertThat(template.getBody().render(event(UserEvent.EventType.USER_CREATED, null), SITE_URL))
+                .isEqualTo(String.format("Здравствуйте, %s!\n\nВаш аккаунт на сайте %s был успешно создан.\n\n"
+                        + "С уважением,\nКоманда поддержки", "пользователь", SITE_URL));
+    }
+
+    @Test
+    void testUserDeletedTemplateAddsNameOnlyWhenPresent() throws IOException {
+        EmailTemplate template = new EmailTemplateRegistry("ru").get(UserEvent.EventType.USER_DELETED);
+
+        assertThat(template.getBody().render(event(UserEvent.EventType.USER_DELETED, "Иван"), SITE_URL))
+                .startsWith("Здравствуйте, Иван!\n\n");
+        assertThat(template.getBody().render(event(UserEvent.EventType.USER_DELETED, null), SITE_URL))
+                .startsWith("Здравствуйте!\n\n");
+    }
+
+    @Test
+    void testUnknownVariableFailsAtCompileTime() {
+        assertThatThrownBy(() -> CompiledTemplate.compile("Привет, {{login}}!"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static UserEvent event(UserEvent.EventType eventType, String name) {
+        return UserEvent.builder()
+                .eventType(eventType)
+                .email("user@example.com")
+                .name(name)
+                .build();
+    }
+}